@@ -20,17 +20,14 @@
 package ubc.pavlab.gotrack.analysis;
 
 import com.google.common.base.Predicates;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import gnu.trove.map.hash.TObjectDoubleHashMap;
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.apache.log4j.Logger;
-import ubc.pavlab.gotrack.model.hashkey.HyperUCFKey;
 
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.stream.Collectors;
 
 /**
  * Runs over-representation analysis (enrichment) on given sample and population data.
@@ -62,6 +59,12 @@ public class Enrichment<T, G> {
 
     private Set<T> significantTerms;
 
+    // Significant terms and their ranks in order of rank
+    @Getter(AccessLevel.NONE)
+    private List<T> significantTermsByRank = Collections.emptyList();
+    @Getter(AccessLevel.NONE)
+    private int[] significantRanks = new int[0];
+
     private Set<T> rejectedTerms;
 
     private int calculations;
@@ -80,7 +83,7 @@ public class Enrichment<T, G> {
     }
 
     protected boolean runAnalysis( CompletePopulation<T, G> sample, Population<T> population,
-            TObjectDoubleHashMap<HyperUCFKey> logProbCache ) {
+            HyperGeometricMemo logProbCache ) {
         return runAnalysis( sample, population, sample.getProperties(), logProbCache );
     }
 
@@ -93,22 +96,14 @@ public class Enrichment<T, G> {
     }
 
     protected boolean runAnalysis( CompletePopulation<T, G> sample, Population<T> population, Set<T> tests,
-            TObjectDoubleHashMap<HyperUCFKey> logProbCache ) {
+            HyperGeometricMemo logProbCache ) {
 
         if ( logProbCache == null ) {
-            // Log Probability Memoization Cache
-            logProbCache = new TObjectDoubleHashMap<>();
+            // Log Probability Memoization Cache for this analysis only
+            logProbCache = new HyperGeometricMemo( HyperGeometricMemo.DEFAULT_CAPACITY );
         }
 
-        // Used to test for no entry in memoization cache
-        double noEntryValue = logProbCache.getNoEntryValue();
-
-        this.samplePopulation = sample;
-        this.results = Maps.newHashMap();
-        this.cutoff = 0;
-        this.significantTerms = Sets.newHashSet();
-        this.rejectedTerms = Sets.newHashSet();
-        this.calculations = 0;
+        setEmpty( sample );
 
         int sampleSize = sample.size();
         int populationSize = population.size();
@@ -129,17 +124,9 @@ public class Enrichment<T, G> {
             } else {
                 tested.add( t );
 
-                // Combined map key
-                HyperUCFKey key = new HyperUCFKey( sampleAnnotated, populationAnnotated, sampleSize,
-                        populationSize );
-
                 // Get log probability from memoization cache or compute it
-                double p = logProbCache.get( key );
-                if ( p == noEntryValue ) {
-                    p = fishersExactTest( sampleAnnotated, populationAnnotated, sampleSize, populationSize );
-                    // Cache result
-                    logProbCache.put( key, p );
-                }
+                double p = logProbCache.upperCumulativeProbability( sampleAnnotated, populationAnnotated, sampleSize,
+                        populationSize );
 
                 results.put( t,
                         new EnrichmentResult( p, sampleAnnotated, populationAnnotated, sampleSize, populationSize ) );
@@ -159,88 +146,27 @@ public class Enrichment<T, G> {
             return false;
         }
 
-        // Holds terms sorted by p-value
-        LinkedHashSet<T> termsSortedByRank = results.entrySet().stream()
-                .sorted( Comparator.comparingDouble( c -> c.getValue().getPvalue() ) )
-                .map( Entry::getKey )
-                .collect( Collectors.toCollection( LinkedHashSet::new ) );
-
-        // We keep track of the cutoff p-value, set to some useful initial value
-        double cutoff;
-        if ( multipleTestCorrectionMethod.equals( MultipleTestCorrection.BH ) ) {
-            // set lowest pvalue as cutoff for now;
-            cutoff = results.get( termsSortedByRank.iterator().next() ).getPvalue();
-        } else {
-            cutoff = threshold;
-        }
-
-        // Containers
-        int rank = -1;
-        int k = 0;
-        EnrichmentResult previousResult = null;
-        Set<T> maybePile = Sets.newHashSet();
-        Map<Integer, List<T>> standardRanks = Maps.newHashMap();
-
-        /*
-         * Loops through each term in order of p-value and compute rank, significance based on chosen method
-         */
-        for ( T term : termsSortedByRank ) {
-            k++;
-            EnrichmentResult er = results.get( term );
-            if ( multipleTestCorrectionMethod.equals( MultipleTestCorrection.BONFERRONI ) ) {
-                if ( er.getPvalue() * testSetSize <= threshold ) { // Check bonferroni correction against threshold
-                    sig.add( term );
-                }
-
-            } else if ( multipleTestCorrectionMethod.equals( MultipleTestCorrection.BH ) ) {
-                // Single pass method of BH step-up
-                double qTresh = ( k ) * threshold / testSetSize;
-                if ( er.getPvalue() <= qTresh ) {
-                    // add this term and all terms in maybe pile
-                    cutoff = er.getPvalue(); //update cutoff
-                    sig.add( term );
-                    if ( !maybePile.isEmpty() ) {
-                        sig.addAll( maybePile );
-                        maybePile.clear();
-                    }
-                } else {
-                    // add this term to the maybe pile
-                    maybePile.add( term );
-                }
-            } else {
-                throw new RuntimeException( "This should never happen!" );
-            }
-
-            // ranks
-
-            if ( !er.equals( previousResult ) ) {
-                rank = k - 1;
-            }
-            List<T> termSet = standardRanks.get( rank );
-            if ( termSet == null ) {
-                termSet = Lists.newArrayList();
-                standardRanks.put( rank, termSet );
-            }
-            termSet.add( term );
-            er.setRank( rank );
-            previousResult = er;
+        // Tests in the iteration order of the results, equal p-values keep this order when ranked
+        List<T> terms = new ArrayList<>( testSetSize );
+        double[] pvalues = new double[testSetSize];
+        long[] tables = new long[testSetSize];
+        for ( Entry<T, EnrichmentResult> entry : results.entrySet() ) {
+            EnrichmentResult er = entry.getValue();
+            pvalues[terms.size()] = er.getPvalue();
+            // Results are equal, and share a rank, when their contingency tables are
+            tables[terms.size()] = ( (long) er.getSampleAnnotated() << 32 ) | er.getPopulationAnnotated();
+            terms.add( entry.getKey() );
         }
 
-        // Set significance
-        for ( T t : sig ) {
-            EnrichmentResult er = results.get( t );
-            er.setSignificant( true );
-        }
-
-        // Compute fractional Ranks
-
-        for ( Entry<Integer, List<T>> rankEntry : standardRanks.entrySet() ) {
-            int standardRank = rankEntry.getKey();
-            List<T> termSet = rankEntry.getValue();
-            double newRank = standardRank + ( termSet.size() - 1 ) / 2.0;
-            for ( T term : termSet ) {
-                EnrichmentResult er = results.get( term );
-                er.setFractionalRank( newRank );
+        RankedTests ranked = RankedTests.rank( pvalues, tables, multipleTestCorrectionMethod, threshold );
+        double cutoff = ranked.getCutoff();
+        for ( int i = 0; i < testSetSize; i++ ) {
+            EnrichmentResult er = results.get( terms.get( i ) );
+            er.setRank( ranked.getRank( i ) );
+            er.setFractionalRank( ranked.getFractionalRank( i ) );
+            if ( ranked.isSignificant( i ) ) {
+                er.setSignificant( true );
+                sig.add( terms.get( i ) );
             }
         }
 
@@ -249,21 +175,122 @@ public class Enrichment<T, G> {
         this.significantTerms = Collections.unmodifiableSet( sig );
         this.rejectedTerms = Collections.unmodifiableSet( rejected );
         this.countTestedTerms = testSetSize;
+        indexTopTerms( terms, ranked );
 
         complete = true;
         return true;
     }
 
-    private double fishersExactTest( int sampleAnnotated, int populationAnnotated, int sampleSize,
-            int populationSize ) {
-        return HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( sampleAnnotated, populationAnnotated,
-                sampleSize, populationSize );
+    /**
+     * Copy of this analysis under another multiple test correction method or threshold, computed from the stored
+     * p-values without running any tests. Ranks depend only on p-values and are kept, significance and cutoff are
+     * recomputed. This analysis and its results are left untouched.
+     *
+     * @param  method    method of multiple test correction
+     * @param  threshold Either p-value cutoff if using Bonferroni or FDR level if using BH step-up
+     * @return           re-corrected copy
+     */
+    public Enrichment<T, G> withCorrection( MultipleTestCorrection method, double threshold ) {
+        Enrichment<T, G> corrected = new Enrichment<>( method, threshold, populationMin, populationMax );
+        if ( !complete ) {
+            corrected.setEmpty( samplePopulation );
+            return corrected;
+        }
+
+        // In order of rank, which is also an order of p-value in which tied results are adjacent
+        List<Entry<T, EnrichmentResult>> sorted = new ArrayList<>( results.entrySet() );
+        sorted.sort( Comparator.comparingInt( e -> e.getValue().getRank() ) );
+
+        int n = sorted.size();
+        List<T> terms = new ArrayList<>( n );
+        int[] order = new int[n];
+        double[] pvalues = new double[n];
+        long[] ranks = new long[n];
+        for ( int i = 0; i < n; i++ ) {
+            terms.add( sorted.get( i ).getKey() );
+            order[i] = i;
+            pvalues[i] = sorted.get( i ).getValue().getPvalue();
+            ranks[i] = sorted.get( i ).getValue().getRank();
+        }
+        RankedTests ranked = RankedTests.rank( pvalues, order, ranks, method, threshold );
+
+        Map<T, EnrichmentResult> correctedResults = new HashMap<>( 2 * n );
+        Set<T> sig = new HashSet<>( 2 * ranked.getSignificantCount() );
+        for ( int i = 0; i < n; i++ ) {
+            EnrichmentResult er = sorted.get( i ).getValue();
+            EnrichmentResult copy = new EnrichmentResult( er.getPvalue(), er.getSampleAnnotated(),
+                    er.getPopulationAnnotated(), er.getSampleSize(), er.getPopulationSize() );
+            copy.setRank( er.getRank() );
+            copy.setFractionalRank( er.getFractionalRank() );
+            if ( ranked.isSignificant( i ) ) {
+                copy.setSignificant( true );
+                sig.add( terms.get( i ) );
+            }
+            correctedResults.put( terms.get( i ), copy );
+        }
+
+        corrected.setComputed( samplePopulation, correctedResults, terms, ranked, sig, rejectedTerms,
+                countTestedTerms );
+        return corrected;
     }
 
     void setThreshold( double t ) {
         threshold = t;
     }
 
+    /**
+     * Reset to the state of an analysis in which all tests were rejected.
+     */
+    void setEmpty( CompletePopulation<T, G> sample ) {
+        this.samplePopulation = sample;
+        this.results = Maps.newHashMap();
+        this.cutoff = 0;
+        this.significantTerms = Sets.newHashSet();
+        this.rejectedTerms = Sets.newHashSet();
+        this.calculations = 0;
+        this.significantTermsByRank = Collections.emptyList();
+        this.significantRanks = new int[0];
+    }
+
+    /**
+     * Store results computed outside of {@link #runAnalysis(CompletePopulation, Population, Set, HyperGeometricMemo)},
+     * ranks and significance must already be set on each result.
+     *
+     * @param tests  tested terms, by their index in the ranking
+     * @param ranked ranking of the tests
+     */
+    void setComputed( CompletePopulation<T, G> sample, Map<T, EnrichmentResult> results, List<T> tests,
+            RankedTests ranked, Set<T> significantTerms, Set<T> rejectedTerms, int countTestedTerms ) {
+        this.samplePopulation = sample;
+        this.results = Collections.unmodifiableMap( results );
+        this.cutoff = ranked.getCutoff();
+        this.significantTerms = Collections.unmodifiableSet( significantTerms );
+        this.rejectedTerms = Collections.unmodifiableSet( rejectedTerms );
+        this.calculations = countTestedTerms;
+        this.countTestedTerms = countTestedTerms;
+        indexTopTerms( tests, ranked );
+        this.complete = true;
+    }
+
+    /**
+     * Significant terms in the order of the ranking, so that the top N terms are always a prefix.
+     *
+     * @param tests  tested terms, by their index in the ranking
+     * @param ranked ranking of the tests
+     */
+    private void indexTopTerms( List<T> tests, RankedTests ranked ) {
+        int significant = ranked.getSignificantCount();
+        List<T> byRank = new ArrayList<>( significant );
+        int[] ranks = new int[significant];
+        for ( int k = 0; k < significant; k++ ) {
+            int test = ranked.testAt( k );
+            byRank.add( tests.get( test ) );
+            ranks[k] = ranked.getRank( test );
+        }
+        this.significantTermsByRank = byRank;
+        this.significantRanks = ranks;
+    }
+
     /**
      * @return unmodifiable map containing only significant results
      */
@@ -285,7 +312,8 @@ public class Enrichment<T, G> {
      * @return Top N terms
      */
     public Set<T> getTopNTerms( int n ) {
-        return significantTerms.stream().filter( t -> getResult( t ).getRank() < n ).collect( Collectors.toSet() );
+        int count = RankedTests.countBelow( significantRanks, significantRanks.length, n );
+        return new HashSet<>( significantTermsByRank.subList( 0, count ) );
     }
 
 }
@@ -21,17 +21,18 @@ package ubc.pavlab.gotrack.analysis;
 
 import com.google.common.base.Predicates;
 import com.google.common.collect.Maps;
-import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.apache.log4j.Logger;
 import ubc.pavlab.gotrack.beans.Cache;
+import ubc.pavlab.gotrack.model.AnnotationCounts;
 import ubc.pavlab.gotrack.model.Edition;
 import ubc.pavlab.gotrack.model.Gene;
 import ubc.pavlab.gotrack.model.Species;
 import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
-import ubc.pavlab.gotrack.model.hashkey.HyperUCFKey;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /**
  * Runs enrichment analysis over all editions given geneset data and term population data.
@@ -60,12 +61,6 @@ public class EnrichmentAnalysis {
     // Holds those unmodifiable terms which are significant in any edition (used to create useful graphing views)
     private Set<GeneOntologyTerm> termsSignificantInAnyEdition = new HashSet<>();
 
-    // ********************
-    // Log Probability Memoization Cache
-    private TObjectDoubleHashMap<HyperUCFKey> logProbCache = new TObjectDoubleHashMap<>();
-
-    // ********************
-
     /**
      * Runs analysis with given options and data. All relevant information is set here as there are no plans to make an
      * EnrichmentAnalysis re-runnable. If you must run with different settings, simply create a new instance (though
@@ -82,6 +77,69 @@ public class EnrichmentAnalysis {
     public EnrichmentAnalysis( Map<Edition, Map<GeneOntologyTerm, Set<Gene>>> geneGOMap, int min, int max,
                                MultipleTestCorrection test, double threshold,
                                Cache cache, Species currentSpecies ) {
+        this( geneGOMap, min, max, test, threshold, cache, currentSpecies, null );
+    }
+
+    /**
+     * Same as {@link #EnrichmentAnalysis(Map, int, int, MultipleTestCorrection, double, Cache, Species)} with the
+     * editions analysed concurrently in the given pool. Results are identical to the sequential analysis.
+     *
+     * @param pool pool to run editions in, null to run them sequentially in the calling thread
+     */
+    public EnrichmentAnalysis( Map<Edition, Map<GeneOntologyTerm, Set<Gene>>> geneGOMap, int min, int max,
+                               MultipleTestCorrection test, double threshold,
+                               Cache cache, Species currentSpecies, ForkJoinPool pool ) {
+        this( geneGOMap, min, max, test, threshold, cache, currentSpecies, pool, false,
+                new HyperGeometricMemo( HyperGeometricMemo.DEFAULT_CAPACITY ) );
+    }
+
+    private EnrichmentAnalysis( EnrichmentAnalysis analysis, Map<Edition, Enrichment<GeneOntologyTerm, Gene>> results,
+                                double threshold ) {
+        this.currentSpecies = analysis.currentSpecies;
+        this.minAnnotatedPopulation = analysis.minAnnotatedPopulation;
+        this.maxAnnotatedPopulation = analysis.maxAnnotatedPopulation;
+        this.totalEditions = analysis.totalEditions;
+        this.totalGenes = analysis.totalGenes;
+        this.totalTerms = analysis.totalTerms;
+        this.totalResults = analysis.totalResults;
+
+        Set<GeneOntologyTerm> termsSignificantInAnyEdition = new HashSet<>();
+        for ( Enrichment<GeneOntologyTerm, Gene> enrichment : results.values() ) {
+            termsSignificantInAnyEdition.addAll( enrichment.getSignificantTerms() );
+        }
+
+        this.rawResults = Collections.unmodifiableMap( results );
+        this.termsSignificantInAnyEdition = Collections.unmodifiableSet( termsSignificantInAnyEdition );
+        this.threshold = threshold;
+    }
+
+    /**
+     * Copy of this analysis under another multiple test correction method or threshold. Stored p-values are reused, so
+     * each edition costs a sort of its results instead of a new round of tests. This analysis is left untouched.
+     *
+     * @param test Which method for multiple test correction
+     * @param threshold Either p-value cutoff if using Bonferroni or FDR level if using BH step-up
+     * @return re-corrected copy
+     */
+    public EnrichmentAnalysis withCorrection( MultipleTestCorrection test, double threshold ) {
+        Map<Edition, Enrichment<GeneOntologyTerm, Gene>> results = Maps.newHashMap();
+        for ( Entry<Edition, Enrichment<GeneOntologyTerm, Gene>> editionEntry : rawResults.entrySet() ) {
+            results.put( editionEntry.getKey(), editionEntry.getValue().withCorrection( test, threshold ) );
+        }
+        return new EnrichmentAnalysis( this, results, threshold );
+    }
+
+    /**
+     * Same as {@link #EnrichmentAnalysis(Map, int, int, MultipleTestCorrection, double, Cache, Species, ForkJoinPool)}
+     * optionally using {@link TermIndexedEnrichment} for editions whose annotation counts are loaded.
+     *
+     * @param indexed true to run editions on primitive arrays indexed by term
+     * @param memo    memo of log probabilities, usually shared with other analyses
+     */
+    public EnrichmentAnalysis( Map<Edition, Map<GeneOntologyTerm, Set<Gene>>> geneGOMap, int min, int max,
+                               MultipleTestCorrection test, double threshold,
+                               Cache cache, Species currentSpecies, ForkJoinPool pool, boolean indexed,
+                               HyperGeometricMemo memo ) {
 
         /*
          * This makes use of memoization to reduce computations of log probabilities. This is necessary from the sheer
@@ -101,30 +159,31 @@ public class EnrichmentAnalysis {
 
         //  Containers for results
 
-        Map<Edition, Enrichment<GeneOntologyTerm, Gene>> results = Maps.newHashMap();
+        Map<Edition, Enrichment<GeneOntologyTerm, Gene>> results;
         Set<GeneOntologyTerm> termsSignificantInAnyEdition = new HashSet<>();
 
-        for ( Entry<Edition, Map<GeneOntologyTerm, Set<Gene>>> editionEntry : geneGOMap.entrySet() ) {
-            Edition ed = editionEntry.getKey();
-            Map<GeneOntologyTerm, Set<Gene>> data = editionEntry.getValue();
-
-            StandardCompletePopulation<GeneOntologyTerm, Gene> sample = CompletePopulation.standardCompletePopulation( data );
-
-            Population<GeneOntologyTerm> population = Population.cachedGOPopulation( cache, ed );
-
-            Enrichment<GeneOntologyTerm, Gene> enrichment = new Enrichment<>( test, threshold, minAnnotatedPopulation,
-                    maxAnnotatedPopulation );
-
-            enrichment.runAnalysis( sample, population, logProbCache );
+        if ( pool == null ) {
+            results = Maps.newHashMap();
+            for ( Entry<Edition, Map<GeneOntologyTerm, Set<Gene>>> editionEntry : geneGOMap.entrySet() ) {
+                results.put( editionEntry.getKey(), runEdition( editionEntry.getKey(), editionEntry.getValue(), test,
+                        threshold, cache, indexed, memo ) );
+            }
+        } else {
+            results = pool.submit( () -> geneGOMap.entrySet().parallelStream()
+                    .collect( Collectors.toMap( Entry::getKey, editionEntry -> runEdition( editionEntry.getKey(),
+                            editionEntry.getValue(), test, threshold, cache, indexed, memo ) ) ) )
+                    .join();
+        }
 
-            results.put( ed, enrichment );
+        for ( Entry<Edition, Enrichment<GeneOntologyTerm, Gene>> editionEntry : results.entrySet() ) {
+            Enrichment<GeneOntologyTerm, Gene> enrichment = editionEntry.getValue();
 
             termsSignificantInAnyEdition.addAll( enrichment.getSignificantTerms() );
 
             // Stats
 
-            totalGenes.addAll( sample.getEntities() );
-            totalTerms.addAll( data.keySet() );
+            totalGenes.addAll( enrichment.getSamplePopulation().getEntities() );
+            totalTerms.addAll( geneGOMap.get( editionEntry.getKey() ).keySet() );
             totalResults += enrichment.getCalculations();
 
         }
@@ -143,6 +202,51 @@ public class EnrichmentAnalysis {
 
     }
 
+    private Enrichment<GeneOntologyTerm, Gene> runEdition( Edition ed, Map<GeneOntologyTerm, Set<Gene>> data,
+                                                           MultipleTestCorrection test, double threshold, Cache cache,
+                                                           boolean indexed, HyperGeometricMemo memo ) {
+        return enrichEdition( ed, data, minAnnotatedPopulation, maxAnnotatedPopulation, test, threshold, cache,
+                indexed, memo );
+    }
+
+    /**
+     * Runs enrichment of a single edition against the population held in cache.
+     *
+     * @param ed        edition
+     * @param data      genes of the hit list annotated with each term
+     * @param min       minimum geneset size a specific term must have to be included in results
+     * @param max       maximum geneset size a specific term must have to be included in results, 0 or less for none
+     * @param test      Which method for multiple test correction
+     * @param threshold Either p-value cutoff if using Bonferroni or FDR level if using BH step-up
+     * @param cache     Cache object containing part of the contingency table
+     * @param indexed   true to use {@link TermIndexedEnrichment} if the edition's annotation counts are loaded
+     * @param memo      memo of log probabilities
+     * @return enrichment results
+     */
+    public static Enrichment<GeneOntologyTerm, Gene> enrichEdition( Edition ed, Map<GeneOntologyTerm, Set<Gene>> data,
+                                                                    int min, int max, MultipleTestCorrection test,
+                                                                    double threshold, Cache cache, boolean indexed,
+                                                                    HyperGeometricMemo memo ) {
+        StandardCompletePopulation<GeneOntologyTerm, Gene> sample = CompletePopulation.standardCompletePopulation( data );
+
+        Enrichment<GeneOntologyTerm, Gene> enrichment = new Enrichment<>( test, threshold, min, max );
+
+        if ( indexed ) {
+            AnnotationCounts counts = cache.getAnnotationCounts( ed );
+            Integer geneCount = cache.getGeneCount( ed );
+            if ( counts != null && geneCount != null ) {
+                TermIndexedEnrichment.runAnalysis( enrichment, sample, counts, geneCount, memo );
+                return enrichment;
+            }
+        }
+
+        Population<GeneOntologyTerm> population = Population.cachedGOPopulation( cache, ed );
+
+        enrichment.runAnalysis( sample, population, memo );
+
+        return enrichment;
+    }
+
     /**
      * @return threshold set for either Bonferroni cutoff or FDR level
      */
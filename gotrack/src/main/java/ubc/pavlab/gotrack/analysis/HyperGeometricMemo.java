@@ -0,0 +1,199 @@
+package ubc.pavlab.gotrack.analysis;
+
+import gnu.trove.map.hash.TLongDoubleHashMap;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe memo of hypergeometric upper tail log probabilities, meant to be shared by the analyses of an
+ * application. The four parameters are packed into a single long so that lookups allocate nothing.
+ * <p>
+ * Entries are spread over independently locked stripes. Each stripe keeps a young and an old generation: hits in the
+ * old generation are promoted and once the young generation is full the old one is dropped, which approximates least
+ * recently used eviction without any per entry bookkeeping.
+ */
+public final class HyperGeometricMemo {
+
+    public static final int DEFAULT_CAPACITY = 500000;
+
+    private static final int STRIPES = 64;
+
+    // Bits of each parameter in a packed key, r and k are bounded by the hit list size
+    private static final int R_BITS = 15;
+    private static final int K_BITS = 15;
+    private static final int M_BITS = 17;
+    private static final int T_BITS = 17;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final int capacity;
+
+    // Engine used on misses, null for HyperGeometricUtilities
+    private final HyperGeometricTail tail;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity approximate maximum number of memoized probabilities
+     */
+    public HyperGeometricMemo( int capacity ) {
+        this( capacity, null );
+    }
+
+    /**
+     * @param capacity approximate maximum number of memoized probabilities
+     * @param tail     engine computing probabilities on misses, null to use
+     *                 {@link HyperGeometricUtilities#upperCumulativeProbabilityLogMethod(int, int, int, int)}
+     */
+    public HyperGeometricMemo( int capacity, HyperGeometricTail tail ) {
+        this.capacity = capacity;
+        this.tail = tail;
+        int generationSize = Math.max( 1, capacity / ( 2 * STRIPES ) );
+        for ( int i = 0; i < STRIPES; i++ ) {
+            stripes[i] = new Stripe( generationSize );
+        }
+    }
+
+    /**
+     * Memoized {@link HyperGeometricUtilities#upperCumulativeProbabilityLogMethod(int, int, int, int)} or
+     * {@link HyperGeometricTail#upperCumulativeProbability(int, int, int, int)}.
+     *
+     * @param  r sampleAnnotated
+     * @param  m populationAnnotated
+     * @param  k sampleSize
+     * @param  t populationSize
+     * @return   upper cumulative probability at r given m,k,t
+     */
+    public double upperCumulativeProbability( int r, int m, int k, int t ) {
+        long key = pack( r, m, k, t );
+        if ( key == -1 ) {
+            // Too large to be packed, compute every time
+            misses.increment();
+            return compute( r, m, k, t );
+        }
+
+        Stripe stripe = stripes[stripe( key )];
+        double p = stripe.get( key );
+        if ( !Double.isNaN( p ) ) {
+            hits.increment();
+            return p;
+        }
+
+        misses.increment();
+        p = compute( r, m, k, t );
+        stripe.put( key, p );
+        return p;
+    }
+
+    private double compute( int r, int m, int k, int t ) {
+        if ( tail != null ) {
+            return tail.upperCumulativeProbability( r, m, k, t );
+        }
+        return HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( r, m, k, t );
+    }
+
+    /**
+     * @return key holding all four parameters or -1 if any is out of range (every parameter at its maximum also packs
+     *         to -1 and is simply not memoized)
+     */
+    static long pack( int r, int m, int k, int t ) {
+        if ( r < 0 || m < 0 || k < 0 || t < 0 || r >>> R_BITS != 0 || m >>> M_BITS != 0 || k >>> K_BITS != 0
+                || t >>> T_BITS != 0 ) {
+            return -1;
+        }
+        return ( (long) r << ( M_BITS + K_BITS + T_BITS ) ) | ( (long) m << ( K_BITS + T_BITS ) )
+                | ( (long) k << T_BITS ) | t;
+    }
+
+    private static int stripe( long key ) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ( h >>> 58 );
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of memoized probabilities dropped to stay within capacity
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return fraction of lookups answered from the memo
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return number of memoized probabilities
+     */
+    public int size() {
+        int size = 0;
+        for ( Stripe stripe : stripes ) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "HyperGeometricMemo{size=" + size() + ", capacity=" + capacity + ", hits=" + getHits() + ", misses="
+                + getMisses() + ", evictions=" + getEvictions() + ", hitRate=" + String.format( "%.3f", getHitRate() )
+                + "}";
+    }
+
+    private final class Stripe {
+        private final int generationSize;
+        private TLongDoubleHashMap young;
+        private TLongDoubleHashMap old;
+
+        Stripe( int generationSize ) {
+            this.generationSize = generationSize;
+            this.young = newGeneration();
+            this.old = newGeneration();
+        }
+
+        private TLongDoubleHashMap newGeneration() {
+            return new TLongDoubleHashMap( 16, 0.5f, -1L, Double.NaN );
+        }
+
+        synchronized double get( long key ) {
+            double p = young.get( key );
+            if ( Double.isNaN( p ) ) {
+                p = old.get( key );
+                if ( !Double.isNaN( p ) ) {
+                    put( key, p );
+                }
+            }
+            return p;
+        }
+
+        synchronized void put( long key, double p ) {
+            young.put( key, p );
+            if ( young.size() >= generationSize ) {
+                evictions.add( old.size() );
+                old = young;
+                young = newGeneration();
+            }
+        }
+
+        synchronized int size() {
+            return young.size() + old.size();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ubc.pavlab.gotrack.analysis;
+
+import org.apache.commons.math3.special.Gamma;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Hypergeometric upper tail probabilities from a precomputed table of log factorials.
+ * <p>
+ * The first term of the tail costs a handful of table lookups and a single exp. Following terms come from the ratio
+ * h(x+1) / h(x) = (k-x)(m-x) / [(x+1)(t-m-k+x+1)] in linear space, without a log or exp per step, and the sum stops as
+ * soon as a term no longer changes it. When r lies below the mode the upper tail holds most of the mass, so the lower
+ * tail is summed instead (its terms shrink from the start) and subtracted from one.
+ * <p>
+ * Results agree with {@link HyperGeometricUtilities#upperCumulativeProbabilityLogMethod(int, int, int, int)} to within
+ * a relative error of about 1e-9, populations larger than the table fall back to that method.
+ */
+public final class HyperGeometricTail {
+
+    private final double[] logFactorial;
+
+    /**
+     * @param maxPopulation largest population size the table should cover
+     */
+    public HyperGeometricTail( int maxPopulation ) {
+        logFactorial = new double[maxPopulation + 1];
+        for ( int n = 2; n <= maxPopulation; n++ ) {
+            logFactorial[n] = Gamma.logGamma( n + 1 );
+        }
+    }
+
+    /**
+     * @return largest population size covered by the table
+     */
+    public int getMaxPopulation() {
+        return logFactorial.length - 1;
+    }
+
+    /**
+     * @param  r sampleAnnotated
+     * @param  m populationAnnotated
+     * @param  k sampleSize
+     * @param  t populationSize
+     * @return   upper cumulative probability at r given m,k,t
+     */
+    public double upperCumulativeProbability( int r, int m, int k, int t ) {
+        if ( t >= logFactorial.length ) {
+            return HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( r, m, k, t );
+        }
+
+        int max = Math.min( k, m );
+        int min = Math.max( 0, k + m - t );
+        if ( r > max ) {
+            return 0;
+        }
+        if ( r <= min ) {
+            return 1;
+        }
+
+        int mode = (int) ( ( k + 1L ) * ( m + 1L ) / ( t + 2L ) );
+        if ( r >= mode ) {
+            // Terms only shrink from r upwards
+            double term = 1;
+            double sum = 1;
+            for ( int x = r; x < max; x++ ) {
+                term *= (double) ( k - x ) * ( m - x ) / ( (double) ( x + 1 ) * ( t - m - k + x + 1 ) );
+                double next = sum + term;
+                if ( next == sum ) {
+                    break;
+                }
+                sum = next;
+            }
+            return FastMath.exp( logProbability( r, m, k, t ) + FastMath.log( sum ) );
+        }
+
+        // Terms only shrink from r - 1 downwards
+        double term = 1;
+        double sum = 1;
+        for ( int x = r - 1; x > min; x-- ) {
+            term *= (double) x * ( t - m - k + x ) / ( (double) ( k - x + 1 ) * ( m - x + 1 ) );
+            double next = sum + term;
+            if ( next == sum ) {
+                break;
+            }
+            sum = next;
+        }
+        return 1 - FastMath.exp( logProbability( r - 1, m, k, t ) + FastMath.log( sum ) );
+    }
+
+    /**
+     * @return log of the probability of exactly r successes
+     */
+    private double logProbability( int r, int m, int k, int t ) {
+        double[] lf = logFactorial;
+        return lf[m] - lf[r] - lf[m - r] + lf[t - m] - lf[k - r] - lf[t - m - k + r] + lf[k] + lf[t - k] - lf[t];
+    }
+}
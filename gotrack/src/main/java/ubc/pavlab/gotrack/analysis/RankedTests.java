@@ -0,0 +1,213 @@
+package ubc.pavlab.gotrack.analysis;
+
+/**
+ * Multiple test correction and ranking of a family of tests held in primitive arrays, tests being identified by their
+ * index in the array of p-values.
+ * <p>
+ * Both corrections are monotonic in the p-value, so the significant tests are always the leading tests in order of
+ * p-value. Consecutive tests in that order which share a tie key share a standard rank, the position of the first of
+ * them, and a fractional rank, the mean of their positions. Significant tests with a standard rank below N are then a
+ * prefix of {@link #testAt(int)} as well, which makes top N lookups a binary search with
+ * {@link #countBelow(int[], int, int)}.
+ */
+public final class RankedTests {
+
+    private final int[] order;
+    private final int[] positions;
+    private final int[] ranks;
+    private final double[] fractionalRanks;
+    private final int significantCount;
+    private final double cutoff;
+
+    private RankedTests( int[] order, int[] ranks, double[] fractionalRanks, int significantCount, double cutoff ) {
+        this.order = order;
+        this.positions = new int[order.length];
+        for ( int k = 0; k < order.length; k++ ) {
+            positions[order[k]] = k;
+        }
+        this.ranks = ranks;
+        this.fractionalRanks = fractionalRanks;
+        this.significantCount = significantCount;
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Rank tests in a stable order of p-value, so tests with equal p-values keep the order in which they were given.
+     *
+     * @param  pvalues   p-value of each test, at least one
+     * @param  tieKeys   key of each test, consecutive tests with equal keys share a rank; null to rank equal p-values
+     *                   together
+     * @param  method    method of multiple test correction
+     * @param  threshold Either p-value cutoff if using Bonferroni or FDR level if using BH step-up
+     */
+    public static RankedTests rank( double[] pvalues, long[] tieKeys, MultipleTestCorrection method,
+                                    double threshold ) {
+        return rank( pvalues, sortByPvalue( pvalues ), tieKeys, method, threshold );
+    }
+
+    /**
+     * Same as {@link #rank(double[], long[], MultipleTestCorrection, double)} with the tests already in order.
+     *
+     * @param  order indices of the tests in ascending order of p-value
+     */
+    public static RankedTests rank( double[] pvalues, int[] order, long[] tieKeys, MultipleTestCorrection method,
+                                    double threshold ) {
+        int n = order.length;
+        double[] sortedPvalues = new double[n];
+        for ( int k = 0; k < n; k++ ) {
+            sortedPvalues[k] = pvalues[order[k]];
+        }
+        int significant = significantCount( sortedPvalues, method, threshold );
+
+        int[] ranks = new int[n];
+        double[] fractionalRanks = new double[n];
+        int groupStart = 0;
+        while ( groupStart < n ) {
+            int groupEnd = groupStart + 1;
+            while ( groupEnd < n && tied( order[groupEnd - 1], order[groupEnd], pvalues, tieKeys ) ) {
+                groupEnd++;
+            }
+            double fractionalRank = groupStart + ( groupEnd - groupStart - 1 ) / 2.0;
+            for ( int k = groupStart; k < groupEnd; k++ ) {
+                ranks[order[k]] = groupStart;
+                fractionalRanks[order[k]] = fractionalRank;
+            }
+            groupStart = groupEnd;
+        }
+
+        return new RankedTests( order, ranks, fractionalRanks, significant,
+                cutoff( sortedPvalues, significant, method, threshold ) );
+    }
+
+    private static boolean tied( int a, int b, double[] pvalues, long[] tieKeys ) {
+        return tieKeys == null ? pvalues[a] == pvalues[b] : tieKeys[a] == tieKeys[b];
+    }
+
+    /**
+     * @param  sortedPvalues p-values of all tests in ascending order
+     * @return               number of leading tests which are significant
+     */
+    private static int significantCount( double[] sortedPvalues, MultipleTestCorrection method, double threshold ) {
+        int n = sortedPvalues.length;
+        int significant = 0;
+        if ( method.equals( MultipleTestCorrection.BH ) ) {
+            // Step-up, everything up to the last test which passes its threshold
+            for ( int k = 1; k <= n; k++ ) {
+                if ( sortedPvalues[k - 1] <= k * threshold / n ) {
+                    significant = k;
+                }
+            }
+        } else if ( method.equals( MultipleTestCorrection.BONFERRONI ) ) {
+            while ( significant < n && sortedPvalues[significant] * n <= threshold ) {
+                significant++;
+            }
+        } else {
+            throw new RuntimeException( "This should never happen!" );
+        }
+        return significant;
+    }
+
+    /**
+     * @param  sortedPvalues p-values of all tests in ascending order, at least one
+     * @param  significant   number of leading tests which are significant
+     * @return               largest significant p-value for BH, the lowest p-value if none are, otherwise the threshold
+     */
+    private static double cutoff( double[] sortedPvalues, int significant, MultipleTestCorrection method, double threshold ) {
+        if ( method.equals( MultipleTestCorrection.BH ) ) {
+            return sortedPvalues[Math.max( 0, significant - 1 )];
+        }
+        return threshold;
+    }
+
+    /**
+     * @return indices of the tests in ascending order of p-value, stable
+     */
+    static int[] sortByPvalue( double[] pvalues ) {
+        int[] order = new int[pvalues.length];
+        for ( int i = 0; i < order.length; i++ ) {
+            order[i] = i;
+        }
+        int[] buffer = new int[order.length];
+        for ( int width = 1; width < order.length; width *= 2 ) {
+            for ( int lo = 0; lo < order.length - width; lo += 2 * width ) {
+                int mid = lo + width;
+                int hi = Math.min( lo + 2 * width, order.length );
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while ( i < mid && j < hi ) {
+                    if ( Double.compare( pvalues[order[j]], pvalues[order[i]] ) < 0 ) {
+                        buffer[k++] = order[j++];
+                    } else {
+                        buffer[k++] = order[i++];
+                    }
+                }
+                while ( i < mid ) {
+                    buffer[k++] = order[i++];
+                }
+                while ( j < hi ) {
+                    buffer[k++] = order[j++];
+                }
+                System.arraycopy( buffer, lo, order, lo, hi - lo );
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @return number of tests
+     */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * @param  k position in order of p-value
+     * @return   index of the test at that position
+     */
+    public int testAt( int k ) {
+        return order[k];
+    }
+
+    public int getRank( int test ) {
+        return ranks[test];
+    }
+
+    public double getFractionalRank( int test ) {
+        return fractionalRanks[test];
+    }
+
+    public boolean isSignificant( int test ) {
+        return positions[test] < significantCount;
+    }
+
+    public int getSignificantCount() {
+        return significantCount;
+    }
+
+    public double getCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * Binary search for the end of the top N prefix.
+     *
+     * @param  sortedRanks standard ranks in ascending order
+     * @param  length      number of leading ranks to search
+     * @param  n           number of top ranks
+     * @return             number of leading ranks below n
+     */
+    static int countBelow( int[] sortedRanks, int length, int n ) {
+        int lo = 0;
+        int hi = length;
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if ( sortedRanks[mid] < n ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
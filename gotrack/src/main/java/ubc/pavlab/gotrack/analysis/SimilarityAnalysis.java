@@ -24,15 +24,12 @@ import org.apache.log4j.Logger;
 import ubc.pavlab.gotrack.beans.Cache;
 import ubc.pavlab.gotrack.model.Edition;
 import ubc.pavlab.gotrack.model.Gene;
+import ubc.pavlab.gotrack.model.go.GeneOntology;
 import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
 import ubc.pavlab.gotrack.utilities.Jaccard;
 import ubc.pavlab.gotrack.utilities.Tversky;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.*;
 
 /**
  * Calculates scores which attempt to explore the impact that annotation similarity has on the performance of
@@ -69,7 +66,7 @@ public class SimilarityAnalysis {
      * @param analysis results of enrichment analysis
      * @param topN number of top terms to use for top N series
      * @param referenceEdition compare all editions to this one
-     * @param cache Cache bean in order to access propagation needed for parent similarity
+     * @param cache Cache bean in order to access the ontology of the reference edition
      */
     public SimilarityAnalysis( EnrichmentAnalysis analysis, int topN, Edition referenceEdition, SimilarityMethod sm,
                                Cache cache ) {
@@ -81,39 +78,41 @@ public class SimilarityAnalysis {
         // Container
         Map<Edition, SimilarityScore> similarityScores = new LinkedHashMap<>();
 
-        SimilarityEnrichmentWrapper reference = new SimilarityEnrichmentWrapper( analysis.getRawResults( referenceEdition ), referenceEdition, topN );
+        // Terms of every edition are compared by their id in the reference edition, accounting for alternate ids
+        GeneOntology referenceOntology = cache.getOntology( referenceEdition );
 
-        analysis.getEditions().stream().sorted().forEach( testingEdition -> {
+        SimilarityEnrichmentWrapper reference = new SimilarityEnrichmentWrapper( analysis.getRawResults( referenceEdition ), referenceEdition, topN, null );
 
-            SimilarityEnrichmentWrapper test = new SimilarityEnrichmentWrapper( analysis.getRawResults( testingEdition ), testingEdition, topN );
+        List<Edition> orderedEditions = new ArrayList<>( analysis.getEditions() );
+        Collections.sort( orderedEditions );
+        for ( Edition testingEdition : orderedEditions ) {
 
-            similarityScores.put( testingEdition, compareEnrichments( reference, test, sm, cache ) );
+            SimilarityEnrichmentWrapper test = new SimilarityEnrichmentWrapper( analysis.getRawResults( testingEdition ), testingEdition, topN, referenceOntology );
 
-        } );
+            similarityScores.put( testingEdition, compareEnrichments( reference, test, sm ) );
+
+        }
 
         this.similarityScores = Collections.unmodifiableMap( similarityScores );
     }
 
-    public SimilarityScore compareEnrichments( SimilarityEnrichmentWrapper reference, SimilarityEnrichmentWrapper test, SimilarityMethod sm, Cache cache) {
+    public SimilarityScore compareEnrichments( SimilarityEnrichmentWrapper reference, SimilarityEnrichmentWrapper test, SimilarityMethod sm ) {
 
         // Complete Terms
         Double completeTermSim = SimilarityAnalysis.similarity( sm,
-                cache.convertTerms( reference.getEdition(), test.getEnrichment().getSignificantTerms() ),
-                reference.getEnrichment().getSignificantTerms() );
+                test.getSignificantTermIds(), reference.getSignificantTermIds() );
 
         // Top Terms
         Double topTermSim = SimilarityAnalysis.similarity( sm,
-                cache.convertTerms( reference.getEdition(), test.getTopTerms() ),
-                reference.getTopTerms() );
+                test.getTopTermIds(), reference.getTopTermIds() );
 
         // Top Genes
         Double topGeneSim = SimilarityAnalysis.similarity( sm,
-                test.getTopGenes(), reference.getTopGenes() );
+                test.getTopGeneIds(), reference.getTopGeneIds() );
 
         // Top Parents
         Double topParentsSim = SimilarityAnalysis.similarity( sm,
-                cache.convertTerms( reference.getEdition(), test.getTopParents() ),
-                reference.getTopParents() );
+                test.getTopParentIds(), reference.getTopParentIds() );
 
         return new SimilarityScore( completeTermSim, topTermSim, topGeneSim, topParentsSim,
                         Collections.unmodifiableSet( test.getTopTerms() ),
@@ -126,7 +125,7 @@ public class SimilarityAnalysis {
         return similarityScores.get( ed );
     }
 
-    private static <T> Double similarity( SimilarityMethod sm, Set<T> test, Set<T> reference ) {
+    private static Double similarity( SimilarityMethod sm, int[] test, int[] reference ) {
         if ( sm.equals( SimilarityMethod.JACCARD ) ) {
             return Jaccard.similarity( test, reference );
         } else {
@@ -152,19 +151,47 @@ class SimilarityEnrichmentWrapper {
     // Parents of top N terms of the compare Edition
     private final Set<GeneOntologyTerm> topParents;
 
-    SimilarityEnrichmentWrapper( Enrichment<GeneOntologyTerm, Gene> enrichment, Edition edition, int topN ) {
+    // Sorted ids of the above in the reference edition, compared without any set operations
+    private final int[] significantTermIds;
+    private final int[] topTermIds;
+    private final int[] topGeneIds;
+    private final int[] topParentIds;
+
+    /**
+     * @param referenceOntology ontology in which to look up terms, null to compare them by their own id
+     */
+    SimilarityEnrichmentWrapper( Enrichment<GeneOntologyTerm, Gene> enrichment, Edition edition, int topN,
+                                 GeneOntology referenceOntology ) {
         this.enrichment = enrichment;
         this.edition = edition;
 
         this.topTerms = enrichment.getTopNTerms( topN );
 
         // Genes of top N terms of the compare Edition
-        this.topGenes = topTerms.stream()
-                .flatMap( t -> enrichment.getSamplePopulation().getEntities( t ).stream() )
-                .collect( Collectors.toSet() );
+        this.topGenes = new HashSet<>();
+        for ( GeneOntologyTerm t : topTerms ) {
+            topGenes.addAll( enrichment.getSamplePopulation().getEntities( t ) );
+        }
 
         // Parents of top N terms of the compare Edition
-        this.topParents = GeneOntologyTerm.propagate( topTerms.stream() ).collect( Collectors.toSet() );
+        this.topParents = GeneOntologyTerm.propagateToSet( topTerms );
+
+        this.significantTermIds = toSortedIds( enrichment.getSignificantTerms(), referenceOntology );
+        this.topTermIds = toSortedIds( topTerms, referenceOntology );
+        this.topParentIds = toSortedIds( topParents, referenceOntology );
+
+        int[] geneIds = new int[topGenes.size()];
+        int i = 0;
+        for ( Gene g : topGenes ) {
+            geneIds[i++] = g.getId();
+        }
+        Arrays.sort( geneIds );
+        this.topGeneIds = geneIds;
     }
 
-}
\ No newline at end of file
+    private static int[] toSortedIds( Set<GeneOntologyTerm> terms, GeneOntology referenceOntology ) {
+        return referenceOntology == null ? GeneOntologyTerm.toSortedIds( terms )
+                : referenceOntology.toSortedIds( terms );
+    }
+
+}
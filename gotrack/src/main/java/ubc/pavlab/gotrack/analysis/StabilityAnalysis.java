@@ -19,12 +19,12 @@
 
 package ubc.pavlab.gotrack.analysis;
 
-import gnu.trove.map.hash.TObjectDoubleHashMap;
 import ubc.pavlab.gotrack.model.Edition;
 import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
-import ubc.pavlab.gotrack.model.hashkey.HyperUCFKey;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /**
  * Calculates scores which attempt to explore the stability of gene set enrichment analyses results over time.
@@ -38,15 +38,51 @@ public class StabilityAnalysis {
 
     private static final int SIGNIFICANCE_QUEUE_SIZE = 24;
 
+    // weights of previous N editions, oldest first
+    private static final int[] WEIGHTS = { 1, 2, 3, 4, 5, 6 };
+    private static final int SUM_WEIGHTS = 21;
+
     /**
      * @param analysis results of enrichment analysis
      */
     public StabilityAnalysis( EnrichmentAnalysis analysis ) {
+        this( analysis, null );
+    }
+
+    /**
+     * Same as {@link #StabilityAnalysis(EnrichmentAnalysis)} with terms scored concurrently in the given pool. Scores
+     * are identical to the sequential analysis.
+     *
+     * @param analysis results of enrichment analysis
+     * @param pool pool to score terms in, null to score them sequentially in the calling thread
+     */
+    public StabilityAnalysis( EnrichmentAnalysis analysis, ForkJoinPool pool ) {
+        this( analysis, pool, new HyperGeometricMemo( HyperGeometricMemo.DEFAULT_CAPACITY ) );
+    }
+
+    /**
+     * Same as {@link #StabilityAnalysis(EnrichmentAnalysis, ForkJoinPool)} with log probabilities memoized in the
+     * given memo.
+     *
+     * @param analysis     results of enrichment analysis
+     * @param pool         pool to score terms in, null to score them sequentially in the calling thread
+     * @param logProbCache memo of log probabilities, usually shared with other analyses
+     */
+    public StabilityAnalysis( EnrichmentAnalysis analysis, ForkJoinPool pool, HyperGeometricMemo logProbCache ) {
 
         // ordered list of editions
         List<Edition> orderedEditions = new ArrayList<>( analysis.getEditions() );
         Collections.sort( orderedEditions );
 
+        // Results and cutoffs of every edition, in order
+        List<Map<GeneOntologyTerm, EnrichmentResult>> results = new ArrayList<>( orderedEditions.size() );
+        double[] cutoffs = new double[orderedEditions.size()];
+        for ( int i = 0; i < cutoffs.length; i++ ) {
+            Enrichment<GeneOntologyTerm, ?> enrichment = analysis.getRawResults( orderedEditions.get( i ) );
+            results.add( enrichment.getResults() );
+            cutoffs[i] = enrichment.getCutoff();
+        }
+
         // Compute stability of individual GOTerms over time
         // ***********************************
         // First we compute the change in sample and population successes between editions
@@ -56,142 +92,182 @@ public class StabilityAnalysis {
         // Compute upper and lower bound p-values using the worst/best case values from the 4 new success numbers
         // ***********************************
 
-        // Log Probability Memoization Cache
-        TObjectDoubleHashMap<HyperUCFKey> logProbCache = new TObjectDoubleHashMap<>();
-        double noEntryValue = logProbCache.getNoEntryValue();
+        // Iterate over every term that was significant in at least one edition
+        Set<GeneOntologyTerm> terms = analysis.getTermsSignificantInAnyEdition();
+        Map<GeneOntologyTerm, Map<Edition, StabilityScore>> stabilityScores;
+        if ( pool == null ) {
+            stabilityScores = new HashMap<>();
+            for ( GeneOntologyTerm t : terms ) {
+                stabilityScores.put( t, scoreTerm( t, orderedEditions, results, cutoffs, logProbCache ) );
+            }
+        } else {
+            stabilityScores = pool.submit( () -> terms.parallelStream()
+                    .collect( Collectors.toMap( t -> t,
+                            t -> scoreTerm( t, orderedEditions, results, cutoffs, logProbCache ) ) ) )
+                    .join();
+        }
+
+        this.stabilityScores = Collections.unmodifiableMap( stabilityScores );
 
-        // Container
-        Map<GeneOntologyTerm, Map<Edition, StabilityScore>> stabilityScores = new HashMap<>();
+    }
 
-        // weights of previous N editions
-        int[] weights = new int[6];
-        for ( int i = 0; i < weights.length; i++ ) {
-            weights[i] = i + 1;
-        }
-        // Iterate over every term that was significant in at least one edition
-        for ( GeneOntologyTerm t : analysis.getTermsSignificantInAnyEdition() ) {
+    /**
+     * Scores of a single term in every edition it was tested in. The previous editions are held in primitive ring
+     * buffers, oldest at the head, so nothing is allocated per edition other than the scores themselves.
+     */
+    private static Map<Edition, StabilityScore> scoreTerm( GeneOntologyTerm t, List<Edition> orderedEditions,
+                                                          List<Map<GeneOntologyTerm, EnrichmentResult>> results,
+                                                          double[] cutoffs, HyperGeometricMemo logProbCache ) {
 
-            // Enrichment results for this term
-            Map<Edition, EnrichmentResult> data = analysis.getResults( t );
+        // Container for this term's scores
+        Map<Edition, StabilityScore> scores = new HashMap<>();
 
-            // Container for this term's scores
-            Map<Edition, StabilityScore> scores = new HashMap<>();
+        // Ring holding the changes in sample and population annotated of the previous N editions
+        int[] sampleChanges = new int[WEIGHTS.length];
+        int[] populationChanges = new int[WEIGHTS.length];
+        int queueHead = 0;
+        int queueSize = 0;
 
-            // Queue to hold the previous N editions and their corresponding contingency table results
-            LinkedHashMap<Edition, int[]> queue = new LinkedHashMap<Edition, int[]>() {
-                @Override
-                protected boolean removeEldestEntry( Map.Entry<Edition, int[]> eldest ) {
-                    return this.size() > 6;
-                }
-            };
+        // Ring holding whether the term was significant in the previous 24 editions
+        boolean[] significance = new boolean[SIGNIFICANCE_QUEUE_SIZE];
+        int significanceHead = 0;
+        int significanceSize = 0;
+        int significantCount = 0;
 
-            // Queue to hold the previous 24 editions and if they were significant
-            LinkedHashMap<Edition, Boolean> significanceQueue = new LinkedHashMap<Edition, Boolean>() {
-                @Override
-                protected boolean removeEldestEntry( Map.Entry<Edition, Boolean> eldest ) {
-                    return this.size() > SIGNIFICANCE_QUEUE_SIZE;
-                }
-            };
-
-            // holds previous result for comparison purposes
-            EnrichmentResult previousResult = null;
-
-            // holds running numbers to computing ytd style averages
-            double runningScore = 0;
-            int runningScoreCnt = 0;
-
-            // iterate over editions in order
-            for ( Edition ed : orderedEditions ) {
-
-                // P-Value cutoff for significance
-                Double cutoff = analysis.getCutoff( ed );
-
-                EnrichmentResult er = data.get( ed );
-                if ( er != null ) {
-                    if ( previousResult != null ) {
-                        // if the term was significant in this edition and there is a previous edition to compare against
-
-                        // Compute % past 24 editions this term was significant
-                        significanceQueue.put( ed, er.isSignificant() );
-                        double pastPercentSignificant = (double) significanceQueue.values().stream().filter( p -> p ).count() / significanceQueue.size();
-
-                        // holds changes in the two statistics we are interested in: sample and population annotated
-                        // int r, int m
-                        int[] arr = new int[2];
-                        arr[0] = er.getSampleAnnotated() - previousResult.getSampleAnnotated();
-                        arr[1] = er.getPopulationAnnotated() - previousResult.getPopulationAnnotated();
-                        queue.put( ed, arr );
-
-                        double[] a = weightedAverage( queue, weights );
-                        double[] b = weightedStd( queue, weights );
-
-                        // now to calculate upper and lower bound p values
-
-                        // 95% confidence around the two statistics
-                        int rMin = ( int ) Math.round( er.getSampleAnnotated() + a[0] - 2 * b[0] );
-                        int rMax = ( int ) Math.round( er.getSampleAnnotated() + a[0] + 2 * b[0] );
-
-                        int mMin = ( int ) Math.round( er.getPopulationAnnotated() + a[1] - 2 * b[1] );
-                        int mMax = ( int ) Math.round( er.getPopulationAnnotated() + a[1] + 2 * b[1] );
-
-                        // create new contingency table based on 95% confidence interval in order to create lowest p-value
-                        int[] params = new int[4]; // smallest p-value
-                        params[0] = rMax; // most hits in sample
-                        params[1] = mMin; // least hits in population
-                        params[2] = er.getSampleSize();
-                        params[3] = er.getPopulationSize();
-                        // Makes sure new values make physical sense
-                        fixParameters( params );
-
-                        // Combined map key
-                        HyperUCFKey key = new HyperUCFKey( params[0], params[1], params[2], params[3] );
-
-                        // compute log probs / decache them
-                        double minp = logProbCache.get( key );
-                        if ( minp == noEntryValue ) {
-                            minp = HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( params[0], params[1],
-                                    params[2], params[3] );
-                            logProbCache.put( key, minp );
-                        }
-
-                        // Do the same as above except on the other ends of the 95% confidence interval
-                        params[0] = rMin; // least hits in sample
-                        params[1] = mMax; // most hits in population
-                        params[2] = er.getSampleSize();
-                        params[3] = er.getPopulationSize();
-                        fixParameters( params );
-
-                        key = new HyperUCFKey( params[0], params[1], params[2], params[3] );
-                        double maxp = logProbCache.get( key );
-                        if ( maxp == noEntryValue ) {
-                            maxp = HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( params[0], params[1],
-                                    params[2], params[3] );
-                            logProbCache.put( key, maxp );
-                        }
-
-                        // calculate scores (very similar to a coefficient of variation)
-                        double score = ( maxp - minp ) / cutoff;
-                        runningScore += score;
-                        runningScoreCnt++;
-
-                        scores.put( ed, new StabilityScore( b[0], b[1], minp, maxp, -Math.log( score ),
-                                -Math.log( runningScore / runningScoreCnt ), pastPercentSignificant ) );
-
-                    } else {
-                        scores.put( ed,
-                                new StabilityScore( -1, -1, er.getPvalue(), er.getPvalue(), Double.NaN, Double.NaN, Double.NaN ) );
-                    }
-                    previousResult = er;
+        // sampleAnnotated, populationAnnotated, sampleSize, populationSize
+        int[] params = new int[4];
+
+        // holds previous result for comparison purposes
+        EnrichmentResult previousResult = null;
+
+        // holds running numbers to computing ytd style averages
+        double runningScore = 0;
+        int runningScoreCnt = 0;
+
+        // iterate over editions in order
+        for ( int i = 0; i < cutoffs.length; i++ ) {
+
+            EnrichmentResult er = results.get( i ).get( t );
+            if ( er == null ) {
+                continue;
+            }
+
+            if ( previousResult == null ) {
+                scores.put( orderedEditions.get( i ),
+                        new StabilityScore( -1, -1, er.getPvalue(), er.getPvalue(), Double.NaN, Double.NaN, Double.NaN ) );
+                previousResult = er;
+                continue;
+            }
+
+            // Compute % past 24 editions this term was significant
+            if ( significanceSize == SIGNIFICANCE_QUEUE_SIZE ) {
+                if ( significance[significanceHead] ) {
+                    significantCount--;
                 }
+                significance[significanceHead] = er.isSignificant();
+                significanceHead = ( significanceHead + 1 ) % SIGNIFICANCE_QUEUE_SIZE;
+            } else {
+                significance[( significanceHead + significanceSize ) % SIGNIFICANCE_QUEUE_SIZE] = er.isSignificant();
+                significanceSize++;
+            }
+            if ( er.isSignificant() ) {
+                significantCount++;
+            }
+            double pastPercentSignificant = (double) significantCount / significanceSize;
+
+            // changes in the two statistics we are interested in: sample and population annotated
+            int sampleChange = er.getSampleAnnotated() - previousResult.getSampleAnnotated();
+            int populationChange = er.getPopulationAnnotated() - previousResult.getPopulationAnnotated();
+            if ( queueSize == WEIGHTS.length ) {
+                sampleChanges[queueHead] = sampleChange;
+                populationChanges[queueHead] = populationChange;
+                queueHead = ( queueHead + 1 ) % WEIGHTS.length;
+            } else {
+                sampleChanges[( queueHead + queueSize ) % WEIGHTS.length] = sampleChange;
+                populationChanges[( queueHead + queueSize ) % WEIGHTS.length] = populationChange;
+                queueSize++;
+            }
+
+            // Weighted averages, divided by the sum of all weights even while the queue is filling up
+            double sampleMean = 0;
+            double populationMean = 0;
+            for ( int j = 0; j < queueSize; j++ ) {
+                int q = ( queueHead + j ) % WEIGHTS.length;
+                sampleMean += WEIGHTS[j] * sampleChanges[q] / (double) SUM_WEIGHTS;
+                populationMean += WEIGHTS[j] * populationChanges[q] / (double) SUM_WEIGHTS;
+            }
 
+            // Weighted standard deviations, single pass
+            double sampleSigma = 0;
+            double populationSigma = 0;
+            if ( queueSize > 1 ) {
+                int sumWeight = 0;
+                double sampleRunningMean = 0;
+                double populationRunningMean = 0;
+                double sampleM2 = 0;
+                double populationM2 = 0;
+                for ( int j = 0; j < queueSize; j++ ) {
+                    int q = ( queueHead + j ) % WEIGHTS.length;
+                    int weight = WEIGHTS[j];
+                    int temp = weight + sumWeight;
+
+                    double delta = sampleChanges[q] - sampleRunningMean;
+                    double R = weight * delta / temp;
+                    sampleRunningMean += R;
+                    sampleM2 += sumWeight * delta * R;
+
+                    delta = populationChanges[q] - populationRunningMean;
+                    R = weight * delta / temp;
+                    populationRunningMean += R;
+                    populationM2 += sumWeight * delta * R;
+
+                    sumWeight = temp;
+                }
+                sampleSigma = Math.sqrt( sampleM2 / sumWeight * queueSize / ( queueSize - 1 ) );
+                populationSigma = Math.sqrt( populationM2 / sumWeight * queueSize / ( queueSize - 1 ) );
             }
 
-            stabilityScores.put( t, Collections.unmodifiableMap( scores ) );
+            // now to calculate upper and lower bound p values
 
-        }
+            // 95% confidence around the two statistics
+            int rMin = ( int ) Math.round( er.getSampleAnnotated() + sampleMean - 2 * sampleSigma );
+            int rMax = ( int ) Math.round( er.getSampleAnnotated() + sampleMean + 2 * sampleSigma );
 
-        this.stabilityScores = Collections.unmodifiableMap( stabilityScores );
+            int mMin = ( int ) Math.round( er.getPopulationAnnotated() + populationMean - 2 * populationSigma );
+            int mMax = ( int ) Math.round( er.getPopulationAnnotated() + populationMean + 2 * populationSigma );
+
+            // create new contingency table based on 95% confidence interval in order to create lowest p-value
+            params[0] = rMax; // most hits in sample
+            params[1] = mMin; // least hits in population
+            params[2] = er.getSampleSize();
+            params[3] = er.getPopulationSize();
+            // Makes sure new values make physical sense
+            fixParameters( params );
+
+            // compute log probs / decache them
+            double minp = logProbCache.upperCumulativeProbability( params[0], params[1], params[2], params[3] );
 
+            // Do the same as above except on the other ends of the 95% confidence interval
+            params[0] = rMin; // least hits in sample
+            params[1] = mMax; // most hits in population
+            params[2] = er.getSampleSize();
+            params[3] = er.getPopulationSize();
+            fixParameters( params );
+
+            double maxp = logProbCache.upperCumulativeProbability( params[0], params[1], params[2], params[3] );
+
+            // calculate scores (very similar to a coefficient of variation)
+            double score = ( maxp - minp ) / cutoffs[i];
+            runningScore += score;
+            runningScoreCnt++;
+
+            scores.put( orderedEditions.get( i ), new StabilityScore( sampleSigma, populationSigma, minp, maxp,
+                    -Math.log( score ), -Math.log( runningScore / runningScoreCnt ), pastPercentSignificant ) );
+
+            previousResult = er;
+        }
+
+        return Collections.unmodifiableMap( scores );
     }
 
     /**
@@ -233,90 +309,6 @@ public class StabilityAnalysis {
         return fixed;
     }
 
-    /**
-     * @param queue
-     * @param weights
-     * @return weighted average of each statistic given in queue with weights
-     */
-    private static double[] weightedAverage( LinkedHashMap<Edition, int[]> queue, int[] weights ) {
-        if ( queue.size() > weights.length ) throw new RuntimeException( "Not enough weights for queue" );
-        // int r, int m, int k, int t
-
-        int size = queue.values().iterator().next().length;
-
-        int sumWeights = 0;
-        for ( int i : weights )
-            sumWeights += i;
-
-        int i = 0;
-        double[] rollingSums = new double[size];
-
-        for ( int[] vals : queue.values() ) {
-            int weight = weights[i++];
-            for ( int j = 0; j < size; j++ ) {
-                int v = vals[j];
-                rollingSums[j] += weight * v / ( double ) sumWeights;
-            }
-        }
-
-        return rollingSums;
-
-    }
-
-    /**
-     * @param queue
-     * @param weights
-     * @return weighted standard deviation of each statistic given in queue with weights
-     */
-    private static double[] weightedStd( LinkedHashMap<Edition, int[]> queue, int[] weights ) {
-        if ( queue.size() == 0 ) {
-            return null;
-        }
-
-        int sumWeight = 0;
-
-        int size = queue.values().iterator().next().length;
-
-        double[] stds = new double[size];
-
-        if ( queue.size() == 1 ) {
-            for ( int j = 0; j < size; j++ ) {
-                stds[j] = 0;
-            }
-            return stds;
-        }
-
-        double[] means = new double[size];
-        double[] M2s = new double[size];
-
-        int i = 0;
-        for ( int[] vals : queue.values() ) {
-            int weight = weights[i++];
-            int temp = weight + sumWeight;
-
-            for ( int j = 0; j < size; j++ ) {
-                int v = vals[j];
-                double delta = v - means[j];
-                double R = weight * delta / temp;
-                means[j] += R;
-                M2s[j] += sumWeight * delta * R;
-            }
-
-            sumWeight = temp;
-        }
-
-        for ( int j = 0; j < size; j++ ) {
-            double M2 = M2s[j];
-
-            double variance_n = M2 / sumWeight;
-            double variance = variance_n * queue.size() / ( queue.size() - 1 );
-            stds[j] = Math.sqrt( variance );
-        }
-
-        return stds;
-
-    }
-
     public Map<GeneOntologyTerm, Map<Edition, StabilityScore>> getStabilityScores() {
         return stabilityScores;
     }
@@ -0,0 +1,150 @@
+package ubc.pavlab.gotrack.analysis;
+
+import org.apache.log4j.Logger;
+import ubc.pavlab.gotrack.model.AnnotationCounts;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+
+import java.util.*;
+
+/**
+ * Over-representation analysis of GO terms on primitive arrays. Equivalent to
+ * {@link Enrichment#runAnalysis(CompletePopulation, Population)} against a population of inferred annotation counts
+ * but every tested term is given a dense index: sample and population counts live in int arrays, p-values in a double
+ * array and ranking is a sort of indices, so no boxed counts or intermediate hash sets are created.
+ * <p>
+ * Terms with equal p-values are ordered by their contingency table, so terms sharing a table always share a rank. The
+ * generic implementation leaves such ties in hash order.
+ */
+final class TermIndexedEnrichment {
+
+    private static final Logger log = Logger.getLogger( TermIndexedEnrichment.class );
+
+    private TermIndexedEnrichment() {
+    }
+
+    /**
+     * Run the analysis and store the results in the given enrichment, with its correction method, threshold and
+     * population limits.
+     *
+     * @param  enrichment     holds the options and receives the results
+     * @param  sample         sample of genes annotated with terms
+     * @param  population     inferred annotation counts of the population
+     * @param  populationSize number of genes in the population
+     * @param  memo           memo of hypergeometric probabilities
+     * @return                false if all tests were rejected
+     */
+    static <G> boolean runAnalysis( Enrichment<GeneOntologyTerm, G> enrichment,
+                                    CompletePopulation<GeneOntologyTerm, G> sample, AnnotationCounts population,
+                                    int populationSize, HyperGeometricMemo memo ) {
+        int populationMin = enrichment.getPopulationMin();
+        int populationMax = enrichment.getPopulationMax();
+        double threshold = enrichment.getThreshold();
+
+        Set<GeneOntologyTerm> properties = sample.getProperties();
+        int sampleSize = sample.size();
+
+        GeneOntologyTerm[] terms = new GeneOntologyTerm[properties.size()];
+        int[] sampleAnnotated = new int[terms.length];
+        int[] populationAnnotated = new int[terms.length];
+        double[] pvalues = new double[terms.length];
+        Set<GeneOntologyTerm> rejected = new HashSet<>();
+
+        int n = 0;
+        for ( GeneOntologyTerm t : properties ) {
+            Set<G> genes = sample.getEntities( t );
+            int m = population.getInferredCount( t );
+
+            // check population requirements
+            if ( genes == null || m == -1 || m < populationMin || m > populationMax ) {
+                rejected.add( t );
+                continue;
+            }
+
+            int r = genes.size();
+            terms[n] = t;
+            sampleAnnotated[n] = r;
+            populationAnnotated[n] = m;
+            pvalues[n] = memo.upperCumulativeProbability( r, m, sampleSize, populationSize );
+            n++;
+        }
+
+        if ( n == 0 ) {
+            log.info( "All tests rejected." );
+            enrichment.setEmpty( sample );
+            return false;
+        }
+
+        int[] order = new int[n];
+        for ( int i = 0; i < n; i++ ) {
+            order[i] = i;
+        }
+        sort( order, pvalues, sampleAnnotated, populationAnnotated );
+
+        long[] tables = new long[n];
+        for ( int i = 0; i < n; i++ ) {
+            tables[i] = ( (long) sampleAnnotated[i] << 32 ) | populationAnnotated[i];
+        }
+        // Terms sharing a contingency table are adjacent and share a standard rank
+        RankedTests ranked = RankedTests.rank( pvalues, order, tables, enrichment.getMultipleTestCorrectionMethod(),
+                threshold );
+
+        Map<GeneOntologyTerm, EnrichmentResult> results = new HashMap<>( 2 * n );
+        Set<GeneOntologyTerm> sig = new HashSet<>( 2 * ranked.getSignificantCount() );
+        for ( int i = 0; i < n; i++ ) {
+            EnrichmentResult er = new EnrichmentResult( pvalues[i], sampleAnnotated[i], populationAnnotated[i],
+                    sampleSize, populationSize );
+            er.setRank( ranked.getRank( i ) );
+            er.setFractionalRank( ranked.getFractionalRank( i ) );
+            if ( ranked.isSignificant( i ) ) {
+                er.setSignificant( true );
+                sig.add( terms[i] );
+            }
+            results.put( terms[i], er );
+        }
+
+        enrichment.setComputed( sample, results, Arrays.asList( terms ).subList( 0, n ), ranked, sig, rejected, n );
+        return true;
+    }
+
+    /**
+     * Stable merge sort of indices by p-value, then by descending sample count and ascending population count.
+     */
+    static void sort( int[] order, double[] pvalues, int[] sampleAnnotated, int[] populationAnnotated ) {
+        int[] buffer = new int[order.length];
+        for ( int width = 1; width < order.length; width *= 2 ) {
+            for ( int lo = 0; lo < order.length - width; lo += 2 * width ) {
+                int mid = lo + width;
+                int hi = Math.min( lo + 2 * width, order.length );
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while ( i < mid && j < hi ) {
+                    if ( compare( order[j], order[i], pvalues, sampleAnnotated, populationAnnotated ) < 0 ) {
+                        buffer[k++] = order[j++];
+                    } else {
+                        buffer[k++] = order[i++];
+                    }
+                }
+                while ( i < mid ) {
+                    buffer[k++] = order[i++];
+                }
+                while ( j < hi ) {
+                    buffer[k++] = order[j++];
+                }
+                System.arraycopy( buffer, lo, order, lo, hi - lo );
+            }
+        }
+    }
+
+    private static int compare( int a, int b, double[] pvalues, int[] sampleAnnotated, int[] populationAnnotated ) {
+        int c = Double.compare( pvalues[a], pvalues[b] );
+        if ( c != 0 ) {
+            return c;
+        }
+        c = Integer.compare( sampleAnnotated[b], sampleAnnotated[a] );
+        if ( c != 0 ) {
+            return c;
+        }
+        return Integer.compare( populationAnnotated[a], populationAnnotated[b] );
+    }
+}
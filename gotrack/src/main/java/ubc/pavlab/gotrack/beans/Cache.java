@@ -19,7 +19,10 @@
 
 package ubc.pavlab.gotrack.beans;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
 import com.googlecode.concurrenttrees.radix.RadixTree;
 import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
@@ -29,12 +32,14 @@ import org.omnifaces.cdi.Eager;
 import ubc.pavlab.gotrack.analysis.MultipleTestCorrection;
 import ubc.pavlab.gotrack.beans.service.SpeciesService;
 import ubc.pavlab.gotrack.dao.CacheDAO;
+import ubc.pavlab.gotrack.dao.CacheSnapshotDAO;
 import ubc.pavlab.gotrack.model.*;
 import ubc.pavlab.gotrack.model.dto.*;
 import ubc.pavlab.gotrack.model.go.GeneOntology;
+import ubc.pavlab.gotrack.model.go.GeneOntologyIndex;
 import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
 import ubc.pavlab.gotrack.model.go.RelationshipType;
-import ubc.pavlab.gotrack.model.hashkey.MultiKey;
+import ubc.pavlab.gotrack.model.go.TermSet;
 import ubc.pavlab.gotrack.model.search.GeneMatch;
 
 import javax.annotation.PostConstruct;
@@ -42,9 +47,11 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.Serializable;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * NOTE: Most maps here do not require synchronicity locks as they are both read-only and accessing threads are
@@ -70,7 +77,8 @@ public class Cache implements Serializable {
     private static final Logger log = Logger.getLogger( Cache.class );
 
     private final int MAX_DATA_ENTRIES = 20;
-    private final int MAX_ENRICHMENT_ENTRIES = 1000;
+    // Rough heap cost of one term in a cached enrichment set held as a HashSet (entry plus table slot)
+    private static final int BYTES_PER_TERM_REFERENCE = 48;
 
     @Inject
     private SettingsCache settingsCache;
@@ -136,11 +144,11 @@ public class Cache implements Serializable {
 
     //private Map<Gene, Map<Edition, Integer>> geneRanksByInferredTermCount = new ConcurrentHashMap<>();
 
-    // Maps edition, goId -> count of unique genes annotated this term or any of its children
-    private Map<Edition, Map<GeneOntologyTerm, Integer>> inferredAnnotationCount = new ConcurrentHashMap<>();
+    // Maps edition -> count of unique genes annotated to each term only and to each term or any of its children
+    private Map<Edition, AnnotationCounts> annotationCounts = new ConcurrentHashMap<>();
 
-    // Maps edition, goId -> count of unique genes annotated this term only
-    private Map<Edition, Map<GeneOntologyTerm, Integer>> directAnnotationCount = new ConcurrentHashMap<>();
+    // Maps GO id -> term in each GOEdition, for lookups across all ontologies
+    private GeneOntologyIndex termIndex = new GeneOntologyIndex( Collections.emptyList() );
 
     // Maps GOEdition -> GeneOntology
     // Holds our created ontologies
@@ -157,20 +165,8 @@ public class Cache implements Serializable {
      * Page specific caches
      */
 
-    // Holds data for enrichment used in EnrichmentView.
-    private Map<Gene, Map<Edition, Set<GeneOntologyTerm>>> applicationLevelEnrichmentCache = new LinkedHashMap<Gene, Map<Edition, Set<GeneOntologyTerm>>>(
-            MAX_ENRICHMENT_ENTRIES + 1, 0.75F, true ) {
-        /**
-         *
-         */
-        private static final long serialVersionUID = -2166216884887056632L;
-
-        // This method is called just after a new entry has been added
-        @Override
-        public boolean removeEldestEntry( Map.Entry<Gene, Map<Edition, Set<GeneOntologyTerm>>> eldest ) {
-            return size() > MAX_ENRICHMENT_ENTRIES;
-        }
-    };
+    // Holds data for enrichment used in EnrichmentView, bounded by the estimated size of the term sets held.
+    private com.google.common.cache.Cache<Gene, Map<Edition, Set<GeneOntologyTerm>>> applicationLevelEnrichmentCache;
 
     /**
      *
@@ -375,43 +371,134 @@ public class Cache implements Serializable {
         // ****************************
 
         log.info( "Caching ontologies..." );
-        int i = 0;
-        for ( GOEdition goEdition : allGOEditions.values() ) {
-            if ( i % 20 == 0 ) {
-                log.info( "Ontologies complete: " + i + " / " + allGOEditions.size() );
+        int threads = settingsCache.ontologyThreads();
+        boolean precomputeAncestors = settingsCache.isPrecomputeAncestors();
+        if ( threads > 1 ) {
+            createGOTermsParallel( cacheDAO, threads, settingsCache.ontologyConnections(), precomputeAncestors );
+        } else {
+            int i = 0;
+            for ( GOEdition goEdition : allGOEditions.values() ) {
+                if ( i % 20 == 0 ) {
+                    log.info( "Ontologies complete: " + i + " / " + allGOEditions.size() );
+                }
+                ontologies.put( goEdition, loadOntology( cacheDAO, goEdition, null, precomputeAncestors ) );
+                i++;
             }
-            GeneOntology go = new GeneOntology( goEdition );
-            ontologies.put( goEdition, go );
+        }
 
-            for ( GOTermDTO dto : cacheDAO.getGoTerms( goEdition.getId() ) ) {
-                go.addTerm( new GeneOntologyTerm( dto ) );
-            }
+        log.info( "Ontologies complete: " + allGOEditions.size() + " / " + allGOEditions.size() );
+
+        long indexStartTime = System.currentTimeMillis();
+        termIndex = new GeneOntologyIndex( ontologies.values() );
+        log.info( "GO id index built: " + termIndex.size() + " ids in "
+                + ( System.currentTimeMillis() - indexStartTime ) + "ms" );
+
+        cacheDAO.getGODefinitions( dto -> geneOntologyDefinitions.put( dto.getGoId(), dto.getDefinition() ) );
+        log.info( "GO Definitions fetched" );
+
+        System.gc();
+        log.info( "GO Ontologies Loaded: " + ontologies.keySet().size() );
+        log.info( "Used Memory: "
+                + ( Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() ) / 1000000 + " MB" );
+    }
 
-            for ( AdjacencyDTO dto : cacheDAO.getAdjacencies( goEdition.getId() ) ) {
-                go.addRelationship( dto.getChild(), dto.getParent(), RelationshipType.valueOf( dto.getType() ) );
+    /**
+     * Builds the ontologies of every GO edition concurrently. Each ontology is independent of the others so they can be
+     * created, populated and frozen on separate threads.
+     *
+     * @param cacheDAO            dao
+     * @param threads             number of worker threads
+     * @param connections         maximum number of database connections held at once
+     * @param precomputeAncestors compute the ancestors of every term as each ontology is frozen
+     */
+    private void createGOTermsParallel( CacheDAO cacheDAO, int threads, int connections,
+            boolean precomputeAncestors ) {
+        log.info( "Loading ontologies using " + threads + " threads and at most " + connections + " connections" );
+        long startTime = System.currentTimeMillis();
+
+        Semaphore connectionPermits = new Semaphore( connections );
+        AtomicInteger completed = new AtomicInteger();
+        int total = allGOEditions.size();
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads,
+                new ThreadFactoryBuilder().setNameFormat( "ontology-loader-%d" ).setDaemon( true ).build() );
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for ( GOEdition goEdition : allGOEditions.values() ) {
+                futures.add( executor.submit( () -> {
+                    long edStartTime = System.currentTimeMillis();
+                    GeneOntology go = loadOntology( cacheDAO, goEdition, connectionPermits,
+                            precomputeAncestors );
+                    ontologies.put( goEdition, go );
+                    log.info( "Ontologies complete: " + completed.incrementAndGet() + " / " + total + " - "
+                            + goEdition + " (" + go.size() + " terms) in "
+                            + ( System.currentTimeMillis() - edStartTime ) + "ms" );
+                } ) );
             }
 
-            for ( AdjacencyDTO dto : cacheDAO.getAlternates( goEdition.getId() ) ) {
-                go.addAlt( dto.getChild(), dto.getParent() );
+            for ( Future<?> future : futures ) {
+                future.get();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Interrupted while loading ontologies", e );
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw ( RuntimeException ) e.getCause();
             }
+            throw new RuntimeException( "Failed to load ontologies", e.getCause() );
+        } finally {
+            executor.shutdownNow();
+        }
 
-            go.freeze();
+        log.info( "Ontologies loaded in parallel in " + ( System.currentTimeMillis() - startTime ) + "ms" );
+    }
+
+    /**
+     * Fetch the terms, relationships and alternates of a single GO edition and build its frozen ontology.
+     *
+     * @param cacheDAO            dao
+     * @param goEdition           GO edition to load
+     * @param connectionPermits   if not null, a permit is held for the duration of every database query
+     * @param precomputeAncestors compute the ancestors of every term as the ontology is frozen
+     * @return frozen ontology
+     */
+    private static GeneOntology loadOntology( CacheDAO cacheDAO, GOEdition goEdition, Semaphore connectionPermits,
+            boolean precomputeAncestors ) {
+        List<GOTermDTO> terms;
+        List<AdjacencyDTO> adjacencies;
+        List<AdjacencyDTO> alternates;
+
+        if ( connectionPermits != null ) {
+            connectionPermits.acquireUninterruptibly();
+        }
+        try {
+            terms = cacheDAO.getGoTerms( goEdition.getId() );
+            adjacencies = cacheDAO.getAdjacencies( goEdition.getId() );
+            alternates = cacheDAO.getAlternates( goEdition.getId() );
+        } finally {
+            if ( connectionPermits != null ) {
+                connectionPermits.release();
+            }
+        }
 
-            i++;
+        GeneOntology go = new GeneOntology( goEdition );
 
+        for ( GOTermDTO dto : terms ) {
+            go.addTerm( new GeneOntologyTerm( dto ) );
         }
 
-        log.info( "Ontologies complete: " + allGOEditions.size() + " / " + allGOEditions.size() );
+        for ( AdjacencyDTO dto : adjacencies ) {
+            go.addRelationship( dto.getChild(), dto.getParent(), RelationshipType.valueOf( dto.getType() ) );
+        }
 
-        for ( GODefinitionDTO dto : cacheDAO.getGODefinitions() ) {
-            geneOntologyDefinitions.put( dto.getGoId(), dto.getDefinition() );
+        for ( AdjacencyDTO dto : alternates ) {
+            go.addAlt( dto.getChild(), dto.getParent() );
         }
-        log.info( "GO Definitions fetched" );
 
-        System.gc();
-        log.info( "GO Ontologies Loaded: " + ontologies.keySet().size() );
-        log.info( "Used Memory: "
-                + ( Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() ) / 1000000 + " MB" );
+        go.freeze( precomputeAncestors );
+
+        return go;
     }
 
     private void createAggregates( CacheDAO cacheDAO ) {
@@ -429,12 +516,12 @@ public class Cache implements Serializable {
         // Aggregate cache creation
         // ****************************
         log.info( "Attempting to create Aggregates from database cache" );
-        for ( AggregateDTO dto : cacheDAO.getAggregates( speciesRestrictions ) ) {
+        cacheDAO.getAggregates( speciesRestrictions, dto -> {
             Species species = speciesCache.get( dto.getSpecies() );
             Edition ed = allEditions.get( species ).get( dto.getEdition() );
 
             if ( ed == null ) {
-                continue;
+                return;
             }
 
             aggregates.put( ed, new Aggregate( dto ) );
@@ -445,7 +532,7 @@ public class Cache implements Serializable {
                 mostRecentAggregateEditions.put( species, dto.getEdition() );
             }
 
-        }
+        } );
         // ****************************
         // Annotation Counts cache creation
         // ****************************
@@ -457,49 +544,36 @@ public class Cache implements Serializable {
         log.info( "Attempting to create Annotation Counts from database cache" );
         for ( Species species : speciesCache.values() ) {
             log.info( "Begin: " + species );
-            Integer recentEdition = null;
             Integer minEdition = minEditions.get( species.getId() );
             minEdition = minEdition == null ? 0 : minEdition;
             Map<Integer, Edition> editions = allEditions.get( species );
-            for ( AnnotationCountDTO dto : cacheDAO.getGOAnnotationCounts( species.getId(), minEdition ) ) {
-                MultiKey k = new MultiKey( species, dto );
+            // Millions of rows, streamed from the database rather than collected first
+            cacheDAO.getGOAnnotationCounts( species.getId(), minEdition, dto -> {
                 Edition ed = editions.get( dto.getEdition() );
 
                 GeneOntologyTerm term = this.getTerm( ed, dto.getGoId() );
                 if ( term == null ) {
                     // key existed before
                     log.warn( "Missing Aggregate Term: " + dto.getGoId() );
+                    return;
                 }
 
-                Map<GeneOntologyTerm, Integer> m1 = directAnnotationCount.get( ed );
-                if ( m1 == null ) {
-                    m1 = Maps.newConcurrentMap();
-                    directAnnotationCount.put( ed, m1 );
+                AnnotationCounts counts = annotationCounts.get( ed );
+                if ( counts == null ) {
+                    counts = new AnnotationCounts( ontologies.get( ed.getGoEdition() ) );
+                    annotationCounts.put( ed, counts );
                 }
 
-                if ( dto.getDirectCount() != null ) {
-                    m1.put( term, dto.getDirectCount() );
-                }
+                counts.put( term, dto.getDirectCount(), dto.getInferredCount() );
 
-                m1 = inferredAnnotationCount.get( ed );
-                if ( m1 == null ) {
-                    m1 = Maps.newConcurrentMap();
-                    inferredAnnotationCount.put( ed, m1 );
-                }
+                mostRecentCountEditions.merge( species, dto.getEdition(), Math::max );
 
-                if ( dto.getInferredCount() != null ) {
-                    m1.put( term, dto.getInferredCount() );
-                }
-
-                if ( recentEdition == null || dto.getEdition() > recentEdition ) {
-                    recentEdition = dto.getEdition();
-                }
-
-            }
-            mostRecentCountEditions.put( species, recentEdition );
+            } );
         }
         // ****************************
 
+        logAnnotationCountMemory();
+
         // ******************************************************
 
         // Check to see if aggregates are out of date with data
@@ -538,24 +612,41 @@ public class Cache implements Serializable {
         }
     }
 
+    /**
+     * Report the footprint of the annotation count tables alongside an estimate of what the same counts would occupy as
+     * a pair of Map&lt;GeneOntologyTerm, Integer&gt; per edition.
+     */
+    private void logAnnotationCountMemory() {
+        long terms = 0;
+        long bytes = 0;
+        for ( AnnotationCounts counts : annotationCounts.values() ) {
+            terms += counts.size();
+            bytes += counts.sizeInBytes();
+        }
+        // ConcurrentHashMap node (32) + table slot (~6) + boxed Integer (16), for each of the direct and inferred maps
+        long mapBytes = terms * 2 * ( 32 + 6 + 16 );
+        log.info( "Annotation counts: " + annotationCounts.size() + " editions, " + terms + " terms, "
+                + bytes / 1000000 + " MB (as nested maps: ~" + mapBytes / 1000000 + " MB)" );
+    }
+
     private void createGenes( CacheDAO cacheDAO ) {
         // ****************************
         // Accession and Gene creation
 
         Map<Integer, Gene.GeneBuilder> geneBuilders = Maps.newHashMap();
-        for ( AccessionDTO dto : cacheDAO.getAccessions( speciesRestrictions ) ) {
+        cacheDAO.getAccessions( speciesRestrictions, dto -> {
             Accession accession = new Accession( dto );
 
             // Need synonyms to complete the genes
             geneBuilders.put( dto.getId(),
                     new Gene.GeneBuilder( dto.getId(), dto.getSymbol(), dto.getName(), speciesCache.get( dto.getSpeciesId() ), accession ) );
-        }
+        } );
 
         // Fill in synonyms
-        for ( SynonymDTO dto : cacheDAO.getSynonyms( speciesRestrictions ) ) {
+        cacheDAO.getSynonyms( speciesRestrictions, dto -> {
             Gene.GeneBuilder gb = geneBuilders.get( dto.getId() );
             gb.synonym( dto.getSynonym() );
-        }
+        } );
 
         // Builds genes
         for ( Gene.GeneBuilder gb : geneBuilders.values() ) {
@@ -704,6 +795,28 @@ public class Cache implements Serializable {
         // ****************************
     }
 
+    /**
+     * Entries are weighed in estimated bytes rather than in term references: a fixed cost per reference held in a
+     * HashSet, or the packed size of a {@link TermSet}, so that the budget can be configured as memory.
+     */
+    private void createEnrichmentCache() {
+        long budget = settingsCache.enrichmentCacheMegabytes() * 1024L * 1024L;
+        applicationLevelEnrichmentCache = CacheBuilder.newBuilder()
+                .concurrencyLevel( Runtime.getRuntime().availableProcessors() )
+                .maximumWeight( budget )
+                .weigher( ( Gene gene, Map<Edition, Set<GeneOntologyTerm>> data ) -> {
+                    long weight = BYTES_PER_TERM_REFERENCE;
+                    for ( Set<GeneOntologyTerm> terms : data.values() ) {
+                        weight += BYTES_PER_TERM_REFERENCE + ( terms instanceof TermSet ? ( (TermSet) terms ).sizeInBytes()
+                                : (long) BYTES_PER_TERM_REFERENCE * terms.size() );
+                    }
+                    return (int) Math.min( weight, Integer.MAX_VALUE );
+                } )
+                .recordStats()
+                .build();
+        log.info( "Enrichment cache budget: " + budget / ( 1024 * 1024 ) + " MiB" );
+    }
+
     /**
      * Create lots of static data caches to be used by Views.
      */
@@ -711,7 +824,7 @@ public class Cache implements Serializable {
     public void init() {
         log.info( "Cache init" );
 
-        applicationLevelEnrichmentCache = Collections.synchronizedMap( applicationLevelEnrichmentCache );
+        createEnrichmentCache();
 
         log.info( "Used Memory: " + ( Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() ) / 1000000
                 + " MB" );
@@ -726,8 +839,32 @@ public class Cache implements Serializable {
 
         // Obtain CacheDAO
         CacheDAO cacheDAO = daoFactoryBean.getGotrack().getCacheDAO();
+
+        // Serve from a local snapshot when the database has not changed since it was written
+        CacheSnapshotDAO snapshot = null;
+        String snapshotPath = settingsCache.cacheSnapshot();
+        if ( snapshotPath != null && !settingsCache.isDryRun() ) {
+            snapshot = new CacheSnapshotDAO( cacheDAO, Paths.get( snapshotPath ),
+                    Arrays.toString( speciesRestrictions ) + "|" + minRelease );
+            cacheDAO = snapshot;
+        }
         log.info( "CacheDAO successfully obtained: " + cacheDAO );
 
+        try {
+            createCache( cacheDAO );
+            if ( snapshot != null ) {
+                snapshot.save();
+            }
+        } finally {
+            if ( snapshot != null ) {
+                snapshot.close();
+            }
+        }
+
+        log.info( "Cache Completed" );
+    }
+
+    private void createCache( CacheDAO cacheDAO ) {
         createEditions( cacheDAO );
 
         createEvidence( cacheDAO );
@@ -750,8 +887,6 @@ public class Cache implements Serializable {
                 + " MB" );
 
         createAutocompleteTries();
-
-        log.info( "Cache Completed" );
     }
 
     /**
@@ -1116,9 +1251,9 @@ public class Cache implements Serializable {
      */
     public Integer getInferredAnnotationCount( Edition ed, GeneOntologyTerm t ) {
         if ( ed == null || t == null ) return null;
-        Map<GeneOntologyTerm, Integer> tmp = inferredAnnotationCount.get( ed );
+        AnnotationCounts tmp = annotationCounts.get( ed );
         if ( tmp != null ) {
-            return tmp.get( t );
+            return tmp.getInferred( t );
         }
         return null;
     }
@@ -1130,30 +1265,20 @@ public class Cache implements Serializable {
      */
     public Integer getDirectAnnotationCount( Edition ed, GeneOntologyTerm t ) {
         if ( ed == null || t == null ) return null;
-        Map<GeneOntologyTerm, Integer> tmp = directAnnotationCount.get( ed );
+        AnnotationCounts tmp = annotationCounts.get( ed );
         if ( tmp != null ) {
-            return tmp.get( t );
+            return tmp.getDirect( t );
         }
         return null;
     }
 
     /**
      * @param  ed edition
-     * @return    count of genes annotated with this term or any of its children
+     * @return    direct and inferred counts of genes annotated to each term
      */
-    public Map<GeneOntologyTerm, Integer> getInferredAnnotationCount( Edition ed ) {
+    public AnnotationCounts getAnnotationCounts( Edition ed ) {
         if ( ed == null ) return null;
-        return inferredAnnotationCount.get( ed );
-
-    }
-
-    /**
-     * @param  ed edition
-     * @return    count of genes annotated with this term
-     */
-    public Map<GeneOntologyTerm, Integer> getDirectAnnotationCount( Edition ed ) {
-        if ( ed == null ) return null;
-        return directAnnotationCount.get( ed );
+        return annotationCounts.get( ed );
     }
 
     /**
@@ -1207,6 +1332,14 @@ public class Cache implements Serializable {
         return null;
     }
 
+    /**
+     * @return largest count of unique genes in any edition, 0 if none are loaded
+     */
+    public int getMaxGeneCount() {
+        return aggregates.values().stream().map( Aggregate::getGeneCount ).filter( Objects::nonNull )
+                .mapToInt( Integer::intValue ).max().orElse( 0 );
+    }
+
     // public void ontologyStats() {
     // for ( GeneOntology o : ontologies.values() ) {
     // o.getCacheStats();
@@ -1238,6 +1371,17 @@ public class Cache implements Serializable {
 
     }
 
+    /**
+     * @param  ed edition
+     * @return    ontology of the GO edition linked to this edition, null if not loaded
+     */
+    public GeneOntology getOntology( Edition ed ) {
+        if ( ed == null ) {
+            return null;
+        }
+        return ontologies.get( ed.getGoEdition() );
+    }
+
     public GeneOntologyTerm getTerm( Edition ed, Integer id ) {
         if ( id == null || ed == null ) {
             return null;
@@ -1282,18 +1426,7 @@ public class Cache implements Serializable {
             return null;
         }
 
-        Map<GOEdition, GeneOntologyTerm> termsMap = new HashMap<>();
-
-        boolean found = false;
-
-        for ( Entry<GOEdition, GeneOntology> entry : ontologies.entrySet() ) {
-            GeneOntologyTerm term = entry.getValue().getTerm( goId );
-            // yes we want null values
-            termsMap.put( entry.getKey(), term );
-            found |= ( term != null );
-        }
-
-        return found ? termsMap : null;
+        return termIndex.getTerms( goId );
     }
 
     /**
@@ -1354,15 +1487,7 @@ public class Cache implements Serializable {
             return false;
         }
 
-        for ( Entry<GOEdition, GeneOntology> entry : ontologies.entrySet() ) {
-            GeneOntologyTerm term = entry.getValue().getTerm( goId );
-            if ( term != null ) {
-                return true;
-            }
-
-        }
-
-        return false;
+        return termIndex.contains( goId );
     }
 
     public Collection<GeneOntology> getAllOntologies() {
@@ -1385,10 +1510,7 @@ public class Cache implements Serializable {
      * @return      cache data for EnrichmentView under given gene
      */
     public Map<Edition, Set<GeneOntologyTerm>> getEnrichmentData( Gene gene ) {
-        // TODO not sure if necessary, not a big deal either way
-        synchronized ( applicationLevelEnrichmentCache ) {
-            return applicationLevelEnrichmentCache.get( gene );
-        }
+        return applicationLevelEnrichmentCache.getIfPresent( gene );
     }
 
     /**
@@ -1398,9 +1520,21 @@ public class Cache implements Serializable {
      * @param data data to be cached
      */
     public void addEnrichmentData( Gene gene, Map<Edition, Set<GeneOntologyTerm>> data ) {
-        synchronized ( applicationLevelEnrichmentCache ) {
-            applicationLevelEnrichmentCache.put( gene, data );
-        }
+        applicationLevelEnrichmentCache.put( gene, data );
+    }
+
+    /**
+     * @return hit, miss and eviction counts of the EnrichmentView cache
+     */
+    public CacheStats getEnrichmentCacheStats() {
+        return applicationLevelEnrichmentCache.stats();
+    }
+
+    /**
+     * @return number of genes held in the EnrichmentView cache
+     */
+    public long getEnrichmentCacheSize() {
+        return applicationLevelEnrichmentCache.size();
     }
 
 }
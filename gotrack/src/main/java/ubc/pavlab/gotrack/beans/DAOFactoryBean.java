@@ -22,6 +22,7 @@ package ubc.pavlab.gotrack.beans;
 import java.io.Serializable;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -77,6 +78,14 @@ public class DAOFactoryBean implements Serializable {
         log.info( "DAOFactory successfully obtained: " + gotrack );
     }
 
+    @PreDestroy
+    public void destroy() {
+        log.info( "DAOFactoryBean destroyed: " + gotrack );
+        if ( gotrack != null ) {
+            gotrack.close();
+        }
+    }
+
     public DAOFactory getGotrack() {
         return gotrack;
     }
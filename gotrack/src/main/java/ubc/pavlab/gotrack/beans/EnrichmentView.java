@@ -31,6 +31,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.primefaces.context.RequestContext;
 import ubc.pavlab.gotrack.analysis.*;
+import ubc.pavlab.gotrack.beans.service.CombinedAnalysisKey;
 import ubc.pavlab.gotrack.beans.service.EnrichmentService;
 import ubc.pavlab.gotrack.model.Edition;
 import ubc.pavlab.gotrack.model.Gene;
@@ -175,6 +176,9 @@ public class EnrichmentView implements Serializable {
     @Getter
     CombinedAnalysis combinedAnalysis;
 
+    // Inputs of combinedAnalysis, to re-correct it rather than run it again when only the correction changes
+    private CombinedAnalysisKey combinedAnalysisKey;
+
     // Enrichment Data TODO: Could be cached in the EnrichmentAnalysis object instead of here
     private Map<Edition, Map<GeneOntologyTerm, EnrichmentResult>> enrichmentResults; // Results of the enrichment analysis
 
@@ -297,13 +301,23 @@ public class EnrichmentView implements Serializable {
 
         statusPoller = new StatusPoller( " completed" );
 
-        combinedAnalysis = enrichmentService.combinedAnalysis(
-                new HashSet<>( speciesToSelectedGenes.get( selectedSpecies ) ),
-                selectedSpecies,
-                enrichmentOptions,
-                similarityReferenceEdition,
-                TOP_N_JACCARD,
-                statusPoller );
+        Set<Gene> genes = new HashSet<>( speciesToSelectedGenes.get( selectedSpecies ) );
+        CombinedAnalysisKey key = new CombinedAnalysisKey( genes, selectedSpecies, enrichmentOptions,
+                similarityReferenceEdition, TOP_N_JACCARD );
+
+        if ( combinedAnalysis != null && combinedAnalysis.isSuccess() && combinedAnalysisKey != null
+                && !combinedAnalysisKey.equals( key ) && combinedAnalysisKey.sameExceptCorrection( key ) ) {
+            combinedAnalysis = enrichmentService.recorrect( combinedAnalysis, enrichmentOptions, statusPoller );
+        } else {
+            combinedAnalysis = enrichmentService.combinedAnalysis(
+                    genes,
+                    selectedSpecies,
+                    enrichmentOptions,
+                    similarityReferenceEdition,
+                    TOP_N_JACCARD,
+                    statusPoller );
+        }
+        combinedAnalysisKey = key;
 
         enrichmentResults = combinedAnalysis.getEnrichmentAnalysis().getResults();
 
@@ -439,19 +439,30 @@ public class GeneView implements Serializable {
         averageInferredSeries.putExtra( "color", "#0060B5" );
         averageInferredSeries.putExtra( "marker", ImmutableMap.of("enabled", false) );
 
-        Set<GeneOntologyTerm> compareDirectGOSet = rawData.get( currentEdition ).entrySet().stream()
-                .filter( e -> e.getValue().stream().anyMatch( FullAnnotation :: isDirect ) )
-                .map( Entry::getKey )
-                .collect( Collectors.toSet());
-        Set<GeneOntologyTerm> compareGOSet =rawData.get( currentEdition ).keySet();
+        // Compared as sorted term ids, a merge per edition instead of hashing every term
+        int[] compareDirectGOIds = directIds( rawData.get( currentEdition ) );
+        int[] compareGOIds = GeneOntologyTerm.toSortedIds( rawData.get( currentEdition ).keySet() );
+
+        // Consecutive editions mostly share their terms, the similarity is then only merged once
+        int[] previousIds = null;
+        double previousSimilarity = 0;
+        int[] previousDirectIds = null;
+        double previousDirectSimilarity = 0;
         for ( Entry<Edition, Map<GeneOntologyTerm, Set<FullAnnotation>>> entry : rawData.entrySet() ) {
             Edition ed = entry.getKey();
-            inferredSeries.addDataPoint( ed.getDate(), Jaccard.similarity( entry.getValue().keySet(), compareGOSet ) );
-            directSeries.addDataPoint( ed.getDate(), Jaccard.similarity( entry.getValue().entrySet().stream()
-                            .filter( e -> e.getValue().stream().anyMatch( FullAnnotation :: isDirect ) )
-                            .map( Entry::getKey )
-                            .collect( Collectors.toSet()),
-                    compareDirectGOSet ) );
+            int[] ids = GeneOntologyTerm.toSortedIds( entry.getValue().keySet() );
+            if ( !Arrays.equals( ids, previousIds ) ) {
+                previousIds = ids;
+                previousSimilarity = Jaccard.similarity( ids, compareGOIds );
+            }
+            inferredSeries.addDataPoint( ed.getDate(), previousSimilarity );
+
+            int[] directIds = directIds( entry.getValue() );
+            if ( !Arrays.equals( directIds, previousDirectIds ) ) {
+                previousDirectIds = directIds;
+                previousDirectSimilarity = Jaccard.similarity( directIds, compareDirectGOIds );
+            }
+            directSeries.addDataPoint( ed.getDate(), previousDirectSimilarity );
 
             // Averages
             Aggregate agg = cache.getAggregate( ed );
@@ -479,6 +490,25 @@ public class GeneView implements Serializable {
 
     }
 
+    /**
+     * @return distinct ids of the directly annotated terms in ascending order
+     */
+    private static int[] directIds( Map<GeneOntologyTerm, Set<FullAnnotation>> annotations ) {
+        int[] ids = new int[annotations.size()];
+        int n = 0;
+        for ( Entry<GeneOntologyTerm, Set<FullAnnotation>> e : annotations.entrySet() ) {
+            for ( FullAnnotation fa : e.getValue() ) {
+                if ( fa.isDirect() ) {
+                    ids[n++] = e.getKey().getId();
+                    break;
+                }
+            }
+        }
+        // Keys of a map are already distinct
+        Arrays.sort( ids, 0, n );
+        return n == ids.length ? ids : Arrays.copyOf( ids, n );
+    }
+
     /**
      * Create chart showing multifunctionality of this gene over time (Gillis J, Pavlidis P (2011) The Impact of
      * Multifunctional Genes on "Guilt by Association" Analysis. PLoS ONE 6(2): e17258. doi:
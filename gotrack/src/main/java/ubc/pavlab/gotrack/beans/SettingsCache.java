@@ -22,12 +22,15 @@ package ubc.pavlab.gotrack.beans;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.omnifaces.cdi.Eager;
+import ubc.pavlab.gotrack.analysis.HyperGeometricMemo;
 import ubc.pavlab.gotrack.utilities.PropertiesFile;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Named;
 import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Holds settings from the properties file. Alter the static fields here to meet your requirements if necessary.
@@ -54,6 +57,23 @@ public class SettingsCache implements Serializable {
     private static final String UPDATE_POP_TABLE = "gotrack.updatePopularTable";
     private static final String MIN_RELEASE = "gotrack.minRelease";
     private static final String DRY_RUN = "gotrack.dryRun";
+    private static final String ONTOLOGY_THREADS = "gotrack.ontologyThreads";
+    private static final String ONTOLOGY_CONNECTIONS = "gotrack.ontologyConnections";
+    private static final String CACHE_SNAPSHOT = "gotrack.cacheSnapshot";
+    private static final String ANNOTATION_STORE = "gotrack.annotationStore";
+    private static final String PRECOMPUTE_ANCESTORS = "gotrack.precomputeAncestors";
+    private static final String ENRICHMENT_CACHE_MB = "gotrack.enrichmentCacheMB";
+    private static final String ENRICHMENT_THREADS = "gotrack.enrichmentThreads";
+    private static final String PVALUE_CACHE_SIZE = "gotrack.pvalueCacheSize";
+    private static final String FAST_TAIL = "gotrack.fastTail";
+    private static final String INDEXED_ENRICHMENT = "gotrack.indexedEnrichment";
+    private static final String JOB_THREADS = "gotrack.jobThreads";
+    private static final String COMBINED_ANALYSIS_CACHE_SIZE = "gotrack.combinedAnalysisCacheSize";
+    private static final String COMBINED_ANALYSIS_CACHE_MB = "gotrack.combinedAnalysisCacheMB";
+    private static final String JOB_QUEUE_SIZE = "gotrack.jobQueueSize";
+    private static final String JOBS_PER_CLIENT = "gotrack.jobsPerClient";
+    private static final String JOB_RESULT_TTL_MINUTES = "gotrack.jobResultTTLMinutes";
+    private static final String TRUSTED_PROXIES = "gotrack.trustedProxies";
 
     private PropertiesFile prop = new PropertiesFile();
 
@@ -114,6 +134,155 @@ public class SettingsCache implements Serializable {
         return release;
     }
 
+    /**
+     * @return number of worker threads used to build ontologies at startup, 1 loads them sequentially
+     */
+    public int ontologyThreads() {
+        return Math.max( 1, getIntProperty( ONTOLOGY_THREADS, 1 ) );
+    }
+
+    /**
+     * @return maximum number of database connections held at once while loading ontologies, defaults to the number of
+     * ontology worker threads
+     */
+    public int ontologyConnections() {
+        return Math.max( 1, getIntProperty( ONTOLOGY_CONNECTIONS, ontologyThreads() ) );
+    }
+
+    /**
+     * @return true if the ancestors of every term should be computed when ontologies are loaded
+     */
+    public boolean isPrecomputeAncestors() {
+        String r = prop.getProperty( PRECOMPUTE_ANCESTORS );
+        return r != null && r.equals( "true" );
+    }
+
+    /**
+     * @return path of the binary snapshot used for warm restarts of the cache, null if snapshots are disabled
+     */
+    public String cacheSnapshot() {
+        String r = prop.getProperty( CACHE_SNAPSHOT );
+        return StringUtils.isBlank( r ) ? null : r.trim();
+    }
+
+    /**
+     * @return directory of the local columnar annotation stores read instead of the database, null if disabled
+     */
+    public String annotationStore() {
+        String r = prop.getProperty( ANNOTATION_STORE );
+        return StringUtils.isBlank( r ) ? null : r.trim();
+    }
+
+    /**
+     * @return approximate memory budget in megabytes of the application wide cache of gene annotations used in
+     * enrichment
+     */
+    public int enrichmentCacheMegabytes() {
+        return Math.max( 1, getIntProperty( ENRICHMENT_CACHE_MB, 256 ) );
+    }
+
+    /**
+     * @return number of threads shared by all enrichment analyses to run editions concurrently, 1 runs them
+     * sequentially in the requesting thread
+     */
+    public int enrichmentThreads() {
+        return Math.max( 1, getIntProperty( ENRICHMENT_THREADS, 1 ) );
+    }
+
+    /**
+     * @return maximum number of hypergeometric p-values memoized across all analyses
+     */
+    public int pvalueCacheSize() {
+        return Math.max( 1, getIntProperty( PVALUE_CACHE_SIZE, HyperGeometricMemo.DEFAULT_CAPACITY ) );
+    }
+
+    /**
+     * @return true if enrichment p-values should be computed from precomputed log factorial tables
+     */
+    public boolean isFastTail() {
+        String r = prop.getProperty( FAST_TAIL );
+        return r != null && r.equals( "true" );
+    }
+
+    /**
+     * @return true if enrichment should run on primitive arrays indexed by term rather than on maps
+     */
+    public boolean isIndexedEnrichment() {
+        String r = prop.getProperty( INDEXED_ENRICHMENT );
+        return r != null && r.equals( "true" );
+    }
+
+    /**
+     * @return number of threads running background analysis jobs
+     */
+    public int jobThreads() {
+        return Math.max( 1, getIntProperty( JOB_THREADS, 2 ) );
+    }
+
+    /**
+     * @return maximum number of background analysis jobs waiting for a thread
+     */
+    public int jobQueueSize() {
+        return Math.max( 1, getIntProperty( JOB_QUEUE_SIZE, 50 ) );
+    }
+
+    /**
+     * @return maximum number of queued or running background analysis jobs per client
+     */
+    public int jobsPerClient() {
+        return Math.max( 1, getIntProperty( JOBS_PER_CLIENT, 2 ) );
+    }
+
+    /**
+     * @return minutes for which results of finished background analysis jobs are kept
+     */
+    public int jobResultTTLMinutes() {
+        return Math.max( 1, getIntProperty( JOB_RESULT_TTL_MINUTES, 30 ) );
+    }
+
+    /**
+     * @return addresses of the reverse proxies whose X-Forwarded-For header identifies clients, empty if none
+     */
+    public Set<String> trustedProxies() {
+        Set<String> proxies = new HashSet<>();
+        String r = prop.getProperty( TRUSTED_PROXIES );
+        if ( !StringUtils.isBlank( r ) ) {
+            for ( String token : r.split( "," ) ) {
+                if ( !token.trim().isEmpty() ) {
+                    proxies.add( token.trim() );
+                }
+            }
+        }
+        return proxies;
+    }
+
+    /**
+     * @return maximum number of enrichment page analyses shared between sessions, 0 to share none
+     */
+    public int combinedAnalysisCacheSize() {
+        return Math.max( 0, getIntProperty( COMBINED_ANALYSIS_CACHE_SIZE, 50 ) );
+    }
+
+    /**
+     * @return approximate memory budget in megabytes of enrichment page analyses shared between sessions
+     */
+    public int combinedAnalysisCacheMegabytes() {
+        return Math.max( 1, getIntProperty( COMBINED_ANALYSIS_CACHE_MB, 512 ) );
+    }
+
+    private int getIntProperty( String key, int defaultValue ) {
+        String r = prop.getProperty( key );
+        if ( StringUtils.isBlank( r ) ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt( r.trim() );
+        } catch ( NumberFormatException e ) {
+            log.warn( "Property (" + key + ") is not an integer: " + r + ", using default: " + defaultValue );
+            return defaultValue;
+        }
+    }
+
     public boolean contains( String key ) {
         return prop.contains( key );
     }
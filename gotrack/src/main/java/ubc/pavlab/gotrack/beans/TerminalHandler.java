@@ -19,7 +19,12 @@
 
 package ubc.pavlab.gotrack.beans;
 
+import com.google.common.collect.Lists;
 import org.apache.log4j.Logger;
+import ubc.pavlab.gotrack.beans.service.AnnotationService;
+import ubc.pavlab.gotrack.beans.service.EnrichmentService;
+import ubc.pavlab.gotrack.dao.DAOException;
+import ubc.pavlab.gotrack.dao.QueryMetrics;
 import ubc.pavlab.gotrack.model.Aggregate;
 import ubc.pavlab.gotrack.model.Edition;
 import ubc.pavlab.gotrack.model.Species;
@@ -53,7 +58,7 @@ public class TerminalHandler implements Serializable {
     private static final List<String> OPEN_COMMANDS = Arrays.asList( "greet", "date", "genes", "aggregate", "term",
             "auth", "help", "genes" );
     private static final List<String> AUTH_COMMANDS = Arrays.asList( "greet", "date", "genes", "aggregate", "term",
-            "auth", "help", "genes", "reload_settings", "stability", "enrich" );
+            "auth", "help", "genes", "enrichment_cache", "pvalue_cache", "analysis_cache", "reload_settings", "dao_metrics", "export_annotations", "stability", "enrich" );
 
     @Inject
     private SessionManager sessionManager;
@@ -64,6 +69,15 @@ public class TerminalHandler implements Serializable {
     @Inject
     EnrichmentView enrichmentView;
 
+    @Inject
+    private EnrichmentService enrichmentService;
+
+    @Inject
+    private DAOFactoryBean daoFactoryBean;
+
+    @Inject
+    private AnnotationService annotationService;
+
     public TerminalHandler() {
         log.info( "TerminalHandler created" );
         log.info( "Used Memory: " + ( Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() ) / 1000000
@@ -178,6 +192,38 @@ public class TerminalHandler implements Serializable {
                 sessionManager.reloadSettings();
                 return "Settings reloaded";
 
+            } else if ( command.equals( "enrichment_cache" ) ) {
+                return "Genes: " + cache.getEnrichmentCacheSize() + "<br/>" + cache.getEnrichmentCacheStats().toString();
+            } else if ( command.equals( "pvalue_cache" ) ) {
+                return enrichmentService.getPvalueMemo().toString();
+            } else if ( command.equals( "analysis_cache" ) ) {
+                return "Analyses: " + enrichmentService.getCombinedAnalysisCacheSize() + "<br/>"
+                        + enrichmentService.getCombinedAnalysisCacheStats().toString();
+
+            } else if ( command.equals( "dao_metrics" ) ) {
+                QueryMetrics metrics = daoFactoryBean.getGotrack().getQueryMetrics();
+                return QueryMetrics.format( Lists.asList( metrics.getConnectionAcquireStatistics(),
+                        metrics.getQueryStatistics().toArray( new QueryMetrics.Statistics[0] ) ) )
+                        .replace( "\n", "<br/>" );
+            } else if ( command.equals( "export_annotations" ) ) {
+                if ( params.length != 1 ) {
+                    return "Malformed Input : speciesId";
+                }
+                Species species;
+                try {
+                    species = cache.getSpecies( Integer.valueOf( params[0] ) );
+                } catch ( NumberFormatException e ) {
+                    return "Malformed Input : speciesId";
+                }
+                if ( species == null ) {
+                    return "Unknown species";
+                }
+                try {
+                    annotationService.exportAnnotationStore( species );
+                    return "Export of " + species.getCommonName() + " started, its result will be logged";
+                } catch ( DAOException e ) {
+                    return "Export failed: " + e.getMessage();
+                }
             }
         }
 
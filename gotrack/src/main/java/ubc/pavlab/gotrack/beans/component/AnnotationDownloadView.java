@@ -35,10 +35,15 @@ import javax.annotation.PostConstruct;
 import javax.faces.view.ViewScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -117,22 +122,39 @@ public class AnnotationDownloadView implements Serializable {
     }
 
     private void loadFile() {
-        // TODO: Cache files to disk
-        Map<Gene, Set<GeneOntologyTerm>> data =  annotationService.fetchEditionSimple( session.getSpecies(), edition );
-        final StringBuilder sb = new StringBuilder();
-        for ( Map.Entry<Gene, Set<GeneOntologyTerm>> geneEntry: data.entrySet()) {
-            Gene gene = geneEntry.getKey();
-            sb.append( gene.getSymbol() );
-            sb.append( "\t" );
-            sb.append( gene.getSymbol() );
-            sb.append( "\t" );
-            sb.append( gene.getName() );
-            sb.append( "\t" );
-
-            sb.append( GeneOntologyTerm.propagate( geneEntry.getValue().stream() ).map( GeneOntologyTerm::getGoId ).collect( Collectors.joining( "|" ) ) );
-            sb.append( System.lineSeparator() );
+        // Annotations are grouped as they are streamed from the database
+        Map<Gene, Set<GeneOntologyTerm>> data = new HashMap<>();
+        annotationService.forEachEditionSimple( session.getSpecies(), edition,
+                ( gene, term ) -> data.computeIfAbsent( gene, g -> new HashSet<>() ).add( term ) );
+        InputStream in = null;
+        try {
+            // Written to a temporary file rather than held in memory, it is deleted once the download is closed
+            Path tmp = Files.createTempFile( "annotations", ".tsv" );
+            try {
+                try ( Writer writer = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) ) {
+                    for ( Map.Entry<Gene, Set<GeneOntologyTerm>> geneEntry : data.entrySet() ) {
+                        Gene gene = geneEntry.getKey();
+                        writer.write( gene.getSymbol() );
+                        writer.write( "\t" );
+                        writer.write( gene.getSymbol() );
+                        writer.write( "\t" );
+                        writer.write( gene.getName() );
+                        writer.write( "\t" );
+
+                        writer.write( GeneOntologyTerm.propagate( geneEntry.getValue().stream() ).map( GeneOntologyTerm::getGoId ).collect( Collectors.joining( "|" ) ) );
+                        writer.write( System.lineSeparator() );
+                    }
+                }
+                in = Files.newInputStream( tmp, StandardOpenOption.DELETE_ON_CLOSE );
+            } finally {
+                if ( in == null ) {
+                    // Failed before the download could take over the file
+                    Files.deleteIfExists( tmp );
+                }
+            }
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( e );
         }
-        InputStream in = new ByteArrayInputStream(sb.toString().getBytes( StandardCharsets.UTF_8));
         log.info( "Finished loading file." );
         String filename = session.getSpecies().getCommonName() + "-" + edition.getEdition() + "-" + edition.getDate().toString() + ".tsv";
         file = new DefaultStreamedContent( in, "text/plain", filename );
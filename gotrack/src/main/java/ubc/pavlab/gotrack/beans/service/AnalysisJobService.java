@@ -0,0 +1,167 @@
+package ubc.pavlab.gotrack.beans.service;
+
+import org.apache.log4j.Logger;
+import ubc.pavlab.gotrack.beans.SettingsCache;
+import ubc.pavlab.gotrack.exception.JobRejectedException;
+import ubc.pavlab.gotrack.model.AnalysisJob;
+import ubc.pavlab.gotrack.model.StatusPoller;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs long analyses in the background on a bounded pool so that they do not hold request threads. Each client may
+ * only have a limited number of jobs queued or running at once, finished jobs are kept for a limited time for their
+ * results to be fetched.
+ */
+@Named
+@ApplicationScoped
+public class AnalysisJobService implements Serializable {
+
+    private static final long serialVersionUID = 3161837745418095634L;
+
+    private static final Logger log = Logger.getLogger( AnalysisJobService.class );
+
+    @Inject
+    private SettingsCache settingsCache;
+
+    private final Map<String, AnalysisJob<?>> jobs = new ConcurrentHashMap<>();
+
+    private transient ThreadPoolExecutor executor;
+    private int jobsPerClient;
+    private long resultTTL;
+
+    public AnalysisJobService() {
+        log.info( "AnalysisJobService created" );
+    }
+
+    @PostConstruct
+    public void init() {
+        log.info( "AnalysisJobService init" );
+        configure( settingsCache.jobThreads(), settingsCache.jobQueueSize(), settingsCache.jobsPerClient(),
+                TimeUnit.MINUTES.toMillis( settingsCache.jobResultTTLMinutes() ) );
+    }
+
+    void configure( int threads, int queueSize, int jobsPerClient, long resultTTL ) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor( threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>( queueSize ), r -> {
+                    Thread t = new Thread( r, "analysis-job-" + count.incrementAndGet() );
+                    t.setDaemon( true );
+                    return t;
+                } );
+        this.jobsPerClient = jobsPerClient;
+        this.resultTTL = resultTTL;
+        log.info( "Analysis jobs run on " + threads + " threads with room for " + queueSize + " queued, "
+                + jobsPerClient + " per client" );
+    }
+
+    @PreDestroy
+    public void destroyed() {
+        log.info( "AnalysisJobService destroyed" );
+        if ( executor != null ) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue an analysis.
+     *
+     * @param client identifies who submitted the job, used to limit concurrent jobs
+     * @param work   the analysis, reporting its progress to the given poller
+     * @return the queued job
+     * @throws JobRejectedException if the client has too many unfinished jobs or the queue is full
+     */
+    public <T> AnalysisJob<T> submit( String client, Function<StatusPoller, T> work ) {
+        purgeExpired();
+
+        AnalysisJob<T> job = new AnalysisJob<>( UUID.randomUUID().toString(), client );
+
+        // Counting and adding must not interleave between submissions of the same client
+        synchronized ( this ) {
+            // Cancelled jobs count until their worker returns
+            long active = jobs.values().stream().filter( j -> j.getClient().equals( client ) && j.isActive() )
+                    .count();
+            if ( active >= jobsPerClient ) {
+                throw new JobRejectedException(
+                        "Too many unfinished jobs, at most " + jobsPerClient + " are allowed per client." );
+            }
+            jobs.put( job.getId(), job );
+        }
+
+        try {
+            job.setFuture( executor.submit( () -> run( job, work ) ) );
+        } catch ( RejectedExecutionException e ) {
+            jobs.remove( job.getId() );
+            throw new JobRejectedException( "Job queue is full, try again later.", e );
+        }
+        return job;
+    }
+
+    private <T> void run( AnalysisJob<T> job, Function<StatusPoller, T> work ) {
+        if ( !job.start() ) {
+            return;
+        }
+        try {
+            job.complete( work.apply( job.getStatusPoller() ) );
+        } catch ( Exception e ) {
+            log.error( "Analysis job " + job.getId() + " failed", e );
+            job.fail( e.getMessage() );
+        } finally {
+            job.exited();
+        }
+    }
+
+    /**
+     * @return job with this id, null if unknown or expired
+     */
+    public AnalysisJob<?> getJob( String id ) {
+        purgeExpired();
+        return jobs.get( id );
+    }
+
+    /**
+     * Cancel a job that has not finished, its status remains available until it expires.
+     *
+     * @param client must be the client that submitted the job
+     * @return false if the job is unknown, belongs to another client or already finished
+     */
+    public boolean cancel( String id, String client ) {
+        AnalysisJob<?> job = getJob( id );
+        if ( job == null || !job.getClient().equals( client ) || !job.cancel() ) {
+            return false;
+        }
+        // Free the queue slot of the cancelled job
+        executor.purge();
+        return true;
+    }
+
+    /**
+     * @return number of jobs waiting for a thread
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of jobs running
+     */
+    public int getRunningCount() {
+        return executor.getActiveCount();
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf( j -> !j.isActive() && now - j.getFinished() > resultTTL );
+    }
+
+}
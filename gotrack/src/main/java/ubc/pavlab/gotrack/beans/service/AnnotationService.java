@@ -22,23 +22,35 @@ package ubc.pavlab.gotrack.beans.service;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.log4j.Logger;
 import ubc.pavlab.gotrack.beans.Cache;
 import ubc.pavlab.gotrack.beans.DAOFactoryBean;
+import ubc.pavlab.gotrack.beans.SettingsCache;
 import ubc.pavlab.gotrack.dao.AnnotationDAO;
+import ubc.pavlab.gotrack.dao.AnnotationStoreDAO;
+import ubc.pavlab.gotrack.dao.AnnotationStoreExporter;
+import ubc.pavlab.gotrack.dao.DAOException;
 import ubc.pavlab.gotrack.model.*;
 import ubc.pavlab.gotrack.model.dto.*;
 import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
 import ubc.pavlab.gotrack.utilities.Tuples;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.Serializable;
+import java.nio.file.Paths;
 import java.sql.Date;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 import java.util.stream.Stream;
 
 /**
@@ -65,8 +77,18 @@ public class AnnotationService implements Serializable {
     @Inject
     private Cache cache;
 
+    @Inject
+    private SettingsCache settingsCache;
+
     private AnnotationDAO annotationDAO;
 
+    private AnnotationStoreDAO annotationStore;
+
+    // Exports run one at a time, so a store is never written by two exports at once
+    private transient ExecutorService exporter;
+
+    private transient Map<Integer, Future<Integer>> exports = new ConcurrentHashMap<>();
+
     /**
      *
      */
@@ -78,6 +100,54 @@ public class AnnotationService implements Serializable {
     public void init() {
         log.info( "AnnotationService init" );
         annotationDAO = daoFactoryBean.getGotrack().getAnnotationDAO();
+
+        // Serve reads from local annotation stores where they are up to date
+        String storePath = settingsCache.annotationStore();
+        if ( storePath != null ) {
+            annotationStore = new AnnotationStoreDAO( annotationDAO, Paths.get( storePath ), speciesId -> {
+                Species species = cache.getSpecies( speciesId );
+                Edition current = species == null ? null : cache.getCurrentEditions( species );
+                return current == null ? null : current.getEdition();
+            } );
+            annotationDAO = annotationStore;
+            exporter = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat( "annotation-export" ).setDaemon( true ).build() );
+        }
+        log.info( "AnnotationDAO successfully obtained: " + annotationDAO );
+    }
+
+    @PreDestroy
+    public void destroy() {
+        log.info( "AnnotationService destroyed" );
+        if ( exporter != null ) {
+            exporter.shutdownNow();
+        }
+    }
+
+    /**
+     * Write the annotation history of a species to its local store in the background and then start reading the
+     * species from it. An export still pending for the species is returned rather than queuing another.
+     *
+     * @return the export, which yields the number of annotations written
+     * @throws DAOException If annotation stores are disabled
+     */
+    public Future<Integer> exportAnnotationStore( Species species ) throws DAOException {
+        if ( annotationStore == null ) {
+            throw new DAOException( "Annotation stores are disabled." );
+        }
+        return exports.compute( species.getId(), ( id, pending ) -> pending != null && !pending.isDone() ? pending
+                : exporter.submit( () -> {
+                    try {
+                        int rows = AnnotationStoreExporter.export( daoFactoryBean.getGotrack(), id,
+                                Paths.get( settingsCache.annotationStore() ) );
+                        annotationStore.refresh( id );
+                        log.info( rows + " annotations exported for " + species.getCommonName() );
+                        return rows;
+                    } catch ( RuntimeException e ) {
+                        log.error( "Annotation export failed for " + species.getCommonName(), e );
+                        throw e;
+                    }
+                } ) );
     }
 
     /**
@@ -179,13 +249,12 @@ public class AnnotationService implements Serializable {
         int minEdition = min == null ? cache.getGlobalMinEdition( species ).getEdition() : min.getEdition();
         int maxEdition = max == null ? cache.getCurrentEditions( species ).getEdition() : max.getEdition();
 
-        List<EnrichmentDTO> resultset = annotationDAO.simpleAnnotationRangeEditions( geneSet, minEdition, maxEdition );
-
         Multimap<String, EnrichmentDTO> missingTerms = ArrayListMultimap.create();
 
         Map<Gene, Map<Edition, Set<GeneOntologyTerm>>> data = new HashMap<>();
 
-        for ( EnrichmentDTO enrichmentDTO : resultset ) {
+        // Rows are merged as the chunks of the query complete
+        annotationDAO.simpleAnnotationRangeEditions( geneSet, minEdition, maxEdition, enrichmentDTO -> {
 
             String geneAccession = enrichmentDTO.getAccession();
             Gene g = givenGenes.get( geneAccession );
@@ -202,7 +271,7 @@ public class AnnotationService implements Serializable {
                 log.debug(
                         "Could not find (" + enrichmentDTO.getGoId() + ") in GO Edition Id: " + ed.getGoEdition().getId() );
                 missingTerms.put( enrichmentDTO.getGoId(), enrichmentDTO );
-                continue;
+                return;
             }
 
             Map<Edition, Set<GeneOntologyTerm>> geneEntry = data.get( g );
@@ -219,7 +288,7 @@ public class AnnotationService implements Serializable {
 
             goSet.add( go );
 
-        }
+        } );
 
         // Because of reasons (badly annotated / misdated / mismatched annotations to GO editions / missing secondary ids)
         // We will have terms that are not found in their given GO edition. We attempt to find this term in another edition.
@@ -311,13 +380,12 @@ public class AnnotationService implements Serializable {
             givenGenes.put( g.getAccession().getAccession(), g );
         }
 
-        List<SimpleAnnotationDTO> resultset = annotationDAO.simpleAnnotationSingleEdition( ed, geneSet );
-
         Multimap<String, SimpleAnnotationDTO> missingTerms = ArrayListMultimap.create();
 
         Map<Gene, Set<GeneOntologyTerm>> data = new HashMap<>();
 
-        for ( SimpleAnnotationDTO enrichmentDTO : resultset ) {
+        // Rows are merged as the chunks of the query complete
+        annotationDAO.simpleAnnotationSingleEdition( ed, geneSet, enrichmentDTO -> {
 
             String geneAccession = enrichmentDTO.getAccession();
             Gene g = givenGenes.get( geneAccession );
@@ -332,7 +400,7 @@ public class AnnotationService implements Serializable {
                 log.debug(
                         "Could not find (" + enrichmentDTO.getGoId() + ") in GO Edition Id: " + ed.getGoEdition().getId() );
                 missingTerms.put( enrichmentDTO.getGoId(), enrichmentDTO );
-                continue;
+                return;
             }
 
             Set<GeneOntologyTerm> goSet = data.get( g );
@@ -343,7 +411,7 @@ public class AnnotationService implements Serializable {
 
             goSet.add( go );
 
-        }
+        } );
 
         // Because of reasons (badly annotated / misdated / mismatched annotations to GO editions / missing secondary ids)
         // We will have terms that are not found in their given GO edition.
@@ -528,66 +596,22 @@ public class AnnotationService implements Serializable {
         } ).filter( Objects::nonNull );
     }
 
-    public Stream<Tuples.Tuple2<Gene, GeneOntologyTerm>> streamEditionSimple(Species species, Edition edition) {
-        return annotationDAO.simpleAnnotationSingleEditionCompleteSpecies( species, edition).stream()
-                .map( tup -> new Tuples.Tuple2<>( cache.getCurrentGene( tup.getT1() ), cache.getTerm( edition, tup.getT2()) ) )
-                .filter( t -> t.getT1() != null && t.getT2() != null && t.getT1().getSpecies().equals( species ) );
-    }
-
-    public Map<Gene, Set<GeneOntologyTerm>> fetchEditionSimple(Species species, Edition edition) {
-
-        List<Tuples.Tuple2<String, String>> resultset = annotationDAO.simpleAnnotationSingleEditionCompleteSpecies( species, edition);
-
-        Multimap<String, Tuples.Tuple2<String, String>> missingTerms = ArrayListMultimap.create();
-
-        Map<Gene, Set<GeneOntologyTerm>> data  = Maps.newHashMap();
-
-        for ( Tuples.Tuple2<String, String> tup : resultset ) {
-
+    /**
+     * Stream every annotation of a species edition to the consumer, one at a time as they are read from the database.
+     * Annotations of unknown genes or terms, or of genes now belonging to another species, are left out.
+     *
+     * @param species  species
+     * @param edition  edition
+     * @param consumer receives each annotated gene and term
+     */
+    public void forEachEditionSimple( Species species, Edition edition, BiConsumer<Gene, GeneOntologyTerm> consumer ) {
+        annotationDAO.simpleAnnotationSingleEditionCompleteSpecies( species, edition, tup -> {
             Gene g = cache.getCurrentGene( tup.getT1() );
-            if ( g == null ) {
-                log.debug( "Could not find Accession:" + tup.getT1() );
-                continue;
-                //TODO: Create mock gene? requires loading symbols from db. ex. g = new Gene( symbol, species );
-            }
-
-            if ( !g.getSpecies().equals( species ) ) {
-                // These annotations used to be of species but are now something else (usually because of a split).
-                // leave these out of the results
-                continue;
-            }
-
-            GeneOntologyTerm go = cache.getTerm( edition, tup.getT2());
-
-            if ( go == null ) {
-                log.debug(
-                        "Could not find (" + tup.getT2() + ") in GO Edition Id: " + edition.getGoEdition().getId() );
-                missingTerms.put( tup.getT2(), tup );
-                continue;
-            }
-
-            Set<GeneOntologyTerm> goSet = data.get( g );
-            if ( goSet == null ) {
-                goSet = new HashSet<>();
-                data.put( g, goSet );
+            GeneOntologyTerm go = cache.getTerm( edition, tup.getT2() );
+            if ( g != null && go != null && g.getSpecies().equals( species ) ) {
+                consumer.accept( g, go );
             }
-
-            goSet.add( go );
-
-        }
-
-        // Because of reasons (badly annotated / misdated / mismatched annotations to GO editions / missing secondary ids)
-        // We will have terms that are not found in their given GO edition.
-        if ( !missingTerms.isEmpty() ) {
-            log.warn( "Could not find information for (" + missingTerms.size() + ") terms" );
-        }
-
-        // Propagate terms
-//        for ( Entry<Gene, Set<GeneOntologyTerm>> geneSetEntry : data.entrySet() ) {
-//            geneSetEntry.setValue( GeneOntologyTerm.propagate( geneSetEntry.getValue().stream() ).collect( Collectors.toSet() ) );
-//        }
-
-        return data;
+        } );
     }
 
 
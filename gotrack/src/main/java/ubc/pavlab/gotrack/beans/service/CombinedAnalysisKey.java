@@ -0,0 +1,105 @@
+package ubc.pavlab.gotrack.beans.service;
+
+import ubc.pavlab.gotrack.analysis.EnrichmentAnalysisOptions;
+import ubc.pavlab.gotrack.analysis.MultipleTestCorrection;
+import ubc.pavlab.gotrack.model.Aspect;
+import ubc.pavlab.gotrack.model.Edition;
+import ubc.pavlab.gotrack.model.Gene;
+import ubc.pavlab.gotrack.model.Species;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Canonical form of the inputs of a combined analysis. Gene ids are sorted and aspects held as a set, so requests which
+ * differ only in the order of their genes or aspects are equal.
+ */
+public final class CombinedAnalysisKey {
+
+    private final int speciesId;
+    private final int[] geneIds;
+    private final int minAnnotatedPopulation;
+    private final int maxAnnotatedPopulation;
+    private final MultipleTestCorrection multipleTestCorrection;
+    private final double threshold;
+    private final Set<Aspect> aspects;
+    private final Edition similarityReferenceEdition;
+    private final int topN;
+
+    private final int hash;
+
+    public CombinedAnalysisKey( Set<Gene> genes, Species species, EnrichmentAnalysisOptions options,
+                                Edition similarityReferenceEdition, int topN ) {
+        this.speciesId = species.getId();
+        this.geneIds = genes.stream().mapToInt( Gene::getId ).sorted().toArray();
+        this.minAnnotatedPopulation = options.getMinAnnotatedPopulation();
+        this.maxAnnotatedPopulation = options.getMaxAnnotatedPopulation();
+        this.multipleTestCorrection = options.getMultipleTestCorrection();
+        this.threshold = options.getThreshold();
+        this.aspects = options.getAspects() == null || options.getAspects().isEmpty() ? EnumSet.noneOf( Aspect.class )
+                : EnumSet.copyOf( options.getAspects() );
+        this.similarityReferenceEdition = similarityReferenceEdition;
+        this.topN = topN;
+
+        int h = speciesId;
+        h = 31 * h + Arrays.hashCode( geneIds );
+        h = 31 * h + minAnnotatedPopulation;
+        h = 31 * h + maxAnnotatedPopulation;
+        h = 31 * h + Objects.hashCode( multipleTestCorrection );
+        h = 31 * h + Double.hashCode( threshold );
+        h = 31 * h + aspects.hashCode();
+        h = 31 * h + Objects.hashCode( similarityReferenceEdition );
+        h = 31 * h + topN;
+        this.hash = h;
+    }
+
+    /**
+     * @return number of genes in the hit list
+     */
+    int getGeneCount() {
+        return geneIds.length;
+    }
+
+    /**
+     * @return true if both analyses test the same terms on the same data, so that one can be re-corrected into the
+     * other without running any tests
+     */
+    public boolean sameExceptCorrection( CombinedAnalysisKey that ) {
+        return speciesId == that.speciesId && minAnnotatedPopulation == that.minAnnotatedPopulation
+                && maxAnnotatedPopulation == that.maxAnnotatedPopulation && topN == that.topN
+                && aspects.equals( that.aspects )
+                && Objects.equals( similarityReferenceEdition, that.similarityReferenceEdition )
+                && Arrays.equals( geneIds, that.geneIds );
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+        if ( this == o ) return true;
+        if ( o == null || getClass() != o.getClass() ) return false;
+
+        CombinedAnalysisKey that = (CombinedAnalysisKey) o;
+
+        return hash == that.hash && speciesId == that.speciesId
+                && minAnnotatedPopulation == that.minAnnotatedPopulation
+                && maxAnnotatedPopulation == that.maxAnnotatedPopulation
+                && Double.compare( threshold, that.threshold ) == 0 && topN == that.topN
+                && multipleTestCorrection == that.multipleTestCorrection && aspects.equals( that.aspects )
+                && Objects.equals( similarityReferenceEdition, that.similarityReferenceEdition )
+                && Arrays.equals( geneIds, that.geneIds );
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CombinedAnalysisKey{speciesId=" + speciesId + ", genes=" + geneIds.length + ", min="
+                + minAnnotatedPopulation + ", max=" + maxAnnotatedPopulation + ", mtc=" + multipleTestCorrection
+                + ", threshold=" + threshold + ", aspects=" + aspects + ", reference=" + similarityReferenceEdition
+                + ", topN=" + topN + "}";
+    }
+}
@@ -19,12 +19,19 @@
 
 package ubc.pavlab.gotrack.beans.service;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.log4j.Logger;
 import ubc.pavlab.gotrack.analysis.*;
 import ubc.pavlab.gotrack.beans.Cache;
+import ubc.pavlab.gotrack.beans.SettingsCache;
 import ubc.pavlab.gotrack.model.*;
+import ubc.pavlab.gotrack.model.go.GeneOntology;
 import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+import ubc.pavlab.gotrack.model.go.TermSet;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -32,12 +39,15 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.*;
 import java.util.Map.Entry;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * TODO Document Me
@@ -54,7 +64,10 @@ public class EnrichmentService implements Serializable {
     private static final Logger log = Logger.getLogger( EnrichmentService.class );
 
     // Max size of hit list
-    private static final int MAX_GENESET_SIZE = 20000;
+    public static final int MAX_GENESET_SIZE = 20000;
+
+    // Rough heap footprint of the enrichment and stability results of one term in one edition
+    private static final long BYTES_PER_RESULT = 256;
 
     @Inject
     private Cache cache;
@@ -62,6 +75,21 @@ public class EnrichmentService implements Serializable {
     @Inject
     private AnnotationService annotationService;
 
+    @Inject
+    private SettingsCache settingsCache;
+
+    // Log probabilities memoized across every analysis run by this service
+    private transient HyperGeometricMemo pvalueMemo = new HyperGeometricMemo( HyperGeometricMemo.DEFAULT_CAPACITY );
+
+    // Runs the editions of an analysis concurrently, null if they run sequentially
+    private transient ForkJoinPool enrichmentPool;
+
+    // Combined analyses shared between sessions, results are never modified once created
+    private transient com.google.common.cache.Cache<CombinedAnalysisKey, CombinedAnalysis> combinedAnalysisCache;
+
+    // Progress of the combined analyses being computed, reported to every caller waiting on them
+    private transient ConcurrentMap<CombinedAnalysisKey, SharedStatusPoller> runningAnalyses = new ConcurrentHashMap<>();
+
     public EnrichmentService() {
         log.info( "EnrichmentService created" );
     }
@@ -69,11 +97,76 @@ public class EnrichmentService implements Serializable {
     @PostConstruct
     public void init() {
         log.info( "EnrichmentService init" );
+        HyperGeometricTail tail = null;
+        if ( settingsCache.isFastTail() ) {
+            // Room for editions growing a little past the largest loaded
+            tail = new HyperGeometricTail( Math.max( cache.getMaxGeneCount() * 2, 1 << 16 ) );
+            log.info( "Hypergeometric tails from log factorial table of size " + tail.getMaxPopulation() );
+        }
+        pvalueMemo = new HyperGeometricMemo( settingsCache.pvalueCacheSize(), tail );
+        int threads = settingsCache.enrichmentThreads();
+        if ( threads > 1 ) {
+            enrichmentPool = new ForkJoinPool( threads );
+            log.info( "Enrichment editions run on " + threads + " threads" );
+        }
+        createCombinedAnalysisCache( settingsCache.combinedAnalysisCacheSize(),
+                settingsCache.combinedAnalysisCacheMegabytes() * 1024L * 1024L );
+    }
+
+    /**
+     * Bounded both by number of entries and by estimated memory: every entry weighs at least its share of the budget
+     * under the entry limit, larger analyses weigh their estimated footprint.
+     *
+     * @param maxEntries maximum number of analyses kept, 0 to keep none
+     * @param budget     approximate maximum bytes of analyses kept
+     */
+    void createCombinedAnalysisCache( int maxEntries, long budget ) {
+        long minWeight = maxEntries > 0 ? budget / maxEntries : budget;
+        combinedAnalysisCache = CacheBuilder.newBuilder()
+                // A single segment so that the weight limit holds for the whole cache, lookups are infrequent
+                .concurrencyLevel( 1 )
+                .maximumWeight( maxEntries > 0 ? budget : 0 )
+                .weigher( ( CombinedAnalysisKey key, CombinedAnalysis analysis ) -> {
+                    long weight = 4L * key.getGeneCount();
+                    if ( analysis.getEnrichmentAnalysis() != null ) {
+                        for ( Enrichment<GeneOntologyTerm, Gene> enrichment : analysis.getEnrichmentAnalysis()
+                                .getRawResults().values() ) {
+                            weight += BYTES_PER_RESULT * enrichment.getResults().size();
+                        }
+                    }
+                    return (int) Math.min( Integer.MAX_VALUE, Math.max( minWeight, weight ) );
+                } )
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return statistics of the cache of combined analyses shared between sessions
+     */
+    public CacheStats getCombinedAnalysisCacheStats() {
+        return combinedAnalysisCache.stats();
+    }
+
+    /**
+     * @return number of combined analyses shared between sessions
+     */
+    public long getCombinedAnalysisCacheSize() {
+        return combinedAnalysisCache.size();
+    }
+
+    /**
+     * @return memo of log probabilities used by the analyses of this service
+     */
+    public HyperGeometricMemo getPvalueMemo() {
+        return pvalueMemo;
     }
 
     @PreDestroy
     public void destroyed() {
         log.info( "EnrichmentService destroyed" );
+        if ( enrichmentPool != null ) {
+            enrichmentPool.shutdownNow();
+        }
     }
 
     /**
@@ -88,6 +181,71 @@ public class EnrichmentService implements Serializable {
      */
     public CombinedAnalysis combinedAnalysis( Set<Gene> genes, Species species, EnrichmentAnalysisOptions enrichmentOptions, Edition similarityReferenceEdition, int topN, StatusPoller statusPoller ) {
 
+        CombinedAnalysisKey key = new CombinedAnalysisKey( genes, species, enrichmentOptions,
+                similarityReferenceEdition, topN );
+
+        CombinedAnalysis shared = combinedAnalysisCache.getIfPresent( key );
+        if ( shared != null ) {
+            log.info( "Reusing shared analysis: " + key );
+            statusPoller.newStatus( "Retrieved results of an identical analysis", 85 );
+            statusPoller.completeStatus();
+            return shared;
+        }
+
+        // Identical analyses requested concurrently wait for the first one rather than repeating it
+        SharedStatusPoller sharedStatus = runningAnalyses.computeIfAbsent( key, k -> new SharedStatusPoller() );
+        sharedStatus.join( statusPoller );
+        CombinedAnalysis analysis;
+        try {
+            analysis = combinedAnalysisCache.get( key, () -> computeCombinedAnalysis( key, genes, species,
+                    enrichmentOptions, similarityReferenceEdition, topN, sharedStatus ) );
+        } catch ( ExecutionException | UncheckedExecutionException e ) {
+            Throwables.throwIfUnchecked( e.getCause() );
+            throw new IllegalStateException( e.getCause() );
+        } finally {
+            // Done or failed, later callers find the result in the cache or start over
+            runningAnalyses.remove( key, sharedStatus );
+        }
+
+        if ( !analysis.isSuccess() ) {
+            combinedAnalysisCache.invalidate( key );
+        }
+
+        return analysis;
+    }
+
+    /**
+     * Re-threshold a successful analysis under another multiple test correction method or threshold. Stored p-values
+     * are reused, no data is retrieved and no tests are run; similarity and stability are recomputed from the new
+     * significant terms with the same settings as before.
+     *
+     * @param previous          successful analysis of the same hit list and options other than correction
+     * @param enrichmentOptions options holding the new correction method and threshold
+     * @param statusPoller      poller for live status updates
+     * @return Container class holding the re-corrected enrichment and stability/similarity analyses
+     */
+    public CombinedAnalysis recorrect( CombinedAnalysis previous, EnrichmentAnalysisOptions enrichmentOptions, StatusPoller statusPoller ) {
+        if ( previous == null || !previous.isSuccess() ) {
+            throw new IllegalArgumentException( "Only successful analyses can be re-corrected." );
+        }
+        statusPoller.newStatus( "Re-thresholding results of a previous analysis...", 50 );
+        EnrichmentAnalysis analysis = previous.getEnrichmentAnalysis().withCorrection(
+                enrichmentOptions.getMultipleTestCorrection(), enrichmentOptions.getThreshold() );
+        statusPoller.completeStatus();
+
+        SimilarityAnalysis similarity = previous.getSimilarityAnalysis();
+        return completeAnalysis( analysis, similarity.getReferenceEdition(), similarity.getTopN(), statusPoller );
+    }
+
+    private CombinedAnalysis computeCombinedAnalysis( CombinedAnalysisKey key, Set<Gene> genes, Species species, EnrichmentAnalysisOptions enrichmentOptions, Edition similarityReferenceEdition, int topN, StatusPoller statusPoller ) {
+
+        // Another session may already hold the same tests on the same data
+        CombinedAnalysis previous = findRecorrectable( key );
+        if ( previous != null ) {
+            log.info( "Re-correcting shared analysis: " + key );
+            return recorrect( previous, enrichmentOptions, statusPoller );
+        }
+
         statusPoller.newStatus( "Starting Enrichment Analysis", 0 );
         EnrichmentAnalysis analysis = enrichment( genes,
                 species,
@@ -103,6 +261,10 @@ public class EnrichmentService implements Serializable {
             return new CombinedAnalysis( null, null, null, false );
         }
 
+        return completeAnalysis( analysis, similarityReferenceEdition, topN, statusPoller );
+    }
+
+    private CombinedAnalysis completeAnalysis( EnrichmentAnalysis analysis, Edition similarityReferenceEdition, int topN, StatusPoller statusPoller ) {
         log.info( "Running similarity analysis" );
 
         statusPoller.newStatus( "Running Similarity Analyses on all editions...", 75 );
@@ -113,7 +275,7 @@ public class EnrichmentService implements Serializable {
 
         statusPoller.newStatus( "Running Stability Analyses on all editions...", 85 );
 
-        StabilityAnalysis stabilityAnalysis = new StabilityAnalysis( analysis );
+        StabilityAnalysis stabilityAnalysis = new StabilityAnalysis( analysis, enrichmentPool, pvalueMemo );
         statusPoller.completeStatus();
         log.info( "Analysis Complete" );
 
@@ -121,6 +283,21 @@ public class EnrichmentService implements Serializable {
 
     }
 
+    /**
+     * Only an optimisation, analyses evicted from or never admitted to the shared cache are simply recomputed.
+     *
+     * @return a shared successful analysis which differs from the given one only in multiple test correction method or
+     * threshold, null if there is none
+     */
+    private CombinedAnalysis findRecorrectable( CombinedAnalysisKey key ) {
+        for ( Map.Entry<CombinedAnalysisKey, CombinedAnalysis> entry : combinedAnalysisCache.asMap().entrySet() ) {
+            if ( entry.getValue().isSuccess() && entry.getKey().sameExceptCorrection( key ) ) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
     /**
      * Runs enrichment/similarity/stability analyses given input settings.
      *
@@ -152,7 +329,8 @@ public class EnrichmentService implements Serializable {
         statusPoller.newStatus( "Running Overrepresentation Analyses on all editions...", 55 );
         log.info( "Running enrichment analysis" );
 
-        EnrichmentAnalysis analysis = new EnrichmentAnalysis( geneGOMap, min, max, mtc, thresh, cache, species );
+        EnrichmentAnalysis analysis = new EnrichmentAnalysis( geneGOMap, min, max, mtc, thresh, cache, species, enrichmentPool,
+                settingsCache.isIndexedEnrichment(), pvalueMemo );
 
         statusPoller.completeStatus();
 
@@ -187,13 +365,13 @@ public class EnrichmentService implements Serializable {
             statusPoller.newStatus( "Retrieving Gene Information from cache...", 5 );
 
             // Container for final enrichment data
-            Map<Edition, Map<GeneOntologyTerm, Set<Gene>>> geneGOMap = new HashMap<>();
+            Map<Edition, SampleBuilder> samples = new HashMap<>();
 
             Set<Gene> genesToLoad = new HashSet<>();
             for ( Gene gene : genes ) {
                 Map<Edition, Set<GeneOntologyTerm>> cachedGeneData = cache.getEnrichmentData( gene );
                 if ( cachedGeneData != null ) {
-                    addGeneData( gene, cachedGeneData, filterAspect, geneGOMap );
+                    addGeneData( gene, cachedGeneData, filterAspect, samples );
                 } else {
                     genesToLoad.add( gene );
                 }
@@ -218,7 +396,7 @@ public class EnrichmentService implements Serializable {
 
                 for ( Entry<Gene, Map<Edition, Set<GeneOntologyTerm>>> geneEntry : prop.entrySet() ) {
 
-                    addGeneData( geneEntry.getKey(), geneEntry.getValue(), filterAspect, geneGOMap );
+                    addGeneData( geneEntry.getKey(), geneEntry.getValue(), filterAspect, samples );
                     cache.addEnrichmentData( geneEntry.getKey(), geneEntry.getValue() );
                 }
                 statusPoller.completeStatus();
@@ -236,6 +414,10 @@ public class EnrichmentService implements Serializable {
             // / ( double ) timer.getNanoTime() );
             // }
 
+            Map<Edition, Map<GeneOntologyTerm, Set<Gene>>> geneGOMap = new HashMap<>();
+            for ( Entry<Edition, SampleBuilder> editionEntry : samples.entrySet() ) {
+                geneGOMap.put( editionEntry.getKey(), editionEntry.getValue().build() );
+            }
             return geneGOMap;
 
         } else {
@@ -253,36 +435,10 @@ public class EnrichmentService implements Serializable {
      * @param data           enrichment data for previously retrieved genes
      */
     private void addGeneData( Gene g, Map<Edition, Set<GeneOntologyTerm>> cachedGeneData, Set<Aspect> filterAspect,
-                              Map<Edition, Map<GeneOntologyTerm, Set<Gene>>> data ) {
-
-        boolean bypassFilter = (filterAspect == null || filterAspect.size() == 0
-                || filterAspect.size() == Aspect.values().length);
-
+                              Map<Edition, SampleBuilder> data ) {
         for ( Entry<Edition, Set<GeneOntologyTerm>> editionEntry : cachedGeneData.entrySet() ) {
-            Edition ed = editionEntry.getKey();
-
-            Map<GeneOntologyTerm, Set<Gene>> m1 = data.get( ed );
-
-            if ( m1 == null ) {
-                // Previously had no data for this edition
-                m1 = new HashMap<>();
-                data.put( ed, m1 );
-            }
-
-            for ( GeneOntologyTerm term : editionEntry.getValue() ) {
-                if ( bypassFilter || filterAspect.contains( term.getAspect() ) ) {
-                    Set<Gene> geneSet = m1.get( term );
-                    if ( geneSet == null ) {
-                        // Previously had no genes for this term in this edition
-                        geneSet = new HashSet<>();
-                        m1.put( term, geneSet );
-                    }
-
-                    geneSet.add( g );
-                }
-
-            }
-
+            data.computeIfAbsent( editionEntry.getKey(), ed -> new SampleBuilder( filterAspect ) )
+                    .add( g, editionEntry.getValue() );
         }
     }
 
@@ -302,12 +458,12 @@ public class EnrichmentService implements Serializable {
             Map<Edition, Set<GeneOntologyTerm>> series = geneEntry.getValue();
             for ( Entry<Edition, Set<GeneOntologyTerm>> editionEntry : series.entrySet() ) {
                 Edition ed = editionEntry.getKey();
-                Set<GeneOntologyTerm> propagatedTerms = GeneOntologyTerm.propagate( editionEntry.getValue().stream() ).collect( Collectors.toSet() );
+                Set<GeneOntologyTerm> propagatedTerms = GeneOntologyTerm.propagateToSet( editionEntry.getValue() );
 
                 if ( propagatedTerms == null ) {
                     // No ontology exists for this edition
                 } else {
-                    propagatedSeries.put( ed, propagatedTerms );
+                    propagatedSeries.put( ed, compact( ed, propagatedTerms ) );
                 }
 
             }
@@ -317,6 +473,23 @@ public class EnrichmentService implements Serializable {
         return propagatedData;
     }
 
+    /**
+     * @return terms held as a {@link TermSet} over the ontology of the given edition, or unchanged if that ontology
+     * is not loaded or does not contain every term (editions wrongly connected to a GO edition)
+     */
+    private Set<GeneOntologyTerm> compact( Edition ed, Set<GeneOntologyTerm> terms ) {
+        GeneOntology ontology = cache.getOntology( ed );
+        if ( ontology == null ) {
+            return terms;
+        }
+        for ( GeneOntologyTerm t : terms ) {
+            if ( ontology.getOrdinal( t ) == -1 ) {
+                return terms;
+            }
+        }
+        return TermSet.of( ontology, terms );
+    }
+
     /**
      * Calculate total number of genes existing in each edition from the hitlist
      *
@@ -374,7 +547,8 @@ public class EnrichmentService implements Serializable {
             return null;
         }
 
-        return new EnrichmentAnalysis( geneGOMap, min, max, mtc, thresh, cache, species );
+        return new EnrichmentAnalysis( geneGOMap, min, max, mtc, thresh, cache, species, enrichmentPool,
+                settingsCache.isIndexedEnrichment(), pvalueMemo );
     }
 
     /**
@@ -399,15 +573,76 @@ public class EnrichmentService implements Serializable {
             return null;
         }
 
-        max = max < 1 ? Integer.MAX_VALUE : max;
+        return EnrichmentAnalysis.enrichEdition( ed, data, min, max, mtc, thresh, cache,
+                settingsCache.isIndexedEnrichment(), pvalueMemo );
+    }
 
-        Population<GeneOntologyTerm> population = Population.cachedGOPopulation( cache, ed );
+    /**
+     * Runs enrichment of many named hit lists in a single edition with the same settings. Annotations of every gene in
+     * any of the hit lists are retrieved and propagated once, populations and p-values are shared between hit lists.
+     * Hit lists run concurrently when an enrichment pool is configured, each result is handed to the consumer as soon
+     * as it is ready.
+     *
+     * @param ed       edition
+     * @param geneSets hit lists by name
+     * @param mtc      method of multiple tests correction
+     * @param thresh   Either p-value cutoff if using Bonferroni or FDR level if using BH step-up
+     * @param min      minimum geneset size a specific term must have to be included in results
+     * @param max      maximum geneset size a specific term must have to be included in results
+     * @param aspects  only add these aspects, ignore filter if null or empty
+     * @param consumer receives the name of each hit list with its results, null results if the hit list was empty or
+     *                 too large; may be called from several threads at once. If it throws, hit lists not yet started
+     *                 are skipped and the exception is rethrown
+     */
+    public void batchEnrichment( Edition ed, Map<String, Set<Gene>> geneSets, MultipleTestCorrection mtc,
+                                 double thresh, int min, int max, Set<Aspect> aspects,
+                                 BiConsumer<String, Enrichment<GeneOntologyTerm, Gene>> consumer ) {
+
+        Set<Gene> allGenes = new HashSet<>();
+        for ( Set<Gene> genes : geneSets.values() ) {
+            if ( genes.size() <= MAX_GENESET_SIZE ) {
+                allGenes.addAll( genes );
+            }
+        }
+
+        log.info( "Batch of " + geneSets.size() + " hit lists with " + allGenes.size() + " distinct genes" );
 
-        Enrichment<GeneOntologyTerm, Gene> enrichment = new Enrichment<>( mtc, thresh, min, max );
+        Map<Gene, Set<GeneOntologyTerm>> geneData = retrieveGeneData( ed, allGenes );
+        boolean indexed = settingsCache.isIndexedEnrichment();
+        AtomicBoolean aborted = new AtomicBoolean();
 
-        enrichment.runAnalysis( CompletePopulation.standardCompletePopulation( data ), population );
+        Consumer<Entry<String, Set<Gene>>> task = geneSet -> {
+            if ( aborted.get() ) {
+                return;
+            }
+            Set<Gene> genes = geneSet.getValue();
+            Enrichment<GeneOntologyTerm, Gene> enrichment = null;
+            if ( !genes.isEmpty() && genes.size() <= MAX_GENESET_SIZE ) {
+                SampleBuilder sample = new SampleBuilder( aspects );
+                for ( Gene gene : genes ) {
+                    Set<GeneOntologyTerm> terms = geneData.get( gene );
+                    if ( terms != null ) {
+                        sample.add( gene, terms );
+                    }
+                }
+                Map<GeneOntologyTerm, Set<Gene>> data = sample.build();
+                if ( !data.isEmpty() ) {
+                    enrichment = EnrichmentAnalysis.enrichEdition( ed, data, min, max, mtc, thresh, cache, indexed, pvalueMemo );
+                }
+            }
+            try {
+                consumer.accept( geneSet.getKey(), enrichment );
+            } catch ( RuntimeException e ) {
+                aborted.set( true );
+                throw e;
+            }
+        };
 
-        return enrichment;
+        if ( enrichmentPool == null ) {
+            geneSets.entrySet().forEach( task );
+        } else {
+            enrichmentPool.submit( () -> geneSets.entrySet().parallelStream().forEach( task ) ).join();
+        }
     }
 
     /**
@@ -429,75 +664,132 @@ public class EnrichmentService implements Serializable {
                 return null;
             }
 
-            log.info( "retrieving gene data..." );
-
             // Container for final enrichment data
-            Map<GeneOntologyTerm, Set<Gene>> geneGOMap = new HashMap<>();
+            SampleBuilder sample = new SampleBuilder( filterAspect );
+            retrieveGeneData( ed, genes ).forEach( sample::add );
+            return sample.build();
 
-            Set<Gene> genesToLoad = new HashSet<>();
-            for ( Gene gene : genes ) {
-                Map<Edition, Set<GeneOntologyTerm>> cachedGeneData = cache.getEnrichmentData( gene );
-                if ( cachedGeneData != null ) {
-                    Set<GeneOntologyTerm> edData = cachedGeneData.get( ed );
-                    if ( edData != null ) {
-                        addGeneData( gene, cachedGeneData.get( ed ), filterAspect, geneGOMap );
-                    }
-                } else {
-                    genesToLoad.add( gene );
+        } else {
+            log.info( "Empty geneset" );
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the propagated terms of each gene in given edition from cache, hitting the database only for genes
+     * which are not cached.
+     *
+     * @param ed    Edition to retrieve data from
+     * @param genes set of genes to retrieve
+     * @return terms annotated to each gene in this edition, genes without annotations are absent
+     */
+    private Map<Gene, Set<GeneOntologyTerm>> retrieveGeneData( Edition ed, Set<Gene> genes ) {
+        log.info( "retrieving gene data..." );
+
+        Map<Gene, Set<GeneOntologyTerm>> geneData = new HashMap<>();
+
+        Set<Gene> genesToLoad = new HashSet<>();
+        for ( Gene gene : genes ) {
+            Map<Edition, Set<GeneOntologyTerm>> cachedGeneData = cache.getEnrichmentData( gene );
+            if ( cachedGeneData != null ) {
+                Set<GeneOntologyTerm> edData = cachedGeneData.get( ed );
+                if ( edData != null ) {
+                    geneData.put( gene, edData );
                 }
+            } else {
+                genesToLoad.add( gene );
             }
+        }
 
-            // If not all genes have been loaded from cache we must hit the database for the rest
-            if ( !genesToLoad.isEmpty() ) {
-
-                Map<Gene, Set<GeneOntologyTerm>> geneGOMapFromDB;
+        // If not all genes have been loaded from cache we must hit the database for the rest
+        if ( !genesToLoad.isEmpty() ) {
 
-                geneGOMapFromDB = annotationService.fetchSingleEnrichmentData( ed, genesToLoad );
+            Map<Gene, Set<GeneOntologyTerm>> geneGOMapFromDB;
 
-                for ( Entry<Gene, Set<GeneOntologyTerm>> geneEntry : geneGOMapFromDB.entrySet() ) {
-                    addGeneData( geneEntry.getKey(), GeneOntologyTerm.propagate( geneEntry.getValue().stream() ).collect( Collectors.toSet() ), filterAspect, geneGOMap );
-                }
-
-                log.info( "Retrieved (" + genesToLoad.size() + ") genes from db and ("
-                        + (genes.size() - genesToLoad.size()) + ") from cache" );
-            } else {
-                log.info( "Retrieved all (" + genes.size() + ") genes from cache" );
+            geneGOMapFromDB = annotationService.fetchSingleEnrichmentData( ed, genesToLoad );
 
+            for ( Entry<Gene, Set<GeneOntologyTerm>> geneEntry : geneGOMapFromDB.entrySet() ) {
+                geneData.put( geneEntry.getKey(),
+                        compact( ed, GeneOntologyTerm.propagateToSet( geneEntry.getValue() ) ) );
             }
-            // timer.stop();
-            // log.info( "Total time: " + timer );
-            // for ( Entry<String, Long> entry : timerMap.entrySet() ) {
-            // log.info( entry.getKey() + " - " + entry.getValue() + " - " + entry.getValue()
-            // / ( double ) timer.getNanoTime() );
-            // }
-
-            return geneGOMap;
 
+            log.info( "Retrieved (" + genesToLoad.size() + ") genes from db and ("
+                    + (genes.size() - genesToLoad.size()) + ") from cache" );
         } else {
-            log.info( "Empty geneset" );
-            return null;
+            log.info( "Retrieved all (" + genes.size() + ") genes from cache" );
+
         }
+
+        return geneData;
     }
 
-    private void addGeneData( Gene gene, Set<GeneOntologyTerm> goSet, Set<Aspect> filterAspect,
-                              Map<GeneOntologyTerm, Set<Gene>> geneGOMap ) {
-        boolean bypassFilter = (filterAspect == null || filterAspect.size() == 0
-                || filterAspect.size() == Aspect.values().length);
-
-        for ( GeneOntologyTerm term : goSet ) {
-            if ( bypassFilter || filterAspect.contains( term.getAspect() ) ) {
-                Set<Gene> geneSet = geneGOMap.get( term );
-                if ( geneSet == null ) {
-                    // Previously had no genes for this term
-                    geneSet = new HashSet<>();
-                    geneGOMap.put( term, geneSet );
-                }
+    /**
+     * Collects the genes annotated with each term of a single edition. Genes whose terms are held in a
+     * {@link TermSet} are accumulated by term ordinal in an array, without hashing any terms.
+     */
+    static final class SampleBuilder {
+        private final Set<Aspect> filterAspect;
+
+        private GeneOntology ontology;
+        private List<List<Gene>> byOrdinal;
+        private final Map<GeneOntologyTerm, Set<Gene>> byTerm = new HashMap<>();
+
+        /**
+         * @param filterAspect only add these aspects, ignore filter if null or empty
+         */
+        SampleBuilder( Set<Aspect> filterAspect ) {
+            boolean bypassFilter = (filterAspect == null || filterAspect.size() == 0
+                    || filterAspect.size() == Aspect.values().length);
+            this.filterAspect = bypassFilter ? null : filterAspect;
+        }
 
-                geneSet.add( gene );
+        void add( Gene gene, Set<GeneOntologyTerm> goSet ) {
+            if ( goSet instanceof TermSet && ( ontology == null || ontology == ( (TermSet) goSet ).getOntology() ) ) {
+                if ( ontology == null ) {
+                    ontology = ( (TermSet) goSet ).getOntology();
+                    byOrdinal = new ArrayList<>( Collections.nCopies( ontology.size(), null ) );
+                }
+                ( (TermSet) goSet ).forEachOrdinal( o -> {
+                    if ( filterAspect == null || filterAspect.contains( ontology.getTermByOrdinal( o ).getAspect() ) ) {
+                        List<Gene> genes = byOrdinal.get( o );
+                        if ( genes == null ) {
+                            genes = new ArrayList<>();
+                            byOrdinal.set( o, genes );
+                        }
+                        genes.add( gene );
+                    }
+                } );
+                return;
             }
 
+            for ( GeneOntologyTerm term : goSet ) {
+                if ( filterAspect == null || filterAspect.contains( term.getAspect() ) ) {
+                    byTerm.computeIfAbsent( term, t -> new HashSet<>() ).add( gene );
+                }
+            }
         }
 
+        /**
+         * @return map of term to the genes annotated with it
+         */
+        Map<GeneOntologyTerm, Set<Gene>> build() {
+            Map<GeneOntologyTerm, Set<Gene>> result = byTerm;
+            if ( byOrdinal != null ) {
+                for ( int o = 0; o < byOrdinal.size(); o++ ) {
+                    List<Gene> annotated = byOrdinal.get( o );
+                    if ( annotated != null ) {
+                        GeneOntologyTerm term = ontology.getTermByOrdinal( o );
+                        Set<Gene> genes = result.get( term );
+                        if ( genes == null ) {
+                            result.put( term, new HashSet<>( annotated ) );
+                        } else {
+                            genes.addAll( annotated );
+                        }
+                    }
+                }
+            }
+            return result;
+        }
     }
 
 }
@@ -38,7 +38,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * TODO Document Me
@@ -132,7 +131,7 @@ public class MultifunctionalityService implements Serializable {
 
         Set<GeneOntologyTerm> data = annotationService.fetchSingleEnrichmentData( ed, Lists.newArrayList( gene ) ).get( gene );
 
-        return GeneOntologyTerm.propagate( data.stream() ).collect( Collectors.toSet() );
+        return GeneOntologyTerm.propagateToSet( data );
 
     }
 
@@ -144,7 +143,7 @@ public class MultifunctionalityService implements Serializable {
         Map<Edition, Set<GeneOntologyTerm>> propagatedData = new HashMap<>();
 
         for ( Entry<Edition, Set<GeneOntologyTerm>> entry : map.entrySet() ) {
-            propagatedData.put( entry.getKey(), GeneOntologyTerm.propagate( entry.getValue().stream() ).collect( Collectors.toSet() ) );
+            propagatedData.put( entry.getKey(), GeneOntologyTerm.propagateToSet( entry.getValue() ) );
         }
         return propagatedData;
     }
@@ -0,0 +1,47 @@
+package ubc.pavlab.gotrack.beans.service;
+
+import ubc.pavlab.gotrack.model.StatusPoller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Progress of an analysis shared by several callers, forwarded to the poller of each of them. Callers joining while it
+ * runs are first brought up to date with the statuses reported so far.
+ */
+final class SharedStatusPoller extends StatusPoller {
+
+    private final List<Consumer<StatusPoller>> history = new ArrayList<>();
+    private final List<StatusPoller> waiters = new ArrayList<>();
+
+    /**
+     * @param poller poller of a caller waiting on the analysis
+     */
+    synchronized void join( StatusPoller poller ) {
+        for ( Consumer<StatusPoller> update : history ) {
+            update.accept( poller );
+        }
+        waiters.add( poller );
+    }
+
+    @Override
+    public synchronized void newStatus( String status, int progress ) {
+        super.newStatus( status, progress );
+        // A waiter may have reported progress of its own before joining
+        forward( poller -> poller.newStatus( status, Math.max( progress, poller.getProgress() ) ) );
+    }
+
+    @Override
+    public synchronized void completeStatus() {
+        super.completeStatus();
+        forward( StatusPoller::completeStatus );
+    }
+
+    private void forward( Consumer<StatusPoller> update ) {
+        history.add( update );
+        for ( StatusPoller poller : waiters ) {
+            update.accept( poller );
+        }
+    }
+}
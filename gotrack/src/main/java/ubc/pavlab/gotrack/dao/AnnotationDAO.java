@@ -29,6 +29,7 @@ import ubc.pavlab.gotrack.utilities.Tuples;
 import java.sql.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * This interface represents a contract for {@link AnnotationDAOImpl}. Note that all methods are
@@ -41,6 +42,12 @@ public interface AnnotationDAO {
      */
     List<EnrichmentDTO> simpleAnnotationRangeEditions( Set<Gene> genes, Integer minEdition, Integer maxEdition ) throws DAOException;
 
+    /**
+     * Same as {@link #simpleAnnotationRangeEditions(Set, Integer, Integer)} but rows are handed to the consumer, on the
+     * calling thread, as they are retrieved
+     */
+    void simpleAnnotationRangeEditions( Set<Gene> genes, Integer minEdition, Integer maxEdition, Consumer<EnrichmentDTO> consumer ) throws DAOException;
+
     /**
      * Retrieves counts of unique annotations grouped by evidence category over time for a specific GO Id
      * where date falls between @min and @max
@@ -63,6 +70,12 @@ public interface AnnotationDAO {
      */
     List<SimpleAnnotationDTO> simpleAnnotationSingleEdition( Edition ed, Set<Gene> genes ) throws DAOException;
 
+    /**
+     * Same as {@link #simpleAnnotationSingleEdition(Edition, Set)} but rows are handed to the consumer, on the calling
+     * thread, as they are retrieved
+     */
+    void simpleAnnotationSingleEdition( Edition ed, Set<Gene> genes, Consumer<SimpleAnnotationDTO> consumer ) throws DAOException;
+
     List<Tuples.Tuple3<Integer, String, Boolean>> inferredGenesRangeEditions( GeneOntologyTerm term, Species species, Integer minEdition, Integer maxEdition ) throws DAOException;
 
     List<Tuples.Tuple2<String, Boolean>> inferredGenesSingleEdition( GeneOntologyTerm term, Edition edition ) throws DAOException;
@@ -73,4 +86,10 @@ public interface AnnotationDAO {
      * Retrieve data necessary for bulk download of a single edition - terms only
      */
     List<Tuples.Tuple2<String,String>> simpleAnnotationSingleEditionCompleteSpecies( Species species, Edition edition ) throws DAOException;
+
+    /**
+     * Same as {@link #simpleAnnotationSingleEditionCompleteSpecies(Species, Edition)} but rows are streamed from the
+     * database and handed to the consumer one at a time
+     */
+    void simpleAnnotationSingleEditionCompleteSpecies( Species species, Edition edition, Consumer<Tuples.Tuple2<String,String>> consumer ) throws DAOException;
 }
\ No newline at end of file
@@ -32,6 +32,7 @@ import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static ubc.pavlab.gotrack.dao.DAOUtil.close;
@@ -154,27 +155,18 @@ public class AnnotationDAOImpl implements AnnotationDAO {
 
         try {
 
-            long startTime = System.currentTimeMillis();
             connection = daoFactory.getConnection();
-            long endTime = System.currentTimeMillis();
-            log.debug( "daoFactory.getConnection(): " + (endTime - startTime) + "ms" );
 
             statement = connection.prepareStatement( sql );
             DAOUtil.setValues( statement, params.toArray() );
             log.debug( statement );
 
-            startTime = System.currentTimeMillis();
             resultSet = statement.executeQuery();
-            endTime = System.currentTimeMillis();
-            log.debug( "statement.executeQuery(): " + (endTime - startTime) + "ms" );
 
-            startTime = System.currentTimeMillis();
             while (resultSet.next()) {
                 results.add( new AnnotationDTO( resultSet.getInt( 1 ), resultSet.getString( 2 ),
                         resultSet.getString( 3 ), resultSet.getString( 4 ), resultSet.getString( 5 ) ) );
             }
-            endTime = System.currentTimeMillis();
-            log.debug( "while ( resultSet.next() ): " + (endTime - startTime) + "ms" );
         } catch (SQLException e) {
             throw new DAOException( e );
         } finally {
@@ -186,126 +178,50 @@ public class AnnotationDAOImpl implements AnnotationDAO {
 
     @Override
     public List<EnrichmentDTO> simpleAnnotationRangeEditions( Set<Gene> genes, Integer minEdition, Integer maxEdition ) throws DAOException {
+        List<EnrichmentDTO> results = new ArrayList<>();
+        simpleAnnotationRangeEditions( genes, minEdition, maxEdition, results::add );
+        return results;
+    }
+
+    @Override
+    public void simpleAnnotationRangeEditions( Set<Gene> genes, Integer minEdition, Integer maxEdition, Consumer<EnrichmentDTO> consumer ) throws DAOException {
 
         if ( genes == null || genes.size() == 0 ) {
-            return Lists.newArrayList();
+            return;
         }
 
         Species species = genes.iterator().next().getSpecies();
 
-        List<Object> params = Lists.newArrayList();
-
-        String sql = String.format( SQL_ENRICHMENT_ANNOTATION_RANGE_EDITIONS_MULTIPLE_GENES, DAOUtil.preparePlaceHolders( genes.size() ) );
-
-        for ( Gene g : genes ) {
-            params.add( g.getAccession().getAccession() );
-        }
-
-
-        params.add( species.getId() ); // See Issue #32
-        params.add( minEdition );
-        params.add( maxEdition );
-
-        Connection connection = null;
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
-
-        List<EnrichmentDTO> results = new ArrayList<>();
-
-        log.debug( sql );
-
-        try {
-
-            long startTime = System.currentTimeMillis();
-            connection = daoFactory.getConnection();
-            long endTime = System.currentTimeMillis();
-            log.debug( "daoFactory.getConnection(): " + (endTime - startTime) + "ms" );
-
-            statement = connection.prepareStatement( sql );
-            DAOUtil.setValues( statement, params.toArray() );
-            log.debug( statement );
-
-            startTime = System.currentTimeMillis();
-            resultSet = statement.executeQuery();
-            endTime = System.currentTimeMillis();
-            log.debug( "statement.executeQuery(): " + (endTime - startTime) + "ms" );
-
-            startTime = System.currentTimeMillis();
-            while (resultSet.next()) {
-
-                results.add( enrichmentMap( resultSet ) );
+        log.debug( SQL_ENRICHMENT_ANNOTATION_RANGE_EDITIONS_MULTIPLE_GENES );
 
-            }
-            endTime = System.currentTimeMillis();
-            log.debug( "while ( resultSet.next() ): " + (endTime - startTime) + "ms" );
-        } catch (SQLException e) {
-            throw new DAOException( e );
-        } finally {
-            close( connection, statement, resultSet );
-        }
+        new ChunkedQuery<>( daoFactory, SQL_ENRICHMENT_ANNOTATION_RANGE_EDITIONS_MULTIPLE_GENES, AnnotationDAOImpl::enrichmentMap )
+                .run( accessions( genes ), new Object[] { species.getId(), minEdition, maxEdition }, consumer ); // See Issue #32
+    }
 
+    @Override
+    public List<SimpleAnnotationDTO> simpleAnnotationSingleEdition( Edition ed, Set<Gene> genes ) throws DAOException {
+        List<SimpleAnnotationDTO> results = new ArrayList<>();
+        simpleAnnotationSingleEdition( ed, genes, results::add );
         return results;
     }
 
     @Override
-    public List<SimpleAnnotationDTO> simpleAnnotationSingleEdition( Edition ed, Set<Gene> genes ) throws DAOException {
+    public void simpleAnnotationSingleEdition( Edition ed, Set<Gene> genes, Consumer<SimpleAnnotationDTO> consumer ) throws DAOException {
 
         if ( genes == null || genes.size() == 0 || ed == null ) {
-            return Lists.newArrayList();
+            return;
         }
 
         Species species = genes.iterator().next().getSpecies();
 
-        List<Object> params = new ArrayList<Object>();
-
-        String sql = String.format( SQL_ENRICHMENT_ANNOTATION_SINGLE_EDITION_MULTIPLE_GENES, DAOUtil.preparePlaceHolders( genes.size() ) );
-
-        for ( Gene g : genes ) {
-            params.add( g.getAccession().getAccession() );
-        }
-
-        params.add( species.getId() ); // See Issue #32
-        params.add( ed.getEdition() );
-
-        Connection connection = null;
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
-
-        List<SimpleAnnotationDTO> results = new ArrayList<>();
+        log.debug( SQL_ENRICHMENT_ANNOTATION_SINGLE_EDITION_MULTIPLE_GENES );
 
-        log.debug( sql );
-
-        try {
-
-            long startTime = System.currentTimeMillis();
-            connection = daoFactory.getConnection();
-            long endTime = System.currentTimeMillis();
-            log.debug( "daoFactory.getConnection(): " + (endTime - startTime) + "ms" );
-
-            statement = connection.prepareStatement( sql );
-            DAOUtil.setValues( statement, params.toArray() );
-            log.debug( statement );
-
-            startTime = System.currentTimeMillis();
-            resultSet = statement.executeQuery();
-            endTime = System.currentTimeMillis();
-            log.debug( "statement.executeQuery(): " + (endTime - startTime) + "ms" );
-
-            startTime = System.currentTimeMillis();
-            while (resultSet.next()) {
-
-                results.add( simpleEnrichmentMap( resultSet ) );
-
-            }
-            endTime = System.currentTimeMillis();
-            log.debug( "while ( resultSet.next() ): " + (endTime - startTime) + "ms" );
-        } catch (SQLException e) {
-            throw new DAOException( e );
-        } finally {
-            close( connection, statement, resultSet );
-        }
+        new ChunkedQuery<>( daoFactory, SQL_ENRICHMENT_ANNOTATION_SINGLE_EDITION_MULTIPLE_GENES, AnnotationDAOImpl::simpleEnrichmentMap )
+                .run( accessions( genes ), new Object[] { species.getId(), ed.getEdition() }, consumer ); // See Issue #32
+    }
 
-        return results;
+    private static List<String> accessions( Set<Gene> genes ) {
+        return genes.stream().map( g -> g.getAccession().getAccession() ).collect( Collectors.toList() );
     }
 
     @Override
@@ -334,27 +250,18 @@ public class AnnotationDAOImpl implements AnnotationDAO {
 
         try {
 
-            long startTime = System.currentTimeMillis();
             connection = daoFactory.getConnection();
-            long endTime = System.currentTimeMillis();
-            log.debug( "daoFactory.getConnection(): " + (endTime - startTime) + "ms" );
 
             statement = connection.prepareStatement( sql );
             DAOUtil.setValues( statement, params.toArray() );
             log.debug( statement );
 
-            startTime = System.currentTimeMillis();
             resultSet = statement.executeQuery();
-            endTime = System.currentTimeMillis();
-            log.debug( "statement.executeQuery(): " + (endTime - startTime) + "ms" );
 
-            startTime = System.currentTimeMillis();
             while (resultSet.next()) {
                 results.add( new EvidenceCountDTO( resultSet.getDate( "date" ), resultSet.getString( "evidence" ),
                         resultSet.getInt( "count" ) ) );
             }
-            endTime = System.currentTimeMillis();
-            log.debug( "while ( resultSet.next() ): " + (endTime - startTime) + "ms" );
         } catch (SQLException e) {
             throw new DAOException( e );
         } finally {
@@ -390,27 +297,18 @@ public class AnnotationDAOImpl implements AnnotationDAO {
 
         try {
 
-            long startTime = System.currentTimeMillis();
             connection = daoFactory.getConnection();
-            long endTime = System.currentTimeMillis();
-            log.debug( "daoFactory.getConnection(): " + (endTime - startTime) + "ms" );
 
             statement = connection.prepareStatement( sql );
             DAOUtil.setValues( statement, params.toArray() );
             log.debug( statement );
 
-            startTime = System.currentTimeMillis();
             resultSet = statement.executeQuery();
-            endTime = System.currentTimeMillis();
-            log.debug( "statement.executeQuery(): " + (endTime - startTime) + "ms" );
 
-            startTime = System.currentTimeMillis();
             while (resultSet.next()) {
                 results.add( new EditionEvidenceCountDTO( resultSet.getInt( "edition" ), resultSet.getString( "evidence" ),
                         resultSet.getInt( "count" ) ) );
             }
-            endTime = System.currentTimeMillis();
-            log.debug( "while ( resultSet.next() ): " + (endTime - startTime) + "ms" );
         } catch (SQLException e) {
             throw new DAOException( e );
         } finally {
@@ -555,52 +453,17 @@ public class AnnotationDAOImpl implements AnnotationDAO {
 
     @Override
     public List<Tuples.Tuple2<String, String>> simpleAnnotationSingleEditionCompleteSpecies( Species species, Edition edition ) throws DAOException {
-
-        List<Object> params = new ArrayList<>();
-
-        params.add( species.getId() );
-        params.add( edition.getEdition() );
-
-        Connection connection = null;
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
-
         List<Tuples.Tuple2<String, String>> results = new ArrayList<>();
-        String sql = SQL_SIMPLE_ANNOTATION_SINGLE_EDITION;
-
-        log.debug( sql );
-
-        try {
-
-            long startTime = System.currentTimeMillis();
-            connection = daoFactory.getConnection();
-            long endTime = System.currentTimeMillis();
-            log.debug( "daoFactory.getConnection(): " + (endTime - startTime) + "ms" );
-
-            statement = connection.prepareStatement( sql );
-            DAOUtil.setValues( statement, params.toArray() );
-            log.debug( statement );
-
-            startTime = System.currentTimeMillis();
-            resultSet = statement.executeQuery();
-            endTime = System.currentTimeMillis();
-            log.debug( "statement.executeQuery(): " + (endTime - startTime) + "ms" );
-
-            startTime = System.currentTimeMillis();
-            while (resultSet.next()) {
-                results.add( new Tuples.Tuple2<>( resultSet.getString( "ac" ), resultSet.getString( "go_id" ) ) );
-            }
-            endTime = System.currentTimeMillis();
-            log.debug( "while ( resultSet.next() ): " + (endTime - startTime) + "ms" );
-        } catch (SQLException e) {
-            throw new DAOException( e );
-        } finally {
-            close( connection, statement, resultSet );
-        }
-
+        simpleAnnotationSingleEditionCompleteSpecies( species, edition, results::add );
         return results;
     }
 
+    @Override
+    public void simpleAnnotationSingleEditionCompleteSpecies( Species species, Edition edition, Consumer<Tuples.Tuple2<String, String>> consumer ) throws DAOException {
+        StreamingQuery.forEach( daoFactory, SQL_SIMPLE_ANNOTATION_SINGLE_EDITION, new Object[] { species.getId(), edition.getEdition() },
+                resultSet -> new Tuples.Tuple2<>( resultSet.getString( "ac" ), resultSet.getString( "go_id" ) ), consumer );
+    }
+
     private static EnrichmentDTO enrichmentMap( ResultSet resultSet ) throws SQLException {
         Integer edition = resultSet.getInt( "edition" );
         String accession = resultSet.getString( "ac" );
@@ -0,0 +1,470 @@
+package ubc.pavlab.gotrack.dao;
+
+import com.google.common.io.CountingOutputStream;
+import gnu.trove.list.array.TIntArrayList;
+import ubc.pavlab.gotrack.model.dto.AnnotationDTO;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Annotation history of a single species in columnar form on local disk, read through memory-mapped columns.
+ * <p>
+ * Each row is a distinct annotation of a gene (a primary accession of pp_accession_history) in an edition. Rows are
+ * grouped by gene and ordered by edition then GO id within a gene, so the history of a gene is the contiguous range of
+ * rows given by the gene offset index. Strings are dictionary encoded and every column is stored with the fewest bytes
+ * (1, 2 or 4) that hold its largest value.
+ * <p>
+ * Layout: magic and version, then the edition, GO id, evidence, qualifier and reference columns, then an index holding
+ * the species, its current edition when exported, the row count, the dictionaries, the gene offsets and the position
+ * and width of each column, then the offset of that index.
+ */
+final class AnnotationStore {
+
+    static final int MAGIC = 0x47544153; // GTAS
+    static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+
+    private static final int EDITION = 0;
+    private static final int GO = 1;
+    private static final int EVIDENCE = 2;
+    private static final int QUALIFIER = 3;
+    private static final int REFERENCE = 4;
+    private static final int COLUMNS = 5;
+
+    private final int speciesId;
+    private final int edition;
+    private final int rows;
+    private final String[] genes;
+    private final Map<String, Integer> geneIndex;
+    private final int[] geneOffsets;
+    private final String[] goIds;
+    private final Map<String, Integer> goIndex;
+    private final String[] evidence;
+    private final String[] qualifiers;
+    private final boolean[] negated;
+    private final String[] references;
+    private final Column[] columns;
+
+    private AnnotationStore( int speciesId, int edition, int rows, String[] genes, int[] geneOffsets, String[] goIds,
+                             String[] evidence, String[] qualifiers, String[] references, Column[] columns ) {
+        this.speciesId = speciesId;
+        this.edition = edition;
+        this.rows = rows;
+        this.genes = genes;
+        this.geneIndex = index( genes );
+        this.geneOffsets = geneOffsets;
+        this.goIds = goIds;
+        this.goIndex = index( goIds );
+        this.evidence = evidence;
+        this.qualifiers = qualifiers;
+        this.negated = new boolean[qualifiers.length];
+        for ( int i = 0; i < qualifiers.length; i++ ) {
+            negated[i] = qualifiers[i] != null && qualifiers[i].startsWith( "NOT" );
+        }
+        this.references = references;
+        this.columns = columns;
+    }
+
+    /**
+     * @return location of the store of a species in a directory
+     */
+    static Path path( Path directory, int speciesId ) {
+        return directory.resolve( "annotations-" + speciesId + ".store" );
+    }
+
+    /**
+     * @throws IOException If the file is missing, truncated or of an unsupported format
+     */
+    static AnnotationStore open( Path file ) throws IOException {
+        try (FileChannel channel = FileChannel.open( file, StandardOpenOption.READ )) {
+            long size = channel.size();
+            if ( size < 2 * Integer.BYTES + TRAILER_SIZE ) {
+                throw new IOException( "Annotation store " + file + " is truncated" );
+            }
+
+            ByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, 2 * Integer.BYTES );
+            ByteBuffer trailer = channel.map( FileChannel.MapMode.READ_ONLY, size - TRAILER_SIZE, TRAILER_SIZE );
+            long indexOffset = trailer.getLong();
+            if ( header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION || trailer.getInt() != MAGIC ) {
+                throw new IOException( "Annotation store " + file + " has an unsupported format" );
+            }
+
+            ByteBuffer index = channel.map( FileChannel.MapMode.READ_ONLY, indexOffset,
+                    size - TRAILER_SIZE - indexOffset );
+            int speciesId = index.getInt();
+            int edition = index.getInt();
+            int rows = index.getInt();
+            String[] genes = readDictionary( index );
+            String[] goIds = readDictionary( index );
+            String[] evidence = readDictionary( index );
+            String[] qualifiers = readDictionary( index );
+            String[] references = readDictionary( index );
+            int[] geneOffsets = new int[genes.length + 1];
+            index.asIntBuffer().get( geneOffsets );
+            index.position( index.position() + geneOffsets.length * Integer.BYTES );
+
+            // Mappings remain valid after the channel is closed
+            Column[] columns = new Column[COLUMNS];
+            for ( int c = 0; c < COLUMNS; c++ ) {
+                long offset = index.getLong();
+                int width = index.get();
+                columns[c] = new Column(
+                        channel.map( FileChannel.MapMode.READ_ONLY, offset, (long) rows * width ), width );
+            }
+            return new AnnotationStore( speciesId, edition, rows, genes, geneOffsets, goIds, evidence, qualifiers,
+                    references, columns );
+        }
+    }
+
+    int getSpeciesId() {
+        return speciesId;
+    }
+
+    /**
+     * @return current edition of the species when the store was exported
+     */
+    int getEdition() {
+        return edition;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    int geneCount() {
+        return genes.length;
+    }
+
+    /**
+     * @return index of the gene with this primary accession, -1 if it has no annotations
+     */
+    int gene( String accession ) {
+        Integer g = geneIndex.get( accession );
+        return g == null ? -1 : g;
+    }
+
+    String accession( int gene ) {
+        return genes[gene];
+    }
+
+    /**
+     * @return first row of the gene in an edition at least minEdition
+     */
+    int start( int gene, int minEdition ) {
+        int lo = geneOffsets[gene];
+        int hi = geneOffsets[gene + 1];
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if ( edition( mid ) < minEdition ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return row after the last row of the gene
+     */
+    int end( int gene ) {
+        return geneOffsets[gene + 1];
+    }
+
+    /**
+     * @return dictionary id of a GO id, -1 if it is never annotated
+     */
+    int goId( String goId ) {
+        Integer id = goIndex.get( goId );
+        return id == null ? -1 : id;
+    }
+
+    int goIdCount() {
+        return goIds.length;
+    }
+
+    int edition( int row ) {
+        return columns[EDITION].get( row );
+    }
+
+    /**
+     * @return dictionary id of the GO id of a row
+     */
+    int go( int row ) {
+        return columns[GO].get( row );
+    }
+
+    String goIdOf( int row ) {
+        return goIds[go( row )];
+    }
+
+    String evidence( int row ) {
+        return evidence[columns[EVIDENCE].get( row )];
+    }
+
+    String qualifier( int row ) {
+        return qualifiers[columns[QUALIFIER].get( row )];
+    }
+
+    /**
+     * @return true if the qualifier of the row negates the annotation
+     */
+    boolean negated( int row ) {
+        return negated[columns[QUALIFIER].get( row )];
+    }
+
+    String reference( int row ) {
+        return references[columns[REFERENCE].get( row )];
+    }
+
+    private static Map<String, Integer> index( String[] values ) {
+        Map<String, Integer> index = new HashMap<>( values.length * 2 );
+        for ( int i = 0; i < values.length; i++ ) {
+            index.put( values[i], i );
+        }
+        return index;
+    }
+
+    private static String[] readDictionary( ByteBuffer in ) {
+        String[] values = new String[in.getInt()];
+        for ( int i = 0; i < values.length; i++ ) {
+            int length = in.getInt();
+            if ( length >= 0 ) {
+                byte[] bytes = new byte[length];
+                in.get( bytes );
+                values[i] = new String( bytes, StandardCharsets.UTF_8 );
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Fixed width column of non-negative values.
+     */
+    private static final class Column {
+        private final ByteBuffer buffer;
+        private final int width;
+
+        private Column( ByteBuffer buffer, int width ) {
+            this.buffer = buffer;
+            this.width = width;
+        }
+
+        int get( int row ) {
+            switch ( width ) {
+                case 1:
+                    return buffer.get( row ) & 0xFF;
+                case 2:
+                    return buffer.getChar( row << 1 );
+                default:
+                    return buffer.getInt( row << 2 );
+            }
+        }
+    }
+
+    /**
+     * Strings of one column numbered in order of first appearance.
+     */
+    private static final class Dictionary {
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        int id( String value ) {
+            return ids.computeIfAbsent( value, v -> {
+                values.add( v );
+                return values.size() - 1;
+            } );
+        }
+
+        boolean contains( String value ) {
+            return ids.containsKey( value );
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        void write( DataOutputStream out ) throws IOException {
+            out.writeInt( values.size() );
+            for ( String value : values ) {
+                if ( value == null ) {
+                    out.writeInt( -1 );
+                } else {
+                    byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+                    out.writeInt( bytes.length );
+                    out.write( bytes );
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a store from rows grouped by gene and ordered by edition then GO id within each gene. Columns are spooled
+     * to temporary files at full width until the dictionaries are complete, the store is then written to a temporary
+     * file of its own next to its final location and moved into place so that a partially written store is never read.
+     */
+    static final class Writer implements Closeable {
+        private final Path file;
+        private final Path tmp;
+        private final int speciesId;
+        private final int edition;
+
+        private final Path[] spools = new Path[COLUMNS];
+        private final DataOutputStream[] spoolOut = new DataOutputStream[COLUMNS];
+        private final int[] max = new int[COLUMNS];
+
+        private final Dictionary genes = new Dictionary();
+        private final Dictionary goIds = new Dictionary();
+        private final Dictionary evidence = new Dictionary();
+        private final Dictionary qualifiers = new Dictionary();
+        private final Dictionary references = new Dictionary();
+        private final TIntArrayList geneOffsets = new TIntArrayList();
+
+        private int rows = 0;
+        private String currentGene;
+        private int currentEdition;
+
+        /**
+         * @param edition current edition of the species, stored to detect when the store is out of date
+         */
+        Writer( Path file, int speciesId, int edition ) throws IOException {
+            this.file = file;
+            this.speciesId = speciesId;
+            this.edition = edition;
+            if ( file.toAbsolutePath().getParent() != null ) {
+                Files.createDirectories( file.toAbsolutePath().getParent() );
+            }
+            this.tmp = Files.createTempFile( file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp" );
+            try {
+                for ( int c = 0; c < COLUMNS; c++ ) {
+                    spools[c] = Files.createTempFile( file.toAbsolutePath().getParent(), "column", ".tmp" );
+                    spoolOut[c] = new DataOutputStream(
+                            new BufferedOutputStream( Files.newOutputStream( spools[c] ), BUFFER_SIZE ) );
+                }
+            } catch ( IOException e ) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * @param accession primary accession of the gene
+         * @throws DAOException If the rows are not grouped by gene and ordered by edition within a gene
+         */
+        void add( String accession, AnnotationDTO dto ) throws IOException {
+            if ( !accession.equals( currentGene ) ) {
+                if ( genes.contains( accession ) ) {
+                    throw new DAOException( "Rows of gene " + accession + " are not contiguous." );
+                }
+                genes.id( accession );
+                geneOffsets.add( rows );
+                currentGene = accession;
+                currentEdition = Integer.MIN_VALUE;
+            }
+            if ( dto.getEdition() < currentEdition ) {
+                throw new DAOException( "Rows of gene " + accession + " are not ordered by edition." );
+            }
+            currentEdition = dto.getEdition();
+
+            spool( EDITION, dto.getEdition() );
+            spool( GO, goIds.id( dto.getGoId() ) );
+            spool( EVIDENCE, evidence.id( dto.getEvidence() ) );
+            spool( QUALIFIER, qualifiers.id( dto.getQualifier() ) );
+            spool( REFERENCE, references.id( dto.getReference() ) );
+            rows++;
+        }
+
+        private void spool( int column, int value ) throws IOException {
+            spoolOut[column].writeInt( value );
+            max[column] = Math.max( max[column], value );
+        }
+
+        int getRows() {
+            return rows;
+        }
+
+        /**
+         * Write the store and move it into place.
+         */
+        void finish() throws IOException {
+            geneOffsets.add( rows );
+            long[] offsets = new long[COLUMNS];
+            int[] widths = new int[COLUMNS];
+
+            CountingOutputStream counting = new CountingOutputStream(
+                    new BufferedOutputStream( Files.newOutputStream( tmp ), BUFFER_SIZE ) );
+            try (DataOutputStream out = new DataOutputStream( counting )) {
+                out.writeInt( MAGIC );
+                out.writeInt( FORMAT_VERSION );
+                for ( int c = 0; c < COLUMNS; c++ ) {
+                    spoolOut[c].close();
+                    out.flush();
+                    offsets[c] = counting.getCount();
+                    widths[c] = max[c] < 1 << 8 ? 1 : max[c] < 1 << 16 ? 2 : 4;
+                    try (DataInputStream in = new DataInputStream(
+                            new BufferedInputStream( Files.newInputStream( spools[c] ), BUFFER_SIZE ) )) {
+                        for ( int i = 0; i < rows; i++ ) {
+                            int value = in.readInt();
+                            if ( widths[c] == 1 ) {
+                                out.writeByte( value );
+                            } else if ( widths[c] == 2 ) {
+                                out.writeChar( value );
+                            } else {
+                                out.writeInt( value );
+                            }
+                        }
+                    }
+                }
+
+                out.flush();
+                long indexOffset = counting.getCount();
+                out.writeInt( speciesId );
+                out.writeInt( edition );
+                out.writeInt( rows );
+                genes.write( out );
+                goIds.write( out );
+                evidence.write( out );
+                qualifiers.write( out );
+                references.write( out );
+                for ( int i = 0; i < geneOffsets.size(); i++ ) {
+                    out.writeInt( geneOffsets.get( i ) );
+                }
+                for ( int c = 0; c < COLUMNS; c++ ) {
+                    out.writeLong( offsets[c] );
+                    out.writeByte( widths[c] );
+                }
+                out.writeLong( indexOffset );
+                out.writeInt( MAGIC );
+            }
+            Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+
+        /**
+         * Remove temporary files, and the partial store if it was not moved into place.
+         */
+        @Override
+        public void close() throws IOException {
+            for ( int c = 0; c < COLUMNS; c++ ) {
+                if ( spoolOut[c] != null ) {
+                    spoolOut[c].close();
+                }
+                if ( spools[c] != null ) {
+                    Files.deleteIfExists( spools[c] );
+                }
+            }
+            Files.deleteIfExists( tmp );
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package ubc.pavlab.gotrack.dao;
+
+import org.apache.log4j.Logger;
+import ubc.pavlab.gotrack.model.Edition;
+import ubc.pavlab.gotrack.model.Gene;
+import ubc.pavlab.gotrack.model.Species;
+import ubc.pavlab.gotrack.model.dto.*;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+import ubc.pavlab.gotrack.utilities.Tuples;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * AnnotationDAO that answers gene and term history reads from the local {@link AnnotationStore} of a species, written
+ * by {@link AnnotationStoreExporter}, instead of the database.
+ * <p>
+ * Stores are opened on first use. A species whose store is missing, unreadable or exported before its current
+ * edition is passed through to the delegate, as are the evidence category counts, which count raw annotation rows
+ * rather than the distinct annotations of each gene. Term reads scan the genes of the species in parallel on the
+ * common fork join pool.
+ */
+public class AnnotationStoreDAO implements AnnotationDAO {
+
+    private static final Logger log = Logger.getLogger( AnnotationStoreDAO.class );
+
+    private final AnnotationDAO delegate;
+    private final Path directory;
+    private final IntFunction<Integer> currentEditions;
+    private final ConcurrentMap<Integer, Optional<AnnotationStore>> stores = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate        DAO used when no store can answer a call
+     * @param directory       directory of the stores
+     * @param currentEditions current edition of a species by id, null if unknown
+     */
+    public AnnotationStoreDAO( AnnotationDAO delegate, Path directory, IntFunction<Integer> currentEditions ) {
+        this.delegate = delegate;
+        this.directory = directory;
+        this.currentEditions = currentEditions;
+    }
+
+    /**
+     * Forget the store of a species so that it is opened again on next use, for instance after it was exported.
+     */
+    public void refresh( int speciesId ) {
+        stores.remove( speciesId );
+    }
+
+    /**
+     * @return true if reads for the species are answered from its store
+     */
+    public boolean isServed( Species species ) {
+        return store( species ) != null;
+    }
+
+    private AnnotationStore store( Species species ) {
+        if ( species == null ) {
+            return null;
+        }
+        return stores.computeIfAbsent( species.getId(), this::open ).orElse( null );
+    }
+
+    private Optional<AnnotationStore> open( int speciesId ) {
+        Path file = AnnotationStore.path( directory, speciesId );
+        if ( !Files.isRegularFile( file ) ) {
+            log.info( "No annotation store found at " + file + ", reading species " + speciesId + " from database" );
+            return Optional.empty();
+        }
+        try {
+            AnnotationStore store = AnnotationStore.open( file );
+            Integer current = currentEditions.apply( speciesId );
+            if ( store.getSpeciesId() != speciesId ) {
+                log.warn( "Annotation store at " + file + " belongs to species " + store.getSpeciesId()
+                        + ", reading species " + speciesId + " from database" );
+                return Optional.empty();
+            }
+            if ( current != null && store.getEdition() != current ) {
+                log.info( "Annotation store at " + file + " was exported at edition " + store.getEdition()
+                        + " but the current edition is " + current + ", reading species " + speciesId
+                        + " from database" );
+                return Optional.empty();
+            }
+            log.info( "Annotation store opened from " + file + " (" + store.geneCount() + " genes, "
+                    + store.getRows() + " annotations)" );
+            return Optional.of( store );
+        } catch ( IOException | RuntimeException e ) {
+            log.warn( "Failed to open annotation store at " + file + ", reading species " + speciesId
+                    + " from database", e );
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public List<EnrichmentDTO> simpleAnnotationRangeEditions( Set<Gene> genes, Integer minEdition, Integer maxEdition ) throws DAOException {
+        List<EnrichmentDTO> results = new ArrayList<>();
+        simpleAnnotationRangeEditions( genes, minEdition, maxEdition, results::add );
+        return results;
+    }
+
+    @Override
+    public void simpleAnnotationRangeEditions( Set<Gene> genes, Integer minEdition, Integer maxEdition, Consumer<EnrichmentDTO> consumer ) throws DAOException {
+        if ( genes == null || genes.size() == 0 ) {
+            return;
+        }
+        AnnotationStore store = store( genes.iterator().next().getSpecies() );
+        if ( store == null ) {
+            delegate.simpleAnnotationRangeEditions( genes, minEdition, maxEdition, consumer );
+            return;
+        }
+        if ( minEdition == null || maxEdition == null ) {
+            return;
+        }
+
+        for ( String accession : accessions( genes ) ) {
+            int g = store.gene( accession );
+            if ( g == -1 ) {
+                continue;
+            }
+            int lastEdition = -1;
+            int lastGo = -1;
+            for ( int row = store.start( g, minEdition ), end = store.end( g ); row < end; row++ ) {
+                int edition = store.edition( row );
+                if ( edition > maxEdition ) {
+                    break;
+                }
+                int go = store.go( row );
+                if ( store.negated( row ) || ( edition == lastEdition && go == lastGo ) ) {
+                    continue;
+                }
+                lastEdition = edition;
+                lastGo = go;
+                consumer.accept( new EnrichmentDTO( edition, accession, store.goIdOf( row ) ) );
+            }
+        }
+    }
+
+    @Override
+    public List<EvidenceCountDTO> categoryCountsRangeDates( String goId, Date min, Date max ) throws DAOException {
+        return delegate.categoryCountsRangeDates( goId, min, max );
+    }
+
+    @Override
+    public List<EditionEvidenceCountDTO> categoryCountsSingleSpeciesRangeEditions( String goId, Species species, Integer minEdition, Integer maxEdition ) throws DAOException {
+        return delegate.categoryCountsSingleSpeciesRangeEditions( goId, species, minEdition, maxEdition );
+    }
+
+    @Override
+    public List<AnnotationDTO> fullAnnotationRangeEditions( Gene g, Integer minimum, Integer maximum ) throws DAOException {
+        AnnotationStore store = store( g.getSpecies() );
+        if ( store == null ) {
+            return delegate.fullAnnotationRangeEditions( g, minimum, maximum );
+        }
+
+        List<AnnotationDTO> results = new ArrayList<>();
+        int gene = store.gene( g.getAccession().getAccession() );
+        if ( gene == -1 || minimum == null || maximum == null ) {
+            return results;
+        }
+        for ( int row = store.start( gene, minimum ), end = store.end( gene ); row < end; row++ ) {
+            int edition = store.edition( row );
+            if ( edition > maximum ) {
+                break;
+            }
+            results.add( new AnnotationDTO( edition, store.goIdOf( row ), store.qualifier( row ),
+                    store.evidence( row ), store.reference( row ) ) );
+        }
+        return results;
+    }
+
+    @Override
+    public List<SimpleAnnotationDTO> simpleAnnotationSingleEdition( Edition ed, Set<Gene> genes ) throws DAOException {
+        List<SimpleAnnotationDTO> results = new ArrayList<>();
+        simpleAnnotationSingleEdition( ed, genes, results::add );
+        return results;
+    }
+
+    @Override
+    public void simpleAnnotationSingleEdition( Edition ed, Set<Gene> genes, Consumer<SimpleAnnotationDTO> consumer ) throws DAOException {
+        if ( genes == null || genes.size() == 0 || ed == null ) {
+            return;
+        }
+        AnnotationStore store = store( genes.iterator().next().getSpecies() );
+        if ( store == null ) {
+            delegate.simpleAnnotationSingleEdition( ed, genes, consumer );
+            return;
+        }
+
+        int edition = ed.getEdition();
+        for ( String accession : accessions( genes ) ) {
+            int g = store.gene( accession );
+            if ( g == -1 ) {
+                continue;
+            }
+            int lastGo = -1;
+            for ( int row = store.start( g, edition ), end = store.end( g ); row < end && store.edition( row ) == edition; row++ ) {
+                int go = store.go( row );
+                if ( store.negated( row ) || go == lastGo ) {
+                    continue;
+                }
+                lastGo = go;
+                consumer.accept( new SimpleAnnotationDTO( store.goIdOf( row ), accession ) );
+            }
+        }
+    }
+
+    @Override
+    public List<Tuples.Tuple3<Integer, String, Boolean>> inferredGenesRangeEditions( GeneOntologyTerm term, Species species, Integer minEdition, Integer maxEdition ) throws DAOException {
+        if ( term == null ) {
+            return new ArrayList<>();
+        }
+        AnnotationStore store = store( species );
+        if ( store == null ) {
+            return delegate.inferredGenesRangeEditions( term, species, minEdition, maxEdition );
+        }
+        boolean[] wanted = descendantsOf( store, term );
+        int direct = store.goId( term.getGoId() );
+        if ( wanted == null || minEdition == null || maxEdition == null ) {
+            return new ArrayList<>();
+        }
+
+        return IntStream.range( 0, store.geneCount() ).parallel().mapToObj( g -> {
+            List<Tuples.Tuple3<Integer, String, Boolean>> results = null;
+            int row = store.start( g, minEdition );
+            int end = store.end( g );
+            while ( row < end ) {
+                int edition = store.edition( row );
+                if ( edition > maxEdition ) {
+                    break;
+                }
+                boolean found = false;
+                boolean isDirect = false;
+                for ( ; row < end && store.edition( row ) == edition; row++ ) {
+                    int go = store.go( row );
+                    if ( wanted[go] ) {
+                        found = true;
+                        isDirect |= go == direct;
+                    }
+                }
+                if ( found ) {
+                    if ( results == null ) {
+                        results = new ArrayList<>();
+                    }
+                    results.add( new Tuples.Tuple3<>( edition, store.accession( g ), isDirect ) );
+                }
+            }
+            return results;
+        } ).filter( Objects::nonNull ).flatMap( List::stream ).collect( Collectors.toList() );
+    }
+
+    @Override
+    public List<Tuples.Tuple2<String, Boolean>> inferredGenesSingleEdition( GeneOntologyTerm term, Edition edition ) throws DAOException {
+        if ( term == null ) {
+            return new ArrayList<>();
+        }
+        AnnotationStore store = store( edition.getSpecies() );
+        if ( store == null ) {
+            return delegate.inferredGenesSingleEdition( term, edition );
+        }
+        boolean[] wanted = descendantsOf( store, term );
+        int direct = store.goId( term.getGoId() );
+        if ( wanted == null ) {
+            return new ArrayList<>();
+        }
+
+        int ed = edition.getEdition();
+        return IntStream.range( 0, store.geneCount() ).parallel().mapToObj( g -> {
+            boolean found = false;
+            boolean isDirect = false;
+            for ( int row = store.start( g, ed ), end = store.end( g ); row < end && store.edition( row ) == ed; row++ ) {
+                int go = store.go( row );
+                if ( wanted[go] ) {
+                    found = true;
+                    isDirect |= go == direct;
+                }
+            }
+            return found ? new Tuples.Tuple2<>( store.accession( g ), isDirect ) : null;
+        } ).filter( Objects::nonNull ).collect( Collectors.toList() );
+    }
+
+    @Override
+    public List<String> directGenesSingleEdition( GeneOntologyTerm term, Edition edition ) throws DAOException {
+        if ( term == null ) {
+            return new ArrayList<>();
+        }
+        AnnotationStore store = store( edition.getSpecies() );
+        if ( store == null ) {
+            return delegate.directGenesSingleEdition( term, edition );
+        }
+        int direct = store.goId( term.getGoId() );
+        if ( direct == -1 ) {
+            return new ArrayList<>();
+        }
+
+        int ed = edition.getEdition();
+        return IntStream.range( 0, store.geneCount() ).parallel().filter( g -> {
+            for ( int row = store.start( g, ed ), end = store.end( g ); row < end && store.edition( row ) == ed; row++ ) {
+                if ( store.go( row ) == direct ) {
+                    return true;
+                }
+            }
+            return false;
+        } ).mapToObj( store::accession ).collect( Collectors.toList() );
+    }
+
+    @Override
+    public List<Tuples.Tuple2<String, String>> simpleAnnotationSingleEditionCompleteSpecies( Species species, Edition edition ) throws DAOException {
+        List<Tuples.Tuple2<String, String>> results = new ArrayList<>();
+        simpleAnnotationSingleEditionCompleteSpecies( species, edition, results::add );
+        return results;
+    }
+
+    @Override
+    public void simpleAnnotationSingleEditionCompleteSpecies( Species species, Edition edition, Consumer<Tuples.Tuple2<String, String>> consumer ) throws DAOException {
+        AnnotationStore store = store( species );
+        if ( store == null ) {
+            delegate.simpleAnnotationSingleEditionCompleteSpecies( species, edition, consumer );
+            return;
+        }
+
+        int ed = edition.getEdition();
+        for ( int g = 0; g < store.geneCount(); g++ ) {
+            int lastGo = -1;
+            for ( int row = store.start( g, ed ), end = store.end( g ); row < end && store.edition( row ) == ed; row++ ) {
+                int go = store.go( row );
+                if ( go != lastGo ) {
+                    lastGo = go;
+                    consumer.accept( new Tuples.Tuple2<>( store.accession( g ), store.goIdOf( row ) ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return flags by GO dictionary id of the term and its descendants, null if none of them is ever annotated
+     */
+    private static boolean[] descendantsOf( AnnotationStore store, GeneOntologyTerm term ) {
+        boolean[] wanted = new boolean[store.goIdCount()];
+        boolean any = false;
+        for ( GeneOntologyTerm t : term.streamDescendants().collect( Collectors.toList() ) ) {
+            int id = store.goId( t.getGoId() );
+            if ( id != -1 ) {
+                wanted[id] = true;
+                any = true;
+            }
+        }
+        int id = store.goId( term.getGoId() );
+        if ( id != -1 ) {
+            wanted[id] = true;
+            any = true;
+        }
+        return any ? wanted : null;
+    }
+
+    private static Set<String> accessions( Set<Gene> genes ) {
+        Set<String> accessions = new LinkedHashSet<>();
+        for ( Gene g : genes ) {
+            accessions.add( g.getAccession().getAccession() );
+        }
+        return accessions;
+    }
+
+    @Override
+    public String toString() {
+        return "AnnotationStoreDAO{directory=" + directory + ", delegate=" + delegate + "}";
+    }
+}
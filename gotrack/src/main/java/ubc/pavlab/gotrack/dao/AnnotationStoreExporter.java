@@ -0,0 +1,69 @@
+package ubc.pavlab.gotrack.dao;
+
+import org.apache.log4j.Logger;
+import ubc.pavlab.gotrack.model.dto.AnnotationDTO;
+import ubc.pavlab.gotrack.model.dto.EditionDTO;
+import ubc.pavlab.gotrack.utilities.Tuples;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Writes the annotation history of a species from the database to its {@link AnnotationStore}, to be served by
+ * {@link AnnotationStoreDAO}. Stores must be exported again whenever a new edition is loaded into the database; until
+ * then the species is read from the database.
+ */
+public final class AnnotationStoreExporter {
+
+    private static final Logger log = Logger.getLogger( AnnotationStoreExporter.class );
+
+    private static final String SQL_ANNOTATION_HISTORY = "select distinct ppah.ac, edition, go_id, qualifier, evidence, reference from accession acc " +
+            "inner join pp_accession_history ppah on acc.db_object_id = ppah.sec " +
+            "inner join annotation ann on acc.id=ann.accession_id " +
+            "where species_id = ? " +
+            "order by ppah.ac, edition, go_id";
+
+    private AnnotationStoreExporter() {
+    }
+
+    /**
+     * @param directory directory of the stores, created if missing
+     * @return number of annotations written
+     * @throws DAOException If the species has no current edition or the store cannot be written
+     */
+    public static int export( DAOFactory daoFactory, int speciesId, Path directory ) throws DAOException {
+        Integer edition = null;
+        for ( EditionDTO dto : daoFactory.getCacheDAO().getCurrentEditions( new int[] { speciesId } ) ) {
+            edition = dto.getEdition();
+        }
+        if ( edition == null ) {
+            throw new DAOException( "Species " + speciesId + " has no current edition." );
+        }
+
+        Path file = AnnotationStore.path( directory, speciesId );
+        long startTime = System.currentTimeMillis();
+        try (AnnotationStore.Writer writer = new AnnotationStore.Writer( file, speciesId, edition )) {
+            StreamingQuery.forEach( daoFactory, SQL_ANNOTATION_HISTORY, new Object[] { speciesId },
+                    resultSet -> new Tuples.Tuple2<>( resultSet.getString( "ac" ),
+                            new AnnotationDTO( resultSet.getInt( "edition" ), resultSet.getString( "go_id" ),
+                                    resultSet.getString( "qualifier" ), resultSet.getString( "evidence" ),
+                                    resultSet.getString( "reference" ) ) ),
+                    row -> {
+                        try {
+                            writer.add( row.getT1(), row.getT2() );
+                        } catch ( IOException e ) {
+                            throw new UncheckedIOException( e );
+                        }
+                    } );
+            writer.finish();
+            log.info( "Annotation store of species " + speciesId + " written to " + file + " (" + writer.getRows()
+                    + " annotations, " + ( System.currentTimeMillis() - startTime ) + "ms)" );
+            return writer.getRows();
+        } catch ( IOException e ) {
+            throw new DAOException( "Failed to write annotation store " + file, e );
+        } catch ( UncheckedIOException e ) {
+            throw new DAOException( "Failed to write annotation store " + file, e.getCause() );
+        }
+    }
+}
@@ -22,9 +22,12 @@ package ubc.pavlab.gotrack.dao;
 import ubc.pavlab.gotrack.model.dto.*;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
- * Holds methods for retrieving data that is meant to be cached.
+ * Holds methods for retrieving data that is meant to be cached. Methods taking a consumer hand it one row at a time,
+ * implementations backed by the database stream those rows so that heap use does not grow with the size of the
+ * result; the defaults iterate the materialized list.
  * 
  * @author mjacobson
  * @version $Id$
@@ -51,16 +54,28 @@ public interface CacheDAO {
      */
     List<AnnotationCountDTO> getGOAnnotationCounts( int speciesId, int minEdition ) throws DAOException;
 
+    default void getGOAnnotationCounts( int speciesId, int minEdition, Consumer<AnnotationCountDTO> consumer ) throws DAOException {
+        getGOAnnotationCounts( speciesId, minEdition ).forEach( consumer );
+    }
+
     /**
      * Map of species to ordered linkedlist of editions
      */
     List<AggregateDTO> getAggregates( int[] speciesRestrictions ) throws DAOException;
 
+    default void getAggregates( int[] speciesRestrictions, Consumer<AggregateDTO> consumer ) throws DAOException {
+        getAggregates( speciesRestrictions ).forEach( consumer );
+    }
+
     /**
      * Retrieve current synonyms
      */
     List<SynonymDTO> getSynonyms( int[] speciesRestrictions ) throws DAOException;
 
+    default void getSynonyms( int[] speciesRestrictions, Consumer<SynonymDTO> consumer ) throws DAOException {
+        getSynonyms( speciesRestrictions ).forEach( consumer );
+    }
+
     /**
      * Retrieve all GO Terms
      */
@@ -86,6 +101,10 @@ public interface CacheDAO {
      */
     List<AccessionDTO> getAccessions( int[] speciesRestrictions ) throws DAOException;
 
+    default void getAccessions( int[] speciesRestrictions, Consumer<AccessionDTO> consumer ) throws DAOException {
+        getAccessions( speciesRestrictions ).forEach( consumer );
+    }
+
     /**
      * Retrieve all GO editions
      */
@@ -96,4 +115,8 @@ public interface CacheDAO {
      */
     List<GODefinitionDTO> getGODefinitions() throws DAOException;
 
+    default void getGODefinitions( Consumer<GODefinitionDTO> consumer ) throws DAOException {
+        getGODefinitions().forEach( consumer );
+    }
+
 }
@@ -29,6 +29,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static ubc.pavlab.gotrack.dao.DAOUtil.close;
 
@@ -128,41 +129,17 @@ public class CacheDAOImpl implements CacheDAO {
 
     @Override
     public List<AnnotationCountDTO> getGOAnnotationCounts( int speciesId, int minEdition ) throws DAOException {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
         List<AnnotationCountDTO> results = new ArrayList<>();
-
-        List<Object> params = new ArrayList<>();
-        params.add( speciesId );
-        params.add( minEdition );
-
-        String sql = SQL_GO_ANNOTATION_COUNTS;
-
-
-        log.debug( sql );
-        try {
-            connection = daoFactory.getConnection();
-            preparedStatement = connection.prepareStatement( sql );
-            DAOUtil.setValues( preparedStatement, params.toArray() );
-            log.debug( preparedStatement );
-            resultSet = preparedStatement.executeQuery();
-            while ( resultSet.next() ) {
-
-                results.add( new AnnotationCountDTO( resultSet.getInt( "edition" ),
-                        resultSet.getString( "go_id" ), resultSet.getInt( "direct_annotation_count" ),
-                        resultSet.getInt( "inferred_annotation_count" ) ) );
-
-            }
-
-        } catch ( SQLException e ) {
-            throw new DAOException( e );
-        } finally {
-            close( connection, preparedStatement, resultSet );
-        }
-
+        getGOAnnotationCounts( speciesId, minEdition, results::add );
         return results;
+    }
 
+    @Override
+    public void getGOAnnotationCounts( int speciesId, int minEdition, Consumer<AnnotationCountDTO> consumer ) throws DAOException {
+        StreamingQuery.forEach( daoFactory, SQL_GO_ANNOTATION_COUNTS, new Object[] { speciesId, minEdition },
+                resultSet -> new AnnotationCountDTO( resultSet.getInt( "edition" ),
+                        resultSet.getString( "go_id" ), resultSet.getInt( "direct_annotation_count" ),
+                        resultSet.getInt( "inferred_annotation_count" ) ), consumer );
     }
 
     @Override
@@ -311,127 +288,55 @@ public class CacheDAOImpl implements CacheDAO {
 
     @Override
     public List<AggregateDTO> getAggregates( int[] speciesRestrictions ) throws DAOException {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
         List<AggregateDTO> aggregates = new ArrayList<>();
+        getAggregates( speciesRestrictions, aggregates::add );
+        return aggregates;
+    }
 
-        List<Object> params = new ArrayList<>();
-
-        String sql = SQL_AGGREGATE;
-        if ( speciesRestrictions != null && speciesRestrictions.length != 0 ) {
-            sql = String.format( SQL_AGGREGATE_RESTRICT, DAOUtil.preparePlaceHolders( speciesRestrictions.length ) );
-            for ( int i = 0; i < speciesRestrictions.length; i++ ) {
-                params.add( speciesRestrictions[i] );
-            }
-        }
-
-        log.debug( sql );
-
-        try {
-            connection = daoFactory.getConnection();
-            preparedStatement = connection.prepareStatement( sql );
-            DAOUtil.setValues( preparedStatement, params.toArray() );
-            log.debug( preparedStatement );
-            resultSet = preparedStatement.executeQuery();
-            while ( resultSet.next() ) {
-                aggregates.add( new AggregateDTO( resultSet.getInt( "species_id" ), resultSet.getInt( "edition" ),
+    @Override
+    public void getAggregates( int[] speciesRestrictions, Consumer<AggregateDTO> consumer ) throws DAOException {
+        StreamingQuery.forEach( daoFactory, restrict( SQL_AGGREGATE, SQL_AGGREGATE_RESTRICT, speciesRestrictions ),
+                restrictionParams( speciesRestrictions ),
+                resultSet -> new AggregateDTO( resultSet.getInt( "species_id" ), resultSet.getInt( "edition" ),
                         resultSet.getInt( "gene_count" ), resultSet.getDouble( "avg_direct_terms_for_gene" ),
                         resultSet.getDouble( "avg_inferred_terms_for_gene" ),
                         resultSet.getDouble( "avg_inferred_genes_for_term" ),
                         resultSet.getDouble( "avg_multifunctionality" ),
                         resultSet.getDouble( "avg_direct_jaccard" ),
-                        resultSet.getDouble( "avg_inferred_jaccard" ) ) );
-            }
-
-        } catch ( SQLException e ) {
-            throw new DAOException( e );
-        } finally {
-            close( connection, preparedStatement, resultSet );
-        }
-
-        return aggregates;
+                        resultSet.getDouble( "avg_inferred_jaccard" ) ), consumer );
     }
 
     @Override
     public List<AccessionDTO> getAccessions( int[] speciesRestrictions ) throws DAOException {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
         List<AccessionDTO> results = new ArrayList<>();
+        getAccessions( speciesRestrictions, results::add );
+        return results;
+    }
 
-        List<Object> params = new ArrayList<>();
-
-        String sql = SQL_ACCESSIONS;
-        if ( speciesRestrictions != null && speciesRestrictions.length != 0 ) {
-            sql = String.format( SQL_ACCESSIONS_RESTRICT, DAOUtil.preparePlaceHolders( speciesRestrictions.length ) );
-            for ( int i = 0; i < speciesRestrictions.length; i++ ) {
-                params.add( speciesRestrictions[i] );
-            }
-        }
-
-        log.debug( sql );
-        try {
-            connection = daoFactory.getConnection();
-            preparedStatement = connection.prepareStatement( sql );
-            DAOUtil.setValues( preparedStatement, params.toArray() );
-            log.debug( preparedStatement );
-            resultSet = preparedStatement.executeQuery();
-            while ( resultSet.next() ) {
-                results.add( new AccessionDTO( resultSet.getInt( "id" ), resultSet.getInt( "species_id" ),
+    @Override
+    public void getAccessions( int[] speciesRestrictions, Consumer<AccessionDTO> consumer ) throws DAOException {
+        StreamingQuery.forEach( daoFactory, restrict( SQL_ACCESSIONS, SQL_ACCESSIONS_RESTRICT, speciesRestrictions ),
+                restrictionParams( speciesRestrictions ),
+                resultSet -> new AccessionDTO( resultSet.getInt( "id" ), resultSet.getInt( "species_id" ),
                         resultSet.getInt( "edition" ), resultSet.getString( "accession" ),
                         resultSet.getString( "symbol" ), resultSet.getString( "name" ),
-                        resultSet.getString( "subset" ) ) );
-
-            }
-
-        } catch ( SQLException e ) {
-            throw new DAOException( e );
-        } finally {
-            close( connection, preparedStatement, resultSet );
-        }
-
-        return results;
+                        resultSet.getString( "subset" ) ), consumer );
     }
 
     @Override
     public List<SynonymDTO> getSynonyms( int[] speciesRestrictions ) throws DAOException {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
         List<SynonymDTO> results = new ArrayList<>();
-
-        List<Object> params = new ArrayList<>();
-
-        String sql = SQL_SYNONYMS;
-        if ( speciesRestrictions != null && speciesRestrictions.length != 0 ) {
-            sql = String.format( SQL_SYNONYMS_RESTRICTED, DAOUtil.preparePlaceHolders( speciesRestrictions.length ) );
-            for ( int i = 0; i < speciesRestrictions.length; i++ ) {
-                params.add( speciesRestrictions[i] );
-            }
-        }
-
-        log.debug( sql );
-        try {
-            connection = daoFactory.getConnection();
-            preparedStatement = connection.prepareStatement( sql );
-            DAOUtil.setValues( preparedStatement, params.toArray() );
-            log.debug( preparedStatement );
-            resultSet = preparedStatement.executeQuery();
-            while ( resultSet.next() ) {
-                results.add( new SynonymDTO( resultSet.getInt( "id" ), resultSet.getString( "synonym" ) ) );
-
-            }
-
-        } catch ( SQLException e ) {
-            throw new DAOException( e );
-        } finally {
-            close( connection, preparedStatement, resultSet );
-        }
-
+        getSynonyms( speciesRestrictions, results::add );
         return results;
     }
 
+    @Override
+    public void getSynonyms( int[] speciesRestrictions, Consumer<SynonymDTO> consumer ) throws DAOException {
+        StreamingQuery.forEach( daoFactory, restrict( SQL_SYNONYMS, SQL_SYNONYMS_RESTRICTED, speciesRestrictions ),
+                restrictionParams( speciesRestrictions ),
+                resultSet -> new SynonymDTO( resultSet.getInt( "id" ), resultSet.getString( "synonym" ) ), consumer );
+    }
+
     @Override
     public List<GOTermDTO> getGoTerms( int goEdition ) throws DAOException {
         Connection connection = null;
@@ -554,29 +459,36 @@ public class CacheDAOImpl implements CacheDAO {
 
     @Override
     public List<GODefinitionDTO> getGODefinitions() throws DAOException {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
         List<GODefinitionDTO> results = new ArrayList<>();
+        getGODefinitions( results::add );
+        return results;
+    }
 
-        try {
-            connection = daoFactory.getConnection();
-            preparedStatement = connection.prepareStatement( SQL_GO_DEFINITION );
-            log.debug( preparedStatement );
-            resultSet = preparedStatement.executeQuery();
-            while ( resultSet.next() ) {
-                // go_edition_id_fk, alt, primary
-                results.add(
-                        new GODefinitionDTO( resultSet.getString( "go_id" ), resultSet.getString( "definition" ) ) );
-
-            }
+    @Override
+    public void getGODefinitions( Consumer<GODefinitionDTO> consumer ) throws DAOException {
+        StreamingQuery.forEach( daoFactory, SQL_GO_DEFINITION, new Object[0],
+                resultSet -> new GODefinitionDTO( resultSet.getString( "go_id" ), resultSet.getString( "definition" ) ),
+                consumer );
+    }
 
-        } catch ( SQLException e ) {
-            throw new DAOException( e );
-        } finally {
-            close( connection, preparedStatement, resultSet );
+    /**
+     * @return the restricted query with a placeholder for each species, or the unrestricted one if there are none
+     */
+    private static String restrict( String sql, String restrictedSql, int[] speciesRestrictions ) {
+        if ( speciesRestrictions != null && speciesRestrictions.length != 0 ) {
+            return String.format( restrictedSql, DAOUtil.preparePlaceHolders( speciesRestrictions.length ) );
         }
+        return sql;
+    }
 
-        return results;
+    private static Object[] restrictionParams( int[] speciesRestrictions ) {
+        if ( speciesRestrictions == null ) {
+            return new Object[0];
+        }
+        Object[] params = new Object[speciesRestrictions.length];
+        for ( int i = 0; i < speciesRestrictions.length; i++ ) {
+            params[i] = speciesRestrictions[i];
+        }
+        return params;
     }
 }
@@ -0,0 +1,761 @@
+package ubc.pavlab.gotrack.dao;
+
+import com.google.common.io.CountingOutputStream;
+import org.apache.log4j.Logger;
+import ubc.pavlab.gotrack.model.dto.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * CacheDAO that serves the data needed to build the application cache from a versioned binary snapshot on local disk.
+ * <p>
+ * The snapshot is keyed by the contents of pp_current_edition (along with the configuration that restricts what is
+ * loaded). If a snapshot exists and its key still matches the database every call is answered from a memory-mapped
+ * region of the snapshot, otherwise calls are passed through to the database and streamed to a new snapshot which is
+ * moved into place by {@link #save()} once the cache has been built.
+ * <p>
+ * Layout: magic and version, then one block per recorded call (named by the call and its arguments), then an index of
+ * block offsets with the snapshot key, then the offset of that index. Each block carries its own string dictionary so
+ * that repeated values (GO ids, evidence codes, relationship types) are stored once and blocks can be decoded
+ * independently and in any order. A block is mapped as a single region, so blocks are limited to 2 GB.
+ */
+public class CacheSnapshotDAO implements CacheDAO, Closeable {
+
+    private static final Logger log = Logger.getLogger( CacheSnapshotDAO.class );
+
+    private static final int MAGIC = 0x47545343; // GTSC
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+    // Largest region a single ByteBuffer can map
+    private static final long MAX_BLOCK_SIZE = Integer.MAX_VALUE;
+
+    private static final int NULL_STRING = -1;
+    private static final int NEW_STRING = -2;
+
+    private final CacheDAO delegate;
+    private final Path file;
+    private final Path tmp;
+    private final String key;
+
+    // Populated when reading a valid snapshot
+    private final Map<String, Block> blocks;
+
+    // Populated when recording a new snapshot
+    private final Map<String, Block> recorded = new LinkedHashMap<>();
+    private CountingOutputStream recording;
+    private boolean saved = false;
+
+    /**
+     * Open the snapshot at the given path, falling back to recording calls against the delegate if it is missing, stale
+     * or unreadable.
+     *
+     * @param delegate      DAO used when the snapshot cannot answer a call
+     * @param file          location of the snapshot
+     * @param configuration settings which affect what is loaded into the cache, part of the snapshot key
+     */
+    public CacheSnapshotDAO( CacheDAO delegate, Path file, String configuration ) throws DAOException {
+        this.delegate = delegate;
+        this.file = file;
+        this.tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        this.key = createKey( delegate, configuration );
+        this.blocks = open();
+        if ( blocks == null ) {
+            startRecording();
+        }
+    }
+
+    /**
+     * @return true if calls are being answered from an existing snapshot
+     */
+    public boolean isLoaded() {
+        return blocks != null;
+    }
+
+    /**
+     * Complete the snapshot being recorded and move it into place so that a partially written snapshot is never read.
+     * Does nothing if calls were answered from an existing snapshot.
+     */
+    public synchronized void save() {
+        if ( recording == null ) {
+            return;
+        }
+        try {
+            long indexOffset = recording.getCount();
+            DataOutputStream out = new DataOutputStream( recording );
+            writeUTF8( out, key );
+            out.writeInt( recorded.size() );
+            for ( Map.Entry<String, Block> e : recorded.entrySet() ) {
+                writeUTF8( out, e.getKey() );
+                out.writeLong( e.getValue().offset );
+                out.writeLong( e.getValue().length );
+                out.writeInt( e.getValue().rows );
+            }
+            out.writeLong( indexOffset );
+            out.writeInt( MAGIC );
+            out.close();
+            recording = null;
+            Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            saved = true;
+            log.info( "Cache snapshot written to " + file + " (" + recorded.size() + " blocks, "
+                    + Files.size( file ) / 1000000 + " MB)" );
+        } catch ( IOException e ) {
+            log.warn( "Failed to write cache snapshot to " + file, e );
+            abandonRecording();
+        }
+    }
+
+    /**
+     * Discard an unsaved snapshot.
+     */
+    @Override
+    public synchronized void close() {
+        if ( recording != null && !saved ) {
+            abandonRecording();
+        }
+    }
+
+    private static String createKey( CacheDAO delegate, String configuration ) throws DAOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append( FORMAT_VERSION ).append( '|' ).append( configuration ).append( '|' );
+        for ( EditionDTO dto : delegate.getCurrentEditions( null ) ) {
+            sb.append( dto.getSpecies() ).append( ':' ).append( dto.getEdition() ).append( ',' );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return index of the blocks in the existing snapshot, null if it is missing, stale or unreadable
+     */
+    private Map<String, Block> open() {
+        if ( !Files.isRegularFile( file ) ) {
+            log.info( "No cache snapshot found at " + file + ", loading from database" );
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open( file, StandardOpenOption.READ )) {
+            long size = channel.size();
+            if ( size < 2 * Integer.BYTES + TRAILER_SIZE ) {
+                log.info( "Cache snapshot at " + file + " is truncated, loading from database" );
+                return null;
+            }
+
+            ByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, 2 * Integer.BYTES );
+            ByteBuffer trailer = channel.map( FileChannel.MapMode.READ_ONLY, size - TRAILER_SIZE, TRAILER_SIZE );
+            long indexOffset = trailer.getLong();
+            if ( header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION || trailer.getInt() != MAGIC ) {
+                log.info( "Cache snapshot at " + file + " has an unsupported format, loading from database" );
+                return null;
+            }
+
+            ByteBuffer index = channel.map( FileChannel.MapMode.READ_ONLY, indexOffset,
+                    size - TRAILER_SIZE - indexOffset );
+            if ( !key.equals( readUTF8( index ) ) ) {
+                log.info( "Cache snapshot at " + file + " is out of date, loading from database" );
+                return null;
+            }
+
+            // Mappings remain valid after the channel is closed
+            Map<String, Block> results = new HashMap<>();
+            int blockCount = index.getInt();
+            for ( int i = 0; i < blockCount; i++ ) {
+                String name = readUTF8( index );
+                Block block = new Block( index.getLong(), index.getLong(), index.getInt() );
+                if ( block.length > MAX_BLOCK_SIZE ) {
+                    throw new IOException( "Block " + name + " of " + block.length + " bytes is larger than "
+                            + MAX_BLOCK_SIZE + " bytes and cannot be mapped" );
+                }
+                block.buffer = channel.map( FileChannel.MapMode.READ_ONLY, block.offset, block.length );
+                results.put( name, block );
+            }
+            log.info( "Cache snapshot opened from " + file + " (" + blockCount + " blocks, " + size / 1000000
+                    + " MB)" );
+            return results;
+        } catch ( IOException | RuntimeException e ) {
+            log.warn( "Failed to open cache snapshot at " + file + ", loading from database", e );
+            return null;
+        }
+    }
+
+    private synchronized void startRecording() {
+        try {
+            if ( file.toAbsolutePath().getParent() != null ) {
+                Files.createDirectories( file.toAbsolutePath().getParent() );
+            }
+            recording = new CountingOutputStream(
+                    new BufferedOutputStream( Files.newOutputStream( tmp ), BUFFER_SIZE ) );
+            DataOutputStream out = new DataOutputStream( recording );
+            out.writeInt( MAGIC );
+            out.writeInt( FORMAT_VERSION );
+            out.flush();
+        } catch ( IOException e ) {
+            log.warn( "Failed to create cache snapshot at " + tmp, e );
+            abandonRecording();
+        }
+    }
+
+    private synchronized boolean isRecording() {
+        return recording != null;
+    }
+
+    private synchronized void record( String name, ByteArrayOutputStream block, int rows ) {
+        if ( recording == null || recorded.containsKey( name ) ) {
+            return;
+        }
+        try {
+            long offset = recording.getCount();
+            block.writeTo( recording );
+            recording.flush();
+            recorded.put( name, new Block( offset, recording.getCount() - offset, rows ) );
+        } catch ( IOException e ) {
+            log.warn( "Failed to write cache snapshot to " + tmp, e );
+            abandonRecording();
+        }
+    }
+
+    private void abandonRecording() {
+        try {
+            if ( recording != null ) {
+                recording.close();
+            }
+            Files.deleteIfExists( tmp );
+        } catch ( IOException e ) {
+            log.warn( "Failed to clean up cache snapshot at " + tmp, e );
+        }
+        recording = null;
+        recorded.clear();
+    }
+
+    private <T> List<T> section( Section section, Supplier<List<T>> query, Object... args ) {
+        List<T> results = new ArrayList<>();
+        this.<T>stream( section, results::add, consumer -> query.get().forEach( consumer ), args );
+        return results;
+    }
+
+    /**
+     * Answer a call from the snapshot if possible, otherwise pass it through to the delegate and record the result.
+     * Rows are handed to the consumer one at a time in either case, only their encoding is held while recording.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void stream( Section section, Consumer<T> consumer, Consumer<Consumer<T>> query, Object... args ) {
+        String name = section.name( args );
+        if ( blocks != null ) {
+            Block block = blocks.get( name );
+            if ( block != null ) {
+                SnapshotReader in = new SnapshotReader( block.buffer.duplicate() );
+                for ( int i = 0; i < block.rows; i++ ) {
+                    consumer.accept( ( T ) section.read( in ) );
+                }
+                return;
+            }
+            log.warn( "Cache snapshot has no block for " + name + ", loading from database" );
+            query.accept( consumer );
+            return;
+        }
+        if ( !isRecording() ) {
+            query.accept( consumer );
+            return;
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        SnapshotWriter out = new SnapshotWriter( new DataOutputStream( block ) );
+        int[] rows = new int[1];
+        boolean[] tooLarge = new boolean[1];
+        query.accept( row -> {
+            if ( !tooLarge[0] ) {
+                try {
+                    section.write( out, row );
+                } catch ( IOException e ) {
+                    throw new UncheckedIOException( e );
+                }
+                rows[0]++;
+                // Stop well before the block could no longer be mapped, or held in a single array
+                tooLarge[0] = block.size() > MAX_BLOCK_SIZE - BUFFER_SIZE;
+            }
+            consumer.accept( row );
+        } );
+        if ( tooLarge[0] ) {
+            log.warn( "Block " + name + " is too large for the cache snapshot, it will be loaded from database" );
+            return;
+        }
+        try {
+            out.flush();
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        record( name, block, rows[0] );
+    }
+
+    @Override
+    public List<EditionDTO> getReleaseEditions( int release ) throws DAOException {
+        return section( Section.RELEASE_EDITIONS, () -> delegate.getReleaseEditions( release ), release );
+    }
+
+    @Override
+    public List<EditionDTO> getAllEditions( int[] speciesRestrictions ) throws DAOException {
+        return section( Section.ALL_EDITIONS, () -> delegate.getAllEditions( speciesRestrictions ),
+                Arrays.toString( speciesRestrictions ) );
+    }
+
+    @Override
+    public List<EditionDTO> getCurrentEditions( int[] speciesRestrictions ) throws DAOException {
+        return section( Section.CURRENT_EDITIONS, () -> delegate.getCurrentEditions( speciesRestrictions ),
+                Arrays.toString( speciesRestrictions ) );
+    }
+
+    @Override
+    public List<AnnotationCountDTO> getGOAnnotationCounts( int speciesId, int minEdition ) throws DAOException {
+        return section( Section.ANNOTATION_COUNTS, () -> delegate.getGOAnnotationCounts( speciesId, minEdition ),
+                speciesId, minEdition );
+    }
+
+    @Override
+    public void getGOAnnotationCounts( int speciesId, int minEdition, Consumer<AnnotationCountDTO> consumer ) throws DAOException {
+        stream( Section.ANNOTATION_COUNTS, consumer, c -> delegate.getGOAnnotationCounts( speciesId, minEdition, c ),
+                speciesId, minEdition );
+    }
+
+    @Override
+    public List<AggregateDTO> getAggregates( int[] speciesRestrictions ) throws DAOException {
+        return section( Section.AGGREGATES, () -> delegate.getAggregates( speciesRestrictions ),
+                Arrays.toString( speciesRestrictions ) );
+    }
+
+    @Override
+    public void getAggregates( int[] speciesRestrictions, Consumer<AggregateDTO> consumer ) throws DAOException {
+        stream( Section.AGGREGATES, consumer, c -> delegate.getAggregates( speciesRestrictions, c ),
+                Arrays.toString( speciesRestrictions ) );
+    }
+
+    @Override
+    public List<SynonymDTO> getSynonyms( int[] speciesRestrictions ) throws DAOException {
+        return section( Section.SYNONYMS, () -> delegate.getSynonyms( speciesRestrictions ),
+                Arrays.toString( speciesRestrictions ) );
+    }
+
+    @Override
+    public void getSynonyms( int[] speciesRestrictions, Consumer<SynonymDTO> consumer ) throws DAOException {
+        stream( Section.SYNONYMS, consumer, c -> delegate.getSynonyms( speciesRestrictions, c ),
+                Arrays.toString( speciesRestrictions ) );
+    }
+
+    @Override
+    public List<GOTermDTO> getGoTerms( int goEdition ) throws DAOException {
+        return section( Section.GO_TERMS, () -> delegate.getGoTerms( goEdition ), goEdition );
+    }
+
+    @Override
+    public List<AdjacencyDTO> getAdjacencies( int goEdition ) throws DAOException {
+        return section( Section.ADJACENCIES, () -> delegate.getAdjacencies( goEdition ), goEdition );
+    }
+
+    @Override
+    public List<AdjacencyDTO> getAlternates( int goEdition ) throws DAOException {
+        return section( Section.ALTERNATES, () -> delegate.getAlternates( goEdition ), goEdition );
+    }
+
+    @Override
+    public List<EvidenceDTO> getEvidence() throws DAOException {
+        return section( Section.EVIDENCE, delegate::getEvidence );
+    }
+
+    @Override
+    public List<AccessionDTO> getAccessions( int[] speciesRestrictions ) throws DAOException {
+        return section( Section.ACCESSIONS, () -> delegate.getAccessions( speciesRestrictions ),
+                Arrays.toString( speciesRestrictions ) );
+    }
+
+    @Override
+    public void getAccessions( int[] speciesRestrictions, Consumer<AccessionDTO> consumer ) throws DAOException {
+        stream( Section.ACCESSIONS, consumer, c -> delegate.getAccessions( speciesRestrictions, c ),
+                Arrays.toString( speciesRestrictions ) );
+    }
+
+    @Override
+    public List<GOEditionDTO> getAllGOEditions() throws DAOException {
+        return section( Section.GO_EDITIONS, delegate::getAllGOEditions );
+    }
+
+    @Override
+    public List<GODefinitionDTO> getGODefinitions() throws DAOException {
+        return section( Section.GO_DEFINITIONS, delegate::getGODefinitions );
+    }
+
+    @Override
+    public void getGODefinitions( Consumer<GODefinitionDTO> consumer ) throws DAOException {
+        stream( Section.GO_DEFINITIONS, consumer, delegate::getGODefinitions );
+    }
+
+    @Override
+    public String toString() {
+        return "CacheSnapshotDAO{file=" + file + ", loaded=" + isLoaded() + ", delegate=" + delegate + "}";
+    }
+
+    private static void writeUTF8( DataOutputStream out, String s ) throws IOException {
+        byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readUTF8( ByteBuffer in ) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private static final class Block {
+        private final long offset;
+        private final long length;
+        private final int rows;
+        private ByteBuffer buffer;
+
+        Block( long offset, long length, int rows ) {
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Encodes the rows of a single DTO type.
+     */
+    private interface Codec {
+        void write( SnapshotWriter out, Object row ) throws IOException;
+
+        Object read( SnapshotReader in );
+    }
+
+    private static final Codec EDITION_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            EditionDTO dto = ( EditionDTO ) row;
+            out.writeInteger( dto.getSpecies() );
+            out.writeInteger( dto.getEdition() );
+            out.writeDate( dto.getDate() );
+            out.writeInteger( dto.getRelease() );
+            out.writeInteger( dto.getGoEditionId() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new EditionDTO( in.readInteger(), in.readInteger(), in.readDate(), in.readInteger(),
+                    in.readInteger() );
+        }
+    };
+
+    private static final Codec GO_EDITION_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            GOEditionDTO dto = ( GOEditionDTO ) row;
+            out.writeInteger( dto.getId() );
+            out.writeDate( dto.getDate() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new GOEditionDTO( in.readInteger(), in.readDate() );
+        }
+    };
+
+    private static final Codec ANNOTATION_COUNT_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            AnnotationCountDTO dto = ( AnnotationCountDTO ) row;
+            out.writeInteger( dto.getEdition() );
+            out.writeString( dto.getGoId() );
+            out.writeInteger( dto.getDirectCount() );
+            out.writeInteger( dto.getInferredCount() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new AnnotationCountDTO( in.readInteger(), in.readString(), in.readInteger(), in.readInteger() );
+        }
+    };
+
+    private static final Codec AGGREGATE_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            AggregateDTO dto = ( AggregateDTO ) row;
+            out.writeInteger( dto.getSpecies() );
+            out.writeInteger( dto.getEdition() );
+            out.writeInteger( dto.getGeneCount() );
+            out.writeDouble( dto.getAvgDirectTermsForGene() );
+            out.writeDouble( dto.getAvgInferredTermsForGene() );
+            out.writeDouble( dto.getAvgInferredGenesForTerm() );
+            out.writeDouble( dto.getAvgMultifunctionality() );
+            out.writeDouble( dto.getAvgDirectSimilarity() );
+            out.writeDouble( dto.getAvgInferredSimilarity() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new AggregateDTO( in.readInteger(), in.readInteger(), in.readInteger(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble() );
+        }
+    };
+
+    private static final Codec SYNONYM_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            SynonymDTO dto = ( SynonymDTO ) row;
+            out.writeInt( dto.getId() );
+            out.writeString( dto.getSynonym() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new SynonymDTO( in.readInt(), in.readString() );
+        }
+    };
+
+    private static final Codec GO_TERM_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            GOTermDTO dto = ( GOTermDTO ) row;
+            out.writeInteger( dto.getGoEdition() );
+            out.writeString( dto.getGoId() );
+            out.writeString( dto.getName() );
+            out.writeString( dto.getAspect() );
+            out.writeBool( dto.isObsolete() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new GOTermDTO( in.readInteger(), in.readString(), in.readString(), in.readString(),
+                    in.readBool() );
+        }
+    };
+
+    private static final Codec ADJACENCY_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            AdjacencyDTO dto = ( AdjacencyDTO ) row;
+            out.writeInteger( dto.getGoEdition() );
+            out.writeString( dto.getChild() );
+            out.writeString( dto.getParent() );
+            out.writeString( dto.getType() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new AdjacencyDTO( in.readInteger(), in.readString(), in.readString(), in.readString() );
+        }
+    };
+
+    private static final Codec EVIDENCE_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            EvidenceDTO dto = ( EvidenceDTO ) row;
+            out.writeString( dto.getEvidence() );
+            out.writeString( dto.getDescription() );
+            out.writeString( dto.getCategory() );
+            out.writeBoolean( dto.getCurated() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new EvidenceDTO( in.readString(), in.readString(), in.readString(), in.readBoolean() );
+        }
+    };
+
+    private static final Codec ACCESSION_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            AccessionDTO dto = ( AccessionDTO ) row;
+            out.writeInt( dto.getId() );
+            out.writeInt( dto.getSpeciesId() );
+            out.writeInt( dto.getEdition() );
+            out.writeString( dto.getAccession() );
+            out.writeString( dto.getSymbol() );
+            out.writeString( dto.getName() );
+            out.writeString( dto.getSubset() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new AccessionDTO( in.readInt(), in.readInt(), in.readInt(), in.readString(),
+                    in.readString(), in.readString(), in.readString() );
+        }
+    };
+
+    private static final Codec GO_DEFINITION_CODEC = new Codec() {
+        @Override
+        public void write( SnapshotWriter out, Object row ) throws IOException {
+            GODefinitionDTO dto = ( GODefinitionDTO ) row;
+            out.writeString( dto.getGoId() );
+            out.writeString( dto.getDefinition() );
+        }
+
+        @Override
+        public Object read( SnapshotReader in ) {
+            return new GODefinitionDTO( in.readString(), in.readString() );
+        }
+    };
+
+    /**
+     * One kind of recorded call, sections are named by the call and its arguments.
+     */
+    private enum Section {
+        RELEASE_EDITIONS( EDITION_CODEC ),
+        ALL_EDITIONS( EDITION_CODEC ),
+        CURRENT_EDITIONS( EDITION_CODEC ),
+        GO_EDITIONS( GO_EDITION_CODEC ),
+        ANNOTATION_COUNTS( ANNOTATION_COUNT_CODEC ),
+        AGGREGATES( AGGREGATE_CODEC ),
+        SYNONYMS( SYNONYM_CODEC ),
+        GO_TERMS( GO_TERM_CODEC ),
+        ADJACENCIES( ADJACENCY_CODEC ),
+        ALTERNATES( ADJACENCY_CODEC ),
+        EVIDENCE( EVIDENCE_CODEC ),
+        ACCESSIONS( ACCESSION_CODEC ),
+        GO_DEFINITIONS( GO_DEFINITION_CODEC );
+
+        private final Codec codec;
+
+        Section( Codec codec ) {
+            this.codec = codec;
+        }
+
+        void write( SnapshotWriter out, Object row ) throws IOException {
+            codec.write( out, row );
+        }
+
+        Object read( SnapshotReader in ) {
+            return codec.read( in );
+        }
+
+        String name( Object... args ) {
+            StringBuilder sb = new StringBuilder( name() );
+            for ( Object arg : args ) {
+                sb.append( ':' ).append( arg );
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Writes the rows of a single block, strings are replaced by their position in the block's dictionary after their
+     * first occurrence.
+     */
+    private static final class SnapshotWriter {
+        private final DataOutputStream out;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+
+        SnapshotWriter( DataOutputStream out ) {
+            this.out = out;
+        }
+
+        void writeString( String s ) throws IOException {
+            if ( s == null ) {
+                out.writeInt( NULL_STRING );
+                return;
+            }
+            Integer idx = dictionary.get( s );
+            if ( idx != null ) {
+                out.writeInt( idx );
+                return;
+            }
+            dictionary.put( s, dictionary.size() );
+            out.writeInt( NEW_STRING );
+            writeUTF8( out, s );
+        }
+
+        void writeInt( int i ) throws IOException {
+            out.writeInt( i );
+        }
+
+        void writeBool( boolean b ) throws IOException {
+            out.writeBoolean( b );
+        }
+
+        void writeInteger( Integer i ) throws IOException {
+            out.writeBoolean( i != null );
+            if ( i != null ) {
+                out.writeInt( i );
+            }
+        }
+
+        void writeDouble( Double d ) throws IOException {
+            out.writeBoolean( d != null );
+            if ( d != null ) {
+                out.writeDouble( d );
+            }
+        }
+
+        void writeBoolean( Boolean b ) throws IOException {
+            out.writeByte( b == null ? -1 : ( b ? 1 : 0 ) );
+        }
+
+        void writeDate( Date d ) throws IOException {
+            out.writeBoolean( d != null );
+            if ( d != null ) {
+                out.writeLong( d.getTime() );
+            }
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads the rows of a single block from its mapped region.
+     */
+    private static final class SnapshotReader {
+        private final ByteBuffer in;
+        private final List<String> dictionary = new ArrayList<>();
+
+        SnapshotReader( ByteBuffer in ) {
+            this.in = in;
+        }
+
+        String readString() {
+            int idx = in.getInt();
+            if ( idx == NULL_STRING ) {
+                return null;
+            }
+            if ( idx != NEW_STRING ) {
+                return dictionary.get( idx );
+            }
+            String s = readUTF8( in );
+            dictionary.add( s );
+            return s;
+        }
+
+        int readInt() {
+            return in.getInt();
+        }
+
+        boolean readBool() {
+            return in.get() != 0;
+        }
+
+        Integer readInteger() {
+            return in.get() != 0 ? in.getInt() : null;
+        }
+
+        Double readDouble() {
+            return in.get() != 0 ? in.getDouble() : null;
+        }
+
+        Boolean readBoolean() {
+            byte b = in.get();
+            return b == -1 ? null : b == 1;
+        }
+
+        Date readDate() {
+            return in.get() != 0 ? new Date( in.getLong() ) : null;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ubc.pavlab.gotrack.dao;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import static ubc.pavlab.gotrack.dao.DAOUtil.close;
+
+/**
+ * Query with a large IN list, split into chunks of keys that run concurrently on separate connections.
+ * <p>
+ * MySQL plans statements with thousands of placeholders poorly, so keys are deduplicated and queried at most
+ * {@link DAOFactory#getQueryChunkSize()} at a time on the factory's query executor. Rows of each chunk are handed to
+ * the consumer, on the calling thread, as soon as that chunk completes, so callers can merge them as they arrive
+ * without holding every row at once. Rows of different chunks are never equal as long as each row includes its key.
+ *
+ * @param <T> type of a row
+ */
+final class ChunkedQuery<T> {
+
+    private static final Logger log = Logger.getLogger( ChunkedQuery.class );
+
+    private final DAOFactory daoFactory;
+    private final String sql;
+    private final RowMapper<T> mapper;
+
+    /**
+     * @param sql    query where '(%s)' is the IN list of keys, followed by the other parameters
+     * @param mapper maps each row
+     */
+    ChunkedQuery( DAOFactory daoFactory, String sql, RowMapper<T> mapper ) {
+        this.daoFactory = daoFactory;
+        this.sql = sql;
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param keys     values of the IN list, duplicates are queried once
+     * @param params   parameters following the IN list
+     * @param consumer receives every row, on the calling thread
+     * @throws DAOException If any chunk fails, remaining chunks are cancelled
+     */
+    void run( Collection<?> keys, Object[] params, Consumer<? super T> consumer ) throws DAOException {
+        List<List<Object>> chunks = chunk( new ArrayList<>( new LinkedHashSet<>( keys ) ),
+                daoFactory.getQueryChunkSize() );
+        ExecutorService executor = daoFactory.getQueryExecutor();
+
+        if ( chunks.size() <= 1 || executor == null ) {
+            for ( List<Object> chunk : chunks ) {
+                query( chunk, params ).forEach( consumer );
+            }
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        CompletionService<List<T>> completion = new ExecutorCompletionService<>( executor );
+        List<Future<List<T>>> futures = new ArrayList<>( chunks.size() );
+        try {
+            for ( List<Object> chunk : chunks ) {
+                futures.add( completion.submit( () -> query( chunk, params ) ) );
+            }
+            for ( int i = 0; i < chunks.size(); i++ ) {
+                completion.take().get().forEach( consumer );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new DAOException( "Interrupted while waiting for query chunks.", e );
+        } catch ( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof DAOException ) {
+                throw (DAOException) cause;
+            }
+            throw new DAOException( cause );
+        } finally {
+            for ( Future<List<T>> f : futures ) {
+                f.cancel( true );
+            }
+        }
+        log.debug( keys.size() + " keys in " + chunks.size() + " chunks: " + ( System.currentTimeMillis() - startTime )
+                + "ms" );
+    }
+
+    private List<T> query( List<Object> chunk, Object[] params ) throws DAOException {
+        Object[] values = new Object[chunk.size() + params.length];
+        chunk.toArray( values );
+        System.arraycopy( params, 0, values, chunk.size(), params.length );
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+
+        List<T> results = new ArrayList<>();
+
+        try {
+            connection = daoFactory.getConnection();
+            statement = connection.prepareStatement( String.format( sql,
+                    DAOUtil.preparePlaceHolders( chunk.size() ) ) );
+            DAOUtil.setValues( statement, values );
+            resultSet = statement.executeQuery();
+            while ( resultSet.next() ) {
+                results.add( mapper.map( resultSet ) );
+            }
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            close( connection, statement, resultSet );
+        }
+
+        return results;
+    }
+
+    static List<List<Object>> chunk( List<?> keys, int chunkSize ) {
+        List<List<Object>> chunks = new ArrayList<>();
+        int from = 0;
+        while ( from < keys.size() ) {
+            int to = from + Math.min( chunkSize, keys.size() - from );
+            chunks.add( new ArrayList<>( keys.subList( from, to ) ) );
+            from = to;
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,578 @@
+package ubc.pavlab.gotrack.dao;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of JDBC connections for deployments without a pooled JNDI DataSource.
+ * <p>
+ * Borrowed connections are proxies whose close() hands the physical connection back to the pool. Statements, metadata
+ * and result sets obtained through them lead back to the proxy rather than to the physical connection, which borrowers
+ * can never reach. Returned connections are reset to the state they were opened in. Idle connections are reused most
+ * recently returned first and validated before being handed out; those idle for longer than the idle timeout are
+ * closed by a background task, down to the minimum size. The same task logs connections held for longer
+ * than the leak threshold along with the stack trace that borrowed them.
+ */
+public class ConnectionPool implements Closeable {
+
+    private static final Logger log = Logger.getLogger( ConnectionPool.class );
+
+    // Objects handed out by a borrowed connection which can lead back to it
+    private static final Set<Class<?>> DEPENDENTS = new HashSet<>( Arrays.asList( Statement.class,
+            PreparedStatement.class, CallableStatement.class, DatabaseMetaData.class, ResultSet.class ) );
+
+    /**
+     * Opens new physical connections.
+     */
+    public interface ConnectionSource {
+        Connection open() throws SQLException;
+    }
+
+    private final ConnectionSource source;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final int validationTimeoutSeconds;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // Most recently returned first
+    private final Deque<Pooled> idle = new ArrayDeque<>();
+    private final Set<Pooled> borrowed = ConcurrentHashMap.newKeySet();
+    private int total = 0;
+    private boolean closed = false;
+
+    private final ScheduledExecutorService maintenance;
+
+    // Metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+
+    /**
+     * @param source                   opens physical connections
+     * @param minSize                  connections kept open even when idle
+     * @param maxSize                  connections open at once, borrowers wait beyond that
+     * @param maxWaitMillis            time a borrower waits for a connection before failing
+     * @param validationTimeoutSeconds timeout of the validation of idle connections on borrow
+     * @param idleTimeoutMillis        time after which idle connections above the minimum are closed, 0 to never
+     * @param leakThresholdMillis      time after which borrowed connections are logged as leaked, 0 to never
+     */
+    public ConnectionPool( ConnectionSource source, int minSize, int maxSize, long maxWaitMillis,
+                           int validationTimeoutSeconds, long idleTimeoutMillis, long leakThresholdMillis ) {
+        if ( maxSize < 1 || minSize < 0 || minSize > maxSize ) {
+            throw new DAOConfigurationException(
+                    "Invalid connection pool size, min: " + minSize + ", max: " + maxSize + "." );
+        }
+        this.source = source;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+
+        long period = maintenancePeriod( idleTimeoutMillis, leakThresholdMillis );
+        if ( period > 0 ) {
+            maintenance = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat( "connection-pool-%d" ).setDaemon( true ).build() );
+            maintenance.scheduleWithFixedDelay( this::maintain, period, period, TimeUnit.MILLISECONDS );
+        } else {
+            maintenance = null;
+        }
+
+        fill();
+    }
+
+    private static long maintenancePeriod( long idleTimeoutMillis, long leakThresholdMillis ) {
+        long shortest = Math.min( idleTimeoutMillis > 0 ? idleTimeoutMillis : Long.MAX_VALUE,
+                leakThresholdMillis > 0 ? leakThresholdMillis : Long.MAX_VALUE );
+        return shortest == Long.MAX_VALUE ? 0 : Math.max( 1000, shortest / 2 );
+    }
+
+    /**
+     * Borrow a connection, close it to return it to the pool.
+     *
+     * @return A connection to the database.
+     * @throws SQLException If no connection became available in time or opening one failed.
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos( maxWaitMillis );
+        while ( true ) {
+            Pooled candidate = null;
+            boolean create = false;
+            lock.lock();
+            try {
+                while ( true ) {
+                    if ( closed ) {
+                        throw new SQLException( "Connection pool is closed." );
+                    }
+                    candidate = idle.pollFirst();
+                    if ( candidate != null ) {
+                        break;
+                    }
+                    if ( total < maxSize ) {
+                        total++;
+                        create = true;
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if ( remaining <= 0 ) {
+                        timeoutCount.incrementAndGet();
+                        throw new SQLException( "Timed out after " + maxWaitMillis
+                                + "ms waiting for a connection, " + total + " in use." );
+                    }
+                    try {
+                        available.awaitNanos( remaining );
+                    } catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException( "Interrupted while waiting for a connection.", e );
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if ( create ) {
+                candidate = open();
+            } else if ( !isValid( candidate.connection ) ) {
+                invalidCount.incrementAndGet();
+                discard( candidate );
+                continue;
+            }
+
+            long waited = System.nanoTime() - start;
+            borrowCount.incrementAndGet();
+            waitNanos.addAndGet( waited );
+            maxWaitNanos.accumulateAndGet( waited, Math::max );
+            return candidate.borrow();
+        }
+    }
+
+    private Pooled open() throws SQLException {
+        Connection connection = null;
+        try {
+            connection = source.open();
+            Pooled p = new Pooled( connection );
+            createdCount.incrementAndGet();
+            return p;
+        } catch ( SQLException | RuntimeException e ) {
+            lock.lock();
+            try {
+                total--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            DAOUtil.close( connection );
+            throw e;
+        }
+    }
+
+    private boolean isValid( Connection connection ) {
+        try {
+            return connection.isValid( validationTimeoutSeconds );
+        } catch ( SQLException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * Return a connection that was handed back by its borrower.
+     */
+    private void release( Pooled p ) {
+        borrowed.remove( p );
+        boolean reusable;
+        try {
+            if ( !p.connection.getAutoCommit() ) {
+                p.connection.rollback();
+                p.connection.setAutoCommit( true );
+            }
+            if ( p.connection.isReadOnly() != p.readOnly ) {
+                p.connection.setReadOnly( p.readOnly );
+            }
+            if ( !Objects.equals( p.connection.getCatalog(), p.catalog ) ) {
+                p.connection.setCatalog( p.catalog );
+            }
+            if ( p.connection.getTransactionIsolation() != p.transactionIsolation ) {
+                p.connection.setTransactionIsolation( p.transactionIsolation );
+            }
+            reusable = !p.connection.isClosed();
+        } catch ( SQLException e ) {
+            reusable = false;
+        }
+
+        if ( !reusable ) {
+            discard( p );
+            return;
+        }
+
+        lock.lock();
+        try {
+            if ( !closed ) {
+                p.lastUsed = System.currentTimeMillis();
+                idle.offerFirst( p );
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard( p );
+    }
+
+    /**
+     * Close a physical connection and give up its place in the pool.
+     */
+    private void discard( Pooled p ) {
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        DAOUtil.close( p.connection );
+    }
+
+    /**
+     * Close connections idle for too long, open connections up to the minimum size and log leaked connections.
+     */
+    void maintain() {
+        if ( idleTimeoutMillis > 0 ) {
+            evictIdle( System.currentTimeMillis() - idleTimeoutMillis );
+        }
+        fill();
+        if ( leakThresholdMillis > 0 ) {
+            detectLeaks( System.currentTimeMillis() - leakThresholdMillis );
+        }
+    }
+
+    /**
+     * Close idle connections last used before the given time, keeping at least the minimum size open.
+     */
+    void evictIdle( long usedBefore ) {
+        lock.lock();
+        try {
+            // Least recently used are at the end
+            Iterator<Pooled> it = idle.descendingIterator();
+            while ( it.hasNext() && total > minSize ) {
+                Pooled p = it.next();
+                if ( p.lastUsed >= usedBefore ) {
+                    break;
+                }
+                it.remove();
+                total--;
+                evictedCount.incrementAndGet();
+                DAOUtil.close( p.connection );
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fill() {
+        while ( true ) {
+            lock.lock();
+            try {
+                if ( closed || total >= minSize ) {
+                    return;
+                }
+                total++;
+            } finally {
+                lock.unlock();
+            }
+            Pooled p;
+            try {
+                p = open();
+            } catch ( SQLException | RuntimeException e ) {
+                log.warn( "Could not open a connection for the pool: " + e.getMessage() );
+                return;
+            }
+            lock.lock();
+            try {
+                p.lastUsed = System.currentTimeMillis();
+                idle.offerLast( p );
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Log connections borrowed before the given time, each one once.
+     */
+    void detectLeaks( long borrowedBefore ) {
+        for ( Pooled p : borrowed ) {
+            Throwable trace = p.borrowTrace;
+            if ( trace != null && !p.reported && p.borrowedAt < borrowedBefore ) {
+                p.reported = true;
+                leakCount.incrementAndGet();
+                log.warn( "Connection held for " + ( System.currentTimeMillis() - p.borrowedAt )
+                        + "ms, possible leak", trace );
+            }
+        }
+    }
+
+    /**
+     * Close all idle connections and stop maintenance, borrowed connections are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        if ( maintenance != null ) {
+            maintenance.shutdownNow();
+        }
+        lock.lock();
+        try {
+            closed = true;
+            for ( Pooled p : idle ) {
+                total--;
+                DAOUtil.close( p.connection );
+            }
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Metrics ------------------------------------------------------------------------------------
+
+    public int getActive() {
+        return borrowed.size();
+    }
+
+    public int getIdle() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTotal() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getInvalidCount() {
+        return invalidCount.get();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * @return mean time borrowers waited for a connection, including validation and opening new connections
+     */
+    public double getMeanWaitMillis() {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : waitNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format( "ConnectionPool{min=%d, max=%d, active=%d, idle=%d, borrowed=%d, timeouts=%d, " +
+                        "created=%d, invalid=%d, evicted=%d, leaks=%d, meanWait=%.2fms, maxWait=%.2fms}", minSize,
+                maxSize, getActive(), getIdle(), getBorrowCount(), getTimeoutCount(), getCreatedCount(),
+                getInvalidCount(), getEvictedCount(), getLeakCount(), getMeanWaitMillis(), getMaxWaitMillis() );
+    }
+
+    /**
+     * A physical connection and its bookkeeping.
+     */
+    private final class Pooled {
+        private final Connection connection;
+        // State the connection was opened in, restored when it is returned
+        private final boolean readOnly;
+        private final String catalog;
+        private final int transactionIsolation;
+        private volatile long lastUsed;
+        private volatile long borrowedAt;
+        private volatile Throwable borrowTrace;
+        private volatile boolean reported;
+
+        private Pooled( Connection connection ) throws SQLException {
+            this.connection = connection;
+            this.readOnly = connection.isReadOnly();
+            this.catalog = connection.getCatalog();
+            this.transactionIsolation = connection.getTransactionIsolation();
+        }
+
+        private Connection borrow() {
+            borrowedAt = System.currentTimeMillis();
+            borrowTrace = leakThresholdMillis > 0 ? new Throwable( "Borrowed here" ) : null;
+            reported = false;
+            borrowed.add( this );
+            return ( Connection ) Proxy.newProxyInstance( Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Handle( this ) );
+        }
+    }
+
+    /**
+     * Borrower's view of a pooled connection, usable until it is closed.
+     */
+    private final class Handle implements InvocationHandler {
+        private Pooled pooled;
+
+        private Handle( Pooled pooled ) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public synchronized Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            switch ( method.getName() ) {
+                case "close":
+                    if ( pooled != null ) {
+                        Pooled p = pooled;
+                        pooled = null;
+                        release( p );
+                    }
+                    return null;
+                case "isClosed":
+                    return pooled == null || pooled.connection.isClosed();
+                case "unwrap":
+                    return unwrap( proxy, ( Class<?> ) args[0] );
+                case "isWrapperFor":
+                    return ( ( Class<?> ) args[0] ).isInstance( proxy );
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                case "toString":
+                    return "Pooled" + ( pooled == null ? "[closed]" : pooled.connection.toString() );
+                default:
+                    if ( pooled == null ) {
+                        throw new SQLException( "Connection is closed." );
+                    }
+                    try {
+                        return dependent( method.invoke( pooled.connection, args ), method.getReturnType(),
+                                ( Connection ) proxy, null );
+                    } catch ( InvocationTargetException e ) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+    /**
+     * Borrowers only ever see proxies, so they are all they can unwrap to.
+     */
+    private static Object unwrap( Object proxy, Class<?> iface ) throws SQLException {
+        if ( iface.isInstance( proxy ) ) {
+            return proxy;
+        }
+        throw new SQLException( "Pooled connections are not a wrapper for " + iface.getName() + "." );
+    }
+
+    /**
+     * @param  result     object returned by a borrowed connection or one of its dependents
+     * @param  type       declared type of the result
+     * @param  connection borrowed connection it came from
+     * @param  statement  statement it came from, if any
+     * @return            the result, behind a proxy if it could lead back to the physical connection
+     */
+    private static Object dependent( Object result, Class<?> type, Connection connection, Statement statement ) {
+        if ( result == null || !DEPENDENTS.contains( type ) ) {
+            return result;
+        }
+        return Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[] { type },
+                new Dependent( result, connection, statement ) );
+    }
+
+    /**
+     * Statement, metadata or result set of a borrowed connection, which leads back to the borrowed connection.
+     */
+    private static final class Dependent implements InvocationHandler {
+        private final Object target;
+        private final Connection connection;
+        private final Statement statement;
+
+        private Dependent( Object target, Connection connection, Statement statement ) {
+            this.target = target;
+            this.connection = connection;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            switch ( method.getName() ) {
+                case "getConnection":
+                    return connection;
+                case "getStatement":
+                    if ( statement != null ) {
+                        return statement;
+                    }
+                    break;
+                case "unwrap":
+                    return unwrap( proxy, ( Class<?> ) args[0] );
+                case "isWrapperFor":
+                    return ( ( Class<?> ) args[0] ).isInstance( proxy );
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                default:
+                    break;
+            }
+            Object result;
+            try {
+                result = method.invoke( target, args );
+            } catch ( InvocationTargetException e ) {
+                throw e.getCause();
+            }
+            return dependent( result, method.getReturnType(), connection,
+                    proxy instanceof Statement ? ( Statement ) proxy : statement );
+        }
+    }
+}
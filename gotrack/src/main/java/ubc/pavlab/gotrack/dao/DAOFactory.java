@@ -22,11 +22,19 @@ package ubc.pavlab.gotrack.dao;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * This class represents a DAO factory for an SQL database. You can use {@link #getInstance(String)} to obtain a new
  * instance for the given database name. The specific instance returned depends on the properties file configuration.
@@ -39,6 +47,15 @@ import javax.sql.DataSource;
  * name.driver
  * name.username
  * name.password
+ * name.pool.maxSize
+ * name.pool.minSize
+ * name.pool.maxWaitMillis
+ * name.pool.validationTimeoutSeconds
+ * name.pool.idleTimeoutSeconds
+ * name.pool.leakThresholdSeconds
+ * name.query.chunkSize
+ * name.query.threads
+ * name.metrics.logIntervalSeconds
  * </pre>
  * 
  * Those marked with * are required, others are optional and can be left away or empty. Only the username is required
@@ -49,11 +66,24 @@ import javax.sql.DataSource;
  * <li>The 'name.driver' must represent the full qualified class name of the JDBC driver.</li>
  * <li>The 'name.username' must represent the username of the database login.</li>
  * <li>The 'name.password' must represent the password of the database login.</li>
+ * <li>The 'name.pool.*' properties configure the built-in connection pool, see below.</li>
  * </ul>
  * If you specify the driver property, then the url property will be assumed as JDBC URL. If you omit the driver
  * property, then the url property will be assumed as JNDI name. When using JNDI with username/password preconfigured,
  * you can omit the username and password properties as well.
  * <p>
+ * With a driver, connections are opened through DriverManager on every call unless 'name.pool.maxSize' is set, in
+ * which case they are borrowed from a {@link ConnectionPool} of at most that many connections. The other pool
+ * properties default to a minimum of 0 connections, waiting 30 seconds for a connection, validating connections within
+ * 5 seconds, closing connections idle for 10 minutes and never reporting leaks. A JNDI DataSource is expected to be
+ * pooled by the container and these properties are ignored.
+ * <p>
+ * Queries with an IN list of many genes are split into chunks of at most 'name.query.chunkSize' genes (default 1000)
+ * which run on up to 'name.query.threads' connections at once (default 4, 1 runs them one after the other).
+ * <p>
+ * Every statement run through the connections of a factory is recorded in its {@link QueryMetrics}, which are logged
+ * every 'name.metrics.logIntervalSeconds' seconds (default 3600, 0 never logs them).
+ * <p>
  * Here are basic examples of valid properties for a database with the name 'javabase':
  * 
  * <pre>
@@ -61,6 +91,7 @@ import javax.sql.DataSource;
  * javabase.jdbc.driver = com.mysql.jdbc.Driver
  * javabase.jdbc.username = java
  * javabase.jdbc.password = d$7hF_r!9Y
+ * javabase.jdbc.pool.maxSize = 20
  * </pre>
  * 
  * <pre>
@@ -82,6 +113,30 @@ public abstract class DAOFactory {
     private static final String PROPERTY_DRIVER = "driver";
     private static final String PROPERTY_USERNAME = "username";
     private static final String PROPERTY_PASSWORD = "password";
+    private static final String PROPERTY_POOL_MAX_SIZE = "pool.maxSize";
+    private static final String PROPERTY_POOL_MIN_SIZE = "pool.minSize";
+    private static final String PROPERTY_POOL_MAX_WAIT = "pool.maxWaitMillis";
+    private static final String PROPERTY_POOL_VALIDATION_TIMEOUT = "pool.validationTimeoutSeconds";
+    private static final String PROPERTY_POOL_IDLE_TIMEOUT = "pool.idleTimeoutSeconds";
+    private static final String PROPERTY_POOL_LEAK_THRESHOLD = "pool.leakThresholdSeconds";
+    private static final String PROPERTY_QUERY_CHUNK_SIZE = "query.chunkSize";
+    private static final String PROPERTY_QUERY_THREADS = "query.threads";
+    private static final String PROPERTY_METRICS_LOG_INTERVAL = "metrics.logIntervalSeconds";
+
+    private static final int DEFAULT_QUERY_CHUNK_SIZE = 1000;
+    private static final int DEFAULT_QUERY_THREADS = 4;
+    private static final int DEFAULT_METRICS_LOG_INTERVAL = 3600;
+
+    private static final Logger log = Logger.getLogger( DAOFactory.class );
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private int queryChunkSize = DEFAULT_QUERY_CHUNK_SIZE;
+    private int queryThreads = DEFAULT_QUERY_THREADS;
+    private ExecutorService queryExecutor;
+    private ScheduledExecutorService metricsLogger;
+    private final QueryMetrics queryMetrics = new QueryMetrics( AnnotationDAOImpl.class, CacheDAOImpl.class,
+            SpeciesDAOImpl.class, StatsDAOImpl.class, AnnotationStoreExporter.class );
 
     // Actions ------------------------------------------------------------------------------------
 
@@ -94,7 +149,48 @@ public abstract class DAOFactory {
         String driverClassName = properties.getProperty( PROPERTY_DRIVER, false );
         String password = properties.getProperty( PROPERTY_PASSWORD, false );
         String username = properties.getProperty( PROPERTY_USERNAME, password != null );
-        return getInstance( url, driverClassName, password, username );
+
+        DAOFactory instance;
+        int poolMaxSize = getIntProperty( properties, PROPERTY_POOL_MAX_SIZE, 0 );
+        if ( driverClassName != null && poolMaxSize > 0 ) {
+            loadDriver( driverClassName );
+            ConnectionPool pool = new ConnectionPool( () -> DriverManager.getConnection( url, username, password ),
+                    getIntProperty( properties, PROPERTY_POOL_MIN_SIZE, 0 ), poolMaxSize,
+                    getIntProperty( properties, PROPERTY_POOL_MAX_WAIT, 30000 ),
+                    getIntProperty( properties, PROPERTY_POOL_VALIDATION_TIMEOUT, 5 ),
+                    getIntProperty( properties, PROPERTY_POOL_IDLE_TIMEOUT, 600 ) * 1000L,
+                    getIntProperty( properties, PROPERTY_POOL_LEAK_THRESHOLD, 0 ) * 1000L );
+            instance = new PooledDAOFactory( pool );
+        } else {
+            instance = getInstance( url, driverClassName, password, username );
+        }
+
+        instance.setQueryChunking( getIntProperty( properties, PROPERTY_QUERY_CHUNK_SIZE, DEFAULT_QUERY_CHUNK_SIZE ),
+                getIntProperty( properties, PROPERTY_QUERY_THREADS, DEFAULT_QUERY_THREADS ) );
+        instance.setMetricsLogInterval(
+                getIntProperty( properties, PROPERTY_METRICS_LOG_INTERVAL, DEFAULT_METRICS_LOG_INTERVAL ) );
+        return instance;
+    }
+
+    private static int getIntProperty( DAOProperties properties, String key, int defaultValue )
+            throws DAOConfigurationException {
+        String property = properties.getProperty( key, false );
+        if ( property == null ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt( property.trim() );
+        } catch ( NumberFormatException e ) {
+            throw new DAOConfigurationException( "Property '" + key + "' must be an integer: '" + property + "'.", e );
+        }
+    }
+
+    private static void loadDriver( String driverClassName ) throws DAOConfigurationException {
+        try {
+            Class.forName( driverClassName );
+        } catch ( ClassNotFoundException e ) {
+            throw new DAOConfigurationException( "Driver class '" + driverClassName + "' is missing in classpath.", e );
+        }
     }
 
     /**
@@ -113,12 +209,7 @@ public abstract class DAOFactory {
 
         // If driver is specified, then load it to let it register itself with DriverManager.
         if ( driverClassName != null ) {
-            try {
-                Class.forName( driverClassName );
-            } catch ( ClassNotFoundException e ) {
-                throw new DAOConfigurationException( "Driver class '" + driverClassName + "' is missing in classpath.",
-                        e );
-            }
+            loadDriver( driverClassName );
             instance = new DriverManagerDAOFactory( url, username, password );
         }
 
@@ -141,12 +232,119 @@ public abstract class DAOFactory {
     }
 
     /**
-     * Returns a connection to the database. Package private so that it can be used inside the DAO package only.
+     * Returns a connection to the database, recording the statements run through it in {@link #getQueryMetrics()}.
+     * Package private so that it can be used inside the DAO package only.
      * 
      * @return A connection to the database.
      * @throws SQLException If acquiring the connection fails.
      */
-    abstract Connection getConnection() throws SQLException;
+    final Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Connection connection = openConnection();
+            failed = false;
+            return queryMetrics.wrap( connection );
+        } finally {
+            queryMetrics.recordAcquire( System.nanoTime() - start, failed );
+        }
+    }
+
+    /**
+     * Acquires a connection to the database from the underlying source.
+     * 
+     * @return A connection to the database.
+     * @throws SQLException If acquiring the connection fails.
+     */
+    abstract Connection openConnection() throws SQLException;
+
+    /**
+     * @return latencies, row counts and fetched bytes of the statements run so far
+     */
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * @return built-in connection pool, null if connections do not come from one
+     */
+    public ConnectionPool getConnectionPool() {
+        return null;
+    }
+
+    /**
+     * @param seconds interval between summaries of the statements run in that interval, 0 to never log them
+     */
+    synchronized void setMetricsLogInterval( int seconds ) {
+        if ( seconds < 0 ) {
+            throw new DAOConfigurationException( "Invalid metrics log interval: " + seconds + "." );
+        }
+        if ( metricsLogger != null ) {
+            metricsLogger.shutdown();
+            metricsLogger = null;
+        }
+        if ( seconds > 0 ) {
+            metricsLogger = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat( "dao-metrics" ).setDaemon( true ).build() );
+            metricsLogger.scheduleAtFixedRate( () -> {
+                try {
+                    log.info( "Queries in the last " + seconds + "s:\n" + queryMetrics.summarizeInterval() );
+                } catch ( RuntimeException e ) {
+                    log.warn( "Summarizing query metrics failed", e );
+                }
+            }, seconds, seconds, TimeUnit.SECONDS );
+        }
+    }
+
+    /**
+     * @param chunkSize maximum number of values in the IN list of a single query
+     * @param threads   maximum number of chunks of a query running at once, 1 to run them one after the other
+     */
+    synchronized void setQueryChunking( int chunkSize, int threads ) {
+        if ( chunkSize < 1 || threads < 1 ) {
+            throw new DAOConfigurationException(
+                    "Invalid query chunking, chunk size: " + chunkSize + ", threads: " + threads + "." );
+        }
+        this.queryChunkSize = chunkSize;
+        this.queryThreads = threads;
+        if ( queryExecutor != null ) {
+            queryExecutor.shutdown();
+            queryExecutor = null;
+        }
+    }
+
+    int getQueryChunkSize() {
+        return queryChunkSize;
+    }
+
+    /**
+     * @return executor running the chunks of queries, null if they run on the calling thread
+     */
+    synchronized ExecutorService getQueryExecutor() {
+        if ( queryThreads <= 1 ) {
+            return null;
+        }
+        if ( queryExecutor == null ) {
+            queryExecutor = Executors.newFixedThreadPool( queryThreads,
+                    new ThreadFactoryBuilder().setNameFormat( "query-chunk-%d" ).setDaemon( true ).build() );
+        }
+        return queryExecutor;
+    }
+
+    /**
+     * Release resources held by this factory, such as pooled connections. DAOs obtained from it must not be used
+     * afterwards.
+     */
+    public synchronized void close() {
+        if ( queryExecutor != null ) {
+            queryExecutor.shutdownNow();
+            queryExecutor = null;
+        }
+        if ( metricsLogger != null ) {
+            metricsLogger.shutdownNow();
+            metricsLogger = null;
+        }
+    }
 
     // DAO implementation getters -----------------------------------------------------------------
 
@@ -192,11 +390,43 @@ class DriverManagerDAOFactory extends DAOFactory {
     }
 
     @Override
-    Connection getConnection() throws SQLException {
+    Connection openConnection() throws SQLException {
         return DriverManager.getConnection( url, username, password );
     }
 }
 
+/**
+ * The DAOFactory borrowing connections from a built-in pool.
+ */
+class PooledDAOFactory extends DAOFactory {
+    private ConnectionPool pool;
+
+    PooledDAOFactory( ConnectionPool pool ) {
+        this.pool = pool;
+    }
+
+    @Override
+    Connection openConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    @Override
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        pool.close();
+    }
+
+    @Override
+    public String toString() {
+        return "PooledDAOFactory{" + pool + "}";
+    }
+}
+
 /**
  * The DataSource based DAOFactory.
  */
@@ -208,7 +438,7 @@ class DataSourceDAOFactory extends DAOFactory {
     }
 
     @Override
-    Connection getConnection() throws SQLException {
+    Connection openConnection() throws SQLException {
         return dataSource.getConnection();
     }
 }
@@ -228,7 +458,7 @@ class DataSourceWithLoginDAOFactory extends DAOFactory {
     }
 
     @Override
-    Connection getConnection() throws SQLException {
+    Connection openConnection() throws SQLException {
         return dataSource.getConnection( username, password );
     }
 }
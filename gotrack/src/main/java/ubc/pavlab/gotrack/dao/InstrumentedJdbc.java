@@ -0,0 +1,181 @@
+package ubc.pavlab.gotrack.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Proxies over a connection, its statements and their result sets which record every execution in
+ * {@link QueryMetrics}.
+ */
+final class InstrumentedJdbc {
+
+    private InstrumentedJdbc() {
+    }
+
+    static Connection wrap( Connection connection, QueryMetrics metrics ) {
+        return proxy( Connection.class, new ConnectionHandler( connection, metrics ) );
+    }
+
+    private static <T> T proxy( Class<T> type, InvocationHandler handler ) {
+        return type.cast( Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[] { type }, handler ) );
+    }
+
+    private static Object invoke( Object target, Method method, Object[] args ) throws Throwable {
+        try {
+            return method.invoke( target, args );
+        } catch ( InvocationTargetException e ) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return estimated size in bytes of a value read from a result set
+     */
+    static long size( Object value ) {
+        if ( value instanceof String ) {
+            return ( (String) value ).length();
+        } else if ( value instanceof byte[] ) {
+            return ( (byte[]) value ).length;
+        } else if ( value instanceof Long || value instanceof Double || value instanceof java.util.Date ) {
+            return 8;
+        } else if ( value instanceof BigDecimal ) {
+            return 16;
+        } else if ( value instanceof Integer || value instanceof Float ) {
+            return 4;
+        } else if ( value instanceof Short ) {
+            return 2;
+        } else if ( value instanceof Byte || value instanceof Boolean ) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private final QueryMetrics metrics;
+
+        private ConnectionHandler( Connection connection, QueryMetrics metrics ) {
+            this.connection = connection;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            Object result = InstrumentedJdbc.invoke( connection, method, args );
+            if ( result instanceof Statement && Statement.class.isAssignableFrom( method.getReturnType() ) ) {
+                // prepareStatement and prepareCall know their SQL up front, createStatement at execution
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                return proxy( method.getReturnType(), new StatementHandler( (Statement) result, sql, metrics ) );
+            }
+            return result;
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String sql;
+        private final QueryMetrics metrics;
+        private ResultSetHandler open;
+
+        private StatementHandler( Statement statement, String sql, QueryMetrics metrics ) {
+            this.statement = statement;
+            this.sql = sql;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+            if ( name.equals( "close" ) ) {
+                try {
+                    return InstrumentedJdbc.invoke( statement, method, args );
+                } finally {
+                    if ( open != null ) {
+                        open.finish();
+                    }
+                }
+            }
+            if ( !name.startsWith( "execute" ) ) {
+                return InstrumentedJdbc.invoke( statement, method, args );
+            }
+
+            QueryMetrics.Query query = metrics.query(
+                    args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql );
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = InstrumentedJdbc.invoke( statement, method, args );
+            } catch ( Throwable t ) {
+                query.record( System.nanoTime() - start, 0, 0, true );
+                throw t;
+            }
+            if ( result instanceof ResultSet ) {
+                if ( open != null ) {
+                    open.finish();
+                }
+                open = new ResultSetHandler( (ResultSet) result, query, start );
+                return proxy( ResultSet.class, open );
+            }
+            // Updates count the rows they changed
+            query.record( System.nanoTime() - start, result instanceof Number ? ( (Number) result ).longValue() : 0,
+                    0, false );
+            return result;
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final QueryMetrics.Query query;
+        private final long start;
+        private long rows;
+        private long bytes;
+        private boolean failed;
+        private boolean finished;
+
+        private ResultSetHandler( ResultSet resultSet, QueryMetrics.Query query, long start ) {
+            this.resultSet = resultSet;
+            this.query = query;
+            this.start = start;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+            if ( name.equals( "close" ) ) {
+                try {
+                    return InstrumentedJdbc.invoke( resultSet, method, args );
+                } finally {
+                    finish();
+                }
+            }
+            Object result;
+            try {
+                result = InstrumentedJdbc.invoke( resultSet, method, args );
+            } catch ( Throwable t ) {
+                failed = true;
+                throw t;
+            }
+            if ( name.equals( "next" ) ) {
+                if ( Boolean.TRUE.equals( result ) ) {
+                    rows++;
+                }
+            } else if ( name.startsWith( "get" ) ) {
+                bytes += size( result );
+            }
+            return result;
+        }
+
+        private void finish() {
+            if ( !finished ) {
+                finished = true;
+                query.record( System.nanoTime() - start, rows, bytes, failed );
+            }
+        }
+    }
+}
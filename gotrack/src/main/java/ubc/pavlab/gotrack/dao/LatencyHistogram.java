@@ -0,0 +1,107 @@
+package ubc.pavlab.gotrack.dao;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies over fixed, roughly logarithmic buckets from 100µs to 60s. Percentiles are reported
+ * as the upper bound of the bucket they fall in, capped at the largest latency recorded.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets in microseconds, the last bucket holds everything slower.
+     */
+    static final long[] BOUNDS_MICROS = { 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000,
+            250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000, 25_000_000, 60_000_000 };
+
+    private final AtomicLongArray counts = new AtomicLongArray( BOUNDS_MICROS.length + 1 );
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record( long nanos ) {
+        long micros = nanos / 1000;
+        int i = Arrays.binarySearch( BOUNDS_MICROS, micros );
+        counts.incrementAndGet( i >= 0 ? i : -i - 1 );
+        totalNanos.add( nanos );
+        maxNanos.accumulateAndGet( nanos, Math::max );
+    }
+
+    Snapshot snapshot() {
+        long[] c = new long[counts.length()];
+        for ( int i = 0; i < c.length; i++ ) {
+            c[i] = counts.get( i );
+        }
+        return new Snapshot( c, totalNanos.sum(), maxNanos.get() );
+    }
+
+    /**
+     * Counts of a histogram at one point in time, or the difference between two points in time.
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Snapshot( long[] counts, long totalNanos, long maxNanos ) {
+            this.counts = counts;
+            this.count = Arrays.stream( counts ).sum();
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * @return counts recorded since the earlier snapshot, the maximum is that of the whole history
+         */
+        Snapshot minus( Snapshot earlier ) {
+            long[] c = counts.clone();
+            for ( int i = 0; i < c.length; i++ ) {
+                c[i] -= earlier.counts[i];
+            }
+            return new Snapshot( c, totalNanos - earlier.totalNanos, maxNanos );
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long[] getCounts() {
+            return counts.clone();
+        }
+
+        double getTotalMillis() {
+            return totalNanos / 1e6;
+        }
+
+        double getMeanMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        /**
+         * @param q quantile in [0, 1]
+         * @return upper bound in milliseconds of the bucket holding that quantile, 0 when empty
+         */
+        double percentileMillis( double q ) {
+            if ( count == 0 ) {
+                return 0;
+            }
+            long rank = Math.max( 1, (long) Math.ceil( q * count ) );
+            long seen = 0;
+            for ( int i = 0; i < counts.length; i++ ) {
+                seen += counts[i];
+                if ( seen >= rank ) {
+                    return i < BOUNDS_MICROS.length ? Math.min( BOUNDS_MICROS[i] / 1e3, getMaxMillis() )
+                            : getMaxMillis();
+                }
+            }
+            return getMaxMillis();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package ubc.pavlab.gotrack.dao;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Latency histogram, row count and fetched bytes of every SQL statement run through the connections of a
+ * {@link DAOFactory}, along with the time taken to acquire those connections.
+ * <p>
+ * Statements are named after the 'SQL_*' constant of the DAO implementation they come from, such as
+ * 'CacheDAOImpl.SQL_GO_ANNOTATION_COUNTS'; IN lists of any length count as the same statement. Statements matching no
+ * constant are named after their text. The latency of a query runs from its execution until its result set is
+ * closed, so it includes reading every row, and for streamed queries, the work done by the consumer of the rows.
+ * Fetched bytes are an estimate from the size of the values read out of the result set.
+ */
+public final class QueryMetrics {
+
+    private static final Logger log = Logger.getLogger( QueryMetrics.class );
+
+    private static final Pattern IN_LIST = Pattern.compile( "\\(\\s*(?:\\?|%s)(?:\\s*,\\s*\\?)*\\s*\\)" );
+    private static final Pattern WHITESPACE = Pattern.compile( "\\s+" );
+    private static final int MAX_UNNAMED_LENGTH = 120;
+
+    private final Map<String, String> names = new HashMap<>();
+    private final ConcurrentMap<String, Query> queries = new ConcurrentHashMap<>();
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final LongAdder acquireErrors = new LongAdder();
+
+    private Map<String, Statistics> lastSummary = Collections.emptyMap();
+
+    /**
+     * @param daoClasses classes whose 'SQL_*' string constants name the statements
+     */
+    QueryMetrics( Class<?>... daoClasses ) {
+        for ( Class<?> cls : daoClasses ) {
+            for ( Field field : cls.getDeclaredFields() ) {
+                int modifiers = field.getModifiers();
+                if ( !Modifier.isStatic( modifiers ) || !Modifier.isFinal( modifiers )
+                        || field.getType() != String.class || !field.getName().startsWith( "SQL_" ) ) {
+                    continue;
+                }
+                try {
+                    field.setAccessible( true );
+                    String sql = (String) field.get( null );
+                    if ( sql.contains( "%s" ) ) {
+                        // Templates for String.format, in which a literal % is escaped
+                        sql = sql.replace( "%%", "%" );
+                    }
+                    sql = normalize( sql );
+                    // Constants without whitespace are table names
+                    if ( sql.indexOf( ' ' ) >= 0 ) {
+                        names.putIfAbsent( sql, cls.getSimpleName() + "." + field.getName() );
+                    }
+                } catch ( IllegalAccessException | SecurityException e ) {
+                    log.warn( "Cannot read " + cls.getSimpleName() + "." + field.getName(), e );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return SQL with collapsed whitespace and every IN list of placeholders replaced by '(?)'
+     */
+    static String normalize( String sql ) {
+        String collapsed = WHITESPACE.matcher( sql.trim() ).replaceAll( " " );
+        return IN_LIST.matcher( collapsed ).replaceAll( "(?)" );
+    }
+
+    Query query( String sql ) {
+        String normalized = sql == null ? "" : normalize( sql );
+        String name = names.get( normalized );
+        if ( name == null ) {
+            name = normalized.length() > MAX_UNNAMED_LENGTH ? normalized.substring( 0, MAX_UNNAMED_LENGTH ) + "..."
+                    : normalized;
+        }
+        return queries.computeIfAbsent( name, n -> new Query( n, normalized ) );
+    }
+
+    void recordAcquire( long nanos, boolean failed ) {
+        acquireLatency.record( nanos );
+        if ( failed ) {
+            acquireErrors.increment();
+        }
+    }
+
+    /**
+     * @return connection recording the statements run through it
+     */
+    Connection wrap( Connection connection ) {
+        return InstrumentedJdbc.wrap( connection, this );
+    }
+
+    /**
+     * @return statistics of every statement run so far, slowest in total first
+     */
+    public List<Statistics> getQueryStatistics() {
+        List<Statistics> statistics = new ArrayList<>();
+        for ( Query query : queries.values() ) {
+            statistics.add( query.snapshot() );
+        }
+        statistics.sort( Comparator.comparingDouble( Statistics::getTotalMillis ).reversed() );
+        return statistics;
+    }
+
+    /**
+     * @return statistics of acquiring connections, the row and byte counts are always 0
+     */
+    public Statistics getConnectionAcquireStatistics() {
+        return new Statistics( "connection.acquire", "", acquireLatency.snapshot(), 0, 0,
+                acquireErrors.sum() );
+    }
+
+    /**
+     * @return human readable summary of the statements run since the previous call
+     */
+    public synchronized String summarizeInterval() {
+        Map<String, Statistics> current = new LinkedHashMap<>();
+        List<Statistics> interval = new ArrayList<>();
+        for ( Statistics s : getQueryStatistics() ) {
+            current.put( s.getName(), s );
+            Statistics earlier = lastSummary.get( s.getName() );
+            Statistics delta = earlier == null ? s : s.minus( earlier );
+            if ( delta.getCount() > 0 ) {
+                interval.add( delta );
+            }
+        }
+        Statistics acquire = getConnectionAcquireStatistics();
+        Statistics earlierAcquire = lastSummary.get( acquire.getName() );
+        current.put( acquire.getName(), acquire );
+        lastSummary = current;
+
+        interval.sort( Comparator.comparingDouble( Statistics::getTotalMillis ).reversed() );
+        interval.add( 0, earlierAcquire == null ? acquire : acquire.minus( earlierAcquire ) );
+        return format( interval );
+    }
+
+    /**
+     * @return one line per statistics
+     */
+    public static String format( List<Statistics> statistics ) {
+        StringBuilder sb = new StringBuilder();
+        for ( Statistics s : statistics ) {
+            sb.append( String.format( Locale.ENGLISH,
+                    "%s: n=%d errors=%d rows=%d bytes=%d mean=%.1fms p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms%n",
+                    s.getName(), s.getCount(), s.getErrors(), s.getRows(), s.getBytes(), s.getMeanMillis(),
+                    s.getP50Millis(), s.getP95Millis(), s.getP99Millis(), s.getMaxMillis() ) );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Running totals of one statement.
+     */
+    static final class Query {
+        private final String name;
+        private final String sql;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private Query( String name, String sql ) {
+            this.name = name;
+            this.sql = sql;
+        }
+
+        void record( long nanos, long rows, long bytes, boolean failed ) {
+            latency.record( nanos );
+            this.rows.add( rows );
+            this.bytes.add( bytes );
+            if ( failed ) {
+                errors.increment();
+            }
+        }
+
+        Statistics snapshot() {
+            return new Statistics( name, sql, latency.snapshot(), rows.sum(), bytes.sum(), errors.sum() );
+        }
+    }
+
+    /**
+     * Statistics of one statement at a point in time, or over an interval.
+     */
+    public static final class Statistics {
+        private final String name;
+        private final String sql;
+        private final LatencyHistogram.Snapshot latency;
+        private final long rows;
+        private final long bytes;
+        private final long errors;
+
+        private Statistics( String name, String sql, LatencyHistogram.Snapshot latency, long rows, long bytes,
+                            long errors ) {
+            this.name = name;
+            this.sql = sql;
+            this.latency = latency;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.errors = errors;
+        }
+
+        Statistics minus( Statistics earlier ) {
+            return new Statistics( name, sql, latency.minus( earlier.latency ), rows - earlier.rows,
+                    bytes - earlier.bytes, errors - earlier.errors );
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getTotalMillis() {
+            return latency.getTotalMillis();
+        }
+
+        public double getMeanMillis() {
+            return latency.getMeanMillis();
+        }
+
+        public double getP50Millis() {
+            return latency.percentileMillis( 0.5 );
+        }
+
+        public double getP95Millis() {
+            return latency.percentileMillis( 0.95 );
+        }
+
+        public double getP99Millis() {
+            return latency.percentileMillis( 0.99 );
+        }
+
+        public double getMaxMillis() {
+            return latency.getMaxMillis();
+        }
+
+        /**
+         * @return count of each bucket of the latency histogram keyed by its upper bound in milliseconds, the
+         *         slowest bucket has no upper bound and is keyed by 'inf'
+         */
+        public Map<String, Long> getHistogram() {
+            long[] counts = latency.getCounts();
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            for ( int i = 0; i < counts.length; i++ ) {
+                histogram.put( i < LatencyHistogram.BOUNDS_MICROS.length ?
+                        String.valueOf( LatencyHistogram.BOUNDS_MICROS[i] / 1e3 ) : "inf", counts[i] );
+            }
+            return histogram;
+        }
+
+        @Override
+        public String toString() {
+            return format( Collections.singletonList( this ) ).trim();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ubc.pavlab.gotrack.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set.
+ *
+ * @param <T> type of a row
+ */
+interface RowMapper<T> {
+    T map( ResultSet resultSet ) throws SQLException;
+}
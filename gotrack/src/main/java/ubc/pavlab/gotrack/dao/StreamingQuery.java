@@ -0,0 +1,71 @@
+package ubc.pavlab.gotrack.dao;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+import static ubc.pavlab.gotrack.dao.DAOUtil.close;
+
+/**
+ * Query whose rows are handed to a consumer one at a time as they are read, so that heap use does not grow with the
+ * size of the result.
+ * <p>
+ * The statement is forward-only and read-only with a fetch size of {@link Integer#MIN_VALUE}, which makes MySQL
+ * Connector/J stream rows from the server instead of buffering the whole result. The connection stays busy until the
+ * last row has been consumed, so consumers should be quick and must not query the database themselves through the same
+ * connection. Drivers which reject that fetch size fall back to fetching {@link #FALLBACK_FETCH_SIZE} rows at a time.
+ */
+final class StreamingQuery {
+
+    private static final Logger log = Logger.getLogger( StreamingQuery.class );
+
+    static final int FALLBACK_FETCH_SIZE = 1000;
+
+    private StreamingQuery() {
+    }
+
+    /**
+     * @param sql      query
+     * @param params   values of the parameters of the query
+     * @param mapper   maps each row
+     * @param consumer receives every row
+     * @throws DAOException If the query fails
+     */
+    static <T> void forEach( DAOFactory daoFactory, String sql, Object[] params, RowMapper<T> mapper,
+                             Consumer<? super T> consumer ) throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+
+        log.debug( sql );
+        try {
+            connection = daoFactory.getConnection();
+            statement = prepare( connection, sql );
+            DAOUtil.setValues( statement, params );
+            log.debug( statement );
+            resultSet = statement.executeQuery();
+            while ( resultSet.next() ) {
+                consumer.accept( mapper.map( resultSet ) );
+            }
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            close( connection, statement, resultSet );
+        }
+    }
+
+    private static PreparedStatement prepare( Connection connection, String sql ) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement( sql, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY );
+        try {
+            statement.setFetchSize( Integer.MIN_VALUE );
+        } catch ( SQLException e ) {
+            statement.setFetchSize( FALLBACK_FETCH_SIZE );
+        }
+        return statement;
+    }
+}
@@ -0,0 +1,25 @@
+package ubc.pavlab.gotrack.exception;
+
+/**
+ * Exception thrown when a background analysis job cannot be accepted, either because the client already has too many
+ * jobs or because the job queue is full.
+ */
+public class JobRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = -2817342201526624361L;
+
+    /**
+     * @param message The detail message of the JobRejectedException.
+     */
+    public JobRejectedException( String message ) {
+        super( message );
+    }
+
+    /**
+     * @param message The detail message of the JobRejectedException.
+     * @param cause The root cause of the JobRejectedException.
+     */
+    public JobRejectedException( String message, Throwable cause ) {
+        super( message, cause );
+    }
+}
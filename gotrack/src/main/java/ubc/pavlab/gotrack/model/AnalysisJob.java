@@ -0,0 +1,154 @@
+package ubc.pavlab.gotrack.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Analysis run in the background on behalf of a client, whose progress and result are polled by id.
+ *
+ * @param <T> type of the result
+ */
+public class AnalysisJob<T> {
+
+    public enum State {
+        QUEUED, RUNNING, COMPLETE, FAILED, CANCELLED
+    }
+
+    private final String id;
+    private final String client;
+    private final StatusPoller statusPoller = new StatusPoller( " completed" );
+    private final long created = System.currentTimeMillis();
+
+    private State state = State.QUEUED;
+    private T result;
+    private String error;
+    private long finished;
+    private boolean working;
+    private Future<?> future;
+
+    public AnalysisJob( String id, String client ) {
+        this.id = id;
+        this.client = client;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    public StatusPoller getStatusPoller() {
+        return statusPoller;
+    }
+
+    /**
+     * @return copy of the status messages so far
+     */
+    public List<String> getStatuses() {
+        synchronized ( statusPoller ) {
+            return new ArrayList<>( statusPoller.getStatuses() );
+        }
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return result if complete, else null
+     */
+    public synchronized T getResult() {
+        return result;
+    }
+
+    /**
+     * @return message of the failure if failed, else null
+     */
+    public synchronized String getError() {
+        return error;
+    }
+
+    /**
+     * @return time at which the job completed, failed or was cancelled, 0 if it has not
+     */
+    public synchronized long getFinished() {
+        return finished;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished != 0;
+    }
+
+    /**
+     * @return true while the job is queued or its worker has not returned, which may be after it was cancelled
+     */
+    public synchronized boolean isActive() {
+        return !isFinished() || working;
+    }
+
+    public synchronized void setFuture( Future<?> future ) {
+        this.future = future;
+    }
+
+    /**
+     * @return false if the job was cancelled before it could start
+     */
+    public synchronized boolean start() {
+        if ( state != State.QUEUED ) {
+            return false;
+        }
+        state = State.RUNNING;
+        working = true;
+        return true;
+    }
+
+    /**
+     * Called once the worker of a started job has returned.
+     */
+    public synchronized void exited() {
+        working = false;
+    }
+
+    public synchronized void complete( T result ) {
+        if ( state == State.RUNNING ) {
+            this.result = result;
+            state = State.COMPLETE;
+            finished = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized void fail( String error ) {
+        if ( state == State.RUNNING ) {
+            this.error = error;
+            state = State.FAILED;
+            finished = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Cancel the job if it has not finished. A queued job never starts, a running job is interrupted and its result
+     * discarded. Analyses do not all check for interruption, so a running job stays {@link #isActive() active} until
+     * its worker returns.
+     *
+     * @return false if the job had already finished
+     */
+    public synchronized boolean cancel() {
+        if ( isFinished() ) {
+            return false;
+        }
+        state = State.CANCELLED;
+        finished = System.currentTimeMillis();
+        if ( future != null ) {
+            future.cancel( true );
+        }
+        return true;
+    }
+
+}
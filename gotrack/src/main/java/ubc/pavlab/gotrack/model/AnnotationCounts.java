@@ -0,0 +1,104 @@
+package ubc.pavlab.gotrack.model;
+
+import ubc.pavlab.gotrack.model.go.GeneOntology;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Number of genes annotated to each term of a single edition, both directly and including children. Counts are held in
+ * primitive arrays indexed by the ordinal of the term in the edition's ontology rather than in maps of boxed values.
+ */
+public final class AnnotationCounts {
+
+    private static final int ABSENT = -1;
+
+    private final GeneOntology ontology;
+    private final int[] direct;
+    private final int[] inferred;
+
+    public AnnotationCounts( GeneOntology ontology ) {
+        this.ontology = ontology;
+        this.direct = new int[ontology.size()];
+        this.inferred = new int[ontology.size()];
+        Arrays.fill( direct, ABSENT );
+        Arrays.fill( inferred, ABSENT );
+    }
+
+    /**
+     * @param  t             term
+     * @param  directCount   count of genes annotated with this term, null if unknown
+     * @param  inferredCount count of genes annotated with this term or any of its children, null if unknown
+     * @return               false if the term is not part of this edition's ontology
+     */
+    public boolean put( GeneOntologyTerm t, Integer directCount, Integer inferredCount ) {
+        int ordinal = ontology.getOrdinal( t );
+        if ( ordinal == -1 ) {
+            return false;
+        }
+        if ( directCount != null ) {
+            direct[ordinal] = directCount;
+        }
+        if ( inferredCount != null ) {
+            inferred[ordinal] = inferredCount;
+        }
+        return true;
+    }
+
+    /**
+     * @return count of genes annotated with this term, null if unknown
+     */
+    public Integer getDirect( GeneOntologyTerm t ) {
+        return get( direct, t );
+    }
+
+    /**
+     * @return count of genes annotated with this term or any of its children, null if unknown
+     */
+    public Integer getInferred( GeneOntologyTerm t ) {
+        return get( inferred, t );
+    }
+
+    /**
+     * Unboxed {@link #getInferred(GeneOntologyTerm)}.
+     *
+     * @return count of genes annotated with this term or any of its children, -1 if unknown
+     */
+    public int getInferredCount( GeneOntologyTerm t ) {
+        int ordinal = ontology.getOrdinal( t );
+        return ordinal == -1 ? ABSENT : inferred[ordinal];
+    }
+
+    private Integer get( int[] counts, GeneOntologyTerm t ) {
+        int ordinal = ontology.getOrdinal( t );
+        if ( ordinal == -1 || counts[ordinal] == ABSENT ) {
+            return null;
+        }
+        return counts[ordinal];
+    }
+
+    /**
+     * @return terms which have an inferred count, in order of id
+     */
+    public Stream<GeneOntologyTerm> terms() {
+        return IntStream.range( 0, inferred.length ).filter( i -> inferred[i] != ABSENT )
+                .mapToObj( ontology::getTermByOrdinal );
+    }
+
+    /**
+     * @return number of terms with an inferred count
+     */
+    public int size() {
+        return (int) IntStream.of( inferred ).filter( c -> c != ABSENT ).count();
+    }
+
+    /**
+     * @return approximate heap footprint of the count arrays in bytes
+     */
+    public long sizeInBytes() {
+        // Object headers plus array headers and contents
+        return 16 + 2 * ( 16 + 4L * inferred.length );
+    }
+}
@@ -0,0 +1,138 @@
+package ubc.pavlab.gotrack.model.go;
+
+import ubc.pavlab.gotrack.model.Annotation;
+import ubc.pavlab.gotrack.model.FullAnnotation;
+
+import java.util.*;
+
+/**
+ * Propagates the annotations of a set of terms to all of their ancestors in a single bottom-up pass.
+ * <p>
+ * Every directly annotated term is given an index and its annotations are wrapped as {@link FullAnnotation}s once, as
+ * direct and as inherited. The propagated terms are then visited children first (a term always has more ancestors than
+ * any of its parents) and each pushes the set of annotated terms below it up to its parents as a bitset. A term's
+ * propagated annotations are finally the shared lists of the annotated terms in its bitset; no annotation is copied or
+ * hashed per ancestor.
+ */
+final class AnnotationPropagator {
+
+    private AnnotationPropagator() {
+    }
+
+    /**
+     * @param annotations directly annotated terms and their annotations
+     * @return map of all propagated terms (including part_of) to their propagated annotations
+     */
+    static Map<GeneOntologyTerm, Set<FullAnnotation>> propagate( Map<GeneOntologyTerm, Set<Annotation>> annotations ) {
+        int k = annotations.size();
+        GeneOntologyTerm[] sources = new GeneOntologyTerm[k];
+        FullAnnotation[][] direct = new FullAnnotation[k][];
+        FullAnnotation[][] inherited = new FullAnnotation[k][];
+
+        Map<GeneOntologyTerm, BitSet> below = new HashMap<>();
+        int i = 0;
+        for ( Map.Entry<GeneOntologyTerm, Set<Annotation>> entry : annotations.entrySet() ) {
+            GeneOntologyTerm term = entry.getKey();
+            sources[i] = term;
+            direct[i] = new FullAnnotation[entry.getValue().size()];
+            inherited[i] = new FullAnnotation[entry.getValue().size()];
+            int j = 0;
+            for ( Annotation a : entry.getValue() ) {
+                direct[i][j] = new FullAnnotation( term, a, true );
+                inherited[i][j] = new FullAnnotation( term, a, false );
+                j++;
+            }
+            below.computeIfAbsent( term, t -> new BitSet( k ) ).set( i );
+            for ( GeneOntologyTerm ancestor : term.ancestors() ) {
+                below.computeIfAbsent( ancestor, t -> new BitSet( k ) );
+            }
+            i++;
+        }
+
+        // Children before parents
+        GeneOntologyTerm[] order = below.keySet().toArray( new GeneOntologyTerm[below.size()] );
+        Arrays.sort( order, Comparator.comparingInt( ( GeneOntologyTerm t ) -> t.ancestors().length ).reversed() );
+
+        Map<GeneOntologyTerm, Set<FullAnnotation>> results = new HashMap<>( below.size() * 4 / 3 + 1 );
+        for ( GeneOntologyTerm term : order ) {
+            BitSet bits = below.get( term );
+            for ( Relation<GeneOntologyTerm> parent : term.getParents() ) {
+                below.get( parent.getRelation() ).or( bits );
+            }
+
+            FullAnnotation[][] segments = new FullAnnotation[bits.cardinality()][];
+            int size = 0;
+            int s = 0;
+            for ( int b = bits.nextSetBit( 0 ); b >= 0; b = bits.nextSetBit( b + 1 ) ) {
+                segments[s] = sources[b].equals( term ) ? direct[b] : inherited[b];
+                size += segments[s].length;
+                s++;
+            }
+            results.put( term, new SegmentedSet( segments, size ) );
+        }
+
+        return results;
+    }
+
+    /**
+     * Immutable set made of disjoint arrays of annotations, each array holding the annotations of a single annotated
+     * term.
+     */
+    private static final class SegmentedSet extends AbstractSet<FullAnnotation> {
+        private final FullAnnotation[][] segments;
+        private final int size;
+
+        SegmentedSet( FullAnnotation[][] segments, int size ) {
+            this.segments = segments;
+            this.size = size;
+        }
+
+        @Override
+        public Iterator<FullAnnotation> iterator() {
+            return new Iterator<FullAnnotation>() {
+                private int segment = 0;
+                private int idx = 0;
+
+                @Override
+                public boolean hasNext() {
+                    while ( segment < segments.length && idx >= segments[segment].length ) {
+                        segment++;
+                        idx = 0;
+                    }
+                    return segment < segments.length;
+                }
+
+                @Override
+                public FullAnnotation next() {
+                    if ( !hasNext() ) {
+                        throw new NoSuchElementException();
+                    }
+                    return segments[segment][idx++];
+                }
+            };
+        }
+
+        @Override
+        public boolean contains( Object o ) {
+            if ( !( o instanceof FullAnnotation ) ) {
+                return false;
+            }
+            GeneOntologyTerm annotatedTerm = ( (FullAnnotation) o ).getAnnotatedTerm();
+            for ( FullAnnotation[] segment : segments ) {
+                if ( segment.length > 0 && segment[0].getAnnotatedTerm().equals( annotatedTerm ) ) {
+                    for ( FullAnnotation fa : segment ) {
+                        if ( fa.equals( o ) ) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 
 package ubc.pavlab.gotrack.model.go;
 
+import gnu.trove.TCollections;
 import gnu.trove.iterator.TIntObjectIterator;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.hash.TIntIntHashMap;
@@ -26,7 +27,9 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import org.apache.log4j.Logger;
 import ubc.pavlab.gotrack.model.GOEdition;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 
 /**
  * Memory efficient Directed Acyclic Graph representing a Gene Ontology Structure
@@ -43,6 +46,8 @@ public class GeneOntology {
     private TIntObjectHashMap<GeneOntologyTerm> termMap = new TIntObjectHashMap<>();
     private TIntIntMap altMap = new TIntIntHashMap();
 
+    private GeneOntologyTerm[] ordinalTerms = new GeneOntologyTerm[0];
+
     private Integer nonObsoleteSize = null;
 
     // private LoadingCache<GeneOntologyTerm, ImmutableSet<GeneOntologyTerm>> ancestorsCache = CacheBuilder.newBuilder()
@@ -129,14 +134,57 @@ public class GeneOntology {
     }
 
     /**
-     * Makes the parent/children sets of all terms in this ontology immutable.
+     * Makes the parent/children sets of all terms in this ontology immutable and assigns each term a dense ordinal, in
+     * order of id.
      */
     public void freeze() {
-        for ( GeneOntologyTerm t : termMap.valueCollection() ) {
-            t.freeze();
+        ordinalTerms = termMap.values( new GeneOntologyTerm[termMap.size()] );
+        Arrays.sort( ordinalTerms, Comparator.comparingInt( GeneOntologyTerm::getId ) );
+        for ( int i = 0; i < ordinalTerms.length; i++ ) {
+            ordinalTerms[i].setOrdinal( i );
+            ordinalTerms[i].freeze();
+        }
+    }
+
+    /**
+     * Freeze this ontology and optionally compute the ancestors of every term up front, rather than on first use. Each
+     * term's ancestors are built from those of its parents so the whole ontology is covered in a single pass.
+     *
+     * @param precomputeAncestors compute the transitive closure of every term now
+     */
+    public void freeze( boolean precomputeAncestors ) {
+        freeze();
+        if ( precomputeAncestors ) {
+            for ( GeneOntologyTerm t : ordinalTerms ) {
+                t.ancestors();
+            }
         }
     }
 
+    /**
+     * Position of a term in this ontology, usable as an index into arrays of size {@link #size()}. Terms from other
+     * editions are matched by id.
+     *
+     * @param  t term
+     * @return   ordinal or -1 if the term is not part of this ontology
+     */
+    public int getOrdinal( GeneOntologyTerm t ) {
+        int ordinal = t.getOrdinal();
+        if ( ordinal >= 0 && ordinal < ordinalTerms.length && ordinalTerms[ordinal] == t ) {
+            return ordinal;
+        }
+        GeneOntologyTerm res = termMap.get( t.getId() );
+        return res == null ? -1 : res.getOrdinal();
+    }
+
+    /**
+     * @param  ordinal ordinal
+     * @return         Term at that ordinal, only valid after the ontology has been frozen
+     */
+    public GeneOntologyTerm getTermByOrdinal( int ordinal ) {
+        return ordinalTerms[ordinal];
+    }
+
     /**
      * Retrieve term by GO Id
      * 
@@ -169,6 +217,41 @@ public class GeneOntology {
 
     }
 
+    /**
+     * Numeric equivalent of {@link #getTerm(String)}, following alternate ids.
+     *
+     * @param  id numeric GO id
+     * @return    id of the matching term or -1 if there is none
+     */
+    public int resolveId( int id ) {
+        if ( termMap.containsKey( id ) ) {
+            return id;
+        }
+        if ( altMap.containsKey( id ) ) {
+            int primary = altMap.get( id );
+            return termMap.containsKey( primary ) ? primary : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Numeric equivalent of looking up every term by GO id in this ontology. Terms without a match are all represented
+     * by a single -1, as they all become a single null when the terms themselves are looked up into a set.
+     *
+     * @param  terms terms of any edition
+     * @return       distinct ids of the matching terms in ascending order
+     */
+    public int[] toSortedIds( Collection<GeneOntologyTerm> terms ) {
+        return GeneOntologyTerm.toSortedIds( terms, t -> resolveId( t.getId() ) );
+    }
+
+    /**
+     * @return read-only map of alternate id to primary id
+     */
+    public TIntIntMap getAlternates() {
+        return TCollections.unmodifiableMap( altMap );
+    }
+
     /**
      * @return Number of terms in this ontology
      */
@@ -0,0 +1,225 @@
+package ubc.pavlab.gotrack.model.go;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import ubc.pavlab.gotrack.model.GOEdition;
+
+import java.util.*;
+
+/**
+ * Inverted index from GO id to the term representing it in every GO edition, alternate ids included.
+ * <p>
+ * Each id holds a bitset of the editions (by position) where it resolves to a term and an array with one term per set
+ * bit, so a lookup in a single edition is a rank over a few words rather than a search through every ontology.
+ */
+public final class GeneOntologyIndex {
+
+    private final GOEdition[] editions;
+    private final Map<GOEdition, Integer> positions = new HashMap<>();
+    private final TIntObjectHashMap<Entry> index = new TIntObjectHashMap<>();
+
+    /**
+     * @param ontologies frozen ontologies to index
+     */
+    public GeneOntologyIndex( Collection<GeneOntology> ontologies ) {
+        GeneOntology[] sorted = ontologies.toArray( new GeneOntology[ontologies.size()] );
+        Arrays.sort( sorted, Comparator.comparingInt( GeneOntology::getId ) );
+        editions = new GOEdition[sorted.length];
+        for ( int i = 0; i < sorted.length; i++ ) {
+            editions[i] = sorted[i].getEdition();
+            positions.put( editions[i], i );
+        }
+
+        int words = ( sorted.length + 63 ) / 64;
+
+        // First pass, mark where each id resolves
+        for ( int i = 0; i < sorted.length; i++ ) {
+            GeneOntology go = sorted[i];
+            for ( GeneOntologyTerm t : go.getAllTerms() ) {
+                entry( t.getId(), words ).mark( i );
+            }
+            for ( TIntIntIterator it = go.getAlternates().iterator(); it.hasNext(); ) {
+                it.advance();
+                if ( go.getTerm( it.key() ) == null && go.getTerm( it.value() ) != null ) {
+                    entry( it.key(), words ).mark( i );
+                }
+            }
+        }
+
+        index.forEachValue( e -> {
+            e.terms = new GeneOntologyTerm[e.cardinality()];
+            return true;
+        } );
+
+        // Second pass, fill in terms at their rank
+        for ( int i = 0; i < sorted.length; i++ ) {
+            GeneOntology go = sorted[i];
+            for ( GeneOntologyTerm t : go.getAllTerms() ) {
+                Entry e = index.get( t.getId() );
+                e.terms[e.rank( i )] = t;
+            }
+            for ( TIntIntIterator it = go.getAlternates().iterator(); it.hasNext(); ) {
+                it.advance();
+                GeneOntologyTerm primary = go.getTerm( it.value() );
+                if ( go.getTerm( it.key() ) == null && primary != null ) {
+                    Entry e = index.get( it.key() );
+                    e.terms[e.rank( i )] = primary;
+                }
+            }
+        }
+    }
+
+    private Entry entry( int id, int words ) {
+        Entry e = index.get( id );
+        if ( e == null ) {
+            e = new Entry( words );
+            index.put( id, e );
+        }
+        return e;
+    }
+
+    /**
+     * @param  goId GO id (ex. 'GO:0000001'), primary or alternate
+     * @return      true if any edition resolves this id to a term
+     */
+    public boolean contains( String goId ) {
+        int id = parse( goId );
+        return id != -1 && index.containsKey( id );
+    }
+
+    /**
+     * @param  goId GO id, primary or alternate
+     * @return      unmodifiable view of every GO edition to its term for this id (null where it does not exist) or
+     *              null if no edition has it
+     */
+    public Map<GOEdition, GeneOntologyTerm> getTerms( String goId ) {
+        int id = parse( goId );
+        Entry e = id == -1 ? null : index.get( id );
+        if ( e == null ) {
+            return null;
+        }
+        return new TermsView( e );
+    }
+
+    /**
+     * @return number of indexed ids
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Same leniency as {@link GeneOntology#getTerm(String)}, the id is the last 7 characters.
+     *
+     * @return numeric id or -1 if malformed
+     */
+    private static int parse( String goId ) {
+        if ( goId == null ) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt( goId.substring( goId.length() - 7 ) );
+        } catch ( IndexOutOfBoundsException | NumberFormatException e ) {
+            return -1;
+        }
+    }
+
+    /**
+     * Terms of a single id by edition, read straight from its entry.
+     */
+    private final class TermsView extends AbstractMap<GOEdition, GeneOntologyTerm> {
+        private final GeneOntologyIndex.Entry entry;
+
+        TermsView( GeneOntologyIndex.Entry entry ) {
+            this.entry = entry;
+        }
+
+        @Override
+        public int size() {
+            return editions.length;
+        }
+
+        @Override
+        public boolean containsKey( Object key ) {
+            return positions.containsKey( key );
+        }
+
+        @Override
+        public GeneOntologyTerm get( Object key ) {
+            Integer position = positions.get( key );
+            if ( position == null || !entry.isSet( position ) ) {
+                return null;
+            }
+            return entry.terms[entry.rank( position )];
+        }
+
+        @Override
+        public Set<Map.Entry<GOEdition, GeneOntologyTerm>> entrySet() {
+            return new AbstractSet<Map.Entry<GOEdition, GeneOntologyTerm>>() {
+                @Override
+                public int size() {
+                    return editions.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<GOEdition, GeneOntologyTerm>> iterator() {
+                    return new Iterator<Map.Entry<GOEdition, GeneOntologyTerm>>() {
+                        private int position = 0;
+                        private int rank = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return position < editions.length;
+                        }
+
+                        @Override
+                        public Map.Entry<GOEdition, GeneOntologyTerm> next() {
+                            if ( !hasNext() ) {
+                                throw new NoSuchElementException();
+                            }
+                            GeneOntologyTerm term = entry.isSet( position ) ? entry.terms[rank++] : null;
+                            return new SimpleImmutableEntry<>( editions[position++], term );
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private static final class Entry {
+        private final long[] presence;
+        private GeneOntologyTerm[] terms;
+
+        Entry( int words ) {
+            presence = new long[words];
+        }
+
+        void mark( int position ) {
+            presence[position >>> 6] |= 1L << position;
+        }
+
+        boolean isSet( int position ) {
+            return ( presence[position >>> 6] & ( 1L << position ) ) != 0;
+        }
+
+        /**
+         * @return number of set positions before this one
+         */
+        int rank( int position ) {
+            int word = position >>> 6;
+            int rank = 0;
+            for ( int i = 0; i < word; i++ ) {
+                rank += Long.bitCount( presence[i] );
+            }
+            return rank + Long.bitCount( presence[word] & ( ( 1L << position ) - 1 ) );
+        }
+
+        int cardinality() {
+            int c = 0;
+            for ( long w : presence ) {
+                c += Long.bitCount( w );
+            }
+            return c;
+        }
+    }
+}
@@ -21,6 +21,7 @@ package ubc.pavlab.gotrack.model.go;
 
 import com.google.common.collect.ImmutableSet;
 import gnu.trove.set.hash.THashSet;
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
@@ -29,11 +30,8 @@ import ubc.pavlab.gotrack.model.Aspect;
 import ubc.pavlab.gotrack.model.FullAnnotation;
 import ubc.pavlab.gotrack.model.dto.GOTermDTO;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.function.ToIntFunction;
 import java.util.stream.Stream;
 
 /**
@@ -57,8 +55,12 @@ public class GeneOntologyTerm implements Comparable<GeneOntologyTerm> {
     private final Aspect aspect;
     private final boolean obsolete;
     private Set<Relation<GeneOntologyTerm>> parents = new THashSet<>();
-    private Set<GeneOntologyTerm> ancestors = null;
+    // Transitive closure of parents (including part_of), immutable once computed so it can be shared between threads
+    @Getter(AccessLevel.NONE)
+    private volatile GeneOntologyTerm[] ancestors = null;
     private Set<Relation<GeneOntologyTerm>> children = new THashSet<>();
+    // Dense position of this term in its ontology, assigned when the ontology is frozen
+    private int ordinal = -1;
 
     /**
      * Make child/parent sets immutable
@@ -68,6 +70,10 @@ public class GeneOntologyTerm implements Comparable<GeneOntologyTerm> {
         this.children = ImmutableSet.copyOf( this.children );
     }
 
+    void setOrdinal( int ordinal ) {
+        this.ordinal = ordinal;
+    }
+
     /**
      * Create Term from dto
      */
@@ -135,26 +141,37 @@ public class GeneOntologyTerm implements Comparable<GeneOntologyTerm> {
     }
 
     Stream<GeneOntologyTerm> streamAncestors( boolean includePartOf ) {
-        if ( includePartOf && ancestors != null ) {
-            return ancestors.stream();
-        }
-
-        Stream<GeneOntologyTerm> ancestorStream = streamParents( includePartOf ).flatMap( r -> r.getRelation().propagate( includePartOf ) );
-
         if ( includePartOf ) {
             // Only cache complete ancestors, incomplete will always be computed.
-            ancestors = ancestorStream.collect( Collectors.toCollection( THashSet :: new ) );
-            return ancestors.stream();
-        } else {
-            return ancestorStream;
+            return Arrays.stream( ancestors() );
         }
 
+        return streamParents( false ).flatMap( r -> r.getRelation().propagate( false ) );
     }
 
     Stream<GeneOntologyTerm> propagate( boolean includePartOf ) {
         return Stream.concat( Stream.of( this ), streamAncestors( includePartOf ) );
     }
 
+    /**
+     * @return distinct ancestors of this term (including part_of), computed from those of its parents on first use
+     */
+    GeneOntologyTerm[] ancestors() {
+        GeneOntologyTerm[] result = ancestors;
+        if ( result == null ) {
+            Set<GeneOntologyTerm> closure = new THashSet<>();
+            for ( Relation<GeneOntologyTerm> r : parents ) {
+                GeneOntologyTerm parent = r.getRelation();
+                closure.add( parent );
+                Collections.addAll( closure, parent.ancestors() );
+            }
+            result = closure.toArray( new GeneOntologyTerm[closure.size()] );
+            // Concurrent first uses compute equal arrays, either may be kept
+            ancestors = result;
+        }
+        return result;
+    }
+
     Stream<Relation<GeneOntologyTerm>> streamChildren( boolean includePartOf ) {
         if ( includePartOf ) {
             // Short Circuit
@@ -183,6 +200,51 @@ public class GeneOntologyTerm implements Comparable<GeneOntologyTerm> {
         return propagate( terms, true );
     }
 
+    /**
+     * Terms are equal by id, so the similarity kernels of {@link ubc.pavlab.gotrack.utilities.Jaccard} and
+     * {@link ubc.pavlab.gotrack.utilities.Tversky} on these arrays match those on the sets, across GO editions.
+     *
+     * @return distinct numeric ids of the terms in ascending order
+     */
+    public static int[] toSortedIds( Collection<GeneOntologyTerm> terms ) {
+        return toSortedIds( terms, GeneOntologyTerm::getId );
+    }
+
+    /**
+     * @param  idOf numeric id to use for each term
+     * @return      distinct ids of the terms in ascending order
+     */
+    static int[] toSortedIds( Collection<GeneOntologyTerm> terms, ToIntFunction<GeneOntologyTerm> idOf ) {
+        int[] ids = new int[terms.size()];
+        int n = 0;
+        for ( GeneOntologyTerm t : terms ) {
+            ids[n++] = idOf.applyAsInt( t );
+        }
+        Arrays.sort( ids );
+        int size = 0;
+        for ( int i = 0; i < n; i++ ) {
+            if ( size == 0 || ids[size - 1] != ids[i] ) {
+                ids[size++] = ids[i];
+            }
+        }
+        return size == ids.length ? ids : Arrays.copyOf( ids, size );
+    }
+
+    /**
+     * Equivalent to collecting {@link #propagate(Stream)} to a set, without creating a stream per term.
+     *
+     * @return terms and all of their ancestors
+     */
+    public static Set<GeneOntologyTerm> propagateToSet( Collection<GeneOntologyTerm> terms ) {
+        Set<GeneOntologyTerm> propagated = new HashSet<>();
+        for ( GeneOntologyTerm t : terms ) {
+            if ( propagated.add( t ) ) {
+                Collections.addAll( propagated, t.ancestors() );
+            }
+        }
+        return propagated;
+    }
+
     static Stream<GeneOntologyTerm> propagate( Stream<GeneOntologyTerm> terms, boolean includePartOf ) {
         return terms.flatMap( t -> t.propagate( includePartOf ) );
     }
@@ -198,13 +260,40 @@ public class GeneOntologyTerm implements Comparable<GeneOntologyTerm> {
      * @return Map of all propagated terms to their propagated annotations
      */
     static Map<GeneOntologyTerm, Set<FullAnnotation>> propagateAnnotations( Stream<Map.Entry<GeneOntologyTerm, Set<Annotation>>> annotations, boolean includePartOf ) {
+        if ( includePartOf ) {
+            Map<GeneOntologyTerm, Set<Annotation>> direct = new HashMap<>();
+            annotations.forEach( entry -> direct.merge( entry.getKey(), entry.getValue(), ( a, b ) -> {
+                Set<Annotation> merged = new HashSet<>( a );
+                merged.addAll( b );
+                return merged;
+            } ) );
+            return AnnotationPropagator.propagate( direct );
+        }
+        return propagateAnnotationsPerTerm( annotations, false );
+    }
+
+    /**
+     * Propagates terms and their annotations to parents terms by walking the ancestors of each annotated term
+     * separately
+     *
+     * @return Map of all propagated terms to their propagated annotations
+     */
+    static Map<GeneOntologyTerm, Set<FullAnnotation>> propagateAnnotationsPerTerm( Stream<Map.Entry<GeneOntologyTerm, Set<Annotation>>> annotations, boolean includePartOf ) {
         Map<GeneOntologyTerm, Set<FullAnnotation>> propagatedAnnotations = new HashMap<>();
 
-        annotations.forEach( entry -> entry.getKey().propagate(includePartOf)
-                .forEach( p -> propagatedAnnotations.computeIfAbsent( p, k -> new HashSet<>() )
-                        .addAll( entry.getValue().stream()
-                                .map( a -> new FullAnnotation( entry.getKey(), a, p.equals( entry.getKey() ) ) )
-                                .collect( Collectors.toList()) ) ) );
+        annotations.forEach( entry -> {
+            GeneOntologyTerm term = entry.getKey();
+            // Every ancestor receives the same indirect annotations, create them once per term
+            List<FullAnnotation> direct = new ArrayList<>( entry.getValue().size() );
+            List<FullAnnotation> indirect = new ArrayList<>( entry.getValue().size() );
+            for ( Annotation a : entry.getValue() ) {
+                direct.add( new FullAnnotation( term, a, true ) );
+                indirect.add( new FullAnnotation( term, a, false ) );
+            }
+            term.propagate( includePartOf ).forEach( p -> propagatedAnnotations
+                    .computeIfAbsent( p, k -> new HashSet<>() )
+                    .addAll( p.equals( term ) ? direct : indirect ) );
+        } );
 
         return propagatedAnnotations;
     }
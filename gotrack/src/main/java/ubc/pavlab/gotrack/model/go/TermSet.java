@@ -0,0 +1,209 @@
+package ubc.pavlab.gotrack.model.go;
+
+import ubc.pavlab.gotrack.utilities.Jaccard;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable set of terms from a single ontology stored as term ordinals rather than object references.
+ * <p>
+ * Small sets keep a sorted array of ordinals, sets covering more than 1/32 of the ontology keep a bitmap over all
+ * ordinals instead, whichever is smaller. Either way a term costs at most 4 bytes against the ~40 bytes of a
+ * {@link HashSet} entry. Equality follows {@link GeneOntologyTerm#equals(Object)}, so these compare equal to any other
+ * set of the same terms.
+ */
+public final class TermSet extends AbstractSet<GeneOntologyTerm> {
+
+    private final GeneOntology ontology;
+    private final int size;
+
+    // Exactly one of these is set
+    private final int[] ordinals;
+    private final long[] words;
+
+    private TermSet( GeneOntology ontology, int size, int[] ordinals, long[] words ) {
+        this.ontology = ontology;
+        this.size = size;
+        this.ordinals = ordinals;
+        this.words = words;
+    }
+
+    /**
+     * @param  ontology                 frozen ontology the terms belong to
+     * @param  terms                    terms to hold
+     * @return                          compact set of the given terms
+     * @throws IllegalArgumentException if a term is not part of the ontology
+     */
+    public static TermSet of( GeneOntology ontology, Collection<GeneOntologyTerm> terms ) {
+        int[] ords = new int[terms.size()];
+        int n = 0;
+        for ( GeneOntologyTerm t : terms ) {
+            int ordinal = ontology.getOrdinal( t );
+            if ( ordinal == -1 ) {
+                throw new IllegalArgumentException( t.getGoId() + " is not part of GO edition " + ontology.getId() );
+            }
+            ords[n++] = ordinal;
+        }
+        Arrays.sort( ords );
+
+        // Drop duplicates, possible if the collection was not a set
+        int size = 0;
+        for ( int i = 0; i < n; i++ ) {
+            if ( size == 0 || ords[size - 1] != ords[i] ) {
+                ords[size++] = ords[i];
+            }
+        }
+
+        if ( size > ontology.size() / 32 ) {
+            long[] words = new long[( ontology.size() + 63 ) / 64];
+            for ( int i = 0; i < size; i++ ) {
+                words[ords[i] >>> 6] |= 1L << ords[i];
+            }
+            return new TermSet( ontology, size, null, words );
+        }
+        return new TermSet( ontology, size, size == ords.length ? ords : Arrays.copyOf( ords, size ), null );
+    }
+
+    public GeneOntology getOntology() {
+        return ontology;
+    }
+
+    /**
+     * Visit the ordinal of every term in ascending order.
+     */
+    public void forEachOrdinal( IntConsumer action ) {
+        if ( ordinals != null ) {
+            for ( int o : ordinals ) {
+                action.accept( o );
+            }
+        } else {
+            for ( int w = 0; w < words.length; w++ ) {
+                long word = words[w];
+                while ( word != 0 ) {
+                    action.accept( ( w << 6 ) + Long.numberOfTrailingZeros( word ) );
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return ordinals of the terms in ascending order
+     */
+    public int[] toOrdinals() {
+        if ( ordinals != null ) {
+            return ordinals.clone();
+        }
+        int[] res = new int[size];
+        int[] i = { 0 };
+        forEachOrdinal( o -> res[i[0]++] = o );
+        return res;
+    }
+
+    /**
+     * @return bitmap over all ordinals of the ontology, word i holding ordinals 64i to 64i+63
+     */
+    public long[] toWords() {
+        if ( words != null ) {
+            return words.clone();
+        }
+        long[] res = new long[( ontology.size() + 63 ) / 64];
+        for ( int o : ordinals ) {
+            res[o >>> 6] |= 1L << o;
+        }
+        return res;
+    }
+
+    /**
+     * @return true if both sets hold ordinals of the same ontology, as required by {@link #intersectSize(TermSet)}
+     */
+    public boolean isComparable( TermSet other ) {
+        return ontology == other.ontology;
+    }
+
+    /**
+     * Number of terms in both sets, computed on ordinals: a word-wise popcount for two bitmaps, a merge for two sorted
+     * arrays, otherwise a lookup of each ordinal of the sparse set.
+     *
+     * @throws IllegalArgumentException if the sets belong to different ontologies
+     */
+    public int intersectSize( TermSet other ) {
+        if ( !isComparable( other ) ) {
+            throw new IllegalArgumentException( "Term sets of GO editions " + ontology.getId() + " and "
+                    + other.ontology.getId() + " cannot be compared by ordinal" );
+        }
+        if ( words != null && other.words != null ) {
+            return Jaccard.intersectSize( words, other.words );
+        }
+        if ( ordinals != null && other.ordinals != null ) {
+            return Jaccard.intersectSize( ordinals, other.ordinals );
+        }
+        int[] sparse = ordinals != null ? ordinals : other.ordinals;
+        long[] dense = words != null ? words : other.words;
+        int count = 0;
+        for ( int o : sparse ) {
+            if ( ( dense[o >>> 6] & ( 1L << o ) ) != 0 ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean containsOrdinal( int ordinal ) {
+        if ( ordinals != null ) {
+            return Arrays.binarySearch( ordinals, ordinal ) >= 0;
+        }
+        return ( words[ordinal >>> 6] & ( 1L << ordinal ) ) != 0;
+    }
+
+    @Override
+    public boolean contains( Object o ) {
+        if ( !( o instanceof GeneOntologyTerm ) ) {
+            return false;
+        }
+        int ordinal = ontology.getOrdinal( (GeneOntologyTerm) o );
+        return ordinal != -1 && containsOrdinal( ordinal );
+    }
+
+    @Override
+    public Iterator<GeneOntologyTerm> iterator() {
+        return new Iterator<GeneOntologyTerm>() {
+            private final int[] ords = ordinals != null ? ordinals : toOrdinals();
+            private int idx = 0;
+
+            @Override
+            public boolean hasNext() {
+                return idx < ords.length;
+            }
+
+            @Override
+            public GeneOntologyTerm next() {
+                if ( !hasNext() ) {
+                    throw new NoSuchElementException();
+                }
+                return ontology.getTermByOrdinal( ords[idx++] );
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if held as a bitmap over all ordinals of the ontology
+     */
+    public boolean isDense() {
+        return words != null;
+    }
+
+    /**
+     * @return approximate heap footprint in bytes
+     */
+    public long sizeInBytes() {
+        // Object header and fields plus array header and contents
+        return 32 + 16 + ( ordinals != null ? 4L * ordinals.length : 8L * words.length );
+    }
+}
@@ -0,0 +1,52 @@
+package ubc.pavlab.gotrack.model.rest.marshal;
+
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import ubc.pavlab.gotrack.analysis.MultipleTestCorrection;
+import ubc.pavlab.gotrack.model.Aspect;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Many named hit lists to be enriched in a single edition with the same settings.
+ */
+@XmlRootElement
+@NoArgsConstructor
+@ToString(exclude = "sets")
+public class EnrichmentBatchRequest {
+    @XmlElement
+    public int speciesId;
+    // Month and year of the edition, most recent edition if not given
+    @XmlElement
+    public Integer month;
+    @XmlElement
+    public Integer year;
+    @XmlElement
+    public List<GeneSet> sets;
+    @XmlElement
+    public Set<Aspect> aspects;
+    @XmlElement
+    public double threshold = 0.05;
+    @XmlElement
+    public int min = 5;
+    @XmlElement
+    public int max = 200;
+    @XmlElement
+    public MultipleTestCorrection multipleTestCorrection = MultipleTestCorrection.BH;
+
+    @XmlRootElement
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @ToString
+    public static class GeneSet {
+        @XmlElement
+        public String name;
+        @XmlElement
+        public List<String> genes;
+    }
+
+}
@@ -0,0 +1,82 @@
+package ubc.pavlab.gotrack.rest;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import ubc.pavlab.gotrack.beans.DAOFactoryBean;
+import ubc.pavlab.gotrack.beans.SessionManager;
+import ubc.pavlab.gotrack.dao.ConnectionPool;
+import ubc.pavlab.gotrack.dao.DAOFactory;
+import ubc.pavlab.gotrack.dao.QueryMetrics;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Operational endpoints, available to sessions authenticated through the terminal.
+ */
+@Path("/admin")
+@Singleton
+public class AdminEP {
+
+    private static final Logger log = Logger.getLogger( AdminEP.class );
+
+    @Inject
+    private DAOFactoryBean daoFactoryBean;
+
+    @Inject
+    private SessionManager sessionManager;
+
+    public AdminEP() {
+        log.info( "AdminEP REST created" );
+    }
+
+    /**
+     * @return latency histogram, row count and fetched bytes of every SQL statement since startup, along with
+     * connection acquire times and the state of the connection pool
+     */
+    @GET
+    @Path("/dao")
+    public Response dao() {
+        if ( !sessionManager.getAuthenticated() ) {
+            JSONObject response = new JSONObject();
+            response.put( "httpstatus", 403 );
+            response.put( "success", false );
+            response.put( "message", "Not authenticated" );
+            return Response.status( 403 ).entity( response.toString() ).type( MediaType.APPLICATION_JSON ).build();
+        }
+
+        DAOFactory daoFactory = daoFactoryBean.getGotrack();
+        QueryMetrics metrics = daoFactory.getQueryMetrics();
+
+        JSONObject response = new JSONObject();
+        response.put( "connectionAcquire", new JSONObject( metrics.getConnectionAcquireStatistics() ) );
+        JSONArray queries = new JSONArray();
+        for ( QueryMetrics.Statistics statistics : metrics.getQueryStatistics() ) {
+            queries.put( new JSONObject( statistics ) );
+        }
+        response.put( "queries", queries );
+
+        ConnectionPool pool = daoFactory.getConnectionPool();
+        if ( pool != null ) {
+            JSONObject p = new JSONObject();
+            p.put( "active", pool.getActive() );
+            p.put( "idle", pool.getIdle() );
+            p.put( "total", pool.getTotal() );
+            p.put( "borrowCount", pool.getBorrowCount() );
+            p.put( "timeoutCount", pool.getTimeoutCount() );
+            p.put( "createdCount", pool.getCreatedCount() );
+            p.put( "invalidCount", pool.getInvalidCount() );
+            p.put( "evictedCount", pool.getEvictedCount() );
+            p.put( "leakCount", pool.getLeakCount() );
+            p.put( "meanWaitMillis", pool.getMeanWaitMillis() );
+            p.put( "maxWaitMillis", pool.getMaxWaitMillis() );
+            response.put( "pool", p );
+        }
+        return Response.ok( response.toString(), MediaType.APPLICATION_JSON ).build();
+    }
+}
@@ -27,26 +27,33 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import ubc.pavlab.gotrack.analysis.*;
 import ubc.pavlab.gotrack.beans.Cache;
+import ubc.pavlab.gotrack.beans.SettingsCache;
+import ubc.pavlab.gotrack.beans.service.AnalysisJobService;
 import ubc.pavlab.gotrack.beans.service.EnrichmentService;
 import ubc.pavlab.gotrack.beans.service.MultifunctionalityService;
+import ubc.pavlab.gotrack.exception.JobRejectedException;
 import ubc.pavlab.gotrack.model.*;
 import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+import ubc.pavlab.gotrack.model.rest.marshal.EnrichmentBatchRequest;
 import ubc.pavlab.gotrack.model.rest.marshal.EnrichmentHistoricalRequest;
 import ubc.pavlab.gotrack.model.rest.marshal.EnrichmentRequest;
 import ubc.pavlab.gotrack.model.search.GeneMatch;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import javax.ws.rs.Consumes;
-import javax.ws.rs.POST;
-import javax.ws.rs.Path;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * TODO Document Me
@@ -60,6 +67,9 @@ public class AnalysisEP {
 
     private static final Logger log = Logger.getLogger( AnalysisEP.class );
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String NDJSON_SEPARATOR = "\n";
+
     @Inject
     private Cache cache;
 
@@ -69,6 +79,12 @@ public class AnalysisEP {
     @Inject
     private MultifunctionalityService multifunctionalityService;
 
+    @Inject
+    private AnalysisJobService analysisJobService;
+
+    @Inject
+    private SettingsCache settingsCache;
+
     @Context
     UriInfo uri;
 
@@ -181,6 +197,25 @@ public class AnalysisEP {
     @Path("/enrichment/historical")
     public Response postEnrichmentHistorical( final EnrichmentHistoricalRequest req ) {
         log.info( req );
+        return enrichmentHistorical( req, new StatusPoller() );
+    }
+
+    /**
+     * Same as {@link #postEnrichmentHistorical(EnrichmentHistoricalRequest)} run as a background job.
+     *
+     * @param req
+     * @return Id of the job, poll /analysis/jobs/{id} for its status and result
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/jobs/enrichment/historical")
+    public Response postEnrichmentHistoricalJob( final EnrichmentHistoricalRequest req,
+                                                 @Context HttpServletRequest request ) {
+        log.info( req );
+        return submitJob( request, statusPoller -> enrichmentHistorical( req, statusPoller ) );
+    }
+
+    private Response enrichmentHistorical( final EnrichmentHistoricalRequest req, StatusPoller statusPoller ) {
         JSONObject response = new JSONObject();
         try {
             // Get Species
@@ -212,6 +247,8 @@ public class AnalysisEP {
             int max = 200;
             Set<Aspect> aspectsFilter = null;
 
+            statusPoller.newStatus( "Matching genes...", 0 );
+
             Set<Gene> hitList = Sets.newHashSet();
             Set<GeneMatch> exact = Sets.newHashSet();
             Set<GeneMatch> synonym = Sets.newHashSet();
@@ -259,9 +296,14 @@ public class AnalysisEP {
                 return Response.status( 400 ).entity( fail( 400, "0 matching genes." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
             }
 
+            statusPoller.completeStatus();
+            statusPoller.newStatus( "Running Overrepresentation Analysis...", 20 );
+
             Enrichment<GeneOntologyTerm, Gene> enrichment = enrichmentService.singleEnrichment( closestEdition, hitList,
                     species, mulTestCor, threshold, min, max, aspectsFilter );
 
+            statusPoller.completeStatus();
+
             JSONObject enrichmentJSON = enrichmentToJSON( closestEdition, enrichment );
 
             response.put( "enrichment_results", enrichmentJSON );
@@ -382,6 +424,175 @@ public class AnalysisEP {
 
     }
 
+    /**
+     * Enrichment of many named hit lists in one edition with the same settings. The response is newline delimited
+     * JSON: a first line holding the edition, species and settings followed by one line per hit list, written as soon
+     * as its results are ready. Hit lists may complete out of order, each line carries the name of its hit list.
+     *
+     * @param req
+     * @return Stream of enrichment results
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/enrichment/batch")
+    public Response postEnrichmentBatch( final EnrichmentBatchRequest req ) {
+        log.info( req );
+        try {
+            // Get Species
+            Species species = cache.getSpecies( req.speciesId );
+
+            if ( species == null ) {
+                return Response.status( 400 ).entity( fail( 400, "Unknown Species ID" ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+            }
+
+            if ( req.sets == null || req.sets.isEmpty() ) {
+                return Response.status( 400 ).entity( fail( 400, "No gene sets." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+            }
+
+            Edition ed;
+            if ( req.month == null && req.year == null ) {
+                ed = cache.getCurrentEditions( species );
+            } else {
+                Calendar c = Calendar.getInstance();
+
+                // Get date
+                if ( req.month == null || req.month < 1 || req.month > 12 ) {
+                    return Response.status( 400 ).entity( fail( 400, "Invalid month." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+                }
+                if ( req.year == null || req.year < 1990 || req.year > c.get( Calendar.YEAR ) ) {
+                    return Response.status( 400 ).entity( fail( 400, "Invalid year." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+                }
+
+                c.set( req.year, req.month - 1, 1, 0, 0 );
+                ed = closestEdition( c.getTime(), species );
+            }
+
+            // Each distinct gene input is matched once no matter how many hit lists it appears in
+            Map<String, GeneMatch> matches = Maps.newHashMap();
+            Map<String, Set<Gene>> hitLists = new LinkedHashMap<>();
+            Map<String, JSONObject> inputGenes = Maps.newHashMap();
+
+            for ( EnrichmentBatchRequest.GeneSet geneSet : req.sets ) {
+                if ( geneSet.name == null || geneSet.genes == null ) {
+                    return Response.status( 400 ).entity( fail( 400, "Gene sets require a name and genes." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+                }
+                if ( hitLists.containsKey( geneSet.name ) ) {
+                    return Response.status( 400 ).entity( fail( 400, "Duplicate gene set name: " + geneSet.name ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+                }
+
+                Set<Gene> hitList = Sets.newHashSet();
+                Set<GeneMatch> exact = Sets.newHashSet();
+                Set<GeneMatch> synonym = Sets.newHashSet();
+                Set<GeneMatch> unknown = Sets.newHashSet();
+
+                for ( String geneInput : geneSet.genes ) {
+                    GeneMatch match = matches.computeIfAbsent( geneInput, g -> cache.guessGeneBySymbol( g, species ) );
+                    if ( match.getType().equals( GeneMatch.Type.SINGLE ) ) {
+                        if ( match.getLevel().equals( GeneMatch.Level.PRIMARY ) ) {
+                            exact.add( match );
+                            hitList.add( match.getSelectedGene() );
+                        } else if ( match.getLevel().equals( GeneMatch.Level.SYNONYM ) ) {
+                            synonym.add( match );
+                            hitList.add( match.getSelectedGene() );
+                        } else {
+                            unknown.add( match ); // This shouldn't happen, we restrict result in deserialize
+                        }
+                    } else {
+                        unknown.add( match );
+                    }
+                }
+
+                JSONObject genesJSON = new JSONObject();
+                genesJSON.put( "exact", exact );
+                genesJSON.put( "exact_synonym", synonym );
+                genesJSON.put( "unknown", unknown );
+
+                hitLists.put( geneSet.name, hitList );
+                inputGenes.put( geneSet.name, genesJSON );
+            }
+
+            JSONObject header = new JSONObject();
+            header.put( "edition", new JSONObject( ed ) );
+            header.put( "species", new JSONObject( species ) );
+
+            // Settings
+
+            header.put( "mt_corr_method", new JSONObject( req.multipleTestCorrection ).put( "key", req.multipleTestCorrection ) );
+            header.put( "threshold", req.threshold );
+            header.put( "min_go_geneset", req.min );
+            header.put( "max_go_geneset", req.max );
+            header.put( "aspect_filter", req.aspects );
+            header.put( "gene_sets", hitLists.size() );
+
+            final Edition edition = ed;
+            StreamingOutput stream = os -> {
+                try (Writer writer = new BufferedWriter( new OutputStreamWriter( os, StandardCharsets.UTF_8 ) )) {
+                    writer.write( header.toString() );
+                    writer.write( NDJSON_SEPARATOR );
+                    writer.flush();
+
+                    writeEnrichmentBatch( writer, edition, req, hitLists, inputGenes );
+                }
+            };
+
+            return Response.ok( stream, NDJSON ).build();
+        } catch (JSONException e1) {
+            log.error( "Malformed JSON", e1 );
+            return Response.status( 400 ).entity( fail( 400, "Malformed JSON" ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+        } catch (Exception e1) {
+            log.error( "Something went wrong!", e1 );
+            return Response.status( 500 ).entity( fail( 500, e1.getMessage() ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+        }
+
+    }
+
+    /**
+     * Write one line per hit list as its enrichment completes. Once a write fails, usually because the client went
+     * away, the hit lists not yet started are skipped and the failure is rethrown.
+     */
+    private void writeEnrichmentBatch( Writer writer, Edition edition, EnrichmentBatchRequest req,
+                                       Map<String, Set<Gene>> hitLists, Map<String, JSONObject> inputGenes )
+            throws IOException {
+        try {
+            enrichmentService.batchEnrichment( edition, hitLists, req.multipleTestCorrection, req.threshold,
+                    req.min, req.max, req.aspects, ( name, enrichment ) -> {
+                        JSONObject line = new JSONObject();
+                        line.put( "name", name );
+                        line.put( "input_genes", inputGenes.get( name ) );
+                        if ( enrichment == null ) {
+                            int size = hitLists.get( name ).size();
+                            line.put( "success", false );
+                            if ( size == 0 ) {
+                                line.put( "message", "0 matching genes." );
+                            } else if ( size > EnrichmentService.MAX_GENESET_SIZE ) {
+                                line.put( "message", "Gene set too large; maximum gene set size is "
+                                        + EnrichmentService.MAX_GENESET_SIZE + ", got " + size + "." );
+                            } else {
+                                line.put( "message", "No enrichment data for gene set." );
+                            }
+                        } else {
+                            line.put( "success", true );
+                            line.put( "enrichment_results", enrichmentToJSON( edition, enrichment ) );
+                        }
+                        String json = line.toString();
+
+                        // Hit lists may complete concurrently
+                        synchronized ( writer ) {
+                            try {
+                                writer.write( json );
+                                writer.write( NDJSON_SEPARATOR );
+                                writer.flush();
+                            } catch ( IOException e ) {
+                                throw new UncheckedIOException( e );
+                            }
+                        }
+                    } );
+        } catch ( UncheckedIOException e ) {
+            log.info( "Enrichment batch aborted: " + e.getCause().getMessage() );
+            throw e.getCause();
+        }
+    }
+
     /**
      * @param req
      * @return Enrichment results from most recent edition
@@ -391,6 +602,140 @@ public class AnalysisEP {
     @Path("/similarity")
     public Response postSimilarity( final EnrichmentHistoricalRequest req ) {
 //        log.info( req );
+        return similarity( req, new StatusPoller() );
+    }
+
+    /**
+     * Same as {@link #postSimilarity(EnrichmentHistoricalRequest)} run as a background job.
+     *
+     * @param req
+     * @return Id of the job, poll /analysis/jobs/{id} for its status and result
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/jobs/similarity")
+    public Response postSimilarityJob( final EnrichmentHistoricalRequest req, @Context HttpServletRequest request ) {
+        return submitJob( request, statusPoller -> similarity( req, statusPoller ) );
+    }
+
+    /**
+     * @param id
+     * @return Status of a background job
+     */
+    @GET
+    @Path("/jobs/{id}")
+    public Response getJob( @PathParam("id") String id ) {
+        AnalysisJob<?> job = analysisJobService.getJob( id );
+        if ( job == null ) {
+            return Response.status( 404 ).entity( fail( 404, "Unknown or expired job." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+        }
+        JSONObject response = jobToJSON( job );
+        response.put( "httpstatus", 200 );
+        response.put( "success", true );
+        return Response.ok( response.toString(), MediaType.APPLICATION_JSON ).build();
+    }
+
+    /**
+     * @param id
+     * @return Response of a finished background job, 202 with its status if it has not finished
+     */
+    @GET
+    @Path("/jobs/{id}/result")
+    public Response getJobResult( @PathParam("id") String id ) {
+        AnalysisJob<?> job = analysisJobService.getJob( id );
+        if ( job == null ) {
+            return Response.status( 404 ).entity( fail( 404, "Unknown or expired job." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+        }
+        switch ( job.getState() ) {
+            case COMPLETE:
+                // Rebuilt as responses cannot be sent more than once
+                Response result = (Response) job.getResult();
+                return Response.status( result.getStatus() ).entity( result.getEntity() ).type( result.getMediaType() ).build();
+            case FAILED:
+                return Response.status( 500 ).entity( fail( 500, job.getError() ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+            case CANCELLED:
+                return Response.status( 410 ).entity( fail( 410, "Job was cancelled." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+            default:
+                JSONObject response = jobToJSON( job );
+                response.put( "httpstatus", 202 );
+                response.put( "success", true );
+                return Response.status( 202 ).entity( response.toString() ).type( MediaType.APPLICATION_JSON ).build();
+        }
+    }
+
+    /**
+     * @param id
+     * @return Status of the cancelled job
+     */
+    @DELETE
+    @Path("/jobs/{id}")
+    public Response cancelJob( @PathParam("id") String id, @Context HttpServletRequest request ) {
+        AnalysisJob<?> job = analysisJobService.getJob( id );
+        if ( job == null ) {
+            return Response.status( 404 ).entity( fail( 404, "Unknown or expired job." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+        }
+        String client = clientOf( request );
+        if ( !job.getClient().equals( client ) ) {
+            return Response.status( 403 ).entity( fail( 403, "Job was submitted by another client." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+        }
+        if ( !analysisJobService.cancel( id, client ) ) {
+            return Response.status( 409 ).entity( fail( 409, "Job has already finished." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+        }
+        JSONObject response = jobToJSON( job );
+        response.put( "httpstatus", 200 );
+        response.put( "success", true );
+        return Response.ok( response.toString(), MediaType.APPLICATION_JSON ).build();
+    }
+
+    private Response submitJob( HttpServletRequest request, Function<StatusPoller, Response> work ) {
+        try {
+            AnalysisJob<Response> job = analysisJobService.submit( clientOf( request ), work );
+            JSONObject response = jobToJSON( job );
+            response.put( "httpstatus", 202 );
+            response.put( "success", true );
+            return Response.status( 202 ).entity( response.toString() ).type( MediaType.APPLICATION_JSON )
+                    .location( uri.getBaseUriBuilder().path( AnalysisEP.class ).path( "jobs" ).path( job.getId() ).build() )
+                    .build();
+        } catch (JobRejectedException e1) {
+            return Response.status( 429 ).entity( fail( 429, e1.getMessage() ).toString() ).type( MediaType.APPLICATION_JSON ).build();
+        }
+    }
+
+    /**
+     * @return address of the client. The X-Forwarded-For header is only followed through trusted proxies, from the
+     * nearest hop back to the first address that is not one of them, as anyone else can set it to anything.
+     */
+    private String clientOf( HttpServletRequest request ) {
+        Set<String> trusted = settingsCache.trustedProxies();
+        String client = request.getRemoteAddr();
+        String forwarded = request.getHeader( "X-Forwarded-For" );
+        if ( forwarded == null || !trusted.contains( client ) ) {
+            return client;
+        }
+        String[] hops = forwarded.split( "," );
+        for ( int i = hops.length - 1; i >= 0 && trusted.contains( client ); i-- ) {
+            if ( !hops[i].trim().isEmpty() ) {
+                client = hops[i].trim();
+            }
+        }
+        return client;
+    }
+
+    private static JSONObject jobToJSON( AnalysisJob<?> job ) {
+        JSONObject jobJSON = new JSONObject();
+        jobJSON.put( "job_id", job.getId() );
+        jobJSON.put( "state", job.getState() );
+        jobJSON.put( "progress", job.getStatusPoller().getProgress() );
+        jobJSON.put( "current_status", job.getStatusPoller().getCurrentStatus() );
+        jobJSON.put( "statuses", job.getStatuses() );
+        jobJSON.put( "created", job.getCreated() );
+        if ( job.isFinished() ) {
+            jobJSON.put( "finished", job.getFinished() );
+        }
+        return jobJSON;
+    }
+
+    private Response similarity( final EnrichmentHistoricalRequest req, StatusPoller statusPoller ) {
         JSONObject response = new JSONObject();
         try {
             // Get Species
@@ -414,6 +759,8 @@ public class AnalysisEP {
 
             Edition closestEdition = closestEdition( inputDate, species );
 
+            statusPoller.newStatus( "Matching genes...", 0 );
+
             Set<Gene> hitList = Sets.newHashSet();
             Set<GeneMatch> exact = Sets.newHashSet();
             Set<GeneMatch> synonym = Sets.newHashSet();
@@ -461,12 +808,20 @@ public class AnalysisEP {
                 return Response.status( 400 ).entity( fail( 400, "0 matching genes." ).toString() ).type( MediaType.APPLICATION_JSON ).build();
             }
 
+            statusPoller.completeStatus();
+            statusPoller.newStatus( "Running Overrepresentation Analyses...", 20 );
+
             Edition referenceEdition = cache.getCurrentEditions( species );
 
             EnrichmentAnalysis analysis = enrichmentService.enrichment( Sets.newHashSet( closestEdition, referenceEdition )
                     , hitList, species, req.multipleTestCorrection, req.threshold, req.min, req.max, req.aspects );
 
+            statusPoller.completeStatus();
+            statusPoller.newStatus( "Running Similarity Analysis...", 70 );
+
             SimilarityAnalysis similarityAnalysis = new SimilarityAnalysis( analysis, req.topN, referenceEdition, req.similarityMethod, cache );
+
+            statusPoller.completeStatus();
             response.put( "similarity_compare_edition", new JSONObject( similarityAnalysis.getReferenceEdition() ) );
             response.put( "similarity_method", new JSONObject( similarityAnalysis.getSimilarityMethod() ).put( "key", similarityAnalysis.getSimilarityMethod() ) );
             response.put( "top_n", similarityAnalysis.getTopN() );
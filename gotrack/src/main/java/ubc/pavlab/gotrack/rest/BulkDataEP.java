@@ -27,11 +27,11 @@ import ubc.pavlab.gotrack.beans.Cache;
 import ubc.pavlab.gotrack.beans.service.AnnotationService;
 import ubc.pavlab.gotrack.beans.service.MultifunctionalityService;
 import ubc.pavlab.gotrack.model.Aggregate;
+import ubc.pavlab.gotrack.model.AnnotationCounts;
 import ubc.pavlab.gotrack.model.Edition;
 import ubc.pavlab.gotrack.model.Gene;
 import ubc.pavlab.gotrack.model.Species;
 import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
-import ubc.pavlab.gotrack.utilities.Tuples;
 import ubc.pavlab.gotrack.utilities.Zipper;
 
 import javax.inject.Inject;
@@ -45,7 +45,6 @@ import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -233,12 +232,15 @@ public class BulkDataEP {
                     log.info( edition.getEdition() );
 
                     byte[] cachedData = byGeneCache.computeIfAbsent( edition, k -> {
-                        Map<Gene, Set<GeneOntologyTerm>> data = annotationService.fetchEditionSimple( species, edition );
+                        // Annotations are grouped as they are streamed from the database
+                        Map<Gene, Set<GeneOntologyTerm>> data = new HashMap<>();
+                        annotationService.forEachEditionSimple( species, edition,
+                                ( gene, term ) -> data.computeIfAbsent( gene, g -> new HashSet<>() ).add( term ) );
                         StringBuilder editionData = new StringBuilder();
                         for ( Map.Entry<Gene, Set<GeneOntologyTerm>> entry : data.entrySet() ) {
                             Gene gene = entry.getKey();
 
-                            Set<GeneOntologyTerm> inferred = GeneOntologyTerm.propagate( entry.getValue().stream() ).collect( Collectors.toSet() );
+                            Set<GeneOntologyTerm> inferred = GeneOntologyTerm.propagateToSet( entry.getValue() );
 
                             editionData.append( edition.getEdition().toString() );
                             editionData.append( SEPARATOR );
@@ -333,11 +335,9 @@ public class BulkDataEP {
                 writer.write( LINE_SEPARATOR );
 
                 for ( Edition edition : editions ) {
-                    Map<GeneOntologyTerm, Integer> data = cache.getInferredAnnotationCount( edition );
+                    AnnotationCounts data = cache.getAnnotationCounts( edition );
                     if ( data != null ) {
-                        Map<GeneOntologyTerm, Integer> directData = cache.getDirectAnnotationCount( edition );
-
-                        for ( Map.Entry<GeneOntologyTerm, Integer> entry : data.entrySet() ) {
+                        for ( GeneOntologyTerm term : ( Iterable<GeneOntologyTerm> ) data.terms()::iterator ) {
                             writer.write( edition.getEdition().toString() );
                             writer.write( SEPARATOR );
                             writer.write( edition.getDate().toString() );
@@ -345,11 +345,11 @@ public class BulkDataEP {
                             writer.write( edition.getGoEdition().getDate().toString() );
                             writer.write( SEPARATOR );
 
-                            writer.write( entry.getKey().getGoId() );
+                            writer.write( term.getGoId() );
                             writer.write( SEPARATOR );
-                            writer.write( directData.get( entry.getKey() ).toString() );
+                            writer.write( String.valueOf( data.getDirect( term ) ) );
                             writer.write( SEPARATOR );
-                            writer.write( entry.getValue().toString() );
+                            writer.write( data.getInferred( term ).toString() );
                             writer.write( LINE_SEPARATOR );
                         }
                     }
@@ -459,19 +459,20 @@ public class BulkDataEP {
 
                 for ( Edition edition : editions ) {
 
-                    Stream<Tuples.Tuple2<Gene, GeneOntologyTerm>> dataStream = annotationService.streamEditionSimple( species, edition );
-                    Map<Gene, Set<GeneOntologyTerm>> data;
-                    if ( erminej ) {
-                        // Make sure symbols are unique and merge sets on conflict
-                        // Collect to Map<String, ...> revert to Map<Gene, ...> with merged term sets.
-                        data = dataStream.filter( t -> !t.getT1().getSymbol().equals( "" ) ).collect( Collectors.groupingBy( t -> t.getT1().getSymbol() ) ).entrySet().stream()
-                                .collect( Collectors.toMap(
-                                        e -> e.getValue().iterator().next().getT1(),
-                                        e -> e.getValue().stream().map( Tuples.Tuple2::getT2 )
-                                                .collect( Collectors.toSet() ) ) );
-                    } else {
-                        data = dataStream.collect( Collectors.groupingBy( Tuples.Tuple2::getT1, Collectors.mapping( Tuples.Tuple2::getT2, Collectors.toSet() ) ) );
-                    }
+                    // Annotations are grouped as they are streamed from the database
+                    Map<Gene, Set<GeneOntologyTerm>> data = new HashMap<>();
+                    Map<String, Gene> genesBySymbol = new HashMap<>();
+                    annotationService.forEachEditionSimple( species, edition, ( gene, term ) -> {
+                        Gene key = gene;
+                        if ( erminej ) {
+                            // Make sure symbols are unique and merge sets on conflict, keyed by the first gene seen
+                            if ( gene.getSymbol().equals( "" ) ) {
+                                return;
+                            }
+                            key = genesBySymbol.computeIfAbsent( gene.getSymbol(), symbol -> gene );
+                        }
+                        data.computeIfAbsent( key, g -> new HashSet<>() ).add( term );
+                    } );
 
 
                     if ( data != null ) {
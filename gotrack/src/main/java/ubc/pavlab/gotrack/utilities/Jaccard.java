@@ -19,6 +19,8 @@
 
 package ubc.pavlab.gotrack.utilities;
 
+import ubc.pavlab.gotrack.model.go.TermSet;
+
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -67,9 +69,39 @@ public class Jaccard {
         return 1 - calculate( a, b );
     }
 
+    /**
+     * @param a bitmap of the first set, words of unequal length are padded with zeros
+     * @param b bitmap of the second set
+     */
+    public static double similarity( long[] a, long[] b ) {
+        int intersect = 0;
+        int union = 0;
+        int common = Math.min( a.length, b.length );
+        for ( int i = 0; i < common; i++ ) {
+            intersect += Long.bitCount( a[i] & b[i] );
+            union += Long.bitCount( a[i] | b[i] );
+        }
+        union += cardinality( a, common ) + cardinality( b, common );
+        return union == 0 ? 1.0d : ( double ) intersect / union;
+    }
+
+    /**
+     * @param a distinct values of the first set in ascending order
+     * @param b distinct values of the second set in ascending order
+     */
+    public static double similarity( int[] a, int[] b ) {
+        if ( a.length == 0 && b.length == 0 ) return 1.0d;
+        int intersect = intersectSize( a, b );
+        return ( double ) intersect / ( a.length + b.length - intersect );
+    }
+
     // Calculation
 
     private static <T> Double calculate( Set<T> a, Set<T> b ) {
+        if ( a instanceof TermSet && b instanceof TermSet && ( ( TermSet ) a ).isComparable( ( TermSet ) b ) ) {
+            int intersect = ( ( TermSet ) a ).intersectSize( ( TermSet ) b );
+            return ( ( double ) intersect ) / ( a.size() + b.size() - intersect );
+        }
 
         return ( ( double ) intersectSize( a, b ) ) / unionSize( a, b );
     }
@@ -117,4 +149,63 @@ public class Jaccard {
         return count;
     }
 
+    /**
+     * @return number of bits set in both bitmaps, in a single pass over their words
+     */
+    public static int intersectSize( long[] a, long[] b ) {
+        int count = 0;
+        for ( int i = 0, n = Math.min( a.length, b.length ); i < n; i++ ) {
+            count += Long.bitCount( a[i] & b[i] );
+        }
+        return count;
+    }
+
+    /**
+     * @return number of bits set in either bitmap, in a single pass over their words
+     */
+    public static int unionSize( long[] a, long[] b ) {
+        int common = Math.min( a.length, b.length );
+        int count = cardinality( a, common ) + cardinality( b, common );
+        for ( int i = 0; i < common; i++ ) {
+            count += Long.bitCount( a[i] | b[i] );
+        }
+        return count;
+    }
+
+    /**
+     * @return number of values in both sorted arrays of distinct values
+     */
+    public static int intersectSize( int[] a, int[] b ) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while ( i < a.length && j < b.length ) {
+            if ( a[i] < b[j] ) {
+                i++;
+            } else if ( a[i] > b[j] ) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of values in either sorted array of distinct values
+     */
+    public static int unionSize( int[] a, int[] b ) {
+        return a.length + b.length - intersectSize( a, b );
+    }
+
+    private static int cardinality( long[] words, int from ) {
+        int count = 0;
+        for ( int i = from; i < words.length; i++ ) {
+            count += Long.bitCount( words[i] );
+        }
+        return count;
+    }
+
 }
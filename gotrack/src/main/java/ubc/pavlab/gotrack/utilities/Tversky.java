@@ -19,6 +19,8 @@
 
 package ubc.pavlab.gotrack.utilities;
 
+import ubc.pavlab.gotrack.model.go.TermSet;
+
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -60,19 +62,106 @@ public class Tversky {
         return calculateFastUnidirectional( prototype, variant );
     }
 
+    /**
+     * @param a bitmap of the first set, words of unequal length are padded with zeros
+     * @param b bitmap of the second set
+     */
+    public static double similarity( long[] a, long[] b, double alpha, double beta ) {
+        int intersect = 0;
+        int onlyA = 0;
+        int onlyB = 0;
+        int common = Math.min( a.length, b.length );
+        for ( int i = 0; i < common; i++ ) {
+            intersect += Long.bitCount( a[i] & b[i] );
+            onlyA += Long.bitCount( a[i] & ~b[i] );
+            onlyB += Long.bitCount( b[i] & ~a[i] );
+        }
+        for ( int i = common; i < a.length; i++ ) {
+            onlyA += Long.bitCount( a[i] );
+        }
+        for ( int i = common; i < b.length; i++ ) {
+            onlyB += Long.bitCount( b[i] );
+        }
+        return calculate( intersect, intersect + onlyA, intersect + onlyB, alpha, beta );
+    }
+
+    /**
+     * @param a distinct values of the first set in ascending order
+     * @param b distinct values of the second set in ascending order
+     */
+    public static double similarity( int[] a, int[] b, double alpha, double beta ) {
+        return calculate( Jaccard.intersectSize( a, b ), a.length, b.length, alpha, beta );
+    }
+
+    /**
+     * @param prototype distinct values of the prototype in ascending order
+     * @param variant distinct values of the variant in ascending order
+     */
+    public static double similarityPrototypeWeighted( int[] prototype, int[] variant ) {
+        return calculateFastUnidirectional( Jaccard.intersectSize( prototype, variant ), prototype.length,
+                variant.length );
+    }
+
+    /**
+     * @param prototype bitmap of the prototype
+     * @param variant bitmap of the variant
+     */
+    public static double similarityPrototypeWeighted( long[] prototype, long[] variant ) {
+        int prototypeSize = 0;
+        for ( long w : prototype ) {
+            prototypeSize += Long.bitCount( w );
+        }
+        int variantSize = 0;
+        for ( long w : variant ) {
+            variantSize += Long.bitCount( w );
+        }
+        return calculateFastUnidirectional( Jaccard.intersectSize( prototype, variant ), prototypeSize,
+                variantSize );
+    }
+
     // Calculation
 
     private static <T> Double calculate( Set<T> a, Set<T> b, double alpha, double beta ) {
-        int intersect = intersectSize( a, b );
+        int intersect = sharedIntersectSize( a, b );
+        if ( intersect >= 0 ) {
+            return calculate( intersect, a.size(), b.size(), alpha, beta );
+        }
+        intersect = intersectSize( a, b );
         return ( intersect )
                 / ( intersect + alpha * relativeComplementSize( b, a ) + beta * relativeComplementSize( a, b ) );
     }
 
     private static <T> Double calculateFastUnidirectional( Set<T> prototope, Set<T> variant ) {
-        int intersect = intersectSize( prototope, variant );
+        int intersect = sharedIntersectSize( prototope, variant );
+        if ( intersect >= 0 ) {
+            return calculateFastUnidirectional( intersect, prototope.size(), variant.size() );
+        }
+        intersect = intersectSize( prototope, variant );
         return ( ( double ) intersect ) / ( intersect + relativeComplementSize( variant, prototope ) );
     }
 
+    private static double calculate( int intersect, int sizeA, int sizeB, double alpha, double beta ) {
+        if ( sizeA == 0 && sizeB == 0 ) return 1.0d;
+        if ( sizeA == 0 || sizeB == 0 ) return 0.0d;
+        return ( intersect ) / ( intersect + alpha * ( sizeA - intersect ) + beta * ( sizeB - intersect ) );
+    }
+
+    private static double calculateFastUnidirectional( int intersect, int prototypeSize, int variantSize ) {
+        if ( prototypeSize == 0 && variantSize == 0 ) return 1.0d;
+        if ( prototypeSize == 0 || variantSize == 0 ) return 0.0d;
+        return ( ( double ) intersect ) / ( intersect + ( prototypeSize - intersect ) );
+    }
+
+    /**
+     * @return size of the intersection if both are term sets of the same ontology, otherwise -1
+     */
+    private static <T> int sharedIntersectSize( Set<T> a, Set<T> b ) {
+        if ( a instanceof TermSet && b instanceof TermSet && ( ( TermSet ) a ).isComparable( ( TermSet ) b ) ) {
+            return ( ( TermSet ) a ).intersectSize( ( TermSet ) b );
+        }
+        return -1;
+    }
+
     // Utilities
 
     public static <T> int intersectSize( Set<T> a, Set<T> b ) {
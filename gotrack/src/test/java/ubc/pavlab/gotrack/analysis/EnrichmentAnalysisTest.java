@@ -43,6 +43,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Tests EnrichmentAnalysis Class, does not test accuracy of individual over-representation analyses as that
@@ -496,4 +497,76 @@ public class EnrichmentAnalysisTest extends BaseTest {
         Assert.assertThat( e.getTotalResults(), Matchers.is( 192 ) );
     }
 
+    @Test
+    public void testParallelMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( MultipleTestCorrection mtc : MultipleTestCorrection.values() ) {
+                EnrichmentAnalysis sequential = new EnrichmentAnalysis( sampleMap, 3, 98, mtc, 0.05, cache, human );
+                EnrichmentAnalysis parallel = new EnrichmentAnalysis( sampleMap, 3, 98, mtc, 0.05, cache, human,
+                        pool );
+
+                Assert.assertThat( parallel.getEditions(), Matchers.is( sequential.getEditions() ) );
+                Assert.assertThat( parallel.getTermsSignificantInAnyEdition(),
+                        Matchers.is( sequential.getTermsSignificantInAnyEdition() ) );
+                Assert.assertThat( parallel.getTotalGenes(), Matchers.is( sequential.getTotalGenes() ) );
+                Assert.assertThat( parallel.getTotalTerms(), Matchers.is( sequential.getTotalTerms() ) );
+                Assert.assertThat( parallel.getTotalResults(), Matchers.is( sequential.getTotalResults() ) );
+                for ( Edition ed : sequential.getEditions() ) {
+                    Assert.assertThat( parallel.getCutoff( ed ), Matchers.is( sequential.getCutoff( ed ) ) );
+                    Map<GeneOntologyTerm, EnrichmentResult> expected = sequential.getRawResults( ed ).getResults();
+                    Map<GeneOntologyTerm, EnrichmentResult> actual = parallel.getRawResults( ed ).getResults();
+                    Assert.assertThat( actual.keySet(), Matchers.is( expected.keySet() ) );
+                    for ( Entry<GeneOntologyTerm, EnrichmentResult> entry : expected.entrySet() ) {
+                        EnrichmentResult er = actual.get( entry.getKey() );
+                        Assert.assertThat( er.getPvalue(), Matchers.is( entry.getValue().getPvalue() ) );
+                        Assert.assertThat( er.getRank(), Matchers.is( entry.getValue().getRank() ) );
+                        Assert.assertThat( er.isSignificant(), Matchers.is( entry.getValue().isSignificant() ) );
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testWithCorrectionMatchesFresh() {
+        EnrichmentAnalysis original = new EnrichmentAnalysis( sampleMap, 3, 98, MultipleTestCorrection.BONFERRONI, 0.05,
+                cache, human );
+        for ( MultipleTestCorrection mtc : MultipleTestCorrection.values() ) {
+            for ( double threshold : new double[] { 1e-6, 0.01, 0.05, 0.5 } ) {
+                EnrichmentAnalysis fresh = new EnrichmentAnalysis( sampleMap, 3, 98, mtc, threshold, cache, human );
+                EnrichmentAnalysis corrected = original.withCorrection( mtc, threshold );
+
+                Assert.assertThat( corrected.getThreshold(), Matchers.is( threshold ) );
+                Assert.assertThat( corrected.getTermsSignificantInAnyEdition(),
+                        Matchers.is( fresh.getTermsSignificantInAnyEdition() ) );
+                Assert.assertThat( corrected.getTotalResults(), Matchers.is( fresh.getTotalResults() ) );
+                for ( Edition ed : fresh.getEditions() ) {
+                    Assert.assertThat( corrected.getCutoff( ed ), Matchers.is( fresh.getCutoff( ed ) ) );
+                    Assert.assertThat( corrected.getTermsSignificant( ed ), Matchers.is( fresh.getTermsSignificant( ed ) ) );
+                    Map<GeneOntologyTerm, EnrichmentResult> expected = fresh.getRawResults( ed ).getResults();
+                    Map<GeneOntologyTerm, EnrichmentResult> actual = corrected.getRawResults( ed ).getResults();
+                    Assert.assertThat( actual.keySet(), Matchers.is( expected.keySet() ) );
+                    for ( Entry<GeneOntologyTerm, EnrichmentResult> entry : expected.entrySet() ) {
+                        EnrichmentResult er = actual.get( entry.getKey() );
+                        Assert.assertThat( er.getPvalue(), Matchers.is( entry.getValue().getPvalue() ) );
+                        Assert.assertThat( er.getRank(), Matchers.is( entry.getValue().getRank() ) );
+                        Assert.assertThat( er.isSignificant(), Matchers.is( entry.getValue().isSignificant() ) );
+                    }
+                }
+            }
+        }
+
+        // The original is shared and must not change
+        EnrichmentAnalysis unchanged = new EnrichmentAnalysis( sampleMap, 3, 98, MultipleTestCorrection.BONFERRONI,
+                0.05, cache, human );
+        Assert.assertThat( original.getTermsSignificantInAnyEdition(),
+                Matchers.is( unchanged.getTermsSignificantInAnyEdition() ) );
+        for ( Edition ed : unchanged.getEditions() ) {
+            Assert.assertThat( original.getTermsSignificant( ed ), Matchers.is( unchanged.getTermsSignificant( ed ) ) );
+        }
+    }
+
 }
@@ -22,7 +22,6 @@ package ubc.pavlab.gotrack.analysis;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.apache.log4j.Logger;
 import org.hamcrest.Matchers;
 import org.junit.*;
@@ -31,7 +30,6 @@ import ubc.pavlab.gotrack.BaseTest;
 import ubc.pavlab.gotrack.model.Gene;
 import ubc.pavlab.gotrack.model.Species;
 import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
-import ubc.pavlab.gotrack.model.hashkey.HyperUCFKey;
 
 import java.util.*;
 import java.util.Map.Entry;
@@ -766,7 +764,8 @@ public class EnrichmentTest extends BaseTest {
         // run analysis X times, get average time
         long start = System.currentTimeMillis();
         int iterations = 1000;
-        TObjectDoubleHashMap<HyperUCFKey> logProbCache = new TObjectDoubleHashMap<>(); // simulates warm caches
+        // simulates warm caches
+        HyperGeometricMemo logProbCache = new HyperGeometricMemo( HyperGeometricMemo.DEFAULT_CAPACITY );
         for ( int i = 0; i < iterations; i++ ) {
             Enrichment<GeneOntologyTerm, Gene> e = new Enrichment<>( MultipleTestCorrection.BONFERRONI, 0.05, 0, 0 );
             e.runAnalysis( sample, population, logProbCache );
@@ -0,0 +1,82 @@
+package ubc.pavlab.gotrack.analysis;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+public class HyperGeometricMemoTest {
+
+    @Test
+    public void testPackDistinct() {
+        Set<Long> keys = new HashSet<>();
+        int[] values = { 0, 1, 2, 1000, 20000 };
+        for ( int r : values ) {
+            for ( int m : values ) {
+                for ( int k : values ) {
+                    for ( int t : values ) {
+                        Assert.assertThat( keys.add( HyperGeometricMemo.pack( r, m, k, t ) ), Matchers.is( true ) );
+                    }
+                }
+            }
+        }
+        Assert.assertThat( HyperGeometricMemo.pack( 32767, 131071, 32767, 131070 ), Matchers.not( -1L ) );
+        Assert.assertThat( HyperGeometricMemo.pack( 32768, 5, 5, 5 ), Matchers.is( -1L ) );
+        Assert.assertThat( HyperGeometricMemo.pack( 5, 5, 5, 131072 ), Matchers.is( -1L ) );
+        Assert.assertThat( HyperGeometricMemo.pack( -1, 5, 5, 5 ), Matchers.is( -1L ) );
+    }
+
+    @Test
+    public void testMatchesDirect() {
+        HyperGeometricMemo memo = new HyperGeometricMemo( 1000 );
+        for ( int pass = 0; pass < 2; pass++ ) {
+            for ( int r = 0; r < 20; r++ ) {
+                Assert.assertThat( memo.upperCumulativeProbability( r, 50, 100, 20000 ),
+                        Matchers.is( HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( r, 50, 100, 20000 ) ) );
+            }
+        }
+        Assert.assertThat( memo.getMisses(), Matchers.is( 20L ) );
+        Assert.assertThat( memo.getHits(), Matchers.is( 20L ) );
+        Assert.assertThat( memo.getHitRate(), Matchers.is( 0.5 ) );
+    }
+
+    @Test
+    public void testUnpackableComputed() {
+        HyperGeometricMemo memo = new HyperGeometricMemo( 1000 );
+        double p = memo.upperCumulativeProbability( 5, 50, 100, 200000 );
+        Assert.assertThat( p, Matchers.is( HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( 5, 50, 100,
+                200000 ) ) );
+        Assert.assertThat( memo.size(), Matchers.is( 0 ) );
+    }
+
+    @Test
+    public void testBounded() {
+        HyperGeometricMemo memo = new HyperGeometricMemo( 1280 );
+        for ( int m = 1; m <= 10000; m++ ) {
+            memo.upperCumulativeProbability( 1, m, 10, 20000 );
+        }
+        Assert.assertThat( memo.size(), Matchers.lessThanOrEqualTo( 1280 ) );
+        Assert.assertThat( memo.getEvictions(), Matchers.greaterThan( 0L ) );
+
+        // Recently used entries survive
+        long hits = memo.getHits();
+        memo.upperCumulativeProbability( 1, 10000, 10, 20000 );
+        Assert.assertThat( memo.getHits(), Matchers.is( hits + 1 ) );
+    }
+
+    @Test
+    public void testConcurrent() {
+        HyperGeometricMemo memo = new HyperGeometricMemo( 100000 );
+        IntStream.range( 0, 200000 ).parallel().forEach( i -> {
+            int r = i % 50;
+            int m = 50 + ( i / 50 ) % 100;
+            Assert.assertThat( memo.upperCumulativeProbability( r, m, 200, 20000 ),
+                    Matchers.is( HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( r, m, 200, 20000 ) ) );
+        } );
+        Assert.assertThat( memo.getHits() + memo.getMisses(), Matchers.is( 200000L ) );
+        Assert.assertThat( memo.getHits(), Matchers.greaterThan( 150000L ) );
+    }
+}
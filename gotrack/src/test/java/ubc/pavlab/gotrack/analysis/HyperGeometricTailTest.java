@@ -0,0 +1,125 @@
+package ubc.pavlab.gotrack.analysis;
+
+import org.apache.log4j.Logger;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Accuracy of {@link HyperGeometricTail} against
+ * {@link HyperGeometricUtilities#upperCumulativeProbabilityLogMethod(int, int, int, int)} and a comparison of their
+ * speed on enrichment-like inputs.
+ */
+public class HyperGeometricTailTest {
+
+    private static final Logger log = Logger.getLogger( HyperGeometricTailTest.class );
+
+    private static HyperGeometricTail tail;
+
+    @BeforeClass
+    public static void classSetup() {
+        tail = new HyperGeometricTail( 1 << 16 );
+    }
+
+    private static void assertClose( int r, int m, int k, int t ) {
+        double expected = HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( r, m, k, t );
+        double actual = tail.upperCumulativeProbability( r, m, k, t );
+        double tolerance = Math.max( Math.abs( expected ) * 1e-8, 1e-14 );
+        if ( Math.abs( expected - actual ) > tolerance ) {
+            Assert.fail( Arrays.toString( new int[] { r, m, k, t } ) + " expected " + expected + " but was " + actual );
+        }
+    }
+
+    @Test
+    public void testMatchesLogMethod() {
+        Random rnd = new Random( 12345 );
+        for ( int i = 0; i < 10000; i++ ) {
+            int t = 10 + rnd.nextInt( 30000 );
+            int m = 1 + rnd.nextInt( t - 1 );
+            int k = 1 + rnd.nextInt( t );
+            int min = Math.max( 0, k + m - t );
+            int max = Math.min( k, m );
+            int r = min + rnd.nextInt( max - min + 1 );
+            assertClose( r, m, k, t );
+        }
+    }
+
+    @Test
+    public void testMatchesLogMethodEnrichmentLike() {
+        Random rnd = new Random( 54321 );
+        for ( int[] p : enrichmentLike( rnd, 5000 ) ) {
+            assertClose( p[0], p[1], p[2], p[3] );
+        }
+    }
+
+    @Test
+    public void testBounds() {
+        Assert.assertThat( tail.upperCumulativeProbability( 11, 10, 100, 1000 ), Matchers.is( 0.0 ) );
+        Assert.assertThat( tail.upperCumulativeProbability( 0, 10, 100, 1000 ), Matchers.is( 1.0 ) );
+        Assert.assertThat( tail.upperCumulativeProbability( 10, 10, 100, 1000 ),
+                Matchers.closeTo( HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( 10, 10, 100, 1000 ),
+                        1e-20 ) );
+        // Every population member is annotated
+        Assert.assertThat( tail.upperCumulativeProbability( 5, 1000, 5, 1000 ), Matchers.is( 1.0 ) );
+    }
+
+    @Test
+    public void testFallbackBeyondTable() {
+        HyperGeometricTail small = new HyperGeometricTail( 100 );
+        Assert.assertThat( small.upperCumulativeProbability( 5, 50, 100, 2000 ),
+                Matchers.is( HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( 5, 50, 100, 2000 ) ) );
+    }
+
+    @Test(timeout = 120000)
+    public void testLoad() {
+        int[][] params = enrichmentLike( new Random( 1 ), 20000 );
+        double sink = 0;
+
+        // Warm up both
+        for ( int i = 0; i < 2; i++ ) {
+            for ( int[] p : params ) {
+                sink += HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( p[0], p[1], p[2], p[3] );
+                sink += tail.upperCumulativeProbability( p[0], p[1], p[2], p[3] );
+            }
+        }
+
+        long start = System.nanoTime();
+        for ( int[] p : params ) {
+            sink += HyperGeometricUtilities.upperCumulativeProbabilityLogMethod( p[0], p[1], p[2], p[3] );
+        }
+        long logMethod = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for ( int[] p : params ) {
+            sink += tail.upperCumulativeProbability( p[0], p[1], p[2], p[3] );
+        }
+        long table = System.nanoTime() - start;
+
+        log.info( params.length + " upper tails: log method " + logMethod / 1000000 + " ms, table "
+                + table / 1000000 + " ms (" + sink + ")" );
+    }
+
+    /**
+     * Contingency tables resembling those of a GO enrichment: populations of ~20,000 genes, hit lists from 10 to 2,000
+     * genes, term sizes spread log-uniformly with most terms small, and sample hits around their expectation with some
+     * enriched.
+     */
+    private static int[][] enrichmentLike( Random rnd, int n ) {
+        int[][] params = new int[n][];
+        for ( int i = 0; i < n; i++ ) {
+            int t = 15000 + rnd.nextInt( 10000 );
+            int k = (int) Math.round( Math.exp( Math.log( 10 ) + rnd.nextDouble() * Math.log( 200 ) ) );
+            int m = (int) Math.round( Math.exp( rnd.nextDouble() * Math.log( 10000 ) ) );
+            double expected = (double) k * m / t;
+            double factor = rnd.nextInt( 4 ) == 0 ? 2 + 4 * rnd.nextDouble() : rnd.nextDouble() * 2;
+            int r = (int) Math.round( expected * factor );
+            r = Math.max( 1, Math.min( r, Math.min( k, m ) ) );
+            params[i] = new int[] { r, m, k, t };
+        }
+        return params;
+    }
+}
@@ -0,0 +1,130 @@
+package ubc.pavlab.gotrack.analysis;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class RankedTestsTest {
+
+    private static final double[] PVALUES = { 0.04, 0.001, 0.02, 0.001, 0.3, 0.02, 0.0001 };
+
+    /**
+     * Top N lookup as done by {@link Enrichment#getTopNTerms(int)} over the significant prefix of the ranking.
+     */
+    private static int topCount( RankedTests ranked, int n ) {
+        int[] ranks = new int[ranked.getSignificantCount()];
+        for ( int k = 0; k < ranks.length; k++ ) {
+            ranks[k] = ranked.getRank( ranked.testAt( k ) );
+        }
+        return RankedTests.countBelow( ranks, ranks.length, n );
+    }
+
+    @Test
+    public void testBH() {
+        RankedTests ranked = RankedTests.rank( PVALUES, null, MultipleTestCorrection.BH, 0.05 );
+
+        // Stable order: 6, 1, 3, 2, 5, 0, 4
+        Assert.assertThat( ranked.testAt( 0 ), Matchers.is( 6 ) );
+        Assert.assertThat( ranked.testAt( 1 ), Matchers.is( 1 ) );
+        Assert.assertThat( ranked.testAt( 2 ), Matchers.is( 3 ) );
+
+        // 0.04 <= 6 * 0.05 / 7 so everything before it passes as well
+        Assert.assertThat( ranked.getSignificantCount(), Matchers.is( 6 ) );
+        Assert.assertThat( ranked.getCutoff(), Matchers.is( 0.04 ) );
+        Assert.assertThat( ranked.isSignificant( 0 ), Matchers.is( true ) );
+        Assert.assertThat( ranked.isSignificant( 4 ), Matchers.is( false ) );
+
+        Assert.assertThat( ranked.getRank( 6 ), Matchers.is( 0 ) );
+        Assert.assertThat( ranked.getRank( 1 ), Matchers.is( 1 ) );
+        Assert.assertThat( ranked.getRank( 3 ), Matchers.is( 1 ) );
+        Assert.assertThat( ranked.getFractionalRank( 3 ), Matchers.is( 1.5 ) );
+        Assert.assertThat( ranked.getRank( 5 ), Matchers.is( 3 ) );
+        Assert.assertThat( ranked.getRank( 0 ), Matchers.is( 5 ) );
+        Assert.assertThat( ranked.getFractionalRank( 0 ), Matchers.is( 5.0 ) );
+    }
+
+    @Test
+    public void testBonferroni() {
+        RankedTests ranked = RankedTests.rank( PVALUES, null, MultipleTestCorrection.BONFERRONI, 0.05 );
+
+        // 0.001 * 7 <= 0.05 but 0.02 * 7 is not
+        Assert.assertThat( ranked.getSignificantCount(), Matchers.is( 3 ) );
+        Assert.assertThat( ranked.getCutoff(), Matchers.is( 0.05 ) );
+        Assert.assertThat( ranked.isSignificant( 3 ), Matchers.is( true ) );
+        Assert.assertThat( ranked.isSignificant( 2 ), Matchers.is( false ) );
+    }
+
+    @Test
+    public void testNoneSignificant() {
+        RankedTests ranked = RankedTests.rank( new double[] { 0.5, 0.2 }, null, MultipleTestCorrection.BH, 0.05 );
+        Assert.assertThat( ranked.getSignificantCount(), Matchers.is( 0 ) );
+        Assert.assertThat( ranked.getCutoff(), Matchers.is( 0.2 ) );
+        Assert.assertThat( topCount( ranked, 5 ), Matchers.is( 0 ) );
+    }
+
+    @Test
+    public void testTieKeys() {
+        // Equal p-values with different keys get distinct ranks
+        long[] keys = { 1, 2, 3, 4, 5, 3, 7 };
+        RankedTests ranked = RankedTests.rank( PVALUES, keys, MultipleTestCorrection.BH, 0.05 );
+        Assert.assertThat( ranked.getRank( 1 ), Matchers.is( 1 ) );
+        Assert.assertThat( ranked.getRank( 3 ), Matchers.is( 2 ) );
+        Assert.assertThat( ranked.getRank( 2 ), Matchers.is( 3 ) );
+        Assert.assertThat( ranked.getRank( 5 ), Matchers.is( 3 ) );
+        Assert.assertThat( ranked.getFractionalRank( 5 ), Matchers.is( 3.5 ) );
+    }
+
+    @Test
+    public void testTopCount() {
+        RankedTests ranked = RankedTests.rank( PVALUES, null, MultipleTestCorrection.BH, 0.05 );
+        Assert.assertThat( topCount( ranked, 0 ), Matchers.is( 0 ) );
+        Assert.assertThat( topCount( ranked, 1 ), Matchers.is( 1 ) );
+        // Ties are included whole
+        Assert.assertThat( topCount( ranked, 2 ), Matchers.is( 3 ) );
+        Assert.assertThat( topCount( ranked, 3 ), Matchers.is( 3 ) );
+        // Never past the significant tests
+        Assert.assertThat( topCount( ranked, 100 ), Matchers.is( 6 ) );
+    }
+
+    @Test
+    public void testMatchesSortedRanking() {
+        Random random = new Random( 5 );
+        for ( int trial = 0; trial < 50; trial++ ) {
+            int n = 1 + random.nextInt( 300 );
+            double[] pvalues = new double[n];
+            for ( int i = 0; i < n; i++ ) {
+                // Few distinct values, so there are plenty of ties
+                pvalues[i] = random.nextInt( 40 ) / 400.0;
+            }
+            for ( MultipleTestCorrection method : MultipleTestCorrection.values() ) {
+                RankedTests ranked = RankedTests.rank( pvalues, null, method, 0.05 );
+
+                List<Integer> expected = new ArrayList<>();
+                for ( int i = 0; i < n; i++ ) {
+                    expected.add( i );
+                }
+                expected.sort( Comparator.comparingDouble( i -> pvalues[i] ) );
+                for ( int k = 0; k < n; k++ ) {
+                    int test = expected.get( k );
+                    Assert.assertThat( ranked.testAt( k ), Matchers.is( test ) );
+                    int first = k;
+                    while ( first > 0 && pvalues[expected.get( first - 1 )] == pvalues[test] ) {
+                        first--;
+                    }
+                    Assert.assertThat( ranked.getRank( test ), Matchers.is( first ) );
+                }
+                for ( int top = 0; top < 10; top++ ) {
+                    int count = 0;
+                    for ( int i = 0; i < n; i++ ) {
+                        if ( ranked.isSignificant( i ) && ranked.getRank( i ) < top ) {
+                            count++;
+                        }
+                    }
+                    Assert.assertThat( topCount( ranked, top ), Matchers.is( count ) );
+                }
+            }
+        }
+    }
+}
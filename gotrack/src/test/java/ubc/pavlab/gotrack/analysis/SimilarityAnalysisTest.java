@@ -0,0 +1,225 @@
+package ubc.pavlab.gotrack.analysis;
+
+import org.apache.log4j.Logger;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ubc.pavlab.gotrack.BaseTest;
+import ubc.pavlab.gotrack.beans.Cache;
+import ubc.pavlab.gotrack.model.Edition;
+import ubc.pavlab.gotrack.model.GOEdition;
+import ubc.pavlab.gotrack.model.Gene;
+import ubc.pavlab.gotrack.model.Species;
+import ubc.pavlab.gotrack.model.dto.EditionDTO;
+import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
+import ubc.pavlab.gotrack.model.go.GeneOntology;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+import ubc.pavlab.gotrack.model.go.RelationshipType;
+import ubc.pavlab.gotrack.utilities.Jaccard;
+import ubc.pavlab.gotrack.utilities.Tversky;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Tests SimilarityAnalysis against the comparison of term sets looked up by GO id in the reference edition, over
+ * editions with merged (alternate) and retired terms.
+ */
+public class SimilarityAnalysisTest extends BaseTest {
+
+    private static final Logger log = Logger.getLogger( SimilarityAnalysisTest.class );
+
+    private static final Species human = new Species( 7, "Human", "", 9606, null );
+
+    // Ids 100001-100030 are merged into 1-30 halfway through, ids 200001-200010 are retired
+    private static final int MERGED = 100000;
+    private static final int RETIRED = 200000;
+
+    private EnrichmentAnalysis analysis;
+    private Cache cache;
+    private List<Edition> editions;
+
+    private void setup( int editionCount, int termCount, int geneCount ) {
+        Random random = new Random( 11 );
+
+        List<Gene> genes = new ArrayList<>();
+        for ( int i = 1; i <= geneCount; i++ ) {
+            genes.add( new Gene.GeneBuilder( i, "Gene" + i, "", human, null ).build() );
+        }
+
+        cache = Mockito.mock( Cache.class );
+        editions = new ArrayList<>();
+        Map<Edition, Map<GeneOntologyTerm, Set<Gene>>> sampleMap = new HashMap<>();
+        Map<Edition, Map<GeneOntologyTerm, Integer>> populationCounts = new HashMap<>();
+        for ( int e = 1; e <= editionCount; e++ ) {
+            Date date = Date.valueOf( LocalDate.of( 2010, 1, 1 ).plusMonths( e ) );
+            GOEdition goEdition = new GOEdition( new GOEditionDTO( e, date ) );
+            Edition ed = new Edition( new EditionDTO( 7, e, date, e, e ), human, goEdition );
+            editions.add( ed );
+
+            boolean old = e <= editionCount / 2;
+            GeneOntology go = ontology( goEdition, termCount, old );
+            Mockito.when( cache.getOntology( ed ) ).thenReturn( go );
+
+            Map<GeneOntologyTerm, Set<Gene>> sample = new HashMap<>();
+            Map<GeneOntologyTerm, Integer> population = new HashMap<>();
+            for ( GeneOntologyTerm t : go.getAllTerms() ) {
+                Set<Gene> annotated = new HashSet<>();
+                int rate = 1 + ( t.getId() * 7 + e ) % 30;
+                for ( Gene g : genes ) {
+                    if ( random.nextInt( 1000 ) < rate ) {
+                        annotated.add( g );
+                    }
+                }
+                if ( annotated.isEmpty() ) {
+                    continue;
+                }
+                sample.put( t, annotated );
+                population.put( t, annotated.size() + random.nextInt( 1 + 40 * annotated.size() ) );
+            }
+            sampleMap.put( ed, sample );
+            populationCounts.put( ed, population );
+        }
+
+        Mockito.when( cache.getInferredAnnotationCount( Mockito.any( Edition.class ),
+                Mockito.any( GeneOntologyTerm.class ) ) )
+                .then( invocation -> populationCounts.get( invocation.getArguments()[0] )
+                        .get( invocation.getArguments()[1] ) );
+        Mockito.when( cache.getGeneCount( Mockito.any( Edition.class ) ) ).thenReturn( 20000 );
+
+        analysis = new EnrichmentAnalysis( sampleMap, 0, 0, MultipleTestCorrection.BH, 0.05, cache, human );
+    }
+
+    private static GeneOntology ontology( GOEdition goEdition, int termCount, boolean old ) {
+        GeneOntology go = new GeneOntology( goEdition );
+        for ( int i = 1; i <= termCount; i++ ) {
+            go.addTerm( new GeneOntologyTerm( goId( i ) ) );
+        }
+        for ( int i = 2; i <= termCount; i++ ) {
+            go.addRelationship( goId( i ), goId( i / 2 ), RelationshipType.IS_A );
+        }
+        if ( old ) {
+            for ( int i = 1; i <= 30; i++ ) {
+                go.addTerm( new GeneOntologyTerm( goId( MERGED + i ) ) );
+                go.addRelationship( goId( MERGED + i ), goId( 1 ), RelationshipType.IS_A );
+            }
+            for ( int i = 1; i <= 10; i++ ) {
+                go.addTerm( new GeneOntologyTerm( goId( RETIRED + i ) ) );
+            }
+        } else {
+            for ( int i = 1; i <= 30; i++ ) {
+                go.addAlt( goId( MERGED + i ), goId( i ) );
+            }
+        }
+        go.freeze();
+        return go;
+    }
+
+    private static String goId( int id ) {
+        return String.format( "GO:%07d", id );
+    }
+
+    @Test
+    public void testMatchesTermSets() {
+        setup( 12, 200, 300 );
+        Edition current = Collections.max( editions );
+        for ( SimilarityMethod sm : SimilarityMethod.values() ) {
+            for ( Edition referenceEdition : Arrays.asList( current, editions.get( 0 ) ) ) {
+                SimilarityAnalysis actual = new SimilarityAnalysis( analysis, 5, referenceEdition, sm, cache );
+                Map<Edition, Double[]> expected = reference( analysis, 5, referenceEdition, sm, cache );
+
+                Assert.assertThat( actual.getSimilarityScores().keySet(),
+                        Matchers.contains( expected.keySet().toArray() ) );
+                for ( Map.Entry<Edition, Double[]> entry : expected.entrySet() ) {
+                    SimilarityScore score = actual.getSimilarityScore( entry.getKey() );
+                    Assert.assertThat( new Double[] { score.getCompleteTermSim(), score.getTopTermSim(),
+                            score.getTopGeneSim(), score.getTopParentsSim() }, Matchers.is( entry.getValue() ) );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMergedTermsCompareEqual() {
+        setup( 12, 200, 300 );
+        GeneOntology reference = cache.getOntology( Collections.max( editions ) );
+        GeneOntology old = cache.getOntology( editions.get( 0 ) );
+        Assert.assertThat( reference.toSortedIds( Arrays.asList( old.getTerm( MERGED + 3 ), old.getTerm( 3 ) ) ),
+                Matchers.is( new int[] { 3 } ) );
+        Assert.assertThat( reference.toSortedIds( Arrays.asList( old.getTerm( RETIRED + 1 ),
+                old.getTerm( RETIRED + 2 ), old.getTerm( 3 ) ) ), Matchers.is( new int[] { -1, 3 } ) );
+    }
+
+    @Test
+    public void testLoad() {
+        setup( 40, 1500, 1000 );
+        Edition current = Collections.max( editions );
+
+        // Warm up both
+        for ( int i = 0; i < 2; i++ ) {
+            new SimilarityAnalysis( analysis, 5, current, SimilarityMethod.JACCARD, cache );
+            reference( analysis, 5, current, SimilarityMethod.JACCARD, cache );
+        }
+
+        long start = System.nanoTime();
+        for ( int i = 0; i < 10; i++ ) {
+            reference( analysis, 5, current, SimilarityMethod.JACCARD, cache );
+        }
+        long sets = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for ( int i = 0; i < 10; i++ ) {
+            new SimilarityAnalysis( analysis, 5, current, SimilarityMethod.JACCARD, cache );
+        }
+        long ids = System.nanoTime() - start;
+
+        log.info( "10 similarity analyses of " + editions.size() + " editions, 1000 genes: term sets " + sets / 1000000
+                + " ms, sorted ids " + ids / 1000000 + " ms" );
+    }
+
+    /**
+     * Similarities computed on sets, with the terms of each edition looked up by GO id in the reference edition.
+     */
+    private static Map<Edition, Double[]> reference( EnrichmentAnalysis analysis, int topN, Edition referenceEdition,
+                                                     SimilarityMethod sm, Cache cache ) {
+        GeneOntology o = cache.getOntology( referenceEdition );
+        Enrichment<GeneOntologyTerm, Gene> ref = analysis.getRawResults( referenceEdition );
+        Set<GeneOntologyTerm> refTop = ref.getTopNTerms( topN );
+        Set<Gene> refGenes = refTop.stream().flatMap( t -> ref.getSamplePopulation().getEntities( t ).stream() )
+                .collect( Collectors.toSet() );
+        Set<GeneOntologyTerm> refParents = GeneOntologyTerm.propagateToSet( refTop );
+
+        Map<Edition, Double[]> res = new LinkedHashMap<>();
+        for ( Edition ed : analysis.getEditions().stream().sorted().collect( Collectors.toList() ) ) {
+            Enrichment<GeneOntologyTerm, Gene> test = analysis.getRawResults( ed );
+            Set<GeneOntologyTerm> top = test.getTopNTerms( topN );
+            Set<Gene> genes = top.stream().flatMap( t -> test.getSamplePopulation().getEntities( t ).stream() )
+                    .collect( Collectors.toSet() );
+            Set<GeneOntologyTerm> parents = GeneOntologyTerm.propagateToSet( top );
+            res.put( ed, new Double[] {
+                    similarity( sm, convert( o, test.getSignificantTerms() ), ref.getSignificantTerms() ),
+                    similarity( sm, convert( o, top ), refTop ),
+                    similarity( sm, genes, refGenes ),
+                    similarity( sm, convert( o, parents ), refParents ) } );
+        }
+        return res;
+    }
+
+    private static Set<GeneOntologyTerm> convert( GeneOntology o, Set<GeneOntologyTerm> terms ) {
+        Set<GeneOntologyTerm> res = new HashSet<>();
+        for ( GeneOntologyTerm t : terms ) {
+            res.add( o.getTerm( t.getGoId() ) );
+        }
+        return res;
+    }
+
+    private static <T> Double similarity( SimilarityMethod sm, Set<T> test, Set<T> reference ) {
+        if ( sm.equals( SimilarityMethod.JACCARD ) ) {
+            return Jaccard.similarity( test, reference );
+        }
+        return Tversky.similarityPrototypeWeighted( test, reference );
+    }
+}
@@ -19,12 +19,228 @@
 
 package ubc.pavlab.gotrack.analysis;
 
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ubc.pavlab.gotrack.BaseTest;
+import ubc.pavlab.gotrack.beans.Cache;
+import ubc.pavlab.gotrack.model.Edition;
+import ubc.pavlab.gotrack.model.GOEdition;
+import ubc.pavlab.gotrack.model.Gene;
+import ubc.pavlab.gotrack.model.Species;
+import ubc.pavlab.gotrack.model.dto.EditionDTO;
+import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
 /**
- * TODO Write Me
+ * Tests StabilityAnalysis against a straightforward implementation of the scores over enough editions to fill both
+ * windows.
  * 
  * @author mjacobson
  * @version $Id$
  */
-public class StabilityAnalysisTest {
+public class StabilityAnalysisTest extends BaseTest {
+
+    private static final Species human = new Species( 7, "Human", "", 9606, null );
+
+    private EnrichmentAnalysis analysis;
+
+    @Before
+    public void setup() {
+        Random random = new Random( 42 );
+
+        List<GeneOntologyTerm> terms = new ArrayList<>();
+        for ( int i = 1; i <= 40; i++ ) {
+            terms.add( new GeneOntologyTerm( String.format( "GO:%07d", i ) ) );
+        }
+        List<Gene> genes = new ArrayList<>();
+        for ( int i = 1; i <= 30; i++ ) {
+            genes.add( new Gene.GeneBuilder( i, "Gene" + i, "", human, null ).build() );
+        }
+
+        Map<Edition, Map<GeneOntologyTerm, Set<Gene>>> sampleMap = new HashMap<>();
+        Map<Edition, Map<GeneOntologyTerm, Integer>> populationCounts = new HashMap<>();
+        for ( int e = 1; e <= 40; e++ ) {
+            Date date = Date.valueOf( LocalDate.of( 2010, 1, 1 ).plusMonths( e ) );
+            Edition ed = new Edition( new EditionDTO( 7, e, date, e, e ), human,
+                    new GOEdition( new GOEditionDTO( e, date ) ) );
+
+            Map<GeneOntologyTerm, Set<Gene>> sample = new HashMap<>();
+            Map<GeneOntologyTerm, Integer> population = new HashMap<>();
+            for ( int j = 0; j < terms.size(); j++ ) {
+                // Some terms drift in and out of editions
+                if ( random.nextInt( 10 ) == 0 ) {
+                    continue;
+                }
+                Set<Gene> annotated = new HashSet<>();
+                for ( Gene g : genes ) {
+                    if ( random.nextInt( 40 ) < j % 13 + 1 ) {
+                        annotated.add( g );
+                    }
+                }
+                if ( annotated.isEmpty() ) {
+                    continue;
+                }
+                sample.put( terms.get( j ), annotated );
+                population.put( terms.get( j ), annotated.size() + 5 + random.nextInt( 20 + 10 * j ) );
+            }
+            sampleMap.put( ed, sample );
+            populationCounts.put( ed, population );
+        }
+
+        Cache cache = Mockito.mock( Cache.class );
+        Mockito.when( cache.getInferredAnnotationCount( Mockito.any( Edition.class ),
+                Mockito.any( GeneOntologyTerm.class ) ) )
+                .then( invocation -> populationCounts.get( invocation.getArguments()[0] )
+                        .get( invocation.getArguments()[1] ) );
+        Mockito.when( cache.getGeneCount( Mockito.any( Edition.class ) ) ).thenReturn( 2000 );
+
+        analysis = new EnrichmentAnalysis( sampleMap, 0, 0, MultipleTestCorrection.BH, 0.05, cache, human );
+    }
+
+    @Test
+    public void testScoresMatchReference() {
+        Assert.assertThat( analysis.getTermsSignificantInAnyEdition().size(), Matchers.greaterThan( 10 ) );
+        assertScores( new StabilityAnalysis( analysis ), reference( analysis ) );
+    }
+
+    @Test
+    public void testParallelMatchesReference() {
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            assertScores( new StabilityAnalysis( analysis, pool ), reference( analysis ) );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testNullLookups() {
+        StabilityAnalysis stability = new StabilityAnalysis( analysis );
+        Assert.assertThat( stability.getStabilityScores( null ), Matchers.nullValue() );
+        Assert.assertThat( stability.getStabilityScores( null, null ), Matchers.nullValue() );
+    }
+
+    private static void assertScores( StabilityAnalysis actual,
+                                      Map<GeneOntologyTerm, Map<Edition, StabilityScore>> expected ) {
+        Assert.assertThat( actual.getStabilityScores().keySet(), Matchers.is( expected.keySet() ) );
+        for ( Map.Entry<GeneOntologyTerm, Map<Edition, StabilityScore>> termEntry : expected.entrySet() ) {
+            Map<Edition, StabilityScore> scores = actual.getStabilityScores( termEntry.getKey() );
+            Assert.assertThat( scores.keySet(), Matchers.is( termEntry.getValue().keySet() ) );
+            for ( Map.Entry<Edition, StabilityScore> entry : termEntry.getValue().entrySet() ) {
+                StabilityScore a = scores.get( entry.getKey() );
+                StabilityScore e = entry.getValue();
+                // Exact equality, NaN included
+                Assert.assertThat( a.toString(), Matchers.is( e.toString() ) );
+            }
+        }
+    }
+
+    /**
+     * Scores computed with plain insertion ordered maps as windows and the statistics recomputed from scratch for
+     * every edition.
+     */
+    private static Map<GeneOntologyTerm, Map<Edition, StabilityScore>> reference( EnrichmentAnalysis analysis ) {
+        List<Edition> orderedEditions = new ArrayList<>( analysis.getEditions() );
+        Collections.sort( orderedEditions );
+        HyperGeometricMemo memo = new HyperGeometricMemo( HyperGeometricMemo.DEFAULT_CAPACITY );
+        int[] weights = { 1, 2, 3, 4, 5, 6 };
+
+        Map<GeneOntologyTerm, Map<Edition, StabilityScore>> stabilityScores = new HashMap<>();
+        for ( GeneOntologyTerm t : analysis.getTermsSignificantInAnyEdition() ) {
+            Map<Edition, EnrichmentResult> data = analysis.getResults( t );
+            Map<Edition, StabilityScore> scores = new HashMap<>();
+            LinkedHashMap<Edition, int[]> queue = new LinkedHashMap<>();
+            LinkedHashMap<Edition, Boolean> significanceQueue = new LinkedHashMap<>();
+            EnrichmentResult previousResult = null;
+            double runningScore = 0;
+            int runningScoreCnt = 0;
+            for ( Edition ed : orderedEditions ) {
+                EnrichmentResult er = data.get( ed );
+                if ( er == null ) {
+                    continue;
+                }
+                if ( previousResult == null ) {
+                    scores.put( ed, new StabilityScore( -1, -1, er.getPvalue(), er.getPvalue(), Double.NaN,
+                            Double.NaN, Double.NaN ) );
+                    previousResult = er;
+                    continue;
+                }
+
+                significanceQueue.put( ed, er.isSignificant() );
+                if ( significanceQueue.size() > 24 ) {
+                    significanceQueue.remove( significanceQueue.keySet().iterator().next() );
+                }
+                double pastPercentSignificant = (double) significanceQueue.values().stream().filter( p -> p ).count()
+                        / significanceQueue.size();
+
+                queue.put( ed, new int[] { er.getSampleAnnotated() - previousResult.getSampleAnnotated(),
+                        er.getPopulationAnnotated() - previousResult.getPopulationAnnotated() } );
+                if ( queue.size() > 6 ) {
+                    queue.remove( queue.keySet().iterator().next() );
+                }
+
+                double[] mean = new double[2];
+                double[] std = new double[2];
+                double[] runningMean = new double[2];
+                double[] m2 = new double[2];
+                int sumWeight = 0;
+                int i = 0;
+                for ( int[] vals : queue.values() ) {
+                    int weight = weights[i++];
+                    int temp = weight + sumWeight;
+                    for ( int j = 0; j < 2; j++ ) {
+                        mean[j] += weight * vals[j] / 21.0;
+                        double delta = vals[j] - runningMean[j];
+                        double r = weight * delta / temp;
+                        runningMean[j] += r;
+                        m2[j] += sumWeight * delta * r;
+                    }
+                    sumWeight = temp;
+                }
+                if ( queue.size() > 1 ) {
+                    for ( int j = 0; j < 2; j++ ) {
+                        std[j] = Math.sqrt( m2[j] / sumWeight * queue.size() / ( queue.size() - 1 ) );
+                    }
+                }
+
+                int rMin = (int) Math.round( er.getSampleAnnotated() + mean[0] - 2 * std[0] );
+                int rMax = (int) Math.round( er.getSampleAnnotated() + mean[0] + 2 * std[0] );
+                int mMin = (int) Math.round( er.getPopulationAnnotated() + mean[1] - 2 * std[1] );
+                int mMax = (int) Math.round( er.getPopulationAnnotated() + mean[1] + 2 * std[1] );
+
+                double minp = bound( memo, rMax, mMin, er.getSampleSize(), er.getPopulationSize() );
+                double maxp = bound( memo, rMin, mMax, er.getSampleSize(), er.getPopulationSize() );
+
+                double score = ( maxp - minp ) / analysis.getCutoff( ed );
+                runningScore += score;
+                runningScoreCnt++;
+                scores.put( ed, new StabilityScore( std[0], std[1], minp, maxp, -Math.log( score ),
+                        -Math.log( runningScore / runningScoreCnt ), pastPercentSignificant ) );
+                previousResult = er;
+            }
+            stabilityScores.put( t, scores );
+        }
+        return stabilityScores;
+    }
+
+    private static double bound( HyperGeometricMemo memo, int r, int m, int k, int t ) {
+        m = Math.min( m, t );
+        r = Math.min( r, k );
+        m = Math.max( m, r );
+        if ( k > t - m && r < k - ( t - m ) ) {
+            r = k - ( t - m );
+        } else if ( r < 0 ) {
+            r = 0;
+        }
+        return memo.upperCumulativeProbability( r, m, k, t );
+    }
 
 }
@@ -0,0 +1,181 @@
+package ubc.pavlab.gotrack.analysis;
+
+import org.apache.log4j.Logger;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ubc.pavlab.gotrack.model.AnnotationCounts;
+import ubc.pavlab.gotrack.model.GOEdition;
+import ubc.pavlab.gotrack.model.Gene;
+import ubc.pavlab.gotrack.model.Species;
+import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
+import ubc.pavlab.gotrack.model.go.GeneOntology;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+
+import java.sql.Date;
+import java.util.*;
+
+public class TermIndexedEnrichmentTest {
+
+    private static final Logger log = Logger.getLogger( TermIndexedEnrichmentTest.class );
+
+    private static final int POPULATION_SIZE = 20000;
+
+    private AnnotationCounts counts;
+    private Population<GeneOntologyTerm> population;
+    private Map<GeneOntologyTerm, Set<Gene>> sampleMap;
+    private GeneOntologyTerm foreign;
+    private GeneOntologyTerm large;
+    private HyperGeometricMemo memo;
+
+    @Before
+    public void setup() {
+        memo = new HyperGeometricMemo( HyperGeometricMemo.DEFAULT_CAPACITY );
+        Random rnd = new Random( 7 );
+        GeneOntology go = new GeneOntology( new GOEdition( new GOEditionDTO( 1, Date.valueOf( "2016-03-30" ) ) ) );
+        List<GeneOntologyTerm> terms = new ArrayList<>();
+        for ( int i = 1; i <= 3000; i++ ) {
+            GeneOntologyTerm t = new GeneOntologyTerm( String.format( "GO:%07d", i ) );
+            go.addTerm( t );
+            terms.add( t );
+        }
+        go.freeze();
+
+        counts = new AnnotationCounts( go );
+        for ( GeneOntologyTerm t : terms ) {
+            counts.put( t, null, 50 + rnd.nextInt( 400 ) );
+        }
+        large = terms.get( 0 );
+        counts.put( large, null, 5000 );
+
+        population = new Population<GeneOntologyTerm>() {
+            @Override
+            public Integer countProperty( GeneOntologyTerm t ) {
+                return counts.getInferred( t );
+            }
+
+            @Override
+            public int size() {
+                return POPULATION_SIZE;
+            }
+        };
+
+        Species human = new Species( 7, "Human", "", 9606, null );
+        List<Gene> genes = new ArrayList<>();
+        for ( int i = 1; i <= 200; i++ ) {
+            genes.add( new Gene.GeneBuilder( i, "Gene" + i, "", human, null ).build() );
+        }
+
+        // Few genes per term so that many terms share a contingency table
+        sampleMap = new HashMap<>();
+        for ( GeneOntologyTerm t : terms ) {
+            Set<Gene> annotated = new HashSet<>();
+            int n = 1 + rnd.nextInt( rnd.nextInt( 10 ) == 0 ? 40 : 4 );
+            while ( annotated.size() < n ) {
+                annotated.add( genes.get( rnd.nextInt( genes.size() ) ) );
+            }
+            sampleMap.put( t, annotated );
+        }
+        foreign = new GeneOntologyTerm( "GO:9999999" );
+        sampleMap.put( foreign, Collections.singleton( genes.get( 0 ) ) );
+    }
+
+    private Enrichment<GeneOntologyTerm, Gene> generic( MultipleTestCorrection mtc, double threshold ) {
+        Enrichment<GeneOntologyTerm, Gene> enrichment = new Enrichment<>( mtc, threshold, 20, 1000 );
+        enrichment.runAnalysis( CompletePopulation.standardCompletePopulation( sampleMap ), population, memo );
+        return enrichment;
+    }
+
+    private Enrichment<GeneOntologyTerm, Gene> indexed( MultipleTestCorrection mtc, double threshold ) {
+        Enrichment<GeneOntologyTerm, Gene> enrichment = new Enrichment<>( mtc, threshold, 20, 1000 );
+        TermIndexedEnrichment.runAnalysis( enrichment, CompletePopulation.standardCompletePopulation( sampleMap ),
+                counts, POPULATION_SIZE, memo );
+        return enrichment;
+    }
+
+    private void assertEquivalent( MultipleTestCorrection mtc, double threshold ) {
+        Enrichment<GeneOntologyTerm, Gene> expected = generic( mtc, threshold );
+        Enrichment<GeneOntologyTerm, Gene> actual = indexed( mtc, threshold );
+
+        Assert.assertThat( actual.isComplete(), Matchers.is( true ) );
+        Assert.assertThat( actual.getCutoff(), Matchers.is( expected.getCutoff() ) );
+        Assert.assertThat( actual.getCountTestedTerms(), Matchers.is( expected.getCountTestedTerms() ) );
+        Assert.assertThat( actual.getCalculations(), Matchers.is( expected.getCalculations() ) );
+        Assert.assertThat( actual.getSignificantTerms(), Matchers.equalTo( expected.getSignificantTerms() ) );
+        Assert.assertThat( actual.getRejectedTerms(), Matchers.equalTo( expected.getRejectedTerms() ) );
+        Assert.assertThat( actual.getResults().keySet(), Matchers.equalTo( expected.getResults().keySet() ) );
+
+        for ( Map.Entry<GeneOntologyTerm, EnrichmentResult> e : expected.getResults().entrySet() ) {
+            EnrichmentResult er = actual.getResult( e.getKey() );
+            Assert.assertThat( er, Matchers.equalTo( e.getValue() ) );
+            Assert.assertThat( er.getPvalue(), Matchers.is( e.getValue().getPvalue() ) );
+            Assert.assertThat( er.getRank(), Matchers.is( e.getValue().getRank() ) );
+            Assert.assertThat( er.getFractionalRank(), Matchers.is( e.getValue().getFractionalRank() ) );
+            Assert.assertThat( er.isSignificant(), Matchers.is( e.getValue().isSignificant() ) );
+        }
+    }
+
+    @Test
+    public void testMatchesGenericBH() {
+        assertEquivalent( MultipleTestCorrection.BH, 0.05 );
+        assertEquivalent( MultipleTestCorrection.BH, 0.5 );
+    }
+
+    @Test
+    public void testMatchesGenericBonferroni() {
+        assertEquivalent( MultipleTestCorrection.BONFERRONI, 0.05 );
+        assertEquivalent( MultipleTestCorrection.BONFERRONI, 1 );
+    }
+
+    @Test
+    public void testRejected() {
+        Enrichment<GeneOntologyTerm, Gene> enrichment = indexed( MultipleTestCorrection.BH, 0.05 );
+        Assert.assertThat( enrichment.getRejectedTerms(), Matchers.containsInAnyOrder( foreign, large ) );
+        Assert.assertThat( enrichment.getResult( foreign ), Matchers.nullValue() );
+        Assert.assertThat( enrichment.getCountTestedTerms(), Matchers.is( sampleMap.size() - 2 ) );
+    }
+
+    @Test
+    public void testAllRejected() {
+        Enrichment<GeneOntologyTerm, Gene> enrichment = new Enrichment<>( MultipleTestCorrection.BH, 0.05, 10000,
+                20000 );
+        boolean success = TermIndexedEnrichment.runAnalysis( enrichment,
+                CompletePopulation.standardCompletePopulation( sampleMap ), counts, POPULATION_SIZE, memo );
+        Assert.assertThat( success, Matchers.is( false ) );
+        Assert.assertThat( enrichment.isComplete(), Matchers.is( false ) );
+        Assert.assertThat( enrichment.getResults().isEmpty(), Matchers.is( true ) );
+    }
+
+    @Test
+    public void testSort() {
+        double[] pvalues = { 0.5, 0.1, 0.1, 0.9, 0.1, 0.0 };
+        int[] sampleAnnotated = { 1, 2, 3, 1, 2, 5 };
+        int[] populationAnnotated = { 10, 30, 40, 10, 20, 5 };
+        int[] order = { 0, 1, 2, 3, 4, 5 };
+        TermIndexedEnrichment.sort( order, pvalues, sampleAnnotated, populationAnnotated );
+        Assert.assertThat( order, Matchers.equalTo( new int[] { 5, 2, 4, 1, 0, 3 } ) );
+    }
+
+    @Test(timeout = 60000)
+    public void testLoad() {
+        // Warm up the memo so only the analysis itself is timed
+        generic( MultipleTestCorrection.BH, 0.05 );
+
+        int runs = 200;
+        long start = System.currentTimeMillis();
+        for ( int i = 0; i < runs; i++ ) {
+            generic( MultipleTestCorrection.BH, 0.05 );
+        }
+        long genericTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for ( int i = 0; i < runs; i++ ) {
+            indexed( MultipleTestCorrection.BH, 0.05 );
+        }
+        long indexedTime = System.currentTimeMillis() - start;
+
+        log.info( runs + " analyses of " + sampleMap.size() + " terms, generic: " + genericTime + " ms, indexed: "
+                + indexedTime + " ms" );
+    }
+}
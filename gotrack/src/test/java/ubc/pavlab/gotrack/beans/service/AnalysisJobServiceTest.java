@@ -0,0 +1,165 @@
+package ubc.pavlab.gotrack.beans.service;
+
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ubc.pavlab.gotrack.exception.JobRejectedException;
+import ubc.pavlab.gotrack.model.AnalysisJob;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AnalysisJobServiceTest {
+
+    private AnalysisJobService service;
+    private CountDownLatch release;
+
+    @Before
+    public void setup() {
+        service = new AnalysisJobService();
+        service.configure( 1, 1, 2, TimeUnit.MINUTES.toMillis( 1 ) );
+        release = new CountDownLatch( 1 );
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        service.destroyed();
+    }
+
+    private String blocked( String result ) {
+        try {
+            release.await();
+        } catch ( InterruptedException e ) {
+            throw new IllegalStateException( e );
+        }
+        return result;
+    }
+
+    private static void awaitFinished( AnalysisJob<?> job ) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( !job.isFinished() && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testComplete() throws InterruptedException {
+        AnalysisJob<String> job = service.submit( "a", poller -> {
+            poller.newStatus( "Working", 50 );
+            poller.completeStatus();
+            return "done";
+        } );
+        awaitFinished( job );
+        Assert.assertThat( job.getState(), Matchers.is( AnalysisJob.State.COMPLETE ) );
+        Assert.assertThat( job.getResult(), Matchers.is( "done" ) );
+        Assert.assertThat( job.getStatuses(), Matchers.contains( "Working completed" ) );
+        Assert.assertThat( service.getJob( job.getId() ), Matchers.sameInstance( job ) );
+    }
+
+    @Test(timeout = 20000)
+    public void testFailed() throws InterruptedException {
+        AnalysisJob<String> job = service.submit( "a", poller -> {
+            throw new IllegalStateException( "broken" );
+        } );
+        awaitFinished( job );
+        Assert.assertThat( job.getState(), Matchers.is( AnalysisJob.State.FAILED ) );
+        Assert.assertThat( job.getError(), Matchers.is( "broken" ) );
+    }
+
+    @Test(timeout = 20000)
+    public void testLimits() {
+        service.submit( "a", poller -> blocked( "1" ) );
+        service.submit( "a", poller -> blocked( "2" ) );
+        try {
+            service.submit( "a", poller -> "3" );
+            Assert.fail( "Per client limit not enforced" );
+        } catch ( JobRejectedException e ) {
+            // Expected
+        }
+
+        // One thread busy and one queued, queue is full for everyone
+        try {
+            service.submit( "b", poller -> "4" );
+            Assert.fail( "Queue size not enforced" );
+        } catch ( JobRejectedException e ) {
+            // Expected
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testCancelQueued() throws InterruptedException {
+        AnalysisJob<String> running = service.submit( "a", poller -> blocked( "1" ) );
+        AnalysisJob<String> queued = service.submit( "a", poller -> "2" );
+
+        Assert.assertThat( service.cancel( queued.getId(), "a" ), Matchers.is( true ) );
+        Assert.assertThat( queued.getState(), Matchers.is( AnalysisJob.State.CANCELLED ) );
+        Assert.assertThat( service.getQueuedCount(), Matchers.is( 0 ) );
+
+        // Slot is free again for the same client
+        AnalysisJob<String> next = service.submit( "a", poller -> "3" );
+
+        release.countDown();
+        awaitFinished( running );
+        awaitFinished( next );
+        Assert.assertThat( running.getResult(), Matchers.is( "1" ) );
+        Assert.assertThat( next.getResult(), Matchers.is( "3" ) );
+        Assert.assertThat( queued.getResult(), Matchers.nullValue() );
+        Assert.assertThat( service.cancel( running.getId(), "a" ), Matchers.is( false ) );
+    }
+
+    @Test(timeout = 20000)
+    public void testCancelledRunningHoldsSlot() throws InterruptedException {
+        service.destroyed();
+        service.configure( 2, 1, 1, TimeUnit.MINUTES.toMillis( 1 ) );
+        CountDownLatch started = new CountDownLatch( 1 );
+        AnalysisJob<String> running = service.submit( "a", poller -> {
+            started.countDown();
+            // Ignores interruption like the analyses do
+            while ( true ) {
+                try {
+                    release.await();
+                    return "1";
+                } catch ( InterruptedException e ) {
+                    // Keep working
+                }
+            }
+        } );
+        started.await();
+
+        Assert.assertThat( service.cancel( running.getId(), "b" ), Matchers.is( false ) );
+        Assert.assertThat( service.cancel( running.getId(), "a" ), Matchers.is( true ) );
+        Assert.assertThat( running.getState(), Matchers.is( AnalysisJob.State.CANCELLED ) );
+        Assert.assertThat( running.isActive(), Matchers.is( true ) );
+        try {
+            service.submit( "a", poller -> "2" );
+            Assert.fail( "Cancelled job still running did not count" );
+        } catch ( JobRejectedException e ) {
+            // Expected
+        }
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( running.isActive() && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        Assert.assertThat( running.isActive(), Matchers.is( false ) );
+        Assert.assertThat( running.getResult(), Matchers.nullValue() );
+        AnalysisJob<String> next = service.submit( "a", poller -> "3" );
+        awaitFinished( next );
+        Assert.assertThat( next.getResult(), Matchers.is( "3" ) );
+    }
+
+    @Test(timeout = 20000)
+    public void testExpiry() throws InterruptedException {
+        service.destroyed();
+        service.configure( 1, 1, 2, 50 );
+        AnalysisJob<String> job = service.submit( "a", poller -> "done" );
+        awaitFinished( job );
+        Assert.assertThat( service.getJob( job.getId() ), Matchers.notNullValue() );
+        Thread.sleep( 200 );
+        Assert.assertThat( service.getJob( job.getId() ), Matchers.nullValue() );
+    }
+}
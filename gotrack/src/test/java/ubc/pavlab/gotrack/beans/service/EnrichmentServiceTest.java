@@ -0,0 +1,250 @@
+package ubc.pavlab.gotrack.beans.service;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.*;
+import ubc.pavlab.gotrack.analysis.CombinedAnalysis;
+import ubc.pavlab.gotrack.analysis.Enrichment;
+import ubc.pavlab.gotrack.analysis.EnrichmentAnalysisOptions;
+import ubc.pavlab.gotrack.analysis.MultipleTestCorrection;
+import ubc.pavlab.gotrack.beans.Cache;
+import ubc.pavlab.gotrack.beans.SettingsCache;
+import ubc.pavlab.gotrack.model.Edition;
+import ubc.pavlab.gotrack.model.GOEdition;
+import ubc.pavlab.gotrack.model.Gene;
+import ubc.pavlab.gotrack.model.Species;
+import ubc.pavlab.gotrack.model.StatusPoller;
+import ubc.pavlab.gotrack.model.dto.EditionDTO;
+import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+
+import java.sql.Date;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class EnrichmentServiceTest {
+
+    private static final Species human = new Species( 7, "Human", "", 9606, null );
+
+    @InjectMocks
+    private EnrichmentService enrichmentService = new EnrichmentService();
+
+    @Mock
+    private Cache cache;
+
+    @Mock
+    private AnnotationService annotationService;
+
+    @Mock
+    private SettingsCache settingsCache;
+
+    private Edition ed;
+    private List<Gene> genes;
+    private List<GeneOntologyTerm> terms;
+    private Map<Gene, Set<GeneOntologyTerm>> annotations;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks( this );
+
+        ed = new Edition( new EditionDTO( 7, 1, Date.valueOf( "2016-01-01" ), 1, 1 ),
+                human, new GOEdition( new GOEditionDTO( 1, Date.valueOf( "2016-01-01" ) ) ) );
+
+        terms = new ArrayList<>();
+        for ( int i = 1; i <= 30; i++ ) {
+            terms.add( new GeneOntologyTerm( String.format( "GO:%07d", i ) ) );
+        }
+
+        genes = new ArrayList<>();
+        annotations = new HashMap<>();
+        for ( int i = 1; i <= 50; i++ ) {
+            Gene g = new Gene.GeneBuilder( i, "Gene" + i, "", human, null ).build();
+            genes.add( g );
+            Set<GeneOntologyTerm> annotated = new HashSet<>();
+            for ( int j = 0; j < terms.size(); j++ ) {
+                if ( ( i + j ) % 3 == 0 || ( i < 10 && j < 5 ) ) {
+                    annotated.add( terms.get( j ) );
+                }
+            }
+            annotations.put( g, annotated );
+        }
+
+        // First half of the genes are cached, the rest come from the database
+        for ( Gene g : genes ) {
+            Mockito.when( cache.getEnrichmentData( g ) )
+                    .thenReturn( g.getId() <= 25 ? Collections.singletonMap( ed, annotations.get( g ) ) : null );
+        }
+        Mockito.when( annotationService.fetchSingleEnrichmentData( Mockito.eq( ed ), Mockito.anyCollection() ) )
+                .then( invocation -> {
+                    Map<Gene, Set<GeneOntologyTerm>> res = new HashMap<>();
+                    for ( Object g : (Collection<?>) invocation.getArguments()[1] ) {
+                        res.put( (Gene) g, annotations.get( g ) );
+                    }
+                    return res;
+                } );
+
+        Mockito.when( cache.getInferredAnnotationCount( Mockito.eq( ed ), Mockito.any( GeneOntologyTerm.class ) ) )
+                .then( invocation -> 20 + terms.indexOf( invocation.getArguments()[1] ) );
+        Mockito.when( cache.getGeneCount( ed ) ).thenReturn( 1000 );
+    }
+
+    @Test
+    public void testBatchMatchesSingle() {
+        Map<String, Set<Gene>> geneSets = new LinkedHashMap<>();
+        geneSets.put( "a", new HashSet<>( genes.subList( 0, 20 ) ) );
+        geneSets.put( "b", new HashSet<>( genes.subList( 14, 40 ) ) );
+        geneSets.put( "empty", Collections.emptySet() );
+
+        Map<String, Optional<Enrichment<GeneOntologyTerm, Gene>>> results = new ConcurrentHashMap<>();
+        enrichmentService.batchEnrichment( ed, geneSets, MultipleTestCorrection.BH, 0.05, 0, 0, null,
+                ( name, enrichment ) -> results.put( name, Optional.ofNullable( enrichment ) ) );
+
+        // Uncached genes of all hit lists are fetched together
+        ArgumentCaptor<Collection> fetched = ArgumentCaptor.forClass( Collection.class );
+        Mockito.verify( annotationService, Mockito.times( 1 ) ).fetchSingleEnrichmentData( Mockito.eq( ed ),
+                fetched.capture() );
+        Assert.assertThat( fetched.getValue().size(), Matchers.is( 15 ) );
+
+        Assert.assertThat( results.keySet(), Matchers.containsInAnyOrder( "a", "b", "empty" ) );
+        Assert.assertThat( results.get( "empty" ).isPresent(), Matchers.is( false ) );
+
+        for ( String name : Arrays.asList( "a", "b" ) ) {
+            Enrichment<GeneOntologyTerm, Gene> batch = results.get( name ).get();
+            Enrichment<GeneOntologyTerm, Gene> single = enrichmentService.singleEnrichment( ed, geneSets.get( name ),
+                    human, MultipleTestCorrection.BH, 0.05, 0, 0, null );
+            Assert.assertThat( batch.getResults().isEmpty(), Matchers.is( false ) );
+            Assert.assertThat( batch.getResults(), Matchers.equalTo( single.getResults() ) );
+            Assert.assertThat( batch.getSignificantTerms(), Matchers.equalTo( single.getSignificantTerms() ) );
+            Assert.assertThat( batch.getCutoff(), Matchers.is( single.getCutoff() ) );
+            Assert.assertThat( batch.getSamplePopulation().getEntities(),
+                    Matchers.equalTo( single.getSamplePopulation().getEntities() ) );
+        }
+    }
+
+    @Test
+    public void testBatchStopsWhenConsumerFails() {
+        Map<String, Set<Gene>> geneSets = new LinkedHashMap<>();
+        geneSets.put( "a", new HashSet<>( genes.subList( 0, 20 ) ) );
+        geneSets.put( "b", new HashSet<>( genes.subList( 14, 40 ) ) );
+        geneSets.put( "c", new HashSet<>( genes.subList( 5, 30 ) ) );
+
+        List<String> consumed = new ArrayList<>();
+        try {
+            enrichmentService.batchEnrichment( ed, geneSets, MultipleTestCorrection.BH, 0.05, 0, 0, null,
+                    ( name, enrichment ) -> {
+                        consumed.add( name );
+                        throw new IllegalStateException( "Client gone" );
+                    } );
+            Assert.fail( "Expected an IllegalStateException" );
+        } catch ( IllegalStateException e ) {
+            Assert.assertThat( e.getMessage(), Matchers.is( "Client gone" ) );
+        }
+        Assert.assertThat( consumed, Matchers.contains( "a" ) );
+    }
+
+    @Test
+    public void testCombinedAnalysisShared() {
+        enrichmentService.createCombinedAnalysisCache( 10, 1L << 30 );
+
+        EnrichmentAnalysisOptions options = new EnrichmentAnalysisOptions();
+        options.setMinAnnotatedPopulation( 0 );
+        options.setAspects( new ArrayList<>() );
+
+        List<Gene> hitList = new ArrayList<>( genes.subList( 0, 20 ) );
+        CombinedAnalysis first = enrichmentService.combinedAnalysis( new HashSet<>( hitList ), human, options, ed, 5,
+                new StatusPoller() );
+        Assert.assertThat( first.isSuccess(), Matchers.is( true ) );
+
+        // Same genes in another order with equal options from another session
+        Collections.reverse( hitList );
+        EnrichmentAnalysisOptions sameOptions = new EnrichmentAnalysisOptions();
+        sameOptions.setMinAnnotatedPopulation( 0 );
+        sameOptions.setAspects( new ArrayList<>() );
+        CombinedAnalysis second = enrichmentService.combinedAnalysis( new LinkedHashSet<>( hitList ), human,
+                sameOptions, ed, 5, new StatusPoller() );
+        Assert.assertThat( second, Matchers.sameInstance( first ) );
+        Assert.assertThat( enrichmentService.getCombinedAnalysisCacheStats().hitCount(), Matchers.is( 1L ) );
+
+        // Any difference in the inputs is a different analysis
+        CombinedAnalysis other = enrichmentService.combinedAnalysis( new HashSet<>( hitList ), human, sameOptions, ed,
+                3, new StatusPoller() );
+        Assert.assertThat( other, Matchers.not( Matchers.sameInstance( first ) ) );
+        Assert.assertThat( enrichmentService.getCombinedAnalysisCacheSize(), Matchers.is( 2L ) );
+    }
+
+    @Test
+    public void testCombinedAnalysisEntryLimit() {
+        enrichmentService.createCombinedAnalysisCache( 1, 1L << 30 );
+
+        EnrichmentAnalysisOptions options = new EnrichmentAnalysisOptions();
+        options.setMinAnnotatedPopulation( 0 );
+        for ( int topN = 1; topN <= 5; topN++ ) {
+            enrichmentService.combinedAnalysis( new HashSet<>( genes.subList( 0, 20 ) ), human, options, ed, topN,
+                    new StatusPoller() );
+        }
+        Assert.assertThat( enrichmentService.getCombinedAnalysisCacheSize(), Matchers.is( 1L ) );
+    }
+
+    @Test
+    public void testCombinedAnalysisRecorrected() {
+        enrichmentService.createCombinedAnalysisCache( 10, 1L << 30 );
+
+        EnrichmentAnalysisOptions options = new EnrichmentAnalysisOptions();
+        options.setMinAnnotatedPopulation( 0 );
+        options.setAspects( new ArrayList<>() );
+        Set<Gene> hitList = new HashSet<>( genes.subList( 0, 20 ) );
+        CombinedAnalysis first = enrichmentService.combinedAnalysis( hitList, human, options, ed, 5,
+                new StatusPoller() );
+        Mockito.clearInvocations( cache, annotationService );
+
+        // Only the threshold changed, no data is retrieved and no tests are run
+        EnrichmentAnalysisOptions relaxed = new EnrichmentAnalysisOptions();
+        relaxed.setMinAnnotatedPopulation( 0 );
+        relaxed.setAspects( new ArrayList<>() );
+        relaxed.setMultipleTestCorrection( MultipleTestCorrection.BH );
+        relaxed.setThreshold( 0.5 );
+        CombinedAnalysis second = enrichmentService.combinedAnalysis( hitList, human, relaxed, ed, 5,
+                new StatusPoller() );
+        Mockito.verify( cache, Mockito.never() ).getEnrichmentData( Mockito.any( Gene.class ) );
+        Mockito.verifyNoInteractions( annotationService );
+
+        Assert.assertThat( second.isSuccess(), Matchers.is( true ) );
+        Assert.assertThat( second, Matchers.not( Matchers.sameInstance( first ) ) );
+        Assert.assertThat( second.getEnrichmentAnalysis().getThreshold(), Matchers.is( 0.5 ) );
+        Assert.assertThat( second.getSimilarityAnalysis(), Matchers.notNullValue() );
+        Assert.assertThat( second.getStabilityAnalysis(), Matchers.notNullValue() );
+        Assert.assertThat( second.getEnrichmentAnalysis().getTermsSignificantInAnyEdition(),
+                Matchers.hasItems( first.getEnrichmentAnalysis().getTermsSignificantInAnyEdition()
+                        .toArray( new GeneOntologyTerm[0] ) ) );
+        Assert.assertThat( enrichmentService.getCombinedAnalysisCacheSize(), Matchers.is( 2L ) );
+    }
+
+    @Test
+    public void testRecorrectWithoutCache() {
+        enrichmentService.createCombinedAnalysisCache( 0, 1L << 30 );
+
+        EnrichmentAnalysisOptions options = new EnrichmentAnalysisOptions();
+        options.setMinAnnotatedPopulation( 0 );
+        options.setAspects( new ArrayList<>() );
+        CombinedAnalysis first = enrichmentService.combinedAnalysis( new HashSet<>( genes.subList( 0, 20 ) ), human,
+                options, ed, 5, new StatusPoller() );
+        Assert.assertThat( enrichmentService.getCombinedAnalysisCacheSize(), Matchers.is( 0L ) );
+        Mockito.clearInvocations( cache, annotationService );
+
+        EnrichmentAnalysisOptions relaxed = new EnrichmentAnalysisOptions();
+        relaxed.setMinAnnotatedPopulation( 0 );
+        relaxed.setAspects( new ArrayList<>() );
+        relaxed.setMultipleTestCorrection( MultipleTestCorrection.BH );
+        relaxed.setThreshold( 0.5 );
+        CombinedAnalysis second = enrichmentService.recorrect( first, relaxed, new StatusPoller() );
+        Mockito.verify( cache, Mockito.never() ).getEnrichmentData( Mockito.any( Gene.class ) );
+        Mockito.verifyNoInteractions( annotationService );
+
+        Assert.assertThat( second.isSuccess(), Matchers.is( true ) );
+        Assert.assertThat( second.getEnrichmentAnalysis().getThreshold(), Matchers.is( 0.5 ) );
+        Assert.assertThat( second.getSimilarityAnalysis().getTopN(), Matchers.is( 5 ) );
+        Assert.assertThat( second.getStabilityAnalysis(), Matchers.notNullValue() );
+    }
+}
@@ -0,0 +1,176 @@
+package ubc.pavlab.gotrack.beans.service;
+
+import com.google.common.collect.Sets;
+import org.apache.log4j.Logger;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ubc.pavlab.gotrack.model.Aspect;
+import ubc.pavlab.gotrack.model.GOEdition;
+import ubc.pavlab.gotrack.model.Gene;
+import ubc.pavlab.gotrack.model.Species;
+import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
+import ubc.pavlab.gotrack.model.dto.GOTermDTO;
+import ubc.pavlab.gotrack.model.go.GeneOntology;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+import ubc.pavlab.gotrack.model.go.RelationshipType;
+import ubc.pavlab.gotrack.model.go.TermSet;
+
+import java.sql.Date;
+import java.util.*;
+
+/**
+ * Building enrichment samples from per gene term sets held as hash sets and as {@link TermSet}s, on randomly
+ * generated ontologies.
+ */
+public class SampleBuilderTest {
+
+    private static final Logger log = Logger.getLogger( SampleBuilderTest.class );
+
+    private static final Aspect[] ASPECTS = Aspect.values();
+
+    private Random random;
+
+    @Before
+    public void setup() {
+        random = new Random( 1 );
+    }
+
+    private GeneOntology createOntology( int id, int size ) {
+        GeneOntology go = new GeneOntology( new GOEdition( new GOEditionDTO( id, Date.valueOf( "2016-03-30" ) ) ) );
+        List<GeneOntologyTerm> terms = new ArrayList<>();
+        for ( int i = 1; i <= size; i++ ) {
+            GeneOntologyTerm t = new GeneOntologyTerm( new GOTermDTO( id, String.format( "GO:%07d", i ), "",
+                    ASPECTS[i % ASPECTS.length].name(), false ) );
+            go.addTerm( t );
+            // Parents come from the quarter of terms above this one, giving a shallow graph with mostly single
+            // parents like GO
+            if ( i > 1 ) {
+                int parentCount = random.nextInt( 4 ) == 0 ? 2 : 1;
+                Set<Integer> parents = new HashSet<>();
+                for ( int p = 0; p < parentCount; p++ ) {
+                    parents.add( ( i - 1 ) / 4 + random.nextInt( Math.max( 1, ( i - 1 ) / 4 ) ) );
+                }
+                for ( int p : parents ) {
+                    go.addRelationship( t, terms.get( p ), RelationshipType.IS_A );
+                }
+            }
+            terms.add( t );
+        }
+        go.freeze();
+        return go;
+    }
+
+    private List<Gene> createGenes( int n ) {
+        List<Gene> genes = new ArrayList<>();
+        Species human = new Species( 7, "Human", "", 9606, null );
+        for ( int i = 1; i <= n; i++ ) {
+            genes.add( new Gene.GeneBuilder( i, "Gene" + i, "", human, null ).build() );
+        }
+        return genes;
+    }
+
+    private Set<GeneOntologyTerm> annotate( GeneOntology go, int directTerms ) {
+        Set<GeneOntologyTerm> direct = new HashSet<>();
+        while ( direct.size() < directTerms ) {
+            direct.add( go.getTermByOrdinal( random.nextInt( go.size() ) ) );
+        }
+        return GeneOntologyTerm.propagateToSet( direct );
+    }
+
+    @Test
+    public void testTermSetMatchesHashSet() {
+        GeneOntology go = createOntology( 1, 2000 );
+        List<Gene> genes = createGenes( 200 );
+        for ( Set<Aspect> filter : Arrays.asList( null, Sets.newHashSet( Aspect.BP ),
+                Sets.newHashSet( Aspect.BP, Aspect.MF ) ) ) {
+            EnrichmentService.SampleBuilder hashed = new EnrichmentService.SampleBuilder( filter );
+            EnrichmentService.SampleBuilder compact = new EnrichmentService.SampleBuilder( filter );
+            for ( Gene g : genes ) {
+                Set<GeneOntologyTerm> terms = annotate( go, 1 + random.nextInt( 10 ) );
+                hashed.add( g, terms );
+                compact.add( g, TermSet.of( go, terms ) );
+            }
+            Map<GeneOntologyTerm, Set<Gene>> expected = hashed.build();
+            Assert.assertThat( expected.isEmpty(), Matchers.is( false ) );
+            Assert.assertThat( compact.build(), Matchers.equalTo( expected ) );
+        }
+    }
+
+    @Test
+    public void testMixedInput() {
+        GeneOntology go = createOntology( 1, 500 );
+        List<Gene> genes = createGenes( 50 );
+        EnrichmentService.SampleBuilder hashed = new EnrichmentService.SampleBuilder( null );
+        EnrichmentService.SampleBuilder mixed = new EnrichmentService.SampleBuilder( null );
+        for ( Gene g : genes ) {
+            Set<GeneOntologyTerm> terms = annotate( go, 3 );
+            hashed.add( g, terms );
+            mixed.add( g, g.getId() % 2 == 0 ? TermSet.of( go, terms ) : terms );
+        }
+        Assert.assertThat( mixed.build(), Matchers.equalTo( hashed.build() ) );
+    }
+
+    @Test(timeout = 300000)
+    public void testLoad() {
+        // A 5,000 gene hit list over a handful of editions
+        int editions = 10;
+        List<Gene> genes = createGenes( 5000 );
+        List<Map<Gene, Set<GeneOntologyTerm>>> hashedData = new ArrayList<>();
+        List<Map<Gene, Set<GeneOntologyTerm>>> compactData = new ArrayList<>();
+        long hashedBytes = 0;
+        long compactBytes = 0;
+        for ( int e = 1; e <= editions; e++ ) {
+            GeneOntology go = createOntology( e, 20000 );
+            Map<Gene, Set<GeneOntologyTerm>> hashed = new HashMap<>();
+            Map<Gene, Set<GeneOntologyTerm>> compact = new HashMap<>();
+            for ( Gene g : genes ) {
+                Set<GeneOntologyTerm> terms = annotate( go, 1 + random.nextInt( 15 ) );
+                TermSet termSet = TermSet.of( go, terms );
+                hashed.put( g, terms );
+                compact.put( g, termSet );
+                // HashSet object, its table and one node per term
+                hashedBytes += 16 + 16 + 4L * Integer.highestOneBit( terms.size() * 4 / 3 + 1 ) * 2 + 32L * terms.size();
+                compactBytes += termSet.sizeInBytes();
+            }
+            hashedData.add( hashed );
+            compactData.add( compact );
+        }
+
+        // Warm up both
+        for ( int i = 0; i < 3; i++ ) {
+            build( hashedData );
+            build( compactData );
+        }
+
+        int iterations = 10;
+        long start = System.currentTimeMillis();
+        for ( int i = 0; i < iterations; i++ ) {
+            build( hashedData );
+        }
+        long hashedTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for ( int i = 0; i < iterations; i++ ) {
+            build( compactData );
+        }
+        long compactTime = System.currentTimeMillis() - start;
+
+        log.info( genes.size() + " genes over " + editions + " editions, term sets: hash sets ~" + hashedBytes / 1000000
+                + " MB, term sets ~" + compactBytes / 1000000 + " MB" );
+        log.info( iterations + " sample builds: hash sets " + hashedTime + " ms, term sets " + compactTime + " ms" );
+    }
+
+    private static int build( List<Map<Gene, Set<GeneOntologyTerm>>> data ) {
+        int total = 0;
+        for ( Map<Gene, Set<GeneOntologyTerm>> edition : data ) {
+            EnrichmentService.SampleBuilder builder = new EnrichmentService.SampleBuilder( null );
+            for ( Map.Entry<Gene, Set<GeneOntologyTerm>> e : edition.entrySet() ) {
+                builder.add( e.getKey(), e.getValue() );
+            }
+            total += builder.build().size();
+        }
+        return total;
+    }
+}
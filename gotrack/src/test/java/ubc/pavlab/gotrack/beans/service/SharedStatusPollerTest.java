@@ -0,0 +1,43 @@
+package ubc.pavlab.gotrack.beans.service;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import ubc.pavlab.gotrack.model.StatusPoller;
+
+public class SharedStatusPollerTest {
+
+    @Test
+    public void testForwardsToEveryWaiter() {
+        SharedStatusPoller shared = new SharedStatusPoller();
+        StatusPoller first = new StatusPoller( " completed" );
+        shared.join( first );
+
+        shared.newStatus( "Retrieving data", 10 );
+        shared.completeStatus();
+        shared.newStatus( "Running analysis", 50 );
+
+        // Joins late and is brought up to date
+        StatusPoller second = new StatusPoller( " done" );
+        shared.join( second );
+
+        shared.completeStatus();
+
+        Assert.assertThat( first.getStatuses(), Matchers.contains( "Retrieving data completed",
+                "Running analysis completed" ) );
+        Assert.assertThat( second.getStatuses(), Matchers.contains( "Retrieving data done", "Running analysis done" ) );
+        Assert.assertThat( second.getProgress(), Matchers.is( 50 ) );
+    }
+
+    @Test
+    public void testWaiterProgressNeverGoesBackwards() {
+        SharedStatusPoller shared = new SharedStatusPoller();
+        StatusPoller waiter = new StatusPoller();
+        waiter.newStatus( "Queued", 20 );
+        shared.join( waiter );
+
+        shared.newStatus( "Retrieving data", 10 );
+        Assert.assertThat( waiter.getCurrentStatus(), Matchers.is( "Retrieving data" ) );
+        Assert.assertThat( waiter.getProgress(), Matchers.is( 20 ) );
+    }
+}
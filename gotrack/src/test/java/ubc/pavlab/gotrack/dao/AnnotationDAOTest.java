@@ -40,7 +40,9 @@ import ubc.pavlab.gotrack.utilities.Tuples.Tuple3;
 
 import java.sql.Date;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -516,4 +518,52 @@ public class AnnotationDAOTest extends BaseTest {
 
     }
 
+    /**
+     * End-to-end retrieval time of enrichment data against the size of the hit list, one statement against chunks. The
+     * test database holds few genes so hit lists are padded with accessions that match nothing, which still cost their
+     * place in the IN list.
+     */
+    @Test
+    public void testLoad() {
+        Species human = new Species( 7, "Human", "", 9606, null );
+        List<String> accessions = daoFactory.getCacheDAO().getAccessions( new int[] { 7 } ).stream()
+                .map( AccessionDTO::getAccession ).distinct().collect( Collectors.toList() );
+
+        int[][] strategies = { { Integer.MAX_VALUE, 1 }, { 1000, 1 }, { 1000, 4 }, { 250, 4 } };
+        try {
+            for ( int size : new int[] { 10, 100, 1000, 5000, 20000 } ) {
+                Set<Gene> genes = new HashSet<>();
+                for ( int i = 0; i < size; i++ ) {
+                    AccessionDTO dto = new AccessionDTO( -1, 7, 0,
+                            i < accessions.size() ? accessions.get( i ) : "X" + i, "", "", "" );
+                    genes.add( new Gene.GeneBuilder( i, "G" + i, "", human, new Accession( dto ) ).build() );
+                }
+
+                StringBuilder timings = new StringBuilder();
+                Integer rows = null;
+                for ( int[] strategy : strategies ) {
+                    daoFactory.setQueryChunking( strategy[0], strategy[1] );
+                    // Warm up
+                    annotationDAO.simpleAnnotationRangeEditions( genes, 0, 200 );
+
+                    long start = System.nanoTime();
+                    int count = 0;
+                    for ( int i = 0; i < 5; i++ ) {
+                        count = annotationDAO.simpleAnnotationRangeEditions( genes, 0, 200 ).size();
+                    }
+                    if ( rows != null ) {
+                        Assert.assertThat( count, Matchers.is( rows ) );
+                    }
+                    rows = count;
+                    timings.append( String.format( ", chunks of %s on %d threads: %.1f ms",
+                            strategy[0] == Integer.MAX_VALUE ? "all" : strategy[0], strategy[1],
+                            ( System.nanoTime() - start ) / 5e6 ) );
+                }
+                log.info( size + " genes, " + rows + " rows" + timings );
+            }
+        } finally {
+            daoFactory.setQueryChunking( 1000, 4 );
+        }
+    }
+
 }
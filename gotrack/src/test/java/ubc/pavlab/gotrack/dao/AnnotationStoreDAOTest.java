@@ -0,0 +1,219 @@
+package ubc.pavlab.gotrack.dao;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ubc.pavlab.gotrack.model.Accession;
+import ubc.pavlab.gotrack.model.Edition;
+import ubc.pavlab.gotrack.model.GOEdition;
+import ubc.pavlab.gotrack.model.Gene;
+import ubc.pavlab.gotrack.model.Species;
+import ubc.pavlab.gotrack.model.dto.*;
+import ubc.pavlab.gotrack.model.go.GeneOntology;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+import ubc.pavlab.gotrack.model.go.RelationshipType;
+import ubc.pavlab.gotrack.utilities.Tuples;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Reads of a species served from a local annotation store, which holds the genes P1 and P2 over editions 1 to 3.
+ */
+public class AnnotationStoreDAOTest {
+
+    private static final Species human = new Species( 7, "Human", "", 9606, null );
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AnnotationDAO db;
+    private Path directory;
+    private Integer current;
+
+    private Gene p1;
+    private Gene p2;
+    private GeneOntologyTerm parent;
+    private GeneOntologyTerm child;
+
+    @Before
+    public void setup() throws IOException {
+        db = mock( AnnotationDAO.class );
+        directory = folder.getRoot().toPath();
+        current = 3;
+
+        p1 = gene( 1, "P1" );
+        p2 = gene( 2, "P2" );
+
+        GeneOntology go = new GeneOntology( new GOEdition( new GOEditionDTO( 1, Date.valueOf( "2016-01-01" ) ) ) );
+        parent = new GeneOntologyTerm( "GO:0000001" );
+        child = new GeneOntologyTerm( "GO:0000002" );
+        go.addTerm( parent );
+        go.addTerm( child );
+        go.addRelationship( child, parent, RelationshipType.IS_A );
+
+        try (AnnotationStore.Writer writer = new AnnotationStore.Writer( AnnotationStore.path( directory, 7 ), 7, 3 )) {
+            writer.add( "P1", new AnnotationDTO( 1, "GO:0000001", "", "IEA", "PMID:1" ) );
+            writer.add( "P1", new AnnotationDTO( 1, "GO:0000001", "", "TAS", "PMID:2" ) );
+            writer.add( "P1", new AnnotationDTO( 2, "GO:0000002", "NOT", "IDA", null ) );
+            writer.add( "P1", new AnnotationDTO( 3, "GO:0000002", "", "IDA", "PMID:3" ) );
+            writer.add( "P2", new AnnotationDTO( 2, "GO:0000002", "", "IEA", "PMID:1" ) );
+            writer.add( "P2", new AnnotationDTO( 3, "GO:0000003", "", "IEA", "PMID:1" ) );
+            writer.finish();
+        }
+    }
+
+    private static Gene gene( int id, String accession ) {
+        return new Gene.GeneBuilder( id, "Gene" + id, "", human,
+                new Accession( new AccessionDTO( id, 7, 3, accession, "Gene" + id, "", "Swiss-Prot" ) ) ).build();
+    }
+
+    private static Edition edition( int edition ) {
+        return new Edition( new EditionDTO( 7, edition, Date.valueOf( "2016-01-01" ), 1, 1 ), human,
+                new GOEdition( new GOEditionDTO( 1, Date.valueOf( "2016-01-01" ) ) ) );
+    }
+
+    private AnnotationStoreDAO dao() {
+        return new AnnotationStoreDAO( db, directory, speciesId -> current );
+    }
+
+    @Test
+    public void testFullAnnotation() {
+        AnnotationStoreDAO dao = dao();
+        Assert.assertThat( dao.isServed( human ), Matchers.is( true ) );
+
+        List<AnnotationDTO> results = dao.fullAnnotationRangeEditions( p1, 2, 3 );
+        Assert.assertThat( results.size(), Matchers.is( 2 ) );
+        Assert.assertThat( results.get( 0 ).getEdition(), Matchers.is( 2 ) );
+        Assert.assertThat( results.get( 0 ).getQualifier(), Matchers.is( "NOT" ) );
+        Assert.assertThat( results.get( 0 ).getReference(), Matchers.nullValue() );
+        Assert.assertThat( results.get( 1 ).getGoId(), Matchers.is( "GO:0000002" ) );
+        Assert.assertThat( results.get( 1 ).getEvidence(), Matchers.is( "IDA" ) );
+        Assert.assertThat( results.get( 1 ).getReference(), Matchers.is( "PMID:3" ) );
+
+        Assert.assertThat( dao.fullAnnotationRangeEditions( gene( 3, "P3" ), 1, 3 ), Matchers.empty() );
+        verifyZeroInteractions( db );
+    }
+
+    @Test
+    public void testSimpleAnnotationsSkipNegatedAndDuplicates() {
+        AnnotationStoreDAO dao = dao();
+        List<String> range = dao.simpleAnnotationRangeEditions( Sets.newLinkedHashSet( Lists.newArrayList( p1, p2 ) ), 1, 3 )
+                .stream().map( e -> e.getEdition() + " " + e.getAccession() + " " + e.getGoId() )
+                .collect( Collectors.toList() );
+        Assert.assertThat( range, Matchers.contains( "1 P1 GO:0000001", "3 P1 GO:0000002",
+                "2 P2 GO:0000002", "3 P2 GO:0000003" ) );
+
+        List<String> single = dao.simpleAnnotationSingleEdition( edition( 2 ), Sets.newHashSet( p1, p2 ) )
+                .stream().map( a -> a.getAccession() + " " + a.getGoId() ).collect( Collectors.toList() );
+        Assert.assertThat( single, Matchers.contains( "P2 GO:0000002" ) );
+        verifyZeroInteractions( db );
+    }
+
+    @Test
+    public void testTermReads() {
+        AnnotationStoreDAO dao = dao();
+
+        List<String> inferred = dao.inferredGenesRangeEditions( parent, human, 1, 3 ).stream()
+                .map( t -> t.getT1() + " " + t.getT2() + " " + t.getT3() ).sorted().collect( Collectors.toList() );
+        Assert.assertThat( inferred, Matchers.contains( "1 P1 true", "2 P1 false", "2 P2 false", "3 P1 false" ) );
+
+        List<Tuples.Tuple2<String, Boolean>> single = new ArrayList<>( dao.inferredGenesSingleEdition( child, edition( 3 ) ) );
+        Assert.assertThat( single.size(), Matchers.is( 1 ) );
+        Assert.assertThat( single.get( 0 ).getT1(), Matchers.is( "P1" ) );
+        Assert.assertThat( single.get( 0 ).getT2(), Matchers.is( true ) );
+
+        List<String> direct = dao.directGenesSingleEdition( child, edition( 2 ) );
+        Collections.sort( direct );
+        Assert.assertThat( direct, Matchers.contains( "P1", "P2" ) );
+
+        Assert.assertThat( dao.directGenesSingleEdition( new GeneOntologyTerm( "GO:0000009" ), edition( 2 ) ),
+                Matchers.empty() );
+        verifyZeroInteractions( db );
+    }
+
+    @Test
+    public void testCompleteSpecies() {
+        List<String> results = new ArrayList<>();
+        dao().simpleAnnotationSingleEditionCompleteSpecies( human, edition( 3 ),
+                t -> results.add( t.getT1() + " " + t.getT2() ) );
+        Assert.assertThat( results, Matchers.contains( "P1 GO:0000002", "P2 GO:0000003" ) );
+    }
+
+    @Test
+    public void testDelegatesWhenStale() {
+        current = 4;
+        AnnotationStoreDAO dao = dao();
+        Assert.assertThat( dao.isServed( human ), Matchers.is( false ) );
+        dao.fullAnnotationRangeEditions( p1, 1, 3 );
+        verify( db ).fullAnnotationRangeEditions( p1, 1, 3 );
+
+        current = 3;
+        Assert.assertThat( dao.isServed( human ), Matchers.is( false ) );
+        dao.refresh( 7 );
+        Assert.assertThat( dao.isServed( human ), Matchers.is( true ) );
+    }
+
+    @Test
+    public void testDelegatesWhenMissing() throws IOException {
+        Files.delete( AnnotationStore.path( directory, 7 ) );
+        AnnotationStoreDAO dao = dao();
+        dao.directGenesSingleEdition( child, edition( 2 ) );
+        verify( db ).directGenesSingleEdition( eq( child ), any( Edition.class ) );
+    }
+
+    @Test
+    public void testDelegatesEvidenceCounts() {
+        dao().categoryCountsSingleSpeciesRangeEditions( "GO:0000001", human, 1, 3 );
+        verify( db ).categoryCountsSingleSpeciesRangeEditions( "GO:0000001", human, 1, 3 );
+    }
+
+    @Test
+    public void testWriterRejectsUngroupedGenes() throws IOException {
+        try (AnnotationStore.Writer writer = new AnnotationStore.Writer( directory.resolve( "bad.store" ), 7, 3 )) {
+            writer.add( "P1", new AnnotationDTO( 1, "GO:0000001", "", "IEA", null ) );
+            writer.add( "P2", new AnnotationDTO( 1, "GO:0000001", "", "IEA", null ) );
+            writer.add( "P1", new AnnotationDTO( 2, "GO:0000001", "", "IEA", null ) );
+            Assert.fail( "Expected a DAOException" );
+        } catch ( DAOException e ) {
+            Assert.assertThat( e.getMessage(), Matchers.containsString( "P1" ) );
+        }
+        Assert.assertThat( Files.exists( directory.resolve( "bad.store" ) ), Matchers.is( false ) );
+    }
+
+    @Test
+    public void testConcurrentWritersOfOneStore() throws IOException {
+        Path file = directory.resolve( "shared.store" );
+        try (AnnotationStore.Writer first = new AnnotationStore.Writer( file, 7, 3 );
+             AnnotationStore.Writer second = new AnnotationStore.Writer( file, 7, 3 )) {
+            // Each writer has its own partial store
+            try (Stream<Path> files = Files.list( directory )) {
+                Assert.assertThat( files.map( p -> p.getFileName().toString() )
+                        .filter( name -> name.startsWith( "shared.store." ) ).count(), Matchers.is( 2L ) );
+            }
+            first.add( "P1", new AnnotationDTO( 1, "GO:0000001", "", "IEA", null ) );
+            second.add( "P2", new AnnotationDTO( 1, "GO:0000002", "", "IEA", null ) );
+            first.finish();
+            second.finish();
+        }
+        try (Stream<Path> files = Files.list( directory )) {
+            Assert.assertThat( files.map( p -> p.getFileName().toString() ).collect( Collectors.toList() ),
+                    Matchers.containsInAnyOrder( "shared.store", AnnotationStore.path( directory, 7 ).getFileName()
+                            .toString() ) );
+        }
+    }
+}
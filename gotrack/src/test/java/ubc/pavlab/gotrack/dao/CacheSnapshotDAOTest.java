@@ -0,0 +1,217 @@
+package ubc.pavlab.gotrack.dao;
+
+import com.google.common.collect.Lists;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ubc.pavlab.gotrack.model.dto.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * Round trips of cached data through a local snapshot.
+ */
+public class CacheSnapshotDAOTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CacheDAO db;
+    private Path file;
+
+    @Before
+    public void setup() {
+        db = mock( CacheDAO.class );
+        file = folder.getRoot().toPath().resolve( "cache.snapshot" );
+
+        when( db.getCurrentEditions( null ) ).thenReturn( Lists.newArrayList(
+                new EditionDTO( 7, 150, null, null, null ),
+                new EditionDTO( 9, 151, null, null, null ) ) );
+        when( db.getCurrentEditions( any( int[].class ) ) ).thenReturn( Lists.newArrayList(
+                new EditionDTO( 7, 150, null, null, null ) ) );
+        when( db.getAllGOEditions() ).thenReturn( Lists.newArrayList(
+                new GOEditionDTO( 1, Date.valueOf( "2015-01-01" ) ),
+                new GOEditionDTO( 2, Date.valueOf( "2015-02-01" ) ) ) );
+        when( db.getGoTerms( 1 ) ).thenReturn( Lists.newArrayList(
+                new GOTermDTO( 1, "GO:0000001", "term one", "BP", false ),
+                new GOTermDTO( 1, "GO:0000002", "term two", "BP", true ) ) );
+        when( db.getAdjacencies( 1 ) ).thenReturn( Lists.newArrayList(
+                new AdjacencyDTO( 1, "GO:0000002", "GO:0000001", "IS_A" ) ) );
+        when( db.getAlternates( 1 ) ).thenReturn( Lists.newArrayList(
+                new AdjacencyDTO( 1, "GO:0000003", "GO:0000001", null ) ) );
+        when( db.getGOAnnotationCounts( 7, 100 ) ).thenReturn( Lists.newArrayList(
+                new AnnotationCountDTO( 150, "GO:0000001", 3, 5 ),
+                new AnnotationCountDTO( 150, "GO:0000002", 1, 1 ),
+                new AnnotationCountDTO( 149, "GO:0000001", 2, 4 ) ) );
+        when( db.getAggregates( any( int[].class ) ) ).thenReturn( Lists.newArrayList(
+                new AggregateDTO( 7, 150, 100, 1.5, 2.5, 3.5, 0.1, 0.2, 0.3 ) ) );
+        when( db.getEvidence() ).thenReturn( Lists.newArrayList(
+                new EvidenceDTO( "IEA", "Inferred from Electronic Annotation", "Automatic", false ) ) );
+        when( db.getAccessions( any( int[].class ) ) ).thenReturn( Lists.newArrayList(
+                new AccessionDTO( 10, 7, 150, "P12345", "ABC1", "Gene ABC1", "Swiss-Prot" ) ) );
+        when( db.getSynonyms( any( int[].class ) ) ).thenReturn( Lists.newArrayList(
+                new SynonymDTO( 10, "ABC" ), new SynonymDTO( 10, "ABCD" ) ) );
+    }
+
+    private void exercise( CacheDAO dao ) {
+        dao.getCurrentEditions( new int[] { 7 } );
+        dao.getAllGOEditions();
+        dao.getGoTerms( 1 );
+        dao.getAdjacencies( 1 );
+        dao.getAlternates( 1 );
+        dao.getGOAnnotationCounts( 7, 100 );
+        dao.getAggregates( new int[] { 7 } );
+        dao.getEvidence();
+        dao.getAccessions( new int[] { 7 } );
+        dao.getSynonyms( new int[] { 7 } );
+    }
+
+    private CacheSnapshotDAO writeSnapshot() {
+        CacheSnapshotDAO snapshot = new CacheSnapshotDAO( db, file, "conf" );
+        Assert.assertThat( snapshot.isLoaded(), Matchers.is( false ) );
+        exercise( snapshot );
+        snapshot.save();
+        snapshot.close();
+        return snapshot;
+    }
+
+    @Test
+    public void testMissingSnapshotRecords() {
+        writeSnapshot();
+        Assert.assertThat( Files.isRegularFile( file ), Matchers.is( true ) );
+        Assert.assertThat( Files.exists( file.resolveSibling( "cache.snapshot.tmp" ) ), Matchers.is( false ) );
+    }
+
+    @Test
+    public void testRoundTrip() {
+        writeSnapshot();
+        reset( db );
+        when( db.getCurrentEditions( null ) ).thenReturn( Lists.newArrayList(
+                new EditionDTO( 7, 150, null, null, null ),
+                new EditionDTO( 9, 151, null, null, null ) ) );
+
+        CacheSnapshotDAO snapshot = new CacheSnapshotDAO( db, file, "conf" );
+        Assert.assertThat( snapshot.isLoaded(), Matchers.is( true ) );
+
+        List<EditionDTO> current = snapshot.getCurrentEditions( new int[] { 7 } );
+        Assert.assertThat( current.size(), Matchers.is( 1 ) );
+        Assert.assertThat( current.get( 0 ).getEdition(), Matchers.is( 150 ) );
+        Assert.assertThat( current.get( 0 ).getDate(), Matchers.nullValue() );
+
+        List<GOEditionDTO> goEditions = snapshot.getAllGOEditions();
+        Assert.assertThat( goEditions.size(), Matchers.is( 2 ) );
+        Assert.assertThat( goEditions.get( 1 ).getDate(), Matchers.is( Date.valueOf( "2015-02-01" ) ) );
+
+        List<GOTermDTO> terms = snapshot.getGoTerms( 1 );
+        Assert.assertThat( terms.size(), Matchers.is( 2 ) );
+        Assert.assertThat( terms.get( 1 ).getGoId(), Matchers.is( "GO:0000002" ) );
+        Assert.assertThat( terms.get( 1 ).getName(), Matchers.is( "term two" ) );
+        Assert.assertThat( terms.get( 1 ).isObsolete(), Matchers.is( true ) );
+
+        List<AdjacencyDTO> alternates = snapshot.getAlternates( 1 );
+        Assert.assertThat( alternates.get( 0 ).getChild(), Matchers.is( "GO:0000003" ) );
+        Assert.assertThat( alternates.get( 0 ).getType(), Matchers.nullValue() );
+        Assert.assertThat( snapshot.getAdjacencies( 1 ).get( 0 ).getType(), Matchers.is( "IS_A" ) );
+
+        List<AnnotationCountDTO> counts = snapshot.getGOAnnotationCounts( 7, 100 );
+        Assert.assertThat( counts.size(), Matchers.is( 3 ) );
+        Assert.assertThat( counts.get( 2 ).getEdition(), Matchers.is( 149 ) );
+        Assert.assertThat( counts.get( 2 ).getGoId(), Matchers.is( "GO:0000001" ) );
+        Assert.assertThat( counts.get( 2 ).getInferredCount(), Matchers.is( 4 ) );
+        // Dictionary encoded strings are shared
+        Assert.assertThat( counts.get( 2 ).getGoId(), Matchers.sameInstance( counts.get( 0 ).getGoId() ) );
+
+        AggregateDTO agg = snapshot.getAggregates( new int[] { 7 } ).get( 0 );
+        Assert.assertThat( agg.getGeneCount(), Matchers.is( 100 ) );
+        Assert.assertThat( agg.getAvgInferredSimilarity(), Matchers.is( 0.3 ) );
+
+        EvidenceDTO evidence = snapshot.getEvidence().get( 0 );
+        Assert.assertThat( evidence.getEvidence(), Matchers.is( "IEA" ) );
+        Assert.assertThat( evidence.getCurated(), Matchers.is( false ) );
+
+        AccessionDTO acc = snapshot.getAccessions( new int[] { 7 } ).get( 0 );
+        Assert.assertThat( acc.getSymbol(), Matchers.is( "ABC1" ) );
+        Assert.assertThat( acc.getSubset(), Matchers.is( "Swiss-Prot" ) );
+
+        Assert.assertThat( snapshot.getSynonyms( new int[] { 7 } ).size(), Matchers.is( 2 ) );
+
+        // Only the key was read from the database
+        verify( db, never() ).getGoTerms( anyInt() );
+        verify( db, never() ).getGOAnnotationCounts( anyInt(), anyInt() );
+        verify( db, never() ).getAccessions( any( int[].class ) );
+    }
+
+    @Test
+    public void testStreamedCalls() {
+        // Streamed from the materialized lists, as the interface defaults do
+        doCallRealMethod().when( db ).getAccessions( any( int[].class ), any() );
+        doCallRealMethod().when( db ).getGOAnnotationCounts( anyInt(), anyInt(), any() );
+
+        CacheSnapshotDAO recording = new CacheSnapshotDAO( db, file, "conf" );
+        List<String> recorded = new ArrayList<>();
+        recording.getAccessions( new int[] { 7 }, dto -> recorded.add( dto.getAccession() ) );
+        recording.getGOAnnotationCounts( 7, 100, dto -> recorded.add( dto.getGoId() ) );
+        recording.save();
+        recording.close();
+        Assert.assertThat( recorded, Matchers.contains( "P12345", "GO:0000001", "GO:0000002", "GO:0000001" ) );
+
+        CacheSnapshotDAO snapshot = new CacheSnapshotDAO( db, file, "conf" );
+        Assert.assertThat( snapshot.isLoaded(), Matchers.is( true ) );
+        clearInvocations( db );
+        List<String> read = new ArrayList<>();
+        snapshot.getAccessions( new int[] { 7 }, dto -> read.add( dto.getAccession() ) );
+        snapshot.getGOAnnotationCounts( 7, 100, dto -> read.add( dto.getGoId() ) );
+        Assert.assertThat( read, Matchers.is( recorded ) );
+        // Blocks are shared with the calls returning lists
+        Assert.assertThat( snapshot.getAccessions( new int[] { 7 } ).size(), Matchers.is( 1 ) );
+        verifyNoInteractions( db );
+    }
+
+    @Test
+    public void testStaleSnapshotIgnored() {
+        writeSnapshot();
+        when( db.getCurrentEditions( null ) ).thenReturn( Lists.newArrayList(
+                new EditionDTO( 7, 152, null, null, null ),
+                new EditionDTO( 9, 151, null, null, null ) ) );
+
+        CacheSnapshotDAO snapshot = new CacheSnapshotDAO( db, file, "conf" );
+        Assert.assertThat( snapshot.isLoaded(), Matchers.is( false ) );
+        snapshot.close();
+    }
+
+    @Test
+    public void testChangedConfigurationIgnored() {
+        writeSnapshot();
+        CacheSnapshotDAO snapshot = new CacheSnapshotDAO( db, file, "other" );
+        Assert.assertThat( snapshot.isLoaded(), Matchers.is( false ) );
+        snapshot.close();
+    }
+
+    @Test
+    public void testUnsavedSnapshotDiscarded() {
+        CacheSnapshotDAO snapshot = new CacheSnapshotDAO( db, file, "conf" );
+        exercise( snapshot );
+        snapshot.close();
+        Assert.assertThat( Files.exists( file ), Matchers.is( false ) );
+        Assert.assertThat( Files.exists( file.resolveSibling( "cache.snapshot.tmp" ) ), Matchers.is( false ) );
+    }
+
+    @Test
+    public void testCorruptSnapshotIgnored() throws Exception {
+        Files.write( file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 } );
+        CacheSnapshotDAO snapshot = new CacheSnapshotDAO( db, file, "conf" );
+        Assert.assertThat( snapshot.isLoaded(), Matchers.is( false ) );
+        snapshot.close();
+    }
+}
@@ -0,0 +1,183 @@
+package ubc.pavlab.gotrack.dao;
+
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Splitting, concurrent execution and merging of chunked queries, against mocked connections which return two rows
+ * per key of the IN list.
+ */
+public class ChunkedQueryTest {
+
+    private static final String SQL = "select ac from t where ac in (%s) and edition = ?";
+
+    private DAOFactory factory;
+    private List<Integer> chunkSizes;
+    private AtomicInteger open;
+    private AtomicInteger maxOpen;
+    private volatile String failOn;
+
+    @Before
+    public void setup() {
+        chunkSizes = Collections.synchronizedList( new ArrayList<>() );
+        open = new AtomicInteger();
+        maxOpen = new AtomicInteger();
+        factory = new DAOFactory() {
+            @Override
+            Connection openConnection() throws SQLException {
+                return connection();
+            }
+        };
+    }
+
+    @After
+    public void after() {
+        factory.close();
+    }
+
+    private Connection connection() throws SQLException {
+        maxOpen.accumulateAndGet( open.incrementAndGet(), Math::max );
+        Connection connection = mock( Connection.class );
+        doAnswer( invocation -> open.decrementAndGet() ).when( connection ).close();
+        when( connection.prepareStatement( anyString() ) ).then( invocation -> statement() );
+        return connection;
+    }
+
+    private PreparedStatement statement() throws SQLException {
+        Map<Integer, Object> values = new ConcurrentHashMap<>();
+        PreparedStatement statement = mock( PreparedStatement.class );
+        doAnswer( invocation -> values.put( invocation.getArgument( 0 ), invocation.getArgument( 1 ) ) )
+                .when( statement ).setObject( anyInt(), any() );
+        when( statement.executeQuery() ).then( invocation -> {
+            List<String> rows = new ArrayList<>();
+            // Last parameter is the edition
+            for ( int i = 1; i < values.size(); i++ ) {
+                String key = (String) values.get( i );
+                if ( key.equals( failOn ) ) {
+                    throw new SQLException( "Failed on " + key );
+                }
+                rows.add( key + ":" + values.get( values.size() ) + ":a" );
+                rows.add( key + ":" + values.get( values.size() ) + ":b" );
+            }
+            chunkSizes.add( values.size() - 1 );
+            Thread.sleep( 5 );
+            return resultSet( rows );
+        } );
+        return statement;
+    }
+
+    private static ResultSet resultSet( List<String> rows ) throws SQLException {
+        Iterator<String> it = rows.iterator();
+        String[] current = new String[1];
+        ResultSet resultSet = mock( ResultSet.class );
+        when( resultSet.next() ).then( invocation -> {
+            current[0] = it.hasNext() ? it.next() : null;
+            return current[0] != null;
+        } );
+        when( resultSet.getString( "ac" ) ).then( invocation -> current[0] );
+        return resultSet;
+    }
+
+    private static List<String> keys( int n ) {
+        List<String> keys = new ArrayList<>();
+        for ( int i = 0; i < n; i++ ) {
+            keys.add( "K" + i );
+        }
+        return keys;
+    }
+
+    private List<String> run( Collection<String> keys ) {
+        List<String> rows = new ArrayList<>();
+        Thread caller = Thread.currentThread();
+        new ChunkedQuery<>( factory, SQL, rs -> rs.getString( "ac" ) ).run( keys, new Object[] { 150 }, row -> {
+            Assert.assertThat( Thread.currentThread(), Matchers.sameInstance( caller ) );
+            rows.add( row );
+        } );
+        return rows;
+    }
+
+    private static List<String> expected( Collection<String> keys ) {
+        List<String> rows = new ArrayList<>();
+        for ( String key : new LinkedHashSet<>( keys ) ) {
+            rows.add( key + ":150:a" );
+            rows.add( key + ":150:b" );
+        }
+        return rows;
+    }
+
+    @Test
+    public void testChunk() {
+        Assert.assertThat( ChunkedQuery.chunk( keys( 5 ), 2 ).size(), Matchers.is( 3 ) );
+        Assert.assertThat( ChunkedQuery.chunk( keys( 4 ), 2 ).size(), Matchers.is( 2 ) );
+        Assert.assertThat( ChunkedQuery.chunk( keys( 4 ), Integer.MAX_VALUE ).size(), Matchers.is( 1 ) );
+        Assert.assertThat( ChunkedQuery.chunk( keys( 0 ), 2 ).size(), Matchers.is( 0 ) );
+    }
+
+    @Test
+    public void testSingleChunk() {
+        factory.setQueryChunking( 1000, 4 );
+        List<String> keys = keys( 10 );
+        Assert.assertThat( run( keys ), Matchers.is( expected( keys ) ) );
+        Assert.assertThat( chunkSizes, Matchers.contains( 10 ) );
+    }
+
+    @Test
+    public void testParallelChunks() {
+        factory.setQueryChunking( 100, 4 );
+        List<String> keys = keys( 2050 );
+        List<String> rows = run( keys );
+
+        Assert.assertThat( rows, Matchers.containsInAnyOrder( expected( keys ).toArray() ) );
+        Assert.assertThat( chunkSizes.size(), Matchers.is( 21 ) );
+        Assert.assertThat( Collections.max( chunkSizes ), Matchers.is( 100 ) );
+        Assert.assertThat( maxOpen.get(), Matchers.lessThanOrEqualTo( 4 ) );
+        Assert.assertThat( maxOpen.get(), Matchers.greaterThan( 1 ) );
+        Assert.assertThat( open.get(), Matchers.is( 0 ) );
+    }
+
+    @Test
+    public void testSequentialChunks() {
+        factory.setQueryChunking( 100, 1 );
+        List<String> keys = keys( 250 );
+        Assert.assertThat( run( keys ), Matchers.is( expected( keys ) ) );
+        Assert.assertThat( chunkSizes, Matchers.contains( 100, 100, 50 ) );
+        Assert.assertThat( maxOpen.get(), Matchers.is( 1 ) );
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        factory.setQueryChunking( 3, 4 );
+        List<String> keys = keys( 5 );
+        keys.addAll( keys( 5 ) );
+        Assert.assertThat( run( keys ), Matchers.containsInAnyOrder( expected( keys ).toArray() ) );
+        Assert.assertThat( run( keys ).size(), Matchers.is( 10 ) );
+    }
+
+    @Test
+    public void testFailure() {
+        factory.setQueryChunking( 10, 4 );
+        failOn = "K55";
+        try {
+            run( keys( 200 ) );
+            Assert.fail( "Expected a DAOException" );
+        } catch ( DAOException e ) {
+            Assert.assertThat( e.getCause().getMessage(), Matchers.is( "Failed on K55" ) );
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package ubc.pavlab.gotrack.dao;
+
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * Borrowing, validation, eviction and leak detection of pooled connections, against mocked physical connections.
+ */
+public class ConnectionPoolTest {
+
+    private List<Connection> opened;
+    private ConnectionPool pool;
+
+    @Before
+    public void setup() {
+        opened = new CopyOnWriteArrayList<>();
+    }
+
+    @After
+    public void after() {
+        if ( pool != null ) {
+            pool.close();
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection c = mock( Connection.class );
+        when( c.isValid( anyInt() ) ).thenReturn( true );
+        when( c.getAutoCommit() ).thenReturn( true );
+        opened.add( c );
+        return c;
+    }
+
+    private ConnectionPool pool( int min, int max, long maxWaitMillis ) {
+        pool = new ConnectionPool( this::open, min, max, maxWaitMillis, 5, 0, 0 );
+        return pool;
+    }
+
+    @Test
+    public void testReusesReturnedConnections() throws SQLException {
+        pool( 0, 2, 1000 );
+        Connection c = pool.getConnection();
+        c.prepareStatement( "select 1" );
+        c.close();
+        c.close();
+        Assert.assertThat( c.isClosed(), Matchers.is( true ) );
+
+        Connection again = pool.getConnection();
+        again.prepareStatement( "select 2" );
+        Assert.assertThat( opened.size(), Matchers.is( 1 ) );
+        verify( opened.get( 0 ) ).prepareStatement( "select 1" );
+        verify( opened.get( 0 ) ).prepareStatement( "select 2" );
+        verify( opened.get( 0 ), never() ).close();
+        Assert.assertThat( pool.getActive(), Matchers.is( 1 ) );
+        Assert.assertThat( pool.getBorrowCount(), Matchers.is( 2L ) );
+    }
+
+    @Test(expected = SQLException.class)
+    public void testClosedHandleUnusable() throws SQLException {
+        pool( 0, 1, 1000 );
+        Connection c = pool.getConnection();
+        c.close();
+        c.prepareStatement( "select 1" );
+    }
+
+    @Test
+    public void testFillsToMinimum() {
+        pool( 3, 5, 1000 );
+        Assert.assertThat( opened.size(), Matchers.is( 3 ) );
+        Assert.assertThat( pool.getIdle(), Matchers.is( 3 ) );
+    }
+
+    @Test
+    public void testTimesOutAtMaximum() throws SQLException {
+        pool( 0, 2, 50 );
+        pool.getConnection();
+        pool.getConnection();
+        try {
+            pool.getConnection();
+            Assert.fail( "Expected a timeout" );
+        } catch ( SQLException e ) {
+            Assert.assertThat( e.getMessage(), Matchers.containsString( "Timed out" ) );
+        }
+        Assert.assertThat( pool.getTimeoutCount(), Matchers.is( 1L ) );
+        Assert.assertThat( opened.size(), Matchers.is( 2 ) );
+    }
+
+    @Test
+    public void testWaitsForReturn() throws Exception {
+        pool( 0, 1, 5000 );
+        Connection c = pool.getConnection();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Connection> waiting = executor.submit( () -> pool.getConnection() );
+            Thread.sleep( 50 );
+            Assert.assertThat( waiting.isDone(), Matchers.is( false ) );
+            c.close();
+            waiting.get( 5, TimeUnit.SECONDS ).close();
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertThat( opened.size(), Matchers.is( 1 ) );
+    }
+
+    @Test
+    public void testReplacesInvalidConnections() throws SQLException {
+        pool( 0, 1, 1000 );
+        pool.getConnection().close();
+        when( opened.get( 0 ).isValid( anyInt() ) ).thenReturn( false );
+
+        pool.getConnection().prepareStatement( "select 1" );
+        Assert.assertThat( opened.size(), Matchers.is( 2 ) );
+        verify( opened.get( 0 ) ).close();
+        verify( opened.get( 1 ) ).prepareStatement( "select 1" );
+        Assert.assertThat( pool.getInvalidCount(), Matchers.is( 1L ) );
+        Assert.assertThat( pool.getTotal(), Matchers.is( 1 ) );
+    }
+
+    @Test
+    public void testRollsBackOnReturn() throws SQLException {
+        pool( 0, 1, 1000 );
+        Connection c = pool.getConnection();
+        when( opened.get( 0 ).getAutoCommit() ).thenReturn( false );
+        c.close();
+        verify( opened.get( 0 ) ).rollback();
+        verify( opened.get( 0 ) ).setAutoCommit( true );
+    }
+
+    @Test
+    public void testRestoresSessionStateOnReturn() throws SQLException {
+        pool( 0, 1, 1000 );
+        Connection c = pool.getConnection();
+        Connection physical = opened.get( 0 );
+        when( physical.isReadOnly() ).thenReturn( true );
+        when( physical.getCatalog() ).thenReturn( "other" );
+        when( physical.getTransactionIsolation() ).thenReturn( Connection.TRANSACTION_SERIALIZABLE );
+        c.close();
+        verify( physical ).setReadOnly( false );
+        verify( physical ).setCatalog( null );
+        verify( physical ).setTransactionIsolation( 0 );
+    }
+
+    @Test
+    public void testLeavesUnchangedSessionStateAlone() throws SQLException {
+        pool( 0, 1, 1000 );
+        pool.getConnection().close();
+        Connection physical = opened.get( 0 );
+        verify( physical, never() ).setReadOnly( anyBoolean() );
+        verify( physical, never() ).setCatalog( any() );
+        verify( physical, never() ).setTransactionIsolation( anyInt() );
+    }
+
+    @Test
+    public void testPhysicalConnectionUnreachable() throws SQLException {
+        pool( 0, 1, 1000 );
+        Connection c = pool.getConnection();
+        Connection physical = opened.get( 0 );
+        PreparedStatement ps = mock( PreparedStatement.class );
+        ResultSet rs = mock( ResultSet.class );
+        DatabaseMetaData md = mock( DatabaseMetaData.class );
+        when( physical.prepareStatement( "select 1" ) ).thenReturn( ps );
+        when( physical.getMetaData() ).thenReturn( md );
+        when( ps.getConnection() ).thenReturn( physical );
+        when( ps.executeQuery() ).thenReturn( rs );
+        when( rs.getStatement() ).thenReturn( ps );
+        when( md.getConnection() ).thenReturn( physical );
+
+        Assert.assertThat( c.unwrap( Connection.class ), Matchers.sameInstance( c ) );
+        Assert.assertThat( c.isWrapperFor( Connection.class ), Matchers.is( true ) );
+
+        PreparedStatement statement = c.prepareStatement( "select 1" );
+        Assert.assertThat( statement.getConnection(), Matchers.sameInstance( c ) );
+        Assert.assertThat( statement.unwrap( PreparedStatement.class ), Matchers.sameInstance( statement ) );
+        ResultSet results = statement.executeQuery();
+        Assert.assertThat( results.getStatement(), Matchers.sameInstance( statement ) );
+        Assert.assertThat( results.getStatement().getConnection(), Matchers.sameInstance( c ) );
+        Assert.assertThat( c.getMetaData().getConnection(), Matchers.sameInstance( c ) );
+
+        // Still reaches the physical objects underneath
+        results.next();
+        verify( rs ).next();
+    }
+
+    @Test(expected = SQLException.class)
+    public void testUnwrapToPhysicalRefused() throws SQLException {
+        pool( 0, 1, 1000 );
+        pool.getConnection().unwrap( String.class );
+    }
+
+    @Test
+    public void testEvictsIdleDownToMinimum() throws SQLException {
+        pool( 1, 4, 1000 );
+        List<Connection> borrowed = new ArrayList<>();
+        for ( int i = 0; i < 4; i++ ) {
+            borrowed.add( pool.getConnection() );
+        }
+        for ( Connection c : borrowed ) {
+            c.close();
+        }
+        Assert.assertThat( pool.getIdle(), Matchers.is( 4 ) );
+
+        pool.evictIdle( System.currentTimeMillis() + 1 );
+        Assert.assertThat( pool.getIdle(), Matchers.is( 1 ) );
+        Assert.assertThat( pool.getTotal(), Matchers.is( 1 ) );
+        Assert.assertThat( pool.getEvictedCount(), Matchers.is( 3L ) );
+    }
+
+    @Test
+    public void testDetectsLeaks() throws SQLException {
+        pool = new ConnectionPool( this::open, 0, 2, 1000, 5, 0, 60000 );
+        Connection leaked = pool.getConnection();
+        pool.getConnection().close();
+
+        pool.detectLeaks( System.currentTimeMillis() + 1 );
+        pool.detectLeaks( System.currentTimeMillis() + 1 );
+        Assert.assertThat( pool.getLeakCount(), Matchers.is( 1L ) );
+        leaked.close();
+    }
+
+    @Test
+    public void testClose() throws SQLException {
+        pool( 2, 2, 1000 );
+        Connection c = pool.getConnection();
+        pool.close();
+        verify( opened.get( 1 ) ).close();
+        verify( opened.get( 0 ), never() ).close();
+
+        // Borrowed connections are closed when they come back
+        c.close();
+        verify( opened.get( 0 ) ).close();
+        Assert.assertThat( pool.getTotal(), Matchers.is( 0 ) );
+    }
+
+    @Test
+    public void testConcurrentBorrowers() throws Exception {
+        pool( 0, 4, 10000 );
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool( 16 );
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for ( int i = 0; i < 200; i++ ) {
+                futures.add( executor.submit( () -> {
+                    try ( Connection c = pool.getConnection() ) {
+                        maxConcurrent.accumulateAndGet( concurrent.incrementAndGet(), Math::max );
+                        c.prepareStatement( "select 1" );
+                        concurrent.decrementAndGet();
+                    }
+                    return null;
+                } ) );
+            }
+            for ( Future<?> f : futures ) {
+                f.get( 30, TimeUnit.SECONDS );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertThat( maxConcurrent.get(), Matchers.lessThanOrEqualTo( 4 ) );
+        Assert.assertThat( opened.size(), Matchers.lessThanOrEqualTo( 4 ) );
+        Assert.assertThat( pool.getBorrowCount(), Matchers.is( 200L ) );
+        Assert.assertThat( pool.getActive(), Matchers.is( 0 ) );
+    }
+}
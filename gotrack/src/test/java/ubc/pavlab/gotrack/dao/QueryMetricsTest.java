@@ -0,0 +1,218 @@
+package ubc.pavlab.gotrack.dao;
+
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Naming and recording of statements run through the connections of a factory, against mocked connections which
+ * return the rows "GO:1", "GO:22" and "GO:333".
+ */
+public class QueryMetricsTest {
+
+    private static final String GO_DEFINITIONS = "select go_id, definition from go_definition";
+    private static final String AGGREGATES_RESTRICT = "select species_id, edition, gene_count, "
+            + "avg_direct_terms_for_gene, avg_inferred_terms_for_gene, avg_inferred_genes_for_term, "
+            + "avg_multifunctionality, avg_direct_jaccard, avg_inferred_jaccard from pp_edition_aggregates "
+            + "WHERE species_id in (%s)";
+
+    private DAOFactory factory;
+    private volatile boolean fail;
+
+    @Before
+    public void setup() {
+        factory = new DAOFactory() {
+            @Override
+            Connection openConnection() throws SQLException {
+                return connection();
+            }
+        };
+    }
+
+    @After
+    public void after() {
+        factory.close();
+    }
+
+    private Connection connection() throws SQLException {
+        Connection connection = mock( Connection.class );
+        when( connection.prepareStatement( anyString() ) ).then( invocation -> statement() );
+        when( connection.prepareStatement( anyString(), anyInt(), anyInt() ) ).then( invocation -> statement() );
+        return connection;
+    }
+
+    private PreparedStatement statement() throws SQLException {
+        PreparedStatement statement = mock( PreparedStatement.class );
+        when( statement.executeQuery() ).then( invocation -> {
+            if ( fail ) {
+                throw new SQLException( "Broken" );
+            }
+            return resultSet();
+        } );
+        when( statement.executeUpdate() ).thenReturn( 2 );
+        return statement;
+    }
+
+    private static ResultSet resultSet() throws SQLException {
+        Iterator<String> it = Arrays.asList( "GO:1", "GO:22", "GO:333" ).iterator();
+        String[] current = new String[1];
+        ResultSet resultSet = mock( ResultSet.class );
+        when( resultSet.next() ).then( invocation -> {
+            current[0] = it.hasNext() ? it.next() : null;
+            return current[0] != null;
+        } );
+        when( resultSet.getString( anyInt() ) ).then( invocation -> current[0] );
+        when( resultSet.getInt( anyInt() ) ).thenReturn( 7 );
+        return resultSet;
+    }
+
+    private void query( String sql ) throws SQLException {
+        Connection connection = factory.getConnection();
+        PreparedStatement statement = connection.prepareStatement( sql );
+        ResultSet resultSet = null;
+        try {
+            resultSet = statement.executeQuery();
+            while ( resultSet.next() ) {
+                resultSet.getString( 1 );
+                resultSet.getInt( 2 );
+            }
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+    }
+
+    private QueryMetrics.Statistics statistics( String name ) {
+        for ( QueryMetrics.Statistics s : factory.getQueryMetrics().getQueryStatistics() ) {
+            if ( s.getName().equals( name ) ) {
+                return s;
+            }
+        }
+        throw new AssertionError( "No statistics for " + name );
+    }
+
+    @Test
+    public void testNormalize() {
+        Assert.assertThat( QueryMetrics.normalize( "select a from t\n  where b in (?, ?,?) and c = ?" ),
+                Matchers.is( "select a from t where b in (?) and c = ?" ) );
+        Assert.assertThat( QueryMetrics.normalize( "select a from t where b in (%s)" ),
+                Matchers.is( "select a from t where b in (?)" ) );
+    }
+
+    @Test
+    public void testRecordsNamedQueries() throws SQLException {
+        query( GO_DEFINITIONS );
+        query( GO_DEFINITIONS );
+
+        QueryMetrics.Statistics s = statistics( "CacheDAOImpl.SQL_GO_DEFINITION" );
+        Assert.assertThat( s.getCount(), Matchers.is( 2L ) );
+        Assert.assertThat( s.getRows(), Matchers.is( 6L ) );
+        // 4 + 5 + 6 characters and 3 ints per query
+        Assert.assertThat( s.getBytes(), Matchers.is( 54L ) );
+        Assert.assertThat( s.getErrors(), Matchers.is( 0L ) );
+        Assert.assertThat( s.getSql(), Matchers.is( GO_DEFINITIONS ) );
+
+        QueryMetrics.Statistics acquire = factory.getQueryMetrics().getConnectionAcquireStatistics();
+        Assert.assertThat( acquire.getCount(), Matchers.is( 2L ) );
+    }
+
+    @Test
+    public void testInListsShareName() throws SQLException {
+        query( String.format( AGGREGATES_RESTRICT, DAOUtil.preparePlaceHolders( 1 ) ) );
+        query( String.format( AGGREGATES_RESTRICT, DAOUtil.preparePlaceHolders( 3 ) ) );
+        Assert.assertThat( statistics( "CacheDAOImpl.SQL_AGGREGATE_RESTRICT" ).getCount(), Matchers.is( 2L ) );
+    }
+
+    @Test
+    public void testTemplatesWithEscapedPercent() throws Exception {
+        Field field = AnnotationDAOImpl.class.getDeclaredField( "SQL_ENRICHMENT_ANNOTATION_SINGLE_EDITION_MULTIPLE_GENES" );
+        field.setAccessible( true );
+        String template = (String) field.get( null );
+        Assert.assertThat( template, Matchers.containsString( "'NOT%%'" ) );
+
+        query( String.format( template, DAOUtil.preparePlaceHolders( 2 ) ) );
+        QueryMetrics.Statistics s = statistics( "AnnotationDAOImpl.SQL_ENRICHMENT_ANNOTATION_SINGLE_EDITION_MULTIPLE_GENES" );
+        Assert.assertThat( s.getCount(), Matchers.is( 1L ) );
+        Assert.assertThat( s.getSql(), Matchers.containsString( "'NOT%'" ) );
+    }
+
+    @Test
+    public void testUnnamedQueries() throws SQLException {
+        query( "select 1" );
+        Assert.assertThat( statistics( "select 1" ).getCount(), Matchers.is( 1L ) );
+    }
+
+    @Test
+    public void testUpdates() throws SQLException {
+        try ( Connection connection = factory.getConnection() ) {
+            connection.prepareStatement( "update t set a = 1" ).executeUpdate();
+        }
+        Assert.assertThat( statistics( "update t set a = 1" ).getRows(), Matchers.is( 2L ) );
+    }
+
+    @Test
+    public void testFailures() throws SQLException {
+        fail = true;
+        try {
+            query( GO_DEFINITIONS );
+            Assert.fail( "Expected an SQLException" );
+        } catch ( SQLException e ) {
+            Assert.assertThat( e.getMessage(), Matchers.is( "Broken" ) );
+        }
+        QueryMetrics.Statistics s = statistics( "CacheDAOImpl.SQL_GO_DEFINITION" );
+        Assert.assertThat( s.getCount(), Matchers.is( 1L ) );
+        Assert.assertThat( s.getErrors(), Matchers.is( 1L ) );
+    }
+
+    @Test
+    public void testSummarizeInterval() throws SQLException {
+        query( GO_DEFINITIONS );
+        String first = factory.getQueryMetrics().summarizeInterval();
+        Assert.assertThat( first, Matchers.containsString( "connection.acquire: n=1 " ) );
+        Assert.assertThat( first, Matchers.containsString( "CacheDAOImpl.SQL_GO_DEFINITION: n=1 errors=0 rows=3 " ) );
+
+        query( "select 1" );
+        String second = factory.getQueryMetrics().summarizeInterval();
+        Assert.assertThat( second, Matchers.containsString( "select 1: n=1 " ) );
+        Assert.assertThat( second, Matchers.not( Matchers.containsString( "SQL_GO_DEFINITION" ) ) );
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for ( int i = 0; i < 90; i++ ) {
+            histogram.record( 3_000_000 ); // 3ms
+        }
+        for ( int i = 0; i < 10; i++ ) {
+            histogram.record( 700_000_000 ); // 700ms
+        }
+        LatencyHistogram.Snapshot s = histogram.snapshot();
+        Assert.assertThat( s.getCount(), Matchers.is( 100L ) );
+        Assert.assertThat( s.percentileMillis( 0.5 ), Matchers.is( 5.0 ) );
+        Assert.assertThat( s.percentileMillis( 0.9 ), Matchers.is( 5.0 ) );
+        Assert.assertThat( s.percentileMillis( 0.95 ), Matchers.is( 700.0 ) );
+        Assert.assertThat( s.getMaxMillis(), Matchers.is( 700.0 ) );
+        Assert.assertThat( s.getMeanMillis(), Matchers.closeTo( 72.7, 1e-9 ) );
+
+        histogram.record( 100_000_000_000L ); // 100s
+        LatencyHistogram.Snapshot delta = histogram.snapshot().minus( s );
+        Assert.assertThat( delta.getCount(), Matchers.is( 1L ) );
+        Assert.assertThat( delta.percentileMillis( 0.5 ), Matchers.is( 100_000.0 ) );
+        List<Long> counts = Arrays.asList( Arrays.stream( delta.getCounts() ).boxed().toArray( Long[]::new ) );
+        Assert.assertThat( counts.get( counts.size() - 1 ), Matchers.is( 1L ) );
+    }
+}
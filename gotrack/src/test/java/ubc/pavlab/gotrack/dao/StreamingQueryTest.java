@@ -0,0 +1,94 @@
+package ubc.pavlab.gotrack.dao;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Streaming fetch configuration and row delivery of streamed queries, against a mocked connection.
+ */
+public class StreamingQueryTest {
+
+    private DAOFactory factory;
+    private Connection connection;
+    private PreparedStatement statement;
+    private ResultSet resultSet;
+
+    @Before
+    public void setup() throws SQLException {
+        Iterator<String> it = Arrays.asList( "a", "b", "c" ).iterator();
+        String[] current = new String[1];
+        resultSet = mock( ResultSet.class );
+        when( resultSet.next() ).then( invocation -> {
+            current[0] = it.hasNext() ? it.next() : null;
+            return current[0] != null;
+        } );
+        when( resultSet.getString( "ac" ) ).then( invocation -> current[0] );
+
+        statement = mock( PreparedStatement.class );
+        when( statement.executeQuery() ).thenReturn( resultSet );
+
+        connection = mock( Connection.class );
+        when( connection.prepareStatement( anyString(), anyInt(), anyInt() ) ).thenReturn( statement );
+
+        factory = new DAOFactory() {
+            @Override
+            Connection openConnection() {
+                return connection;
+            }
+        };
+    }
+
+    private List<String> run() {
+        List<String> rows = new ArrayList<>();
+        StreamingQuery.forEach( factory, "select ac from t where edition = ?", new Object[] { 150 },
+                rs -> rs.getString( "ac" ), rows::add );
+        return rows;
+    }
+
+    @Test
+    public void testStreams() throws SQLException {
+        Assert.assertThat( run(), Matchers.contains( "a", "b", "c" ) );
+        verify( connection ).prepareStatement( anyString(), eq( ResultSet.TYPE_FORWARD_ONLY ),
+                eq( ResultSet.CONCUR_READ_ONLY ) );
+        verify( statement ).setFetchSize( Integer.MIN_VALUE );
+        verify( statement ).setObject( 1, 150 );
+        verify( resultSet ).close();
+        verify( statement ).close();
+        verify( connection ).close();
+    }
+
+    @Test
+    public void testFallbackFetchSize() throws SQLException {
+        doThrow( new SQLException( "Illegal value for setFetchSize()" ) ).when( statement )
+                .setFetchSize( Integer.MIN_VALUE );
+        Assert.assertThat( run(), Matchers.contains( "a", "b", "c" ) );
+        verify( statement ).setFetchSize( StreamingQuery.FALLBACK_FETCH_SIZE );
+    }
+
+    @Test
+    public void testFailureCloses() throws SQLException {
+        when( resultSet.getString( "ac" ) ).thenThrow( new SQLException( "Broken" ) );
+        try {
+            run();
+            Assert.fail( "Expected a DAOException" );
+        } catch ( DAOException e ) {
+            Assert.assertThat( e.getCause().getMessage(), Matchers.is( "Broken" ) );
+        }
+        verify( connection ).close();
+    }
+}
@@ -0,0 +1,68 @@
+package ubc.pavlab.gotrack.model;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
+import ubc.pavlab.gotrack.model.go.GeneOntology;
+import ubc.pavlab.gotrack.model.go.GeneOntologyTerm;
+
+import java.sql.Date;
+import java.util.stream.Collectors;
+
+public class AnnotationCountsTest {
+
+    private GeneOntology go;
+    private GeneOntologyTerm t1;
+    private GeneOntologyTerm t2;
+    private GeneOntologyTerm t3;
+    private AnnotationCounts counts;
+
+    @Before
+    public void setup() {
+        go = new GeneOntology( new GOEdition( new GOEditionDTO( 1, Date.valueOf( "2016-03-30" ) ) ) );
+        t1 = new GeneOntologyTerm( "GO:0008150" );
+        t2 = new GeneOntologyTerm( "GO:0009987" );
+        t3 = new GeneOntologyTerm( "GO:0071840" );
+        go.addTerm( t1 );
+        go.addTerm( t2 );
+        go.addTerm( t3 );
+        go.freeze();
+
+        counts = new AnnotationCounts( go );
+        counts.put( t1, 0, 10 );
+        counts.put( t3, 4, 6 );
+    }
+
+    @Test
+    public void testGet() {
+        Assert.assertThat( counts.getDirect( t1 ), Matchers.is( 0 ) );
+        Assert.assertThat( counts.getInferred( t1 ), Matchers.is( 10 ) );
+        Assert.assertThat( counts.getDirect( t3 ), Matchers.is( 4 ) );
+        Assert.assertThat( counts.getInferred( t3 ), Matchers.is( 6 ) );
+    }
+
+    @Test
+    public void testGetAbsent() {
+        Assert.assertThat( counts.getDirect( t2 ), Matchers.nullValue() );
+        Assert.assertThat( counts.getInferred( t2 ), Matchers.nullValue() );
+        Assert.assertThat( counts.getInferred( new GeneOntologyTerm( "GO:0000001" ) ), Matchers.nullValue() );
+    }
+
+    @Test
+    public void testGetEquivalentTerm() {
+        Assert.assertThat( counts.getInferred( new GeneOntologyTerm( t3.getGoId() ) ), Matchers.is( 6 ) );
+    }
+
+    @Test
+    public void testPutMissingTerm() {
+        Assert.assertThat( counts.put( new GeneOntologyTerm( "GO:0000001" ), 1, 1 ), Matchers.is( false ) );
+    }
+
+    @Test
+    public void testTerms() {
+        Assert.assertThat( counts.size(), Matchers.is( 2 ) );
+        Assert.assertThat( counts.terms().collect( Collectors.toList() ), Matchers.contains( t1, t3 ) );
+    }
+}
@@ -0,0 +1,144 @@
+package ubc.pavlab.gotrack.model.go;
+
+import com.google.common.collect.Sets;
+import org.apache.log4j.Logger;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ubc.pavlab.gotrack.model.Annotation;
+import ubc.pavlab.gotrack.model.Evidence;
+import ubc.pavlab.gotrack.model.FullAnnotation;
+import ubc.pavlab.gotrack.model.GOEdition;
+import ubc.pavlab.gotrack.model.dto.EvidenceDTO;
+import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
+
+import java.sql.Date;
+import java.util.*;
+
+/**
+ * Compares single pass propagation against walking the ancestors of every annotated term, on a randomly generated
+ * ontology.
+ */
+public class AnnotationPropagatorTest {
+
+    private static final Logger log = Logger.getLogger( AnnotationPropagatorTest.class );
+
+    private List<GeneOntologyTerm> terms;
+    private List<Evidence> evidence;
+    private Random random;
+
+    @Before
+    public void setup() {
+        random = new Random( 1 );
+        GeneOntology go = new GeneOntology( new GOEdition( new GOEditionDTO( 1, Date.valueOf( "2016-03-30" ) ) ) );
+        terms = new ArrayList<>();
+        for ( int i = 1; i <= 20000; i++ ) {
+            GeneOntologyTerm t = new GeneOntologyTerm( String.format( "GO:%07d", i ) );
+            go.addTerm( t );
+            // Parents always have a smaller id so the graph is acyclic
+            if ( i > 1 ) {
+                int parentCount = 1 + random.nextInt( Math.min( 3, i - 1 ) );
+                Set<Integer> parents = new HashSet<>();
+                while ( parents.size() < parentCount ) {
+                    parents.add( random.nextInt( i - 1 ) );
+                }
+                for ( int p : parents ) {
+                    go.addRelationship( t, terms.get( p ),
+                            random.nextInt( 5 ) == 0 ? RelationshipType.PART_OF : RelationshipType.IS_A );
+                }
+            }
+            terms.add( t );
+        }
+        go.freeze();
+
+        evidence = Arrays.asList( new Evidence( new EvidenceDTO( "EXP", "Inferred from Experiment", "Experimental", true ) ),
+                new Evidence( new EvidenceDTO( "IEA", "Inferred from Electronic Annotation", "Automatic", false ) ),
+                new Evidence( new EvidenceDTO( "TAS", "Traceable Author Statement", "Author", true ) ) );
+    }
+
+    private Map<GeneOntologyTerm, Set<Annotation>> annotate( int directTerms, int maxAnnotations ) {
+        Map<GeneOntologyTerm, Set<Annotation>> annotations = new HashMap<>();
+        while ( annotations.size() < directTerms ) {
+            GeneOntologyTerm t = terms.get( random.nextInt( terms.size() ) );
+            Set<Annotation> set = new HashSet<>();
+            int n = 1 + random.nextInt( maxAnnotations );
+            for ( int i = 0; i < n; i++ ) {
+                set.add( new Annotation( random.nextInt( 10 ) == 0 ? "NOT" : "",
+                        evidence.get( random.nextInt( evidence.size() ) ), "PMID:" + random.nextInt( 100000 ) ) );
+            }
+            annotations.put( t, set );
+        }
+        return annotations;
+    }
+
+    @Test
+    public void testMatchesPerTerm() {
+        for ( int directTerms : new int[] { 1, 10, 100, 500 } ) {
+            Map<GeneOntologyTerm, Set<Annotation>> annotations = annotate( directTerms, 5 );
+            Map<GeneOntologyTerm, Set<FullAnnotation>> expected = GeneOntologyTerm
+                    .propagateAnnotationsPerTerm( annotations.entrySet().stream(), true );
+            Map<GeneOntologyTerm, Set<FullAnnotation>> actual = AnnotationPropagator.propagate( annotations );
+            Assert.assertThat( actual.keySet(), Matchers.is( expected.keySet() ) );
+            for ( Map.Entry<GeneOntologyTerm, Set<FullAnnotation>> e : expected.entrySet() ) {
+                Set<FullAnnotation> res = actual.get( e.getKey() );
+                Assert.assertThat( res.size(), Matchers.is( e.getValue().size() ) );
+                Assert.assertThat( res, Matchers.is( e.getValue() ) );
+                Assert.assertThat( Sets.newHashSet( res ), Matchers.is( e.getValue() ) );
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyAnnotations() {
+        Map<GeneOntologyTerm, Set<Annotation>> annotations = new HashMap<>();
+        annotations.put( terms.get( 100 ), Collections.emptySet() );
+        Map<GeneOntologyTerm, Set<FullAnnotation>> res = AnnotationPropagator.propagate( annotations );
+        Assert.assertThat( res.keySet(), Matchers.is( GeneOntologyTerm.propagateToSet( annotations.keySet() ) ) );
+        Assert.assertThat( res.get( terms.get( 100 ) ).isEmpty(), Matchers.is( true ) );
+    }
+
+    @Test
+    public void testContains() {
+        Map<GeneOntologyTerm, Set<Annotation>> annotations = annotate( 20, 3 );
+        Map<GeneOntologyTerm, Set<FullAnnotation>> res = AnnotationPropagator.propagate( annotations );
+        for ( Map.Entry<GeneOntologyTerm, Set<Annotation>> e : annotations.entrySet() ) {
+            Annotation a = e.getValue().iterator().next();
+            Set<FullAnnotation> own = res.get( e.getKey() );
+            Assert.assertThat( own.contains( new FullAnnotation( e.getKey(), a, true ) ), Matchers.is( true ) );
+            Assert.assertThat( own.contains( new FullAnnotation( e.getKey(), a, false ) ), Matchers.is( false ) );
+            for ( GeneOntologyTerm ancestor : e.getKey().ancestors() ) {
+                Assert.assertThat( res.get( ancestor ).contains( new FullAnnotation( e.getKey(), a, false ) ),
+                        Matchers.is( true ) );
+            }
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testLoad() {
+        // Comparable to a heavily annotated gene such as TP53
+        Map<GeneOntologyTerm, Set<Annotation>> annotations = annotate( 400, 8 );
+        int iterations = 100;
+
+        // Warm up both
+        for ( int i = 0; i < 10; i++ ) {
+            GeneOntologyTerm.propagateAnnotationsPerTerm( annotations.entrySet().stream(), true );
+            AnnotationPropagator.propagate( annotations );
+        }
+
+        long start = System.currentTimeMillis();
+        for ( int i = 0; i < iterations; i++ ) {
+            GeneOntologyTerm.propagateAnnotationsPerTerm( annotations.entrySet().stream(), true );
+        }
+        long perTerm = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for ( int i = 0; i < iterations; i++ ) {
+            AnnotationPropagator.propagate( annotations );
+        }
+        long singlePass = System.currentTimeMillis() - start;
+
+        log.info( iterations + " propagations of " + annotations.size() + " annotated terms: per term " + perTerm
+                + " ms, single pass " + singlePass + " ms" );
+    }
+}
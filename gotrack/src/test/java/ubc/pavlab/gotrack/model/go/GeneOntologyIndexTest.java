@@ -0,0 +1,80 @@
+package ubc.pavlab.gotrack.model.go;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ubc.pavlab.gotrack.model.GOEdition;
+import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class GeneOntologyIndexTest {
+
+    private List<GeneOntology> ontologies;
+    private GeneOntologyIndex index;
+
+    @Before
+    public void setup() {
+        // Enough editions to span more than one word of presence bits
+        ontologies = new ArrayList<>();
+        for ( int i = 1; i <= 150; i++ ) {
+            GeneOntology go = new GeneOntology( new GOEdition( new GOEditionDTO( i, new Date( i * 86400000L ) ) ) );
+            go.addTerm( new GeneOntologyTerm( "GO:0008150" ) );
+            if ( i % 3 == 0 ) {
+                go.addTerm( new GeneOntologyTerm( "GO:0009987" ) );
+            }
+            if ( i > 100 ) {
+                // GO:0000004 becomes an alternate of GO:0008150
+                go.addAlt( "GO:0000004", "GO:0008150" );
+            } else {
+                go.addTerm( new GeneOntologyTerm( "GO:0000004" ) );
+            }
+            go.freeze();
+            ontologies.add( go );
+        }
+        index = new GeneOntologyIndex( ontologies );
+    }
+
+    @Test
+    public void testContains() {
+        Assert.assertThat( index.contains( "GO:0008150" ), Matchers.is( true ) );
+        Assert.assertThat( index.contains( "GO:0009987" ), Matchers.is( true ) );
+        Assert.assertThat( index.contains( "GO:0000004" ), Matchers.is( true ) );
+        Assert.assertThat( index.contains( "GO:0000001" ), Matchers.is( false ) );
+        Assert.assertThat( index.contains( "GO:abc" ), Matchers.is( false ) );
+        Assert.assertThat( index.contains( null ), Matchers.is( false ) );
+    }
+
+    @Test
+    public void testMatchesOntologies() {
+        for ( String goId : new String[] { "GO:0008150", "GO:0009987", "GO:0000004" } ) {
+            Map<GOEdition, GeneOntologyTerm> terms = index.getTerms( goId );
+            Assert.assertThat( terms.size(), Matchers.is( ontologies.size() ) );
+            for ( GeneOntology go : ontologies ) {
+                Assert.assertThat( terms.get( go.getEdition() ), Matchers.sameInstance( go.getTerm( goId ) ) );
+                Assert.assertThat( terms.containsKey( go.getEdition() ), Matchers.is( true ) );
+            }
+            Assert.assertThat( new ArrayList<>( terms.values() ),
+                    Matchers.is( ontologies.stream().map( go -> go.getTerm( goId ) ).collect( Collectors.toList() ) ) );
+        }
+    }
+
+    @Test
+    public void testAlternateResolvesToPrimary() {
+        GeneOntology go = ontologies.get( 120 );
+        GeneOntologyTerm t = index.getTerms( "GO:0000004" ).get( go.getEdition() );
+        Assert.assertThat( t.getGoId(), Matchers.is( "GO:0008150" ) );
+        Assert.assertThat( t, Matchers.sameInstance( go.getTerm( 8150 ) ) );
+    }
+
+    @Test
+    public void testMissing() {
+        Assert.assertThat( index.getTerms( "GO:0000001" ), Matchers.nullValue() );
+        Assert.assertThat( index.getTerms( "GO:0009987" ).get( ontologies.get( 0 ).getEdition() ), Matchers.nullValue() );
+    }
+}
@@ -32,9 +32,10 @@ import ubc.pavlab.gotrack.model.dto.EvidenceDTO;
 import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
 
 import java.sql.Date;
-import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -305,6 +306,15 @@ public class GeneOntologyTest {
         Assert.assertThat( res, Matchers.is( allTerms ) );
     }
 
+    @Test
+    public void testPropagateToSet() {
+        Assert.assertThat( GeneOntologyTerm.propagateToSet( Sets.newHashSet( go9 ) ),
+                Matchers.containsInAnyOrder( go9, go8, go4, go1, go2, go0 ) );
+        Assert.assertThat( GeneOntologyTerm.propagateToSet( Sets.newHashSet( go7, go9 ) ),
+                Matchers.is( GeneOntologyTerm.propagate( Sets.newHashSet( go7, go9 ).stream() ).collect( Collectors.toSet() ) ) );
+        Assert.assertThat( GeneOntologyTerm.propagateToSet( allTerms ), Matchers.is( allTerms ) );
+    }
+
     // propagateAnnotations
 
     @Test
@@ -366,6 +376,43 @@ public class GeneOntologyTest {
         Assert.assertThat( go9.streamAncestors(false).collect( Collectors.toSet() ), Matchers.containsInAnyOrder( go4, go1, go2, go0 ) );
     }
 
+    @Test
+    public void testGetAncestorsDistinct() {
+        Assert.assertThat( go7.streamAncestors().count(), Matchers.is( 7L ) );
+    }
+
+    @Test
+    public void testGetAncestorsPrecomputed() {
+        go = new GeneOntology( goEdition );
+        GeneOntologyTerm root = new GeneOntologyTerm( "GO:0008150" );
+        GeneOntologyTerm mid = new GeneOntologyTerm( "GO:0009987" );
+        GeneOntologyTerm leaf = new GeneOntologyTerm( "GO:0071840" );
+        go.addTerm( root );
+        go.addTerm( mid );
+        go.addTerm( leaf );
+        go.addRelationship( mid, root, RelationshipType.IS_A );
+        go.addRelationship( leaf, mid, RelationshipType.PART_OF );
+        go.freeze( true );
+        Assert.assertThat( leaf.streamAncestors().collect( Collectors.toSet() ), Matchers.containsInAnyOrder( mid, root ) );
+        Assert.assertThat( leaf.streamAncestors( false ).count(), Matchers.is( 0L ) );
+    }
+
+    @Test
+    public void testGetAncestorsConcurrent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            List<Future<Set<GeneOntologyTerm>>> futures = new ArrayList<>();
+            for ( int i = 0; i < 16; i++ ) {
+                futures.add( executor.submit( () -> go7.streamAncestors().collect( Collectors.toSet() ) ) );
+            }
+            for ( Future<Set<GeneOntologyTerm>> f : futures ) {
+                Assert.assertThat( f.get(), Matchers.containsInAnyOrder( go5, go6, go4, go1, go2, go3, go0 ) );
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
 //    @Test
 //    public void testGetAncestorsCacheless() {
 //        Assert.assertThat( go9.streamAncestors(false).collect( Collectors.toSet() ), Matchers.containsInAnyOrder( go4, go1, go2, go0 ) );
@@ -410,6 +457,22 @@ public class GeneOntologyTest {
         Assert.assertThat( term.streamParents(false ).count(), Matchers.is( 0L ) );
     }
 
+    @Test
+    public void testOrdinalsDenseInIdOrder() {
+        Assert.assertThat( go.getOrdinal( go0 ), Matchers.is( 1 ) );
+        Assert.assertThat( go.getOrdinal( go5 ), Matchers.is( 0 ) );
+        Assert.assertThat( go.getOrdinal( go7 ), Matchers.is( 9 ) );
+        for ( int i = 0; i < go.size(); i++ ) {
+            Assert.assertThat( go.getOrdinal( go.getTermByOrdinal( i ) ), Matchers.is( i ) );
+        }
+    }
+
+    @Test
+    public void testOrdinalOfEquivalentTerm() {
+        Assert.assertThat( go.getOrdinal( new GeneOntologyTerm( go7.getGoId() ) ), Matchers.is( go.getOrdinal( go7 ) ) );
+        Assert.assertThat( go.getOrdinal( new GeneOntologyTerm( "GO:0000001" ) ), Matchers.is( -1 ) );
+    }
+
     // getEdition
 
     @Test
@@ -0,0 +1,119 @@
+package ubc.pavlab.gotrack.model.go;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ubc.pavlab.gotrack.model.GOEdition;
+import ubc.pavlab.gotrack.model.dto.GOEditionDTO;
+import ubc.pavlab.gotrack.utilities.Jaccard;
+import ubc.pavlab.gotrack.utilities.Tversky;
+
+import java.sql.Date;
+import java.util.*;
+
+public class TermSetTest {
+
+    private GeneOntology go;
+    private List<GeneOntologyTerm> terms;
+
+    @Before
+    public void setup() {
+        go = new GeneOntology( new GOEdition( new GOEditionDTO( 1, Date.valueOf( "2016-03-30" ) ) ) );
+        terms = new ArrayList<>();
+        for ( int i = 1; i <= 1000; i++ ) {
+            GeneOntologyTerm t = new GeneOntologyTerm( String.format( "GO:%07d", i ) );
+            go.addTerm( t );
+            terms.add( t );
+        }
+        go.freeze();
+    }
+
+    @Test
+    public void testSparse() {
+        Set<GeneOntologyTerm> expected = new HashSet<>( Arrays.asList( terms.get( 500 ), terms.get( 3 ), terms.get( 999 ) ) );
+        TermSet set = TermSet.of( go, expected );
+        Assert.assertThat( set.isDense(), Matchers.is( false ) );
+        Assert.assertThat( set.size(), Matchers.is( 3 ) );
+        Assert.assertThat( set, Matchers.equalTo( expected ) );
+        Assert.assertThat( set.hashCode(), Matchers.is( expected.hashCode() ) );
+        Assert.assertThat( new ArrayList<>( set ), Matchers.contains( terms.get( 3 ), terms.get( 500 ), terms.get( 999 ) ) );
+        Assert.assertThat( set.contains( terms.get( 4 ) ), Matchers.is( false ) );
+        Assert.assertThat( set.contains( "GO:0000004" ), Matchers.is( false ) );
+    }
+
+    @Test
+    public void testDense() {
+        Set<GeneOntologyTerm> expected = new HashSet<>();
+        for ( int i = 0; i < terms.size(); i += 3 ) {
+            expected.add( terms.get( i ) );
+        }
+        TermSet set = TermSet.of( go, expected );
+        Assert.assertThat( set.isDense(), Matchers.is( true ) );
+        Assert.assertThat( set, Matchers.equalTo( expected ) );
+        Assert.assertThat( set.toOrdinals().length, Matchers.is( expected.size() ) );
+        Assert.assertThat( set.contains( terms.get( 1 ) ), Matchers.is( false ) );
+        Assert.assertThat( set.sizeInBytes(), Matchers.lessThan( 200L ) );
+    }
+
+    @Test
+    public void testEqualTermFromOtherEdition() {
+        TermSet set = TermSet.of( go, Collections.singleton( terms.get( 10 ) ) );
+        Assert.assertThat( set.contains( new GeneOntologyTerm( "GO:0000011" ) ), Matchers.is( true ) );
+    }
+
+    @Test
+    public void testDuplicates() {
+        TermSet set = TermSet.of( go, Arrays.asList( terms.get( 1 ), terms.get( 1 ), terms.get( 2 ) ) );
+        Assert.assertThat( set.size(), Matchers.is( 2 ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForeignTerm() {
+        TermSet.of( go, Collections.singleton( new GeneOntologyTerm( "GO:0099999" ) ) );
+    }
+
+    @Test
+    public void testEmpty() {
+        TermSet set = TermSet.of( go, Collections.emptySet() );
+        Assert.assertThat( set.isEmpty(), Matchers.is( true ) );
+        Assert.assertThat( set.iterator().hasNext(), Matchers.is( false ) );
+    }
+
+    @Test
+    public void testIntersectSize() {
+        Set<GeneOntologyTerm> sparse = new HashSet<>( Arrays.asList( terms.get( 3 ), terms.get( 6 ), terms.get( 500 ) ) );
+        Set<GeneOntologyTerm> otherSparse = new HashSet<>( Arrays.asList( terms.get( 6 ), terms.get( 500 ), terms.get( 7 ) ) );
+        Set<GeneOntologyTerm> dense = new HashSet<>();
+        Set<GeneOntologyTerm> otherDense = new HashSet<>();
+        for ( int i = 0; i < terms.size(); i += 3 ) {
+            dense.add( terms.get( i ) );
+        }
+        for ( int i = 0; i < terms.size(); i += 2 ) {
+            otherDense.add( terms.get( i ) );
+        }
+
+        List<Set<GeneOntologyTerm>> sets = Arrays.asList( sparse, otherSparse, dense, otherDense );
+        for ( Set<GeneOntologyTerm> a : sets ) {
+            for ( Set<GeneOntologyTerm> b : sets ) {
+                TermSet ta = TermSet.of( go, a );
+                TermSet tb = TermSet.of( go, b );
+                Assert.assertThat( ta.intersectSize( tb ), Matchers.is( Jaccard.intersectSize( a, b ) ) );
+                Assert.assertThat( Jaccard.similarity( ta, tb ), Matchers.is( Jaccard.similarity( a, b ) ) );
+                Assert.assertThat( Jaccard.similarity( ta.toWords(), tb.toWords() ),
+                        Matchers.is( Jaccard.similarity( a, b ) ) );
+                Assert.assertThat( Tversky.similarityPrototypeWeighted( ta, tb ),
+                        Matchers.is( Tversky.similarityPrototypeWeighted( a, b ) ) );
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntersectSizeOtherOntology() {
+        GeneOntology other = new GeneOntology( new GOEdition( new GOEditionDTO( 2, Date.valueOf( "2016-04-30" ) ) ) );
+        other.addTerm( new GeneOntologyTerm( "GO:0000001" ) );
+        other.freeze();
+        TermSet.of( go, Collections.singleton( terms.get( 0 ) ) )
+                .intersectSize( TermSet.of( other, Collections.singleton( new GeneOntologyTerm( "GO:0000001" ) ) ) );
+    }
+}
@@ -19,6 +19,7 @@
 
 package ubc.pavlab.gotrack.utilities;
 
+import java.util.Random;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -405,4 +406,113 @@ public class JaccardTest {
         int res = Jaccard.unionSize( integerSetEmpty, integerSetEmpty );
         Assert.assertThat( res, Matchers.is( 0 ) );
     }
+
+    // Primitive kernels
+
+    @Test
+    public void testSimilarityWordsAndSortedMatchSet() {
+        Random random = new Random( 7 );
+        for ( int n = 0; n < 200; n++ ) {
+            Set<Integer> a = randomSet( random, 1 + random.nextInt( 300 ), n % 5 == 0 ? 0 : 5000 );
+            Set<Integer> b = randomSet( random, 1 + random.nextInt( 300 ), 5000 );
+            double expected = Jaccard.similarity( a, b );
+
+            Assert.assertThat( Jaccard.similarity( words( a ), words( b ) ), Matchers.is( expected ) );
+            Assert.assertThat( Jaccard.similarity( sorted( a ), sorted( b ) ), Matchers.is( expected ) );
+            Assert.assertThat( Jaccard.intersectSize( words( a ), words( b ) ), Matchers.is( Jaccard.intersectSize( a, b ) ) );
+            Assert.assertThat( Jaccard.unionSize( words( a ), words( b ) ), Matchers.is( Jaccard.unionSize( a, b ) ) );
+            Assert.assertThat( Jaccard.unionSize( sorted( a ), sorted( b ) ), Matchers.is( Jaccard.unionSize( a, b ) ) );
+
+            Assert.assertThat( Tversky.similarity( words( a ), words( b ), 0.3, 0.7 ),
+                    Matchers.is( Tversky.similarity( a, b, 0.3, 0.7 ) ) );
+            Assert.assertThat( Tversky.similarity( sorted( a ), sorted( b ), 0.3, 0.7 ),
+                    Matchers.is( Tversky.similarity( a, b, 0.3, 0.7 ) ) );
+            Assert.assertThat( Tversky.similarityPrototypeWeighted( words( a ), words( b ) ),
+                    Matchers.is( Tversky.similarityPrototypeWeighted( a, b ) ) );
+            Assert.assertThat( Tversky.similarityPrototypeWeighted( sorted( a ), sorted( b ) ),
+                    Matchers.is( Tversky.similarityPrototypeWeighted( a, b ) ) );
+        }
+    }
+
+    @Test
+    public void testSimilarityWordsEmpty() {
+        Assert.assertThat( Jaccard.similarity( new long[0], new long[3] ), Matchers.is( 1.0 ) );
+        Assert.assertThat( Jaccard.similarity( new long[] { 5L }, new long[0] ), Matchers.is( 0.0 ) );
+        Assert.assertThat( Jaccard.similarity( new int[0], new int[0] ), Matchers.is( 1.0 ) );
+        Assert.assertThat( Jaccard.similarity( new int[] { 1 }, new int[0] ), Matchers.is( 0.0 ) );
+    }
+
+    @Test
+    public void testLoad() {
+        Random random = new Random( 1 );
+        int count = 2000;
+        @SuppressWarnings("unchecked")
+        Set<Integer>[] sets = new Set[count];
+        long[][] words = new long[count][];
+        int[][] sorted = new int[count][];
+        for ( int i = 0; i < count; i++ ) {
+            // Sizes of inferred annotation sets over an ontology of ~45,000 terms
+            sets[i] = randomSet( random, 20 + random.nextInt( 400 ), 45000 );
+            words[i] = words( sets[i] );
+            sorted[i] = sorted( sets[i] );
+        }
+        double sink = 0;
+
+        // Warm up all
+        for ( int i = 1; i < count; i++ ) {
+            sink += Jaccard.similarity( sets[i - 1], sets[i] );
+            sink += Jaccard.similarity( words[i - 1], words[i] );
+            sink += Jaccard.similarity( sorted[i - 1], sorted[i] );
+        }
+
+        long start = System.nanoTime();
+        for ( int r = 0; r < 20; r++ ) {
+            for ( int i = 1; i < count; i++ ) {
+                sink += Jaccard.similarity( sets[i - 1], sets[i] );
+            }
+        }
+        long generic = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for ( int r = 0; r < 20; r++ ) {
+            for ( int i = 1; i < count; i++ ) {
+                sink += Jaccard.similarity( words[i - 1], words[i] );
+            }
+        }
+        long bitmap = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for ( int r = 0; r < 20; r++ ) {
+            for ( int i = 1; i < count; i++ ) {
+                sink += Jaccard.similarity( sorted[i - 1], sorted[i] );
+            }
+        }
+        long merge = System.nanoTime() - start;
+
+        log.info( 20 * ( count - 1 ) + " similarities: generic " + generic / 1000000 + " ms, bitmap "
+                + bitmap / 1000000 + " ms, sorted " + merge / 1000000 + " ms (" + sink + ")" );
+    }
+
+    private static Set<Integer> randomSet( Random random, int size, int universe ) {
+        Set<Integer> res = Sets.newHashSet();
+        if ( universe == 0 ) {
+            return res;
+        }
+        while ( res.size() < Math.min( size, universe ) ) {
+            res.add( random.nextInt( universe ) );
+        }
+        return res;
+    }
+
+    private static long[] words( Set<Integer> set ) {
+        long[] res = new long[set.stream().mapToInt( i -> i ).max().orElse( -1 ) / 64 + 1];
+        for ( int i : set ) {
+            res[i >>> 6] |= 1L << i;
+        }
+        return res;
+    }
+
+    private static int[] sorted( Set<Integer> set ) {
+        return set.stream().mapToInt( i -> i ).sorted().toArray();
+    }
 }